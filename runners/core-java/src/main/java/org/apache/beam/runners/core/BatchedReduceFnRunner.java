@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.beam.runners.core.TimerInternals.TimerData;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.util.WindowedValue;
+
+/**
+ * Drives the {@link ReduceFnRunner ReduceFnRunners} of many keys together, so that the state
+ * each of them prefetches can be read in a single batch.
+ *
+ * <p>Calling {@link #add} for each key in a bundle and then {@link #run()} is equivalent to calling
+ * {@link ReduceFnRunner#processElements}, {@link ReduceFnRunner#onTimers} and
+ * {@link ReduceFnRunner#persist()} on each runner in turn. Instead, each of those calls is split
+ * into the phases between which {@link ReduceFnRunner} prefetches state. Each phase is run for
+ * every key, and then the {@link StateReadBatcher} performs the reads prefetched by that phase,
+ * before the next phase is run for any key.
+ *
+ * <p>The elements and timers of each key are processed in the same order as by
+ * {@link ReduceFnRunner} itself. Keys are independent, so interleaving their phases does not
+ * change the results.
+ */
+public class BatchedReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
+  private final StateReadBatcher stateReads;
+  private final List<KeyedWork> pending = new ArrayList<>();
+
+  public BatchedReduceFnRunner(StateReadBatcher stateReads) {
+    this.stateReads = stateReads;
+  }
+
+  /**
+   * Adds the elements and timers for the key of the provided {@link ReduceFnRunner} to the
+   * current batch. Each key may be added at most once per batch.
+   */
+  public void add(
+      ReduceFnRunner<K, InputT, OutputT, W> runner,
+      Iterable<WindowedValue<InputT>> elements,
+      Iterable<TimerData> timers) {
+    pending.add(new KeyedWork(runner, elements, timers));
+  }
+
+  /**
+   * Processes the elements and then the timers of every key added since the previous call, and
+   * persists the state of each {@link ReduceFnRunner}.
+   */
+  public void run() throws Exception {
+    List<KeyedWork> batch = new ArrayList<>(pending);
+    pending.clear();
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    for (KeyedWork work : batch) {
+      work.elementsInProgress = work.runner.prefetchForElements(work.elements);
+    }
+    stateReads.readPending();
+    for (KeyedWork work : batch) {
+      if (work.elementsInProgress != null) {
+        work.runner.processPrefetchedElements(work.elementsInProgress);
+      }
+    }
+    stateReads.readPending();
+    for (KeyedWork work : batch) {
+      if (work.elementsInProgress != null) {
+        work.runner.prefetchFiringWindows(work.elementsInProgress);
+      }
+    }
+    stateReads.readPending();
+    for (KeyedWork work : batch) {
+      if (work.elementsInProgress != null) {
+        work.runner.emitFiringWindows(work.elementsInProgress);
+      }
+    }
+
+    for (KeyedWork work : batch) {
+      if (work.timers.iterator().hasNext()) {
+        work.timersInProgress = work.runner.prefetchForTimers(work.timers);
+      }
+    }
+    stateReads.readPending();
+    for (KeyedWork work : batch) {
+      work.runner.prefetchTimerFirings(work.timersInProgress);
+    }
+    stateReads.readPending();
+    for (KeyedWork work : batch) {
+      work.runner.processPrefetchedTimers(work.timersInProgress);
+      work.runner.persist();
+    }
+  }
+
+  private class KeyedWork {
+    private final ReduceFnRunner<K, InputT, OutputT, W> runner;
+    private final Iterable<WindowedValue<InputT>> elements;
+    private final Iterable<TimerData> timers;
+
+    private ReduceFnRunner<K, InputT, OutputT, W>.ElementsInProgress elementsInProgress;
+    private List<ReduceFnRunner<K, InputT, OutputT, W>.EnrichedTimerData> timersInProgress =
+        Collections.emptyList();
+
+    private KeyedWork(
+        ReduceFnRunner<K, InputT, OutputT, W> runner,
+        Iterable<WindowedValue<InputT>> elements,
+        Iterable<TimerData> timers) {
+      this.runner = runner;
+      this.elements = elements;
+      this.timers = timers;
+    }
+  }
+}
@@ -17,14 +17,18 @@
  */
 package org.apache.beam.runners.core;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import javax.annotation.Nullable;
 import org.apache.beam.runners.core.StateTag.StateBinder;
 import org.apache.beam.sdk.annotations.Experimental;
@@ -59,10 +63,34 @@ public class InMemoryStateInternals<K> implements StateInternals {
     return new InMemoryStateInternals<>(key);
   }
 
+  /**
+   * Returns an {@link InMemoryStateInternals} whose {@link BagState BagStates} are {@link
+   * SpillingBagState SpillingBagStates}, which write their elements to files in {@code
+   * spillDirectory} once they hold more than {@code bagSpillThresholdBytes} encoded bytes in
+   * memory. If {@code spillDirectory} is null, the default temporary directory is used.
+   */
+  public static <K> InMemoryStateInternals<K> forKeyWithSpilling(
+      K key, long bagSpillThresholdBytes, @Nullable File spillDirectory) {
+    checkArgument(
+        bagSpillThresholdBytes > 0,
+        "The bag spill threshold must be positive, but was %s",
+        bagSpillThresholdBytes);
+    return new InMemoryStateInternals<>(key, bagSpillThresholdBytes, spillDirectory);
+  }
+
   private final K key;
+  private final long bagSpillThresholdBytes;
+  @Nullable private final File spillDirectory;
 
   protected InMemoryStateInternals(K key) {
+    this(key, 0L, null);
+  }
+
+  private InMemoryStateInternals(
+      K key, long bagSpillThresholdBytes, @Nullable File spillDirectory) {
     this.key = key;
+    this.bagSpillThresholdBytes = bagSpillThresholdBytes;
+    this.spillDirectory = spillDirectory;
   }
 
   @Override
@@ -82,11 +110,17 @@ public class InMemoryStateInternals<K> implements StateInternals {
   protected final StateTable inMemoryState = new StateTable() {
     @Override
     protected StateBinder binderForNamespace(StateNamespace namespace, StateContext<?> c) {
-      return new InMemoryStateBinder(c);
+      return new InMemoryStateBinder(c, bagSpillThresholdBytes, spillDirectory);
     }
   };
 
+  /** Clears all of the state of this key, deleting the spill files of its bags. */
   public void clear() {
+    for (State state : inMemoryState.values()) {
+      if (state instanceof SpillingBagState) {
+        state.clear();
+      }
+    }
     inMemoryState.clear();
   }
 
@@ -114,9 +148,22 @@ public class InMemoryStateInternals<K> implements StateInternals {
    */
   public static class InMemoryStateBinder implements StateBinder {
     private final StateContext<?> c;
+    private final long bagSpillThresholdBytes;
+    @Nullable private final File spillDirectory;
 
     public InMemoryStateBinder(StateContext<?> c) {
+      this(c, 0L, null);
+    }
+
+    /**
+     * Creates a binder whose bags spill to {@code spillDirectory} once they hold more than {@code
+     * bagSpillThresholdBytes} in memory, or never spill if the threshold is not positive.
+     */
+    public InMemoryStateBinder(
+        StateContext<?> c, long bagSpillThresholdBytes, @Nullable File spillDirectory) {
       this.c = c;
+      this.bagSpillThresholdBytes = bagSpillThresholdBytes;
+      this.spillDirectory = spillDirectory;
     }
 
     @Override
@@ -128,6 +175,9 @@ public class InMemoryStateInternals<K> implements StateInternals {
     @Override
     public <T> BagState<T> bindBag(
         final StateTag<BagState<T>> address, Coder<T> elemCoder) {
+      if (bagSpillThresholdBytes > 0) {
+        return new SpillingBagState<>(elemCoder, bagSpillThresholdBytes, spillDirectory);
+      }
       return new InMemoryBag<T>();
     }
 
@@ -384,9 +434,16 @@ public class InMemoryStateInternals<K> implements StateInternals {
 
   /**
    * An {@link InMemoryState} implementation of {@link BagState}.
+   *
+   * <p>Elements are appended to a mutable tail. When the bag is copied, the tail is frozen into an
+   * immutable chunk which is shared by both bags, so copying costs time proportional to the
+   * elements added since the last copy rather than to the size of the bag. Frozen chunks are merged
+   * with preceding chunks that are no larger, which keeps the number of chunks logarithmic in the
+   * size of the bag.
    */
   public static final class InMemoryBag<T> implements BagState<T>, InMemoryState<InMemoryBag<T>> {
-    private List<T> contents = new ArrayList<>();
+    @Nullable private FrozenChunk frozen = null;
+    private List<T> tail = new ArrayList<>();
 
     @Override
     public void clear() {
@@ -397,7 +454,8 @@ public class InMemoryStateInternals<K> implements StateInternals {
       // greater than the window lifetime, in which case this method can be called while
       // the result is still in use. We protect against this by hot-swapping instead of
       // clearing the contents.
-      contents = new ArrayList<>();
+      frozen = null;
+      tail = new ArrayList<>();
     }
 
     @Override
@@ -407,17 +465,25 @@ public class InMemoryStateInternals<K> implements StateInternals {
 
     @Override
     public Iterable<T> read() {
-      return contents;
+      if (frozen == null) {
+        return tail;
+      }
+      List<Iterable<T>> parts = new ArrayList<>();
+      parts.add(tail);
+      for (FrozenChunk chunk = frozen; chunk != null; chunk = chunk.previous) {
+        parts.add(chunk.<T>elements());
+      }
+      return Iterables.concat(Lists.reverse(parts));
     }
 
     @Override
     public void add(T input) {
-      contents.add(input);
+      tail.add(input);
     }
 
     @Override
     public boolean isCleared() {
-      return contents.isEmpty();
+      return frozen == null && tail.isEmpty();
     }
 
     @Override
@@ -430,39 +496,76 @@ public class InMemoryStateInternals<K> implements StateInternals {
 
         @Override
         public Boolean read() {
-          return contents.isEmpty();
+          return isCleared();
         }
       };
     }
 
     @Override
     public InMemoryBag<T> copy() {
+      freezeTail();
       InMemoryBag<T> that = new InMemoryBag<>();
-      that.contents.addAll(this.contents);
+      that.frozen = this.frozen;
       return that;
     }
+
+    private void freezeTail() {
+      if (tail.isEmpty()) {
+        return;
+      }
+      Object[] elements = tail.toArray();
+      FrozenChunk previous = frozen;
+      while (previous != null && previous.elements.length <= elements.length) {
+        Object[] merged = new Object[previous.elements.length + elements.length];
+        System.arraycopy(previous.elements, 0, merged, 0, previous.elements.length);
+        System.arraycopy(elements, 0, merged, previous.elements.length, elements.length);
+        elements = merged;
+        previous = previous.previous;
+      }
+      frozen = new FrozenChunk(previous, elements);
+      // Iterables returned by read() retain the old tail, which is no longer modified.
+      tail = new ArrayList<>();
+    }
+
+    /**
+     * An immutable run of elements, preceded by the elements of the previous chunk.
+     */
+    private static final class FrozenChunk {
+      @Nullable private final FrozenChunk previous;
+      private final Object[] elements;
+
+      private FrozenChunk(@Nullable FrozenChunk previous, Object[] elements) {
+        this.previous = previous;
+        this.elements = elements;
+      }
+
+      @SuppressWarnings("unchecked")
+      private <T> List<T> elements() {
+        return Collections.unmodifiableList(Arrays.asList((T[]) elements));
+      }
+    }
   }
 
   /**
-   * An {@link InMemoryState} implementation of {@link SetState}.
+   * An {@link InMemoryState} implementation of {@link SetState}. Copies share structure with the
+   * set they were copied from, so copying takes constant time.
    */
   public static final class InMemorySet<T> implements SetState<T>, InMemoryState<InMemorySet<T>> {
-    private Set<T> contents = new HashSet<>();
+    private SharedHashTrie<T, Boolean> contents = SharedHashTrie.create();
 
     @Override
     public void clear() {
-      contents = new HashSet<>();
+      contents = SharedHashTrie.create();
     }
 
     @Override
     public ReadableState<Boolean> contains(T t) {
-      return ReadableStates.immediate(contents.contains(t));
+      return ReadableStates.immediate(contents.containsKey(t));
     }
 
     @Override
     public ReadableState<Boolean> addIfAbsent(T t) {
-      boolean alreadyContained = contents.contains(t);
-      contents.add(t);
+      boolean alreadyContained = contents.put(t, Boolean.TRUE) != null;
       return ReadableStates.immediate(!alreadyContained);
     }
 
@@ -478,12 +581,12 @@ public class InMemoryStateInternals<K> implements StateInternals {
 
     @Override
     public Iterable<T> read() {
-      return contents;
+      return Iterables.transform(contents.entries(), InMemorySet.<T>keyFunction());
     }
 
     @Override
     public void add(T input) {
-      contents.add(input);
+      contents.put(input, Boolean.TRUE);
     }
 
     @Override
@@ -509,21 +612,35 @@ public class InMemoryStateInternals<K> implements StateInternals {
     @Override
     public InMemorySet<T> copy() {
       InMemorySet<T> that = new InMemorySet<>();
-      that.contents.addAll(this.contents);
+      that.contents = this.contents.copy();
       return that;
     }
+
+    private static <T> Function<Map.Entry<T, Boolean>, T> keyFunction() {
+      return new Function<Map.Entry<T, Boolean>, T>() {
+        @Override
+        public T apply(Map.Entry<T, Boolean> entry) {
+          return entry.getKey();
+        }
+      };
+    }
   }
 
   /**
-   * An {@link InMemoryState} implementation of {@link MapState}.
+   * An {@link InMemoryState} implementation of {@link MapState}. Copies share structure with the
+   * map they were copied from, so copying takes constant time and modifying a copy costs time
+   * proportional to the number of modified entries.
+   *
+   * <p>The iterables returned by {@link #keys()}, {@link #values()} and {@link #entries()} contain
+   * the contents of the map at the time they are read.
    */
   public static final class InMemoryMap<K, V> implements
       MapState<K, V>, InMemoryState<InMemoryMap<K, V>> {
-    private Map<K, V> contents = new HashMap<>();
+    private SharedHashTrie<K, V> contents = SharedHashTrie.create();
 
     @Override
     public void clear() {
-      contents = new HashMap<>();
+      contents = SharedHashTrie.create();
     }
 
     @Override
@@ -553,17 +670,57 @@ public class InMemoryStateInternals<K> implements StateInternals {
 
     @Override
     public ReadableState<Iterable<K>> keys() {
-      return ReadableStates.immediate((Iterable<K>) contents.keySet());
+      return new ReadableState<Iterable<K>>() {
+        @Override
+        public Iterable<K> read() {
+          return Iterables.transform(contents.entries(), new Function<Map.Entry<K, V>, K>() {
+            @Override
+            public K apply(Map.Entry<K, V> entry) {
+              return entry.getKey();
+            }
+          });
+        }
+
+        @Override
+        public ReadableState<Iterable<K>> readLater() {
+          return this;
+        }
+      };
     }
 
     @Override
     public ReadableState<Iterable<V>> values() {
-      return ReadableStates.immediate((Iterable<V>) contents.values());
+      return new ReadableState<Iterable<V>>() {
+        @Override
+        public Iterable<V> read() {
+          return Iterables.transform(contents.entries(), new Function<Map.Entry<K, V>, V>() {
+            @Override
+            public V apply(Map.Entry<K, V> entry) {
+              return entry.getValue();
+            }
+          });
+        }
+
+        @Override
+        public ReadableState<Iterable<V>> readLater() {
+          return this;
+        }
+      };
     }
 
     @Override
     public ReadableState<Iterable<Map.Entry<K, V>>> entries() {
-      return ReadableStates.immediate((Iterable<Map.Entry<K, V>>) contents.entrySet());
+      return new ReadableState<Iterable<Map.Entry<K, V>>>() {
+        @Override
+        public Iterable<Map.Entry<K, V>> read() {
+          return contents.entries();
+        }
+
+        @Override
+        public ReadableState<Iterable<Map.Entry<K, V>>> readLater() {
+          return this;
+        }
+      };
     }
 
     @Override
@@ -574,7 +731,7 @@ public class InMemoryStateInternals<K> implements StateInternals {
     @Override
     public InMemoryMap<K, V> copy() {
       InMemoryMap<K, V> that = new InMemoryMap<>();
-      that.contents.putAll(this.contents);
+      that.contents = this.contents.copy();
       return that;
     }
   }
@@ -25,23 +25,34 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import javax.annotation.Nullable;
 import org.apache.beam.sdk.coders.MapCoder;
 import org.apache.beam.sdk.coders.SetCoder;
 import org.apache.beam.sdk.state.ValueState;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.Sessions;
 import org.apache.beam.sdk.transforms.windowing.WindowFn;
+import org.joda.time.Instant;
 
 /**
  * An {@link ActiveWindowSet} for merging {@link WindowFn} implementations.
+ *
+ * <p>For {@link Sessions}, which merges exactly the {@link IntervalWindow IntervalWindows} that
+ * overlap, the windows are kept sorted by start. All windows other than those added since the
+ * last merge are then pairwise disjoint, so {@link #merge} only needs to offer the added windows
+ * and the windows overlapping them to {@link WindowFn#mergeWindows}, each found by a lookup in
+ * the sorted map, rather than every window of the key.
  */
 public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWindowSet<W> {
   private final WindowFn<Object, W> windowFn;
@@ -57,10 +68,22 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   private final Map<W, Set<W>> activeWindowToStateAddressWindows;
 
   /**
-   * Deep clone of {@link #activeWindowToStateAddressWindows} as of last commit.
+   * Windows which have not been offered to {@link WindowFn#mergeWindows} since they were added,
+   * or {@code null} if {@link #activeWindowToStateAddressWindows} is not sorted by interval.
+   */
+  @Nullable
+  private final Set<W> unmergedWindows;
+
+  /**
+   * Windows added as NEW since this set was read. All NEW windows are among these.
+   */
+  private final Set<W> addedWindows = new HashSet<>();
+
+  /**
+   * Whether {@link #activeWindowToStateAddressWindows} has changed since it was read.
    * Used to avoid writing to state if no changes have been made during the work unit.
    */
-  private final Map<W, Set<W>> originalActiveWindowToStateAddressWindows;
+  private boolean modified;
 
   /**
    * Handle representing our state in the backend.
@@ -76,21 +99,49 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     valueState = state.state(StateNamespaces.global(), tag);
     // Little use trying to prefetch this state since the ReduceFnRunner
     // is stymied until it is available.
-    activeWindowToStateAddressWindows = emptyIfNull(valueState.read());
-    originalActiveWindowToStateAddressWindows = deepCopy(activeWindowToStateAddressWindows);
+    Map<W, Set<W>> persisted = valueState.read();
+    if (!mergesOverlappingIntervals(windowFn)) {
+      activeWindowToStateAddressWindows = emptyIfNull(persisted);
+      addNewWindows(activeWindowToStateAddressWindows, addedWindows);
+      unmergedWindows = null;
+    } else if (persisted instanceof TreeMap) {
+      // Only ever written by persist below with every window merged, and handed back as is by
+      // in-memory state.
+      activeWindowToStateAddressWindows = persisted;
+      unmergedWindows = new HashSet<>();
+    } else {
+      activeWindowToStateAddressWindows = new TreeMap<>(emptyIfNull(persisted));
+      addNewWindows(activeWindowToStateAddressWindows, addedWindows);
+      unmergedWindows = new HashSet<>();
+      if (!isDisjoint(activeWindowToStateAddressWindows.keySet())) {
+        unmergedWindows.addAll(activeWindowToStateAddressWindows.keySet());
+      }
+    }
+  }
+
+  /**
+   * Whether {@code windowFn} merges exactly the windows which overlap, and so leaves the windows
+   * pairwise disjoint after every merge.
+   */
+  private static boolean mergesOverlappingIntervals(WindowFn<?, ?> windowFn) {
+    return windowFn.getClass().equals(Sessions.class);
   }
 
   @Override
   public void cleanupTemporaryWindows() {
     // All NEW windows can be forgotten since they must have ended up being merged into
     // some other ACTIVE window.
-    Iterator<Map.Entry<W, Set<W>>> iter = activeWindowToStateAddressWindows.entrySet().iterator();
-    while (iter.hasNext()) {
-      Map.Entry<W, Set<W>> entry = iter.next();
-      if (entry.getValue().isEmpty()) {
-        iter.remove();
+    for (W window : addedWindows) {
+      Set<W> stateAddressWindows = activeWindowToStateAddressWindows.get(window);
+      if (stateAddressWindows != null && stateAddressWindows.isEmpty()) {
+        activeWindowToStateAddressWindows.remove(window);
+        if (unmergedWindows != null) {
+          unmergedWindows.remove(window);
+        }
+        modified = true;
       }
     }
+    addedWindows.clear();
   }
 
   @Override
@@ -101,13 +152,16 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
       valueState.clear();
       return;
     }
-    if (activeWindowToStateAddressWindows.equals(originalActiveWindowToStateAddressWindows)) {
+    if (!modified) {
       // No change.
       return;
     }
+    if (unmergedWindows != null && !unmergedWindows.isEmpty()) {
+      // The windows may overlap, so make sure the next reader checks them.
+      valueState.write(new HashMap<>(activeWindowToStateAddressWindows));
+      return;
+    }
     valueState.write(activeWindowToStateAddressWindows);
-    // No need to update originalActiveWindowToStateAddressWindows since this object is about to
-    // become garbage.
   }
 
   @Override
@@ -131,7 +185,19 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     if (!activeWindowToStateAddressWindows.containsKey(window)) {
       // Add window as NEW.
       activeWindowToStateAddressWindows.put(window, new LinkedHashSet<W>());
+      addedWindows.add(window);
+      added(window);
+    }
+  }
+
+  /**
+   * Records that {@code window} has been added and has not yet been merged.
+   */
+  private void added(W window) {
+    if (unmergedWindows != null) {
+      unmergedWindows.add(window);
     }
+    modified = true;
   }
 
   @Override
@@ -143,6 +209,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     if (stateAddressWindows != null && stateAddressWindows.isEmpty()) {
       // Window was NEW, make it ACTIVE with itself as its state address window.
       stateAddressWindows.add(window);
+      modified = true;
     }
   }
 
@@ -154,6 +221,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
       Set<W> stateAddressWindows = new LinkedHashSet<>();
       stateAddressWindows.add(window);
       activeWindowToStateAddressWindows.put(window, stateAddressWindows);
+      added(window);
     }
   }
 
@@ -161,23 +229,31 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   public void addActiveForTesting(W window, Iterable<W> stateAddressWindows) {
     if (!activeWindowToStateAddressWindows.containsKey(window)) {
       activeWindowToStateAddressWindows.put(window, Sets.newLinkedHashSet(stateAddressWindows));
+      added(window);
     }
   }
 
   @Override
   public void remove(W window) {
-    activeWindowToStateAddressWindows.remove(window);
+    if (activeWindowToStateAddressWindows.remove(window) != null) {
+      if (unmergedWindows != null) {
+        unmergedWindows.remove(window);
+      }
+      modified = true;
+    }
   }
 
   private class MergeContextImpl extends WindowFn<Object, W>.MergeContext {
     private MergeCallback<W> mergeCallback;
+    private final Collection<W> windows;
     private final List<Collection<W>> allToBeMerged;
     private final List<W> allMergeResults;
     private final Set<W> seen;
 
-    public MergeContextImpl(MergeCallback<W> mergeCallback) {
+    public MergeContextImpl(MergeCallback<W> mergeCallback, Collection<W> windows) {
       windowFn.super();
       this.mergeCallback = mergeCallback;
+      this.windows = windows;
       allToBeMerged = new ArrayList<>();
       allMergeResults = new ArrayList<>();
       seen = new HashSet<>();
@@ -185,7 +261,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
 
     @Override
     public Collection<W> windows() {
-      return activeWindowToStateAddressWindows.keySet();
+      return windows;
     }
 
     @Override
@@ -228,7 +304,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
 
   @Override
   public void merge(MergeCallback<W> mergeCallback) throws Exception {
-    MergeContextImpl context = new MergeContextImpl(mergeCallback);
+    MergeContextImpl context = new MergeContextImpl(mergeCallback, windowsToMerge());
 
     // See what the window function does with the NEW and already ACTIVE windows.
     // Entering userland.
@@ -236,6 +312,97 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
 
     // Actually do the merging and invoke the callbacks.
     context.recordMerges();
+
+    if (unmergedWindows != null) {
+      // Every overlapping window has been merged away.
+      unmergedWindows.clear();
+    }
+  }
+
+  /**
+   * Return the windows which {@link WindowFn#mergeWindows} must see to make the same merges as
+   * if it saw every window.
+   *
+   * <p>When sorted by interval, the windows other than {@link #unmergedWindows} are disjoint, so
+   * any merge consists of unmerged windows together with windows directly overlapping them.
+   */
+  private Collection<W> windowsToMerge() {
+    if (unmergedWindows == null
+        || unmergedWindows.size() == activeWindowToStateAddressWindows.size()) {
+      return activeWindowToStateAddressWindows.keySet();
+    }
+    @SuppressWarnings("unchecked")
+    NavigableMap<IntervalWindow, Set<W>> sorted =
+        (NavigableMap<IntervalWindow, Set<W>>) activeWindowToStateAddressWindows;
+    @SuppressWarnings("unchecked")
+    Set<IntervalWindow> unmerged = (Set<IntervalWindow>) unmergedWindows;
+
+    List<IntervalWindow> sortedUnmerged = new ArrayList<>(unmerged);
+    Collections.sort(sortedUnmerged);
+    Set<IntervalWindow> candidates = new LinkedHashSet<>();
+    IntervalWindow span = null;
+    for (IntervalWindow window : sortedUnmerged) {
+      if (span != null && span.intersects(window)) {
+        span = span.span(window);
+      } else {
+        if (span != null) {
+          addOverlapping(sorted, unmerged, span, candidates);
+        }
+        span = window;
+      }
+    }
+    if (span != null) {
+      addOverlapping(sorted, unmerged, span, candidates);
+    }
+
+    @SuppressWarnings("unchecked")
+    Collection<W> result = (Collection<W>) candidates;
+    return result;
+  }
+
+  /**
+   * Add to {@code candidates} every window overlapping {@code span}, the union of a run of
+   * overlapping unmerged windows.
+   *
+   * <p>Those starting within {@code span} are found by a range lookup. Of the others, only the
+   * disjoint window starting last before {@code span} can reach into it; an unmerged window there
+   * belongs to an earlier span, which has already picked up any window overlapping both.
+   */
+  private static void addOverlapping(
+      NavigableMap<IntervalWindow, ?> sorted,
+      Set<IntervalWindow> unmerged,
+      IntervalWindow span,
+      Set<IntervalWindow> candidates) {
+    IntervalWindow before = sorted.lowerKey(emptyWindowAt(span.start()));
+    if (before != null && !unmerged.contains(before) && before.end().isAfter(span.start())) {
+      candidates.add(before);
+    }
+    candidates.addAll(
+        sorted
+            .subMap(emptyWindowAt(span.start()), true, emptyWindowAt(span.end()), false)
+            .keySet());
+  }
+
+  /**
+   * An empty window at {@code instant}, which sorts before every other window starting there.
+   */
+  private static IntervalWindow emptyWindowAt(Instant instant) {
+    return new IntervalWindow(instant, instant);
+  }
+
+  /**
+   * Whether the given windows, sorted by start, are pairwise disjoint.
+   */
+  private static <W> boolean isDisjoint(Iterable<W> sortedWindows) {
+    IntervalWindow previous = null;
+    for (W window : sortedWindows) {
+      IntervalWindow interval = (IntervalWindow) window;
+      if (previous != null && previous.intersects(interval)) {
+        return false;
+      }
+      previous = interval;
+    }
+    return true;
   }
 
   /**
@@ -281,6 +448,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     }
 
     activeWindowToStateAddressWindows.put(mergeResult, newStateAddressWindows);
+    modified = true;
 
     merged(mergeResult);
   }
@@ -290,9 +458,12 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     // Take just the first state address window.
     Set<W> stateAddressWindows = activeWindowToStateAddressWindows.get(window);
     checkState(stateAddressWindows != null, "Window %s is not ACTIVE", window);
-    W first = Iterables.getFirst(stateAddressWindows, null);
-    stateAddressWindows.clear();
-    stateAddressWindows.add(first);
+    if (stateAddressWindows.size() > 1) {
+      W first = Iterables.getFirst(stateAddressWindows, null);
+      stateAddressWindows.clear();
+      stateAddressWindows.add(first);
+      modified = true;
+    }
   }
 
   /**
@@ -412,13 +583,13 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   }
 
   /**
-   * Return a deep copy of {@code multimap}.
+   * Add the NEW windows of {@code multimap} to {@code newWindows}.
    */
-  private static <W> Map<W, Set<W>> deepCopy(Map<W, Set<W>> multimap) {
-    Map<W, Set<W>> newMultimap = new HashMap<>();
+  private static <W> void addNewWindows(Map<W, Set<W>> multimap, Set<W> newWindows) {
     for (Map.Entry<W, Set<W>> entry : multimap.entrySet()) {
-      newMultimap.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+      if (entry.getValue().isEmpty()) {
+        newWindows.add(entry.getKey());
+      }
     }
-    return newMultimap;
   }
 }
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A hash table from encoded keys to encoded values, held in {@link OffHeapSlabs}. Used by
+ * {@link OffHeapStateInternals} for {@link org.apache.beam.sdk.state.MapState} and {@link
+ * org.apache.beam.sdk.state.SetState}.
+ *
+ * <p>The table is an array of entry addresses with linear probing, and each entry is a block
+ * holding the hash, key and value. Only this object and the addresses of its two kinds of blocks
+ * are kept on the heap.
+ */
+final class OffHeapHashTable {
+  private static final int INITIAL_SLOTS = 16;
+  private static final int HASH = 0;
+  private static final int KEY_LENGTH = 4;
+  private static final int VALUE_LENGTH = 8;
+  private static final int KEY = 12;
+
+  private final OffHeapSlabs slabs;
+  private long table = OffHeapSlabs.NULL_ADDRESS;
+  private int slots;
+  private int size;
+
+  OffHeapHashTable(OffHeapSlabs slabs) {
+    this.slabs = slabs;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean containsKey(byte[] key) {
+    return slotOf(key, hash(key)) >= 0;
+  }
+
+  /** Returns the value of the provided key, or null if the key is not present. */
+  @Nullable
+  byte[] get(byte[] key) {
+    int slot = slotOf(key, hash(key));
+    return slot < 0 ? null : valueOf(entryAt(slot));
+  }
+
+  /** Associates the value with the key. Returns true if the key was not already present. */
+  boolean put(byte[] key, byte[] value) {
+    int hash = hash(key);
+    int slot = slotOf(key, hash);
+    if (slot >= 0) {
+      long previous = entryAt(slot);
+      setEntryAt(slot, newEntry(hash, key, value));
+      slabs.free(previous);
+      return false;
+    }
+    if (size + 1 > slots - (slots >>> 2)) {
+      resize(table == OffHeapSlabs.NULL_ADDRESS ? INITIAL_SLOTS : slots * 2);
+    }
+    insert(newEntry(hash, key, value), hash);
+    size++;
+    return true;
+  }
+
+  /** Removes the key. Returns true if the key was present. */
+  boolean remove(byte[] key) {
+    int slot = slotOf(key, hash(key));
+    if (slot < 0) {
+      return false;
+    }
+    slabs.free(entryAt(slot));
+    size--;
+    // Shift later entries of the probe sequence back so that lookups do not stop at the hole
+    int mask = slots - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask; entryAt(next) != OffHeapSlabs.NULL_ADDRESS;
+        next = (next + 1) & mask) {
+      int home = slabs.getInt(entryAt(next), HASH) & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        setEntryAt(hole, entryAt(next));
+        hole = next;
+      }
+    }
+    setEntryAt(hole, OffHeapSlabs.NULL_ADDRESS);
+    return true;
+  }
+
+  /** Returns a copy of the keys and values in the table. */
+  List<Map.Entry<byte[], byte[]>> entries() {
+    List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(size);
+    for (int slot = 0; slot < slots; slot++) {
+      long entry = entryAt(slot);
+      if (entry != OffHeapSlabs.NULL_ADDRESS) {
+        entries.add(new SimpleImmutableEntry<>(keyOf(entry), valueOf(entry)));
+      }
+    }
+    return entries;
+  }
+
+  /** Frees all of the blocks of the table. */
+  void clear() {
+    for (int slot = 0; slot < slots; slot++) {
+      long entry = entryAt(slot);
+      if (entry != OffHeapSlabs.NULL_ADDRESS) {
+        slabs.free(entry);
+      }
+    }
+    if (table != OffHeapSlabs.NULL_ADDRESS) {
+      slabs.free(table);
+    }
+    table = OffHeapSlabs.NULL_ADDRESS;
+    slots = 0;
+    size = 0;
+  }
+
+  /** Returns the slot holding the key, or -1 if the key is not present. */
+  private int slotOf(byte[] key, int hash) {
+    if (size == 0) {
+      return -1;
+    }
+    int mask = slots - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      long entry = entryAt(slot);
+      if (entry == OffHeapSlabs.NULL_ADDRESS) {
+        return -1;
+      }
+      if (slabs.getInt(entry, HASH) == hash
+          && slabs.getInt(entry, KEY_LENGTH) == key.length
+          && Arrays.equals(keyOf(entry), key)) {
+        return slot;
+      }
+    }
+  }
+
+  private void insert(long entry, int hash) {
+    int mask = slots - 1;
+    int slot = hash & mask;
+    while (entryAt(slot) != OffHeapSlabs.NULL_ADDRESS) {
+      slot = (slot + 1) & mask;
+    }
+    setEntryAt(slot, entry);
+  }
+
+  private void resize(int newSlots) {
+    long oldTable = table;
+    int oldSlots = slots;
+    table = slabs.allocate(newSlots * 8);
+    slots = newSlots;
+    slabs.zero(table, 0, newSlots * 8);
+    if (oldTable != OffHeapSlabs.NULL_ADDRESS) {
+      for (int slot = 0; slot < oldSlots; slot++) {
+        long entry = slabs.getLong(oldTable, slot * 8);
+        if (entry != OffHeapSlabs.NULL_ADDRESS) {
+          insert(entry, slabs.getInt(entry, HASH));
+        }
+      }
+      slabs.free(oldTable);
+    }
+  }
+
+  private long newEntry(int hash, byte[] key, byte[] value) {
+    long entry = slabs.allocate(KEY + key.length + value.length);
+    slabs.putInt(entry, HASH, hash);
+    slabs.putInt(entry, KEY_LENGTH, key.length);
+    slabs.putInt(entry, VALUE_LENGTH, value.length);
+    slabs.write(entry, KEY, key, 0, key.length);
+    slabs.write(entry, KEY + key.length, value, 0, value.length);
+    return entry;
+  }
+
+  private byte[] keyOf(long entry) {
+    byte[] key = new byte[slabs.getInt(entry, KEY_LENGTH)];
+    slabs.read(entry, KEY, key, 0, key.length);
+    return key;
+  }
+
+  private byte[] valueOf(long entry) {
+    int keyLength = slabs.getInt(entry, KEY_LENGTH);
+    byte[] value = new byte[slabs.getInt(entry, VALUE_LENGTH)];
+    slabs.read(entry, KEY + keyLength, value, 0, value.length);
+    return value;
+  }
+
+  private long entryAt(int slot) {
+    return slabs.getLong(table, slot * 8);
+  }
+
+  private void setEntryAt(int slot, long entry) {
+    slabs.putLong(table, slot * 8, entry);
+  }
+
+  private static int hash(byte[] key) {
+    // Spread the bits of the hash code, as the slot is taken from its low bits
+    int hash = Arrays.hashCode(key) * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+}
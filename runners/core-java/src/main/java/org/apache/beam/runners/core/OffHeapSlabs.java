@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+
+/**
+ * Blocks of memory allocated from slabs of direct {@link ByteBuffer ByteBuffers}, outside of the
+ * Java heap. Used by {@link OffHeapStateInternals} to hold encoded state, so that large amounts of
+ * state do not contribute to garbage collection pauses.
+ *
+ * <p>Each block is identified by a nonzero {@code long} address. Blocks are sized in powers of two
+ * and freed blocks are reused for later allocations of the same size. Slabs are never returned to
+ * the operating system while this {@link OffHeapSlabs} is reachable.
+ *
+ * <p>Allocating and freeing blocks is thread safe, so a single {@link OffHeapSlabs} can be shared
+ * by the {@link OffHeapStateInternals} of many keys. Reading and writing a block must be
+ * synchronized by its owner.
+ */
+@Experimental(Kind.STATE)
+public final class OffHeapSlabs {
+  /** The address which never identifies a block. */
+  public static final long NULL_ADDRESS = 0L;
+
+  public static final int DEFAULT_SLAB_BYTES = 1 << 20;
+
+  /** The bytes at the start of each block that hold the capacity of the block. */
+  private static final int HEADER_BYTES = 4;
+  private static final int MIN_BLOCK_SHIFT = 4;
+  private static final int MAX_BLOCK_SHIFT = 30;
+
+  public static OffHeapSlabs create() {
+    return create(DEFAULT_SLAB_BYTES);
+  }
+
+  public static OffHeapSlabs create(int slabBytes) {
+    checkArgument(
+        Integer.bitCount(slabBytes) == 1 && slabBytes >= 1 << MIN_BLOCK_SHIFT,
+        "Slab size must be a power of two of at least %s bytes, but was %s",
+        1 << MIN_BLOCK_SHIFT,
+        slabBytes);
+    return new OffHeapSlabs(slabBytes);
+  }
+
+  private final int slabBytes;
+  /** The head of the list of free blocks of each size, linked through their first bytes. */
+  private final long[] freeBlocks = new long[MAX_BLOCK_SHIFT + 1];
+
+  private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+  /** The slab that blocks no larger than a slab are allocated from, and its first free byte. */
+  private int currentSlab = -1;
+  private int nextOffset;
+  private long allocatedBytes;
+  private long usedBytes;
+
+  private OffHeapSlabs(int slabBytes) {
+    this.slabBytes = slabBytes;
+    this.nextOffset = slabBytes;
+  }
+
+  /**
+   * Allocates a block that can hold at least {@code bytes} bytes, and returns its address. The
+   * contents of the block are undefined.
+   */
+  public synchronized long allocate(int bytes) {
+    checkArgument(bytes >= 0, "Cannot allocate a negative number of bytes: %s", bytes);
+    int shift = blockShift(bytes);
+    long address = freeBlocks[shift];
+    if (address != NULL_ADDRESS) {
+      freeBlocks[shift] = getLong(address, 0);
+    } else if (shift > Integer.numberOfTrailingZeros(slabBytes)) {
+      address = newSlab(1 << shift);
+    } else {
+      if (nextOffset + (1 << shift) > slabBytes) {
+        freeRemainder();
+        currentSlab = slabIndex(newSlab(slabBytes));
+        nextOffset = 0;
+      }
+      address = address(currentSlab, nextOffset);
+      nextOffset += 1 << shift;
+    }
+    slab(address).putInt(offset(address), (1 << shift) - HEADER_BYTES);
+    usedBytes += 1 << shift;
+    return address;
+  }
+
+  /**
+   * Frees the block at the provided address. The block must not be used after it is freed.
+   */
+  public synchronized void free(long address) {
+    int blockBytes = capacity(address) + HEADER_BYTES;
+    int shift = Integer.numberOfTrailingZeros(blockBytes);
+    putLong(address, 0, freeBlocks[shift]);
+    freeBlocks[shift] = address;
+    usedBytes -= blockBytes;
+  }
+
+  /** Returns the number of bytes the block at the provided address can hold. */
+  public int capacity(long address) {
+    return slab(address).getInt(offset(address));
+  }
+
+  public int getInt(long address, int position) {
+    return slab(address).getInt(offset(address) + HEADER_BYTES + position);
+  }
+
+  public void putInt(long address, int position, int value) {
+    slab(address).putInt(offset(address) + HEADER_BYTES + position, value);
+  }
+
+  public long getLong(long address, int position) {
+    return slab(address).getLong(offset(address) + HEADER_BYTES + position);
+  }
+
+  public void putLong(long address, int position, long value) {
+    slab(address).putLong(offset(address) + HEADER_BYTES + position, value);
+  }
+
+  /**
+   * Copies {@code length} bytes of the block at the provided address, starting at {@code
+   * position}, into {@code destination}.
+   */
+  public void read(long address, int position, byte[] destination, int start, int length) {
+    ByteBuffer buffer = slab(address).duplicate();
+    ((Buffer) buffer).position(offset(address) + HEADER_BYTES + position);
+    buffer.get(destination, start, length);
+  }
+
+  /**
+   * Copies {@code length} bytes of {@code source} into the block at the provided address,
+   * starting at {@code position}.
+   */
+  public void write(long address, int position, byte[] source, int start, int length) {
+    ByteBuffer buffer = slab(address).duplicate();
+    ((Buffer) buffer).position(offset(address) + HEADER_BYTES + position);
+    buffer.put(source, start, length);
+  }
+
+  /** Sets {@code length} bytes of the block at the provided address to zero. */
+  public void zero(long address, int position, int length) {
+    ByteBuffer slab = slab(address);
+    int start = offset(address) + HEADER_BYTES + position;
+    for (int i = 0; i < length; i++) {
+      slab.put(start + i, (byte) 0);
+    }
+  }
+
+  /** Returns the number of bytes of direct memory held by the slabs. */
+  public synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /** Returns the number of bytes of the slabs that are in blocks which have not been freed. */
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  /** Returns the base two logarithm of the size of the block that holds {@code bytes} bytes. */
+  private static int blockShift(int bytes) {
+    checkArgument(
+        bytes <= (1 << MAX_BLOCK_SHIFT) - HEADER_BYTES,
+        "Cannot allocate blocks of more than %s bytes, but requested %s",
+        (1 << MAX_BLOCK_SHIFT) - HEADER_BYTES,
+        bytes);
+    int blockBytes = bytes + HEADER_BYTES;
+    int shift = 32 - Integer.numberOfLeadingZeros(blockBytes - 1);
+    return Math.max(shift, MIN_BLOCK_SHIFT);
+  }
+
+  /** Adds a slab of the provided size, and returns the address of its first byte. */
+  private long newSlab(int bytes) {
+    ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+    grown[slabs.length] = ByteBuffer.allocateDirect(bytes);
+    slabs = grown;
+    allocatedBytes += bytes;
+    return address(grown.length - 1, 0);
+  }
+
+  /** Frees the unallocated end of the current slab as blocks of decreasing size. */
+  private void freeRemainder() {
+    while (slabBytes - nextOffset >= 1 << MIN_BLOCK_SHIFT) {
+      int shift = 31 - Integer.numberOfLeadingZeros(slabBytes - nextOffset);
+      long address = address(currentSlab, nextOffset);
+      slab(address).putInt(offset(address), (1 << shift) - HEADER_BYTES);
+      putLong(address, 0, freeBlocks[shift]);
+      freeBlocks[shift] = address;
+      nextOffset += 1 << shift;
+    }
+  }
+
+  private ByteBuffer slab(long address) {
+    return slabs[slabIndex(address)];
+  }
+
+  private static int slabIndex(long address) {
+    return (int) (address >>> 32) - 1;
+  }
+
+  private static int offset(long address) {
+    return (int) address;
+  }
+
+  private static long address(int slab, int offset) {
+    return ((long) (slab + 1) << 32) | offset;
+  }
+}
@@ -0,0 +1,708 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.InMemoryStateInternals.InMemoryWatermarkHold;
+import org.apache.beam.runners.core.StateTag.StateBinder;
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.CombiningState;
+import org.apache.beam.sdk.state.MapState;
+import org.apache.beam.sdk.state.ReadableState;
+import org.apache.beam.sdk.state.ReadableStates;
+import org.apache.beam.sdk.state.SetState;
+import org.apache.beam.sdk.state.State;
+import org.apache.beam.sdk.state.StateContext;
+import org.apache.beam.sdk.state.StateContexts;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.state.WatermarkHoldState;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.CombineWithContext.CombineFnWithContext;
+import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.util.CombineFnUtil;
+import org.apache.beam.sdk.util.ExposedByteArrayOutputStream;
+
+/**
+ * Implementation of {@link StateInternals} that holds encoded state in {@link OffHeapSlabs}, so
+ * that large amounts of keyed state do not lengthen garbage collection pauses.
+ *
+ * <ul>
+ *   <li>{@link BagState} appends the encoded bytes of each element to a chain of blocks, and
+ *       decodes the elements when it is read.
+ *   <li>{@link SetState} and {@link MapState} are hash tables of encoded keys and values.
+ *   <li>{@link ValueState} and {@link CombiningState} hold a single encoded value. The decoded
+ *       values of the most recently used of these states are cached on the heap, and are only
+ *       encoded when they are evicted from the cache.
+ *   <li>{@link WatermarkHoldState} is held on the heap, as it is a single {@link
+ *       org.joda.time.Instant}.
+ * </ul>
+ *
+ * <p>The memory held by the state of a key is only freed when that state is cleared, so {@link
+ * #clear()} must be called before an {@link OffHeapStateInternals} is discarded.
+ */
+@Experimental(Kind.STATE)
+public class OffHeapStateInternals<K> implements StateInternals {
+  /** The default number of decoded values cached by each {@link OffHeapStateInternals}. */
+  public static final int DEFAULT_DECODED_CACHE_SIZE = 64;
+
+  private static final int MIN_BAG_BLOCK_BYTES = 64;
+  private static final int MAX_BAG_BLOCK_BYTES = 64 * 1024;
+  private static final int MAX_BAG_BLOCK_SHIFT =
+      Integer.numberOfTrailingZeros(MAX_BAG_BLOCK_BYTES / MIN_BAG_BLOCK_BYTES);
+  private static final byte[] NO_BYTES = new byte[0];
+
+  public static <K> OffHeapStateInternals<K> forKey(K key, OffHeapSlabs slabs) {
+    return forKey(key, slabs, DEFAULT_DECODED_CACHE_SIZE);
+  }
+
+  public static <K> OffHeapStateInternals<K> forKey(
+      K key, OffHeapSlabs slabs, int decodedCacheSize) {
+    checkArgument(
+        decodedCacheSize >= 0,
+        "The decoded cache size must not be negative, but was %s",
+        decodedCacheSize);
+    return new OffHeapStateInternals<>(key, slabs, decodedCacheSize);
+  }
+
+  private final K key;
+  private final OffHeapSlabs slabs;
+  private final int decodedCacheSize;
+
+  /** The states holding decoded values, in order from least to most recently used. */
+  private final LinkedHashMap<CachedState<?>, Boolean> decodedStates =
+      new LinkedHashMap<CachedState<?>, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CachedState<?>, Boolean> eldest) {
+          if (size() > decodedCacheSize) {
+            eldest.getKey().evict();
+            return true;
+          }
+          return false;
+        }
+      };
+
+  private final ExposedByteArrayOutputStream scratch = new ExposedByteArrayOutputStream();
+
+  private final StateTable offHeapState = new StateTable() {
+    @Override
+    protected StateBinder binderForNamespace(StateNamespace namespace, StateContext<?> c) {
+      return new OffHeapStateBinder(c);
+    }
+  };
+
+  protected OffHeapStateInternals(K key, OffHeapSlabs slabs, int decodedCacheSize) {
+    this.key = key;
+    this.slabs = slabs;
+    this.decodedCacheSize = decodedCacheSize;
+  }
+
+  @Override
+  public K getKey() {
+    return key;
+  }
+
+  /** Clears all of the state of this key, freeing the memory that it holds. */
+  public void clear() {
+    for (State state : offHeapState.values()) {
+      state.clear();
+    }
+    offHeapState.clear();
+  }
+
+  @Override
+  public <T extends State> T state(StateNamespace namespace, StateTag<T> address) {
+    return offHeapState.get(namespace, address, StateContexts.nullContext());
+  }
+
+  @Override
+  public <T extends State> T state(
+      StateNamespace namespace, StateTag<T> address, StateContext<?> c) {
+    return offHeapState.get(namespace, address, c);
+  }
+
+  /**
+   * A {@link StateBinder} that returns {@link State} objects which hold their contents in the
+   * {@link OffHeapSlabs} of this {@link OffHeapStateInternals}.
+   */
+  private class OffHeapStateBinder implements StateBinder {
+    private final StateContext<?> c;
+
+    private OffHeapStateBinder(StateContext<?> c) {
+      this.c = c;
+    }
+
+    @Override
+    public <T> ValueState<T> bindValue(StateTag<ValueState<T>> address, Coder<T> coder) {
+      return new OffHeapValue<>(coder);
+    }
+
+    @Override
+    public <T> BagState<T> bindBag(StateTag<BagState<T>> address, Coder<T> elemCoder) {
+      return new OffHeapBag<>(elemCoder);
+    }
+
+    @Override
+    public <T> SetState<T> bindSet(StateTag<SetState<T>> spec, Coder<T> elemCoder) {
+      return new OffHeapSet<>(elemCoder);
+    }
+
+    @Override
+    public <KeyT, ValueT> MapState<KeyT, ValueT> bindMap(
+        StateTag<MapState<KeyT, ValueT>> spec,
+        Coder<KeyT> mapKeyCoder,
+        Coder<ValueT> mapValueCoder) {
+      return new OffHeapMap<>(mapKeyCoder, mapValueCoder);
+    }
+
+    @Override
+    public <InputT, AccumT, OutputT> CombiningState<InputT, AccumT, OutputT>
+        bindCombiningValue(
+            StateTag<CombiningState<InputT, AccumT, OutputT>> address,
+            Coder<AccumT> accumCoder,
+            CombineFn<InputT, AccumT, OutputT> combineFn) {
+      return new OffHeapCombiningState<>(accumCoder, combineFn);
+    }
+
+    @Override
+    public WatermarkHoldState bindWatermark(
+        StateTag<WatermarkHoldState> address, TimestampCombiner timestampCombiner) {
+      return new InMemoryWatermarkHold<>(timestampCombiner);
+    }
+
+    @Override
+    public <InputT, AccumT, OutputT> CombiningState<InputT, AccumT, OutputT>
+        bindCombiningValueWithContext(
+            StateTag<CombiningState<InputT, AccumT, OutputT>> address,
+            Coder<AccumT> accumCoder,
+            CombineFnWithContext<InputT, AccumT, OutputT> combineFn) {
+      return bindCombiningValue(address, accumCoder, CombineFnUtil.bindContext(combineFn, c));
+    }
+  }
+
+  /**
+   * A single encoded value, whose decoded form is cached until it is evicted from the decoded
+   * cache of the {@link OffHeapStateInternals}.
+   */
+  private abstract class CachedState<T> {
+    private final Coder<T> coder;
+    private long record = OffHeapSlabs.NULL_ADDRESS;
+    @Nullable private T decoded;
+    private boolean isDecoded;
+    private boolean isDirty;
+
+    private CachedState(Coder<T> coder) {
+      this.coder = coder;
+    }
+
+    /** Returns the value, or null if no value has been written since the state was cleared. */
+    @Nullable
+    protected T readValue() {
+      if (!isDecoded) {
+        decoded = record == OffHeapSlabs.NULL_ADDRESS ? null : decodeRecord(coder, record);
+        isDecoded = true;
+      }
+      T value = decoded;
+      decodedStates.put(this, Boolean.TRUE);
+      return value;
+    }
+
+    protected void writeValue(T value) {
+      decoded = value;
+      isDecoded = true;
+      isDirty = true;
+      decodedStates.put(this, Boolean.TRUE);
+    }
+
+    protected boolean isEmptyValue() {
+      return isDecoded ? decoded == null : record == OffHeapSlabs.NULL_ADDRESS;
+    }
+
+    public void clear() {
+      freeRecord();
+      decoded = null;
+      isDecoded = false;
+      isDirty = false;
+      decodedStates.remove(this);
+    }
+
+    /** Encodes the decoded value if it has changed, and drops it from the heap. */
+    private void evict() {
+      if (isDirty) {
+        freeRecord();
+        if (decoded != null) {
+          record = encodeRecord(coder, decoded);
+        }
+      }
+      decoded = null;
+      isDecoded = false;
+      isDirty = false;
+    }
+
+    private void freeRecord() {
+      if (record != OffHeapSlabs.NULL_ADDRESS) {
+        slabs.free(record);
+        record = OffHeapSlabs.NULL_ADDRESS;
+      }
+    }
+  }
+
+  /**
+   * An off-heap implementation of {@link ValueState}.
+   */
+  private final class OffHeapValue<T> extends CachedState<T> implements ValueState<T> {
+    private OffHeapValue(Coder<T> coder) {
+      super(coder);
+    }
+
+    @Override
+    public OffHeapValue<T> readLater() {
+      return this;
+    }
+
+    @Override
+    public T read() {
+      return readValue();
+    }
+
+    @Override
+    public void write(T input) {
+      if (input == null) {
+        clear();
+      } else {
+        writeValue(input);
+      }
+    }
+  }
+
+  /**
+   * An off-heap implementation of {@link CombiningState}.
+   */
+  private final class OffHeapCombiningState<InputT, AccumT, OutputT>
+      extends CachedState<AccumT> implements CombiningState<InputT, AccumT, OutputT> {
+    private final CombineFn<InputT, AccumT, OutputT> combineFn;
+
+    private OffHeapCombiningState(
+        Coder<AccumT> accumCoder, CombineFn<InputT, AccumT, OutputT> combineFn) {
+      super(accumCoder);
+      this.combineFn = combineFn;
+    }
+
+    @Override
+    public OffHeapCombiningState<InputT, AccumT, OutputT> readLater() {
+      return this;
+    }
+
+    @Override
+    public OutputT read() {
+      return combineFn.extractOutput(getAccum());
+    }
+
+    @Override
+    public void add(InputT input) {
+      writeValue(combineFn.addInput(getAccum(), input));
+    }
+
+    @Override
+    public AccumT getAccum() {
+      AccumT accum = readValue();
+      return accum == null ? combineFn.createAccumulator() : accum;
+    }
+
+    @Override
+    public ReadableState<Boolean> isEmpty() {
+      return new ReadableState<Boolean>() {
+        @Override
+        public ReadableState<Boolean> readLater() {
+          return this;
+        }
+
+        @Override
+        public Boolean read() {
+          return isEmptyValue();
+        }
+      };
+    }
+
+    @Override
+    public void addAccum(AccumT accum) {
+      writeValue(combineFn.mergeAccumulators(Arrays.asList(getAccum(), accum)));
+    }
+
+    @Override
+    public AccumT mergeAccumulators(Iterable<AccumT> accumulators) {
+      return combineFn.mergeAccumulators(accumulators);
+    }
+  }
+
+  /**
+   * An off-heap implementation of {@link BagState}. The encoded elements are appended to a chain
+   * of blocks, each of which starts with the address of the next.
+   */
+  private final class OffHeapBag<T> implements BagState<T> {
+    private static final int DATA = 8;
+
+    private final Coder<T> elemCoder;
+    private long first = OffHeapSlabs.NULL_ADDRESS;
+    private long last = OffHeapSlabs.NULL_ADDRESS;
+    private int lastUsed;
+    private int blocks;
+    private int size;
+
+    private OffHeapBag(Coder<T> elemCoder) {
+      this.elemCoder = elemCoder;
+    }
+
+    @Override
+    public void clear() {
+      for (long block = first; block != OffHeapSlabs.NULL_ADDRESS; ) {
+        long next = slabs.getLong(block, 0);
+        slabs.free(block);
+        block = next;
+      }
+      first = OffHeapSlabs.NULL_ADDRESS;
+      last = OffHeapSlabs.NULL_ADDRESS;
+      lastUsed = 0;
+      blocks = 0;
+      size = 0;
+    }
+
+    @Override
+    public OffHeapBag<T> readLater() {
+      return this;
+    }
+
+    @Override
+    public Iterable<T> read() {
+      List<T> elements = new ArrayList<>(size);
+      try {
+        InputStream input = new BlockChainInputStream();
+        for (int i = 0; i < size; i++) {
+          elements.add(elemCoder.decode(input));
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return elements;
+    }
+
+    @Override
+    public void add(T input) {
+      scratch.reset();
+      try {
+        elemCoder.encode(input, scratch);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      byte[] bytes = scratch.getBuffer();
+      int length = scratch.size();
+      for (int written = 0; written < length; ) {
+        if (last == OffHeapSlabs.NULL_ADDRESS || lastUsed == slabs.capacity(last)) {
+          appendBlock();
+        }
+        int count = Math.min(length - written, slabs.capacity(last) - lastUsed);
+        slabs.write(last, lastUsed, bytes, written, count);
+        lastUsed += count;
+        written += count;
+      }
+      size++;
+    }
+
+    @Override
+    public ReadableState<Boolean> isEmpty() {
+      return new ReadableState<Boolean>() {
+        @Override
+        public ReadableState<Boolean> readLater() {
+          return this;
+        }
+
+        @Override
+        public Boolean read() {
+          return size == 0;
+        }
+      };
+    }
+
+    private void appendBlock() {
+      // Grow the blocks with the bag, so that small bags stay small and large bags have few blocks
+      int blockBytes = MIN_BAG_BLOCK_BYTES << Math.min(blocks, MAX_BAG_BLOCK_SHIFT);
+      long block = slabs.allocate(blockBytes);
+      slabs.putLong(block, 0, OffHeapSlabs.NULL_ADDRESS);
+      if (last == OffHeapSlabs.NULL_ADDRESS) {
+        first = block;
+      } else {
+        slabs.putLong(last, 0, block);
+      }
+      last = block;
+      lastUsed = DATA;
+      blocks++;
+    }
+
+    /** Reads the bytes of the chain of blocks, up to the end of the last element. */
+    private class BlockChainInputStream extends InputStream {
+      private long block = first;
+      private int position = DATA;
+
+      @Override
+      public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        if (block == OffHeapSlabs.NULL_ADDRESS || (block == last && position == lastUsed)) {
+          return -1;
+        }
+        if (position == slabs.capacity(block)) {
+          block = slabs.getLong(block, 0);
+          position = DATA;
+        }
+        int end = block == last ? lastUsed : slabs.capacity(block);
+        int count = Math.min(len, end - position);
+        slabs.read(block, position, b, off, count);
+        position += count;
+        return count;
+      }
+    }
+  }
+
+  /**
+   * An off-heap implementation of {@link SetState}.
+   */
+  private final class OffHeapSet<T> implements SetState<T> {
+    private final Coder<T> elemCoder;
+    private final OffHeapHashTable contents = new OffHeapHashTable(slabs);
+
+    private OffHeapSet(Coder<T> elemCoder) {
+      this.elemCoder = elemCoder;
+    }
+
+    @Override
+    public void clear() {
+      contents.clear();
+    }
+
+    @Override
+    public ReadableState<Boolean> contains(T t) {
+      return ReadableStates.immediate(contents.containsKey(encode(elemCoder, t)));
+    }
+
+    @Override
+    public ReadableState<Boolean> addIfAbsent(T t) {
+      byte[] element = encode(elemCoder, t);
+      boolean alreadyContained = contents.containsKey(element);
+      if (!alreadyContained) {
+        contents.put(element, NO_BYTES);
+      }
+      return ReadableStates.immediate(!alreadyContained);
+    }
+
+    @Override
+    public void remove(T t) {
+      contents.remove(encode(elemCoder, t));
+    }
+
+    @Override
+    public OffHeapSet<T> readLater() {
+      return this;
+    }
+
+    @Override
+    public Iterable<T> read() {
+      List<T> elements = new ArrayList<>(contents.size());
+      for (Map.Entry<byte[], byte[]> entry : contents.entries()) {
+        elements.add(decode(elemCoder, entry.getKey()));
+      }
+      return elements;
+    }
+
+    @Override
+    public void add(T input) {
+      addIfAbsent(input);
+    }
+
+    @Override
+    public ReadableState<Boolean> isEmpty() {
+      return new ReadableState<Boolean>() {
+        @Override
+        public ReadableState<Boolean> readLater() {
+          return this;
+        }
+
+        @Override
+        public Boolean read() {
+          return contents.size() == 0;
+        }
+      };
+    }
+  }
+
+  /**
+   * An off-heap implementation of {@link MapState}.
+   */
+  private final class OffHeapMap<KeyT, ValueT> implements MapState<KeyT, ValueT> {
+    private final Coder<KeyT> keyCoder;
+    private final Coder<ValueT> valueCoder;
+    private final OffHeapHashTable contents = new OffHeapHashTable(slabs);
+
+    private OffHeapMap(Coder<KeyT> keyCoder, Coder<ValueT> valueCoder) {
+      this.keyCoder = keyCoder;
+      this.valueCoder = valueCoder;
+    }
+
+    @Override
+    public void clear() {
+      contents.clear();
+    }
+
+    @Override
+    public ReadableState<ValueT> get(KeyT key) {
+      byte[] value = contents.get(encode(keyCoder, key));
+      return ReadableStates.immediate(value == null ? null : decode(valueCoder, value));
+    }
+
+    @Override
+    public void put(KeyT key, ValueT value) {
+      contents.put(encode(keyCoder, key), encode(valueCoder, value));
+    }
+
+    @Override
+    public ReadableState<ValueT> putIfAbsent(KeyT key, ValueT value) {
+      byte[] encodedKey = encode(keyCoder, key);
+      byte[] existing = contents.get(encodedKey);
+      if (existing == null) {
+        contents.put(encodedKey, encode(valueCoder, value));
+        return ReadableStates.immediate(null);
+      }
+      return ReadableStates.immediate(decode(valueCoder, existing));
+    }
+
+    @Override
+    public void remove(KeyT key) {
+      contents.remove(encode(keyCoder, key));
+    }
+
+    @Override
+    public ReadableState<Iterable<KeyT>> keys() {
+      return new ReadableState<Iterable<KeyT>>() {
+        @Override
+        public Iterable<KeyT> read() {
+          List<KeyT> keys = new ArrayList<>(contents.size());
+          for (Map.Entry<byte[], byte[]> entry : contents.entries()) {
+            keys.add(decode(keyCoder, entry.getKey()));
+          }
+          return keys;
+        }
+
+        @Override
+        public ReadableState<Iterable<KeyT>> readLater() {
+          return this;
+        }
+      };
+    }
+
+    @Override
+    public ReadableState<Iterable<ValueT>> values() {
+      return new ReadableState<Iterable<ValueT>>() {
+        @Override
+        public Iterable<ValueT> read() {
+          List<ValueT> values = new ArrayList<>(contents.size());
+          for (Map.Entry<byte[], byte[]> entry : contents.entries()) {
+            values.add(decode(valueCoder, entry.getValue()));
+          }
+          return values;
+        }
+
+        @Override
+        public ReadableState<Iterable<ValueT>> readLater() {
+          return this;
+        }
+      };
+    }
+
+    @Override
+    public ReadableState<Iterable<Map.Entry<KeyT, ValueT>>> entries() {
+      return new ReadableState<Iterable<Map.Entry<KeyT, ValueT>>>() {
+        @Override
+        public Iterable<Map.Entry<KeyT, ValueT>> read() {
+          List<Map.Entry<KeyT, ValueT>> entries = new ArrayList<>(contents.size());
+          for (Map.Entry<byte[], byte[]> entry : contents.entries()) {
+            entries.add(
+                new SimpleImmutableEntry<>(
+                    decode(keyCoder, entry.getKey()), decode(valueCoder, entry.getValue())));
+          }
+          return entries;
+        }
+
+        @Override
+        public ReadableState<Iterable<Map.Entry<KeyT, ValueT>>> readLater() {
+          return this;
+        }
+      };
+    }
+  }
+
+  /** Allocates a block holding the length and encoded bytes of the value. */
+  private <T> long encodeRecord(Coder<T> coder, T value) {
+    byte[] bytes = encode(coder, value);
+    long record = slabs.allocate(4 + bytes.length);
+    slabs.putInt(record, 0, bytes.length);
+    slabs.write(record, 4, bytes, 0, bytes.length);
+    return record;
+  }
+
+  /** Decodes the value held by a block allocated by {@link #encodeRecord}. */
+  private <T> T decodeRecord(Coder<T> coder, long record) {
+    byte[] bytes = new byte[slabs.getInt(record, 0)];
+    slabs.read(record, 4, bytes, 0, bytes.length);
+    return decode(coder, bytes);
+  }
+
+  private static <T> byte[] encode(Coder<T> coder, T value) {
+    try {
+      return CoderUtils.encodeToByteArray(coder, value);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static <T> T decode(Coder<T> coder, byte[] bytes) {
+    try {
+      return CoderUtils.decodeFromByteArray(coder, bytes);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Objects;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.transforms.CombineFnBase.GlobalCombineFn;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.WindowingStrategy;
+import org.joda.time.Instant;
+
+/**
+ * Combines the values of each key and window into accumulators before they are grouped, so that
+ * a runner shuffles at most one accumulator per key and window from each bundle instead of every
+ * input.
+ *
+ * <p>At most {@code maxEntries} accumulators are held at once. When another (key, window) pair
+ * arrives, the accumulator of the least recently used pair is output to make room for it. All
+ * remaining accumulators are output by {@link #flush()}, which must be called at the end of each
+ * bundle.
+ *
+ * <p>Each accumulator is output with the timestamp obtained by combining the timestamps of its
+ * inputs with the {@link TimestampCombiner} of the {@link WindowingStrategy}, so the output
+ * time that the downstream grouping computes is the same as if the inputs had been grouped
+ * directly. The downstream grouping must merge the accumulators it receives, for example by using
+ * {@link SystemReduceFn#combining} with a {@link GlobalCombineFn} over accumulators.
+ *
+ * <p>Only {@link WindowingStrategy WindowingStrategies} with non-merging windows are supported,
+ * as the windows of merging {@link org.apache.beam.sdk.transforms.windowing.WindowFn WindowFns}
+ * are not known until after grouping.
+ *
+ * @param <K> the type of keys
+ * @param <InputT> the type of input values
+ * @param <AccumT> the type of accumulators that are output
+ */
+public class PartialCombiner<K, InputT, AccumT> {
+  private final Coder<K> keyCoder;
+  private final GlobalCombineFnRunner<InputT, AccumT, ?> combineFnRunner;
+  private final TimestampCombiner timestampCombiner;
+  private final int maxEntries;
+  private final PipelineOptions options;
+  private final SideInputReader sideInputReader;
+  private final OutputWindowedValue<KV<K, AccumT>> output;
+
+  /** The accumulators being built, in order from least to most recently used. */
+  private final LinkedHashMap<KeyAndWindow, Accumulation> accumulations;
+
+  public static <K, InputT, AccumT> PartialCombiner<K, InputT, AccumT> create(
+      Coder<K> keyCoder,
+      GlobalCombineFn<InputT, AccumT, ?> combineFn,
+      WindowingStrategy<?, ?> windowingStrategy,
+      int maxEntries,
+      PipelineOptions options,
+      SideInputReader sideInputReader,
+      OutputWindowedValue<KV<K, AccumT>> output) {
+    checkArgument(
+        windowingStrategy.getWindowFn().isNonMerging(),
+        "%s does not support merging windows, but got %s",
+        PartialCombiner.class.getSimpleName(),
+        windowingStrategy.getWindowFn());
+    checkArgument(maxEntries > 0, "maxEntries must be positive, but was %s", maxEntries);
+    return new PartialCombiner<>(
+        keyCoder,
+        GlobalCombineFnRunners.create(combineFn),
+        windowingStrategy.getTimestampCombiner(),
+        maxEntries,
+        options,
+        sideInputReader,
+        output);
+  }
+
+  private PartialCombiner(
+      Coder<K> keyCoder,
+      GlobalCombineFnRunner<InputT, AccumT, ?> combineFnRunner,
+      TimestampCombiner timestampCombiner,
+      int maxEntries,
+      PipelineOptions options,
+      SideInputReader sideInputReader,
+      OutputWindowedValue<KV<K, AccumT>> output) {
+    this.keyCoder = keyCoder;
+    this.combineFnRunner = combineFnRunner;
+    this.timestampCombiner = timestampCombiner;
+    this.maxEntries = maxEntries;
+    this.options = options;
+    this.sideInputReader = sideInputReader;
+    this.output = output;
+    this.accumulations = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Adds the value of the provided element to the accumulator of its key in each of its windows,
+   * outputting the least recently used accumulators if more than {@code maxEntries} would be
+   * held.
+   */
+  public void add(WindowedValue<KV<K, InputT>> element) {
+    K key = element.getValue().getKey();
+    InputT value = element.getValue().getValue();
+    Object structuralKey = keyCoder.structuralValue(key);
+    for (BoundedWindow window : element.getWindows()) {
+      KeyAndWindow keyAndWindow = new KeyAndWindow(structuralKey, window);
+      Accumulation accumulation = accumulations.get(keyAndWindow);
+      Collection<BoundedWindow> windows = Collections.singleton(window);
+      if (accumulation == null) {
+        AccumT accumulator =
+            combineFnRunner.createAccumulator(options, sideInputReader, windows);
+        accumulation = new Accumulation(key, window, accumulator, element.getTimestamp());
+        accumulations.put(keyAndWindow, accumulation);
+      } else {
+        accumulation.timestamp =
+            timestampCombiner.combine(accumulation.timestamp, element.getTimestamp());
+      }
+      accumulation.accumulator =
+          combineFnRunner.addInput(
+              accumulation.accumulator, value, options, sideInputReader, windows);
+    }
+    evictTo(maxEntries);
+  }
+
+  /**
+   * Outputs all held accumulators. Must be called before the end of the bundle that the elements
+   * were added in.
+   */
+  public void flush() {
+    evictTo(0);
+  }
+
+  /** Returns the number of accumulators currently held. */
+  public int size() {
+    return accumulations.size();
+  }
+
+  private void evictTo(int size) {
+    Iterator<Accumulation> leastRecentlyUsed = accumulations.values().iterator();
+    while (accumulations.size() > size) {
+      Accumulation accumulation = leastRecentlyUsed.next();
+      leastRecentlyUsed.remove();
+      Collection<BoundedWindow> windows = Collections.singleton(accumulation.window);
+      output.outputWindowedValue(
+          KV.of(
+              accumulation.key,
+              combineFnRunner.compact(
+                  accumulation.accumulator, options, sideInputReader, windows)),
+          accumulation.timestamp,
+          windows,
+          PaneInfo.NO_FIRING);
+    }
+  }
+
+  /**
+   * The structural value of a key and a window it was observed in.
+   */
+  private static class KeyAndWindow {
+    private final Object structuralKey;
+    private final BoundedWindow window;
+
+    private KeyAndWindow(Object structuralKey, BoundedWindow window) {
+      this.structuralKey = structuralKey;
+      this.window = window;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof KeyAndWindow)) {
+        return false;
+      }
+      KeyAndWindow that = (KeyAndWindow) other;
+      return Objects.equal(structuralKey, that.structuralKey) && window.equals(that.window);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(structuralKey, window);
+    }
+  }
+
+  /**
+   * The accumulated values of a key in a window, with the combined timestamp of those values.
+   */
+  private class Accumulation {
+    private final K key;
+    private final BoundedWindow window;
+    private AccumT accumulator;
+    private Instant timestamp;
+
+    private Accumulation(K key, BoundedWindow window, AccumT accumulator, Instant timestamp) {
+      this.key = key;
+      this.window = window;
+      this.accumulator = accumulator;
+      this.timestamp = timestamp;
+    }
+  }
+}
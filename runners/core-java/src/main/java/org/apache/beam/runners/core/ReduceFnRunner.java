@@ -218,6 +218,26 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
       SideInputReader sideInputReader,
       ReduceFn<K, InputT, OutputT, W> reduceFn,
       PipelineOptions options) {
+    this(key, windowingStrategy, triggerStateMachine, stateInternals, timerInternals, outputter,
+        sideInputReader, reduceFn, options, false);
+  }
+
+  /**
+   * Creates a {@link ReduceFnRunner} which, if {@code packTriggerState} is true, keeps the state
+   * of all the nodes of the trigger and their finished bits in a single cell per window. See
+   * {@link TriggerStateMachineContextFactory}.
+   */
+  public ReduceFnRunner(
+      K key,
+      WindowingStrategy<?, W> windowingStrategy,
+      ExecutableTriggerStateMachine triggerStateMachine,
+      StateInternals stateInternals,
+      TimerInternals timerInternals,
+      OutputWindowedValue<KV<K, OutputT>> outputter,
+      SideInputReader sideInputReader,
+      ReduceFn<K, InputT, OutputT, W> reduceFn,
+      PipelineOptions options,
+      boolean packTriggerState) {
     this.key = key;
     this.timerInternals = timerInternals;
     this.paneInfoTracker = new PaneInfoTracker(timerInternals);
@@ -246,7 +266,8 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
         new TriggerStateMachineRunner<>(
             triggerStateMachine,
             new TriggerStateMachineContextFactory<>(
-                windowingStrategy.getWindowFn(), stateInternals, activeWindows));
+                windowingStrategy.getWindowFn(), stateInternals, activeWindows,
+                packTriggerState));
   }
 
   private ActiveWindowSet<W> createActiveWindowSet() {
@@ -257,7 +278,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
   @VisibleForTesting
   boolean isFinished(W window) {
-    return triggerRunner.isClosed(contextFactory.base(window, StateStyle.DIRECT).state());
+    return triggerRunner.isClosed(window, contextFactory.base(window, StateStyle.DIRECT).state());
   }
 
   @VisibleForTesting
@@ -270,7 +291,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     for (W window : windows) {
       ReduceFn<K, InputT, OutputT, W>.Context directContext = contextFactory.base(
           window, StateStyle.DIRECT);
-      if (!triggerRunner.isClosed(directContext.state())) {
+      if (!triggerRunner.isClosed(window, directContext.state())) {
         result.add(window);
       }
     }
@@ -316,9 +337,47 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
    * </ol>
    */
   public void processElements(Iterable<WindowedValue<InputT>> values) throws Exception {
-    if (!values.iterator().hasNext()) {
+    ElementsInProgress elements = prefetchForElements(values);
+    if (elements == null) {
       return;
     }
+    processPrefetchedElements(elements);
+    prefetchFiringWindows(elements);
+    emitFiringWindows(elements);
+  }
+
+  /**
+   * The progress of a call to {@link #processElements} which has been split into phases by a
+   * {@link BatchedReduceFnRunner}. Each phase only reads state which was prefetched by the
+   * previous phase.
+   */
+  class ElementsInProgress {
+    private final Iterable<WindowedValue<InputT>> values;
+    private final Set<W> windows;
+    private final Map<W, W> windowToMergeResult;
+    private Set<W> windowsToConsider = Collections.emptySet();
+    private Collection<W> windowsToFire = Collections.emptyList();
+
+    private ElementsInProgress(
+        Iterable<WindowedValue<InputT>> values, Set<W> windows, Map<W, W> windowToMergeResult) {
+      this.values = values;
+      this.windows = windows;
+      this.windowToMergeResult = windowToMergeResult;
+    }
+  }
+
+  /**
+   * Determines and merges the windows of the values, and prefetches the state required to process
+   * the values in those windows.
+   *
+   * @return the progress of processing the values, or {@code null} if there are no values
+   */
+  @Nullable
+  ElementsInProgress prefetchForElements(Iterable<WindowedValue<InputT>> values)
+      throws Exception {
+    if (!values.iterator().hasNext()) {
+      return null;
+    }
 
     // Determine all the windows for elements.
     Set<W> windows = collectWindows(values);
@@ -338,30 +397,49 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     }
 
     prefetchWindowsForValues(windows);
+    return new ElementsInProgress(values, windows, windowToMergeResult);
+  }
 
+  /**
+   * Processes the values, then prefetches the state required to determine whether the windows
+   * that were open before processing should fire.
+   */
+  void processPrefetchedElements(ElementsInProgress elements) throws Exception {
     // All windows that are open before element processing may need to fire.
-    Set<W> windowsToConsider = windowsThatAreOpen(windows);
+    elements.windowsToConsider = windowsThatAreOpen(elements.windows);
 
     // Process each element, using the updated activeWindows determined by mergeWindows.
-    for (WindowedValue<InputT> value : values) {
-      processElement(windowToMergeResult, value);
+    for (WindowedValue<InputT> value : elements.values) {
+      processElement(elements.windowToMergeResult, value);
     }
 
     // Now that we've processed the elements, see if any of the windows need to fire.
     // Prefetch state necessary to determine if the triggers should fire.
-    for (W mergedWindow : windowsToConsider) {
+    for (W mergedWindow : elements.windowsToConsider) {
       triggerRunner.prefetchShouldFire(
           mergedWindow, contextFactory.base(mergedWindow, StateStyle.DIRECT).state());
     }
+  }
+
+  /**
+   * Determines which windows should fire, and prefetches the state required to emit them.
+   */
+  void prefetchFiringWindows(ElementsInProgress elements) throws Exception {
     // Filter to windows that are firing.
-    Collection<W> windowsToFire = windowsThatShouldFire(windowsToConsider);
+    elements.windowsToFire = windowsThatShouldFire(elements.windowsToConsider);
     // Prefetch windows that are firing.
-    for (W window : windowsToFire) {
+    for (W window : elements.windowsToFire) {
       prefetchEmit(contextFactory.base(window, StateStyle.DIRECT),
           contextFactory.base(window, StateStyle.RENAMED));
     }
+  }
+
+  /**
+   * Emits the windows that should fire, completing the processing of the values.
+   */
+  void emitFiringWindows(ElementsInProgress elements) throws Exception {
     // Trigger output from firing windows.
-    for (W window : windowsToFire) {
+    for (W window : elements.windowsToFire) {
       emit(contextFactory.base(window, StateStyle.DIRECT),
           contextFactory.base(window, StateStyle.RENAMED));
     }
@@ -373,6 +451,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
   }
 
   public void persist() {
+    triggerRunner.persist();
     activeWindows.persist();
   }
 
@@ -508,7 +587,10 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
       // Have the trigger merge state as needed.
       triggerRunner.onMerge(
-          directMergeContext.window(), directMergeContext.timers(), directMergeContext.state());
+          directMergeContext.window(),
+          activeToBeMerged,
+          directMergeContext.timers(),
+          directMergeContext.state());
 
       for (W active : activeToBeMerged) {
         if (active.equals(mergeResult)) {
@@ -580,7 +662,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     for (W window : windows) {
       ReduceFn<K, InputT, OutputT, W>.ProcessValueContext directContext = contextFactory.forValue(
           window, value.getValue(), value.getTimestamp(), StateStyle.DIRECT);
-      if (triggerRunner.isClosed(directContext.state())) {
+      if (triggerRunner.isClosed(window, directContext.state())) {
         // This window has already been closed.
         droppedDueToClosedWindow.inc();
         WindowTracing.debug(
@@ -640,7 +722,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
    * Enriches TimerData with state necessary for processing a timer as well as
    * common queries about a timer.
    */
-  private class EnrichedTimerData {
+  class EnrichedTimerData {
     public final Instant timestamp;
     public final ReduceFn<K, InputT, OutputT, W>.Context directContext;
     public final ReduceFn<K, InputT, OutputT, W>.Context renamedContext;
@@ -674,7 +756,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     // So we must take conjunction of activeWindows and triggerRunner state.
     public boolean windowIsActiveAndOpen() {
       return activeWindows.isActive(directContext.window())
-          && !triggerRunner.isClosed(directContext.state());
+          && !triggerRunner.isClosed(directContext.window(), directContext.state());
     }
   }
 
@@ -682,9 +764,16 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     if (!timers.iterator().hasNext()) {
       return;
     }
+    List<EnrichedTimerData> enrichedTimers = prefetchForTimers(timers);
+    prefetchTimerFirings(enrichedTimers);
+    processPrefetchedTimers(enrichedTimers);
+  }
 
-    // Create a reusable context for each timer and begin prefetching necessary
-    // state.
+  /**
+   * Creates a reusable context for each timer and prefetches the state required to determine
+   * whether the timer should fire.
+   */
+  List<EnrichedTimerData> prefetchForTimers(Iterable<TimerData> timers) {
     List<EnrichedTimerData> enrichedTimers = new LinkedList();
     for (TimerData timer : timers) {
       checkArgument(timer.getNamespace() instanceof WindowNamespace,
@@ -701,13 +790,18 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
       // Perform prefetching of state to determine if the trigger should fire.
       if (enrichedTimer.isGarbageCollection) {
-        triggerRunner.prefetchIsClosed(directContext.state());
+        triggerRunner.prefetchIsClosed(directContext.window(), directContext.state());
       } else {
         triggerRunner.prefetchShouldFire(directContext.window(), directContext.state());
       }
     }
+    return enrichedTimers;
+  }
 
-    // For those windows that are active and open, prefetch the triggering or emitting state.
+  /**
+   * For those windows that are active and open, prefetches the triggering or emitting state.
+   */
+  void prefetchTimerFirings(List<EnrichedTimerData> enrichedTimers) throws Exception {
     for (EnrichedTimerData timer : enrichedTimers) {
       if (timer.windowIsActiveAndOpen()) {
         ReduceFn<K, InputT, OutputT, W>.Context directContext = timer.directContext;
@@ -719,7 +813,12 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
         }
       }
     }
+  }
 
+  /**
+   * Fires, emits and garbage collects windows for the timers.
+   */
+  void processPrefetchedTimers(List<EnrichedTimerData> enrichedTimers) throws Exception {
     // Perform processing now that everything is prefetched.
     for (EnrichedTimerData timer : enrichedTimers) {
       ReduceFn<K, InputT, OutputT, W>.Context directContext = timer.directContext;
@@ -846,7 +945,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     // Don't need to track address state windows anymore.
     activeWindows.remove(directContext.window());
     // We'll never need to test for the trigger being closed again.
-    triggerRunner.clearFinished(directContext.state());
+    triggerRunner.clearFinished(directContext.window(), directContext.state());
   }
 
   /** Should the reduce function state be cleared? */
@@ -866,7 +965,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
                                 ReduceFn<K, InputT, OutputT, W>.Context renamedContext) {
     triggerRunner.prefetchShouldFire(directContext.window(), directContext.state());
     triggerRunner.prefetchOnFire(directContext.window(), directContext.state());
-    triggerRunner.prefetchIsClosed(directContext.state());
+    triggerRunner.prefetchIsClosed(directContext.window(), directContext.state());
     prefetchOnTrigger(directContext, renamedContext);
   }
 
@@ -882,7 +981,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
     // Inform the trigger of the transition to see if it is finished
     triggerRunner.onFire(directContext.window(), directContext.timers(), directContext.state());
-    boolean isFinished = triggerRunner.isClosed(directContext.state());
+    boolean isFinished = triggerRunner.isClosed(directContext.window(), directContext.state());
 
     // Will be able to clear all element state after triggering?
     boolean shouldDiscard = shouldDiscardAfterFiring(isFinished);
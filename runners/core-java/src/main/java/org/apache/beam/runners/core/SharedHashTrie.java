@@ -0,0 +1,432 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import com.google.common.collect.AbstractIterator;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A mutable hash map which can be copied in constant time.
+ *
+ * <p>The entries are stored in a hash array mapped trie. A copy shares every node of the trie with
+ * the map it was copied from. Nodes are only modified in place by the map which created them, and
+ * a {@link #copy()} gives up that ownership on both sides, so later modifications to either map
+ * copy only the path from the root to the modified entry. Iterables returned by {@link #entries()}
+ * are snapshots of the map at the time they were created, and are not affected by later
+ * modifications.
+ *
+ * <p>Keys and values may be {@code null}.
+ */
+final class SharedHashTrie<K, V> {
+  private static final int BITS_PER_LEVEL = 5;
+  private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+  /** Seven levels of 5 bits consume a 32 bit hash, and collisions add one more level. */
+  private static final int MAX_DEPTH = 8;
+
+  private static final Object NULL_KEY = new Object();
+  private static final Object NOT_FOUND = new Object();
+
+  public static <K, V> SharedHashTrie<K, V> create() {
+    return new SharedHashTrie<>(new BitmapNode(null, 0, new Object[0]), 0);
+  }
+
+  private Node root;
+  private int size;
+  /**
+   * The owner of the nodes which this map may modify in place. Replaced whenever the nodes of this
+   * map become visible to another map or to a snapshot.
+   */
+  private Object owner;
+
+  private SharedHashTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+    this.owner = new Object();
+  }
+
+  /**
+   * Returns a copy of this map. Subsequent modifications to either map are not visible in the
+   * other.
+   */
+  public SharedHashTrie<K, V> copy() {
+    owner = new Object();
+    return new SharedHashTrie<>(root, size);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean containsKey(@Nullable Object key) {
+    Object maskedKey = maskNull(key);
+    return root.find(0, hash(maskedKey), maskedKey) != NOT_FOUND;
+  }
+
+  /**
+   * Returns the value associated with the key, or {@code null} if there is no such value.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V get(@Nullable Object key) {
+    Object maskedKey = maskNull(key);
+    Object value = root.find(0, hash(maskedKey), maskedKey);
+    return value == NOT_FOUND ? null : (V) value;
+  }
+
+  /**
+   * Associates the value with the key, returning the value previously associated with the key, or
+   * {@code null} if there was no such value.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V put(@Nullable K key, @Nullable V value) {
+    Object maskedKey = maskNull(key);
+    Previous previous = new Previous();
+    root = root.put(owner, 0, hash(maskedKey), maskedKey, value, previous);
+    if (previous.value == NOT_FOUND) {
+      size++;
+      return null;
+    }
+    return (V) previous.value;
+  }
+
+  /**
+   * Removes the value associated with the key, returning the removed value, or {@code null} if
+   * there was no such value.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V remove(@Nullable Object key) {
+    Object maskedKey = maskNull(key);
+    Previous previous = new Previous();
+    Node newRoot = root.remove(owner, 0, hash(maskedKey), maskedKey, previous);
+    root = newRoot == null ? new BitmapNode(owner, 0, new Object[0]) : newRoot;
+    if (previous.value == NOT_FOUND) {
+      return null;
+    }
+    size--;
+    return (V) previous.value;
+  }
+
+  /**
+   * Returns the entries of this map at the time of the call.
+   */
+  public Iterable<Map.Entry<K, V>> entries() {
+    // The returned iterable retains the current nodes, so they can no longer be modified in place.
+    owner = new Object();
+    final Node snapshot = root;
+    return new Iterable<Map.Entry<K, V>>() {
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<>(snapshot);
+      }
+    };
+  }
+
+  private static Object maskNull(@Nullable Object key) {
+    return key == null ? NULL_KEY : key;
+  }
+
+  private static int hash(Object key) {
+    int hash = key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  /** The value previously associated with a key, or {@link #NOT_FOUND}. */
+  private static class Previous {
+    private Object value = NOT_FOUND;
+  }
+
+  /**
+   * A node of the trie. The contents of a node are stored in pairs of array elements, each of
+   * which is either a key and its value, or {@code null} and a child {@link Node}.
+   */
+  private abstract static class Node {
+    @Nullable final Object owner;
+    Object[] array;
+
+    Node(@Nullable Object owner, Object[] array) {
+      this.owner = owner;
+      this.array = array;
+    }
+
+    abstract Object find(int shift, int hash, Object key);
+
+    abstract Node put(
+        Object owner, int shift, int hash, Object key, Object value, Previous previous);
+
+    /** Returns the node without the key, or {@code null} if the node would be empty. */
+    @Nullable
+    abstract Node remove(Object owner, int shift, int hash, Object key, Previous previous);
+  }
+
+  /**
+   * A {@link Node} with up to 32 pairs, selected by 5 bits of the hash of the key.
+   */
+  private static final class BitmapNode extends Node {
+    private int bitmap;
+
+    private BitmapNode(@Nullable Object owner, int bitmap, Object[] array) {
+      super(owner, array);
+      this.bitmap = bitmap;
+    }
+
+    private static int bit(int hash, int shift) {
+      return 1 << ((hash >>> shift) & LEVEL_MASK);
+    }
+
+    private int index(int bit) {
+      return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private BitmapNode editable(Object owner) {
+      return this.owner == owner ? this : new BitmapNode(owner, bitmap, array.clone());
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int index = index(bit);
+      Object existingKey = array[index];
+      if (existingKey == null) {
+        return ((Node) array[index + 1]).find(shift + BITS_PER_LEVEL, hash, key);
+      }
+      return key.equals(existingKey) ? array[index + 1] : NOT_FOUND;
+    }
+
+    @Override
+    Node put(Object owner, int shift, int hash, Object key, Object value, Previous previous) {
+      int bit = bit(hash, shift);
+      int index = index(bit);
+      if ((bitmap & bit) == 0) {
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, index);
+        newArray[index] = key;
+        newArray[index + 1] = value;
+        System.arraycopy(array, index, newArray, index + 2, array.length - index);
+        BitmapNode node = this.owner == owner ? this : new BitmapNode(owner, bitmap, newArray);
+        node.bitmap = bitmap | bit;
+        node.array = newArray;
+        return node;
+      }
+      Object existingKey = array[index];
+      Object existingValue = array[index + 1];
+      if (existingKey == null) {
+        Node child = (Node) existingValue;
+        Node newChild = child.put(owner, shift + BITS_PER_LEVEL, hash, key, value, previous);
+        if (newChild == child) {
+          return this;
+        }
+        BitmapNode node = editable(owner);
+        node.array[index + 1] = newChild;
+        return node;
+      } else if (key.equals(existingKey)) {
+        previous.value = existingValue;
+        if (existingValue == value) {
+          return this;
+        }
+        BitmapNode node = editable(owner);
+        node.array[index + 1] = value;
+        return node;
+      }
+      // Replace the existing pair with a child containing both pairs
+      Node child =
+          createNode(owner, shift + BITS_PER_LEVEL, existingKey, existingValue, hash, key, value);
+      BitmapNode node = editable(owner);
+      node.array[index] = null;
+      node.array[index + 1] = child;
+      return node;
+    }
+
+    @Override
+    @Nullable
+    Node remove(Object owner, int shift, int hash, Object key, Previous previous) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int index = index(bit);
+      Object existingKey = array[index];
+      if (existingKey == null) {
+        Node child = (Node) array[index + 1];
+        Node newChild = child.remove(owner, shift + BITS_PER_LEVEL, hash, key, previous);
+        if (newChild == child) {
+          return this;
+        } else if (newChild != null) {
+          BitmapNode node = editable(owner);
+          node.array[index + 1] = newChild;
+          return node;
+        }
+      } else if (key.equals(existingKey)) {
+        previous.value = array[index + 1];
+      } else {
+        return this;
+      }
+      // Remove the pair at index
+      if (bitmap == bit) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+      BitmapNode node = this.owner == owner ? this : new BitmapNode(owner, bitmap, newArray);
+      node.bitmap = bitmap & ~bit;
+      node.array = newArray;
+      return node;
+    }
+
+    private static Node createNode(
+        Object owner,
+        int shift,
+        Object firstKey,
+        Object firstValue,
+        int secondHash,
+        Object secondKey,
+        Object secondValue) {
+      int firstHash = hash(firstKey);
+      if (firstHash == secondHash) {
+        return new CollisionNode(
+            owner, firstHash, new Object[] {firstKey, firstValue, secondKey, secondValue});
+      }
+      Previous ignored = new Previous();
+      return new BitmapNode(owner, 0, new Object[0])
+          .put(owner, shift, firstHash, firstKey, firstValue, ignored)
+          .put(owner, shift, secondHash, secondKey, secondValue, ignored);
+    }
+  }
+
+  /**
+   * A {@link Node} containing the pairs of distinct keys with the same hash.
+   */
+  private static final class CollisionNode extends Node {
+    private final int hash;
+
+    private CollisionNode(@Nullable Object owner, int hash, Object[] array) {
+      super(owner, array);
+      this.hash = hash;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int index = this.hash == hash ? indexOf(key) : -1;
+      return index < 0 ? NOT_FOUND : array[index + 1];
+    }
+
+    @Override
+    Node put(Object owner, int shift, int hash, Object key, Object value, Previous previous) {
+      if (this.hash != hash) {
+        // Split this node on the next bits of the hashes.
+        return new BitmapNode(owner, BitmapNode.bit(this.hash, shift), new Object[] {null, this})
+            .put(owner, shift, hash, key, value, previous);
+      }
+      int index = indexOf(key);
+      if (index >= 0) {
+        previous.value = array[index + 1];
+        if (previous.value == value) {
+          return this;
+        }
+        CollisionNode node =
+            this.owner == owner ? this : new CollisionNode(owner, hash, array.clone());
+        node.array[index + 1] = value;
+        return node;
+      }
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, array.length);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      CollisionNode node = this.owner == owner ? this : new CollisionNode(owner, hash, newArray);
+      node.array = newArray;
+      return node;
+    }
+
+    @Override
+    @Nullable
+    Node remove(Object owner, int shift, int hash, Object key, Previous previous) {
+      int index = this.hash == hash ? indexOf(key) : -1;
+      if (index < 0) {
+        return this;
+      }
+      previous.value = array[index + 1];
+      if (array.length == 2) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+      CollisionNode node = this.owner == owner ? this : new CollisionNode(owner, hash, newArray);
+      node.array = newArray;
+      return node;
+    }
+  }
+
+  /**
+   * A depth-first iterator over the key-value pairs reachable from a {@link Node}.
+   */
+  private static final class EntryIterator<K, V> extends AbstractIterator<Map.Entry<K, V>> {
+    private final Object[][] arrays = new Object[MAX_DEPTH][];
+    private final int[] positions = new int[MAX_DEPTH];
+    private int depth;
+
+    private EntryIterator(Node root) {
+      arrays[0] = root.array;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Map.Entry<K, V> computeNext() {
+      while (depth >= 0) {
+        Object[] array = arrays[depth];
+        int position = positions[depth];
+        if (position >= array.length) {
+          depth--;
+          continue;
+        }
+        positions[depth] = position + 2;
+        Object key = array[position];
+        if (key == null) {
+          depth++;
+          arrays[depth] = ((Node) array[position + 1]).array;
+          positions[depth] = 0;
+        } else {
+          return new SimpleImmutableEntry<>(
+              key == NULL_KEY ? null : (K) key, (V) array[position + 1]);
+        }
+      }
+      return endOfData();
+    }
+  }
+}
@@ -0,0 +1,403 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.InMemoryStateInternals.InMemoryState;
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.ReadableState;
+import org.apache.beam.sdk.util.ExposedByteArrayOutputStream;
+import org.apache.beam.sdk.util.ResourceReleaser;
+
+/**
+ * An {@link InMemoryState} implementation of {@link BagState} which holds the encoded form of its
+ * elements, and appends them to a local spill file whenever more than a threshold number of bytes
+ * are held in memory. This bounds the memory used by bags which buffer every element of a large
+ * window, such as those of {@link SystemReduceFn#buffering}.
+ *
+ * <p>{@link #read()} returns a snapshot of the bag which decodes the elements lazily as it is
+ * iterated, streaming them back from the spill files. Snapshots remain readable after the bag is
+ * cleared.
+ *
+ * <p>Each spill file counts the bags and snapshots that refer to it, and is deleted as soon as the
+ * count drops to zero. A bag releases its spill files when it is cleared, which {@link
+ * InMemoryStateInternals#clear()} does for all of its bags. Snapshots, and bags that are never
+ * cleared, release them through {@link ResourceReleaser} once they are unreachable, or at
+ * shutdown. Streams opened by iterators that are abandoned before they are exhausted are closed in
+ * the same way.
+ */
+@Experimental(Kind.STATE)
+public final class SpillingBagState<T>
+    implements BagState<T>, InMemoryState<SpillingBagState<T>> {
+  private final Coder<T> elemCoder;
+  private final long spillThresholdBytes;
+  @Nullable private final File spillDirectory;
+
+  /** The elements which have been spilled, oldest first. Never modified once created. */
+  private ImmutableList<Segment> spilled = ImmutableList.of();
+  /** The encoded elements added since the last spill. Replaced rather than reset. */
+  private ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream();
+  private int bufferedCount;
+
+  /** The file this bag spills to, which no other bag appends to. */
+  @Nullable private SpillFile spillFile;
+  @Nullable private OutputStream spillOutput;
+  private long spillFileLength;
+
+  /** The references of this bag to the spill files of {@link #spilled}. */
+  @Nullable private Lease lease;
+
+  public SpillingBagState(
+      Coder<T> elemCoder, long spillThresholdBytes, @Nullable File spillDirectory) {
+    checkArgument(
+        spillThresholdBytes > 0,
+        "The spill threshold must be positive, but was %s",
+        spillThresholdBytes);
+    this.elemCoder = elemCoder;
+    this.spillThresholdBytes = spillThresholdBytes;
+    this.spillDirectory = spillDirectory;
+  }
+
+  @Override
+  public void clear() {
+    // Snapshots returned by read() keep the segments and spill files they refer to
+    spilled = ImmutableList.of();
+    buffer = new ExposedByteArrayOutputStream();
+    bufferedCount = 0;
+    if (lease != null) {
+      lease.release();
+      lease = null;
+    }
+    spillFile = null;
+    spillOutput = null;
+  }
+
+  @Override
+  public SpillingBagState<T> readLater() {
+    return this;
+  }
+
+  @Override
+  public Iterable<T> read() {
+    ImmutableList<Segment> segments =
+        bufferedCount == 0
+            ? spilled
+            : ImmutableList.<Segment>builder()
+                .addAll(spilled)
+                .add(new BufferSegment(buffer.getBuffer(), buffer.size(), bufferedCount))
+                .build();
+    return new Snapshot<>(elemCoder, segments);
+  }
+
+  @Override
+  public void add(T input) {
+    try {
+      elemCoder.encode(input, buffer);
+      bufferedCount++;
+      if (buffer.size() >= spillThresholdBytes) {
+        spill();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public boolean isCleared() {
+    return spilled.isEmpty() && bufferedCount == 0;
+  }
+
+  @Override
+  public ReadableState<Boolean> isEmpty() {
+    return new ReadableState<Boolean>() {
+      @Override
+      public ReadableState<Boolean> readLater() {
+        return this;
+      }
+
+      @Override
+      public Boolean read() {
+        return isCleared();
+      }
+    };
+  }
+
+  /**
+   * Returns a copy of this bag. The copy shares the spilled elements of this bag, and copies the
+   * elements held in memory, so copying takes time proportional to at most the spill threshold.
+   */
+  @Override
+  public SpillingBagState<T> copy() {
+    SpillingBagState<T> that =
+        new SpillingBagState<>(elemCoder, spillThresholdBytes, spillDirectory);
+    that.spilled = spilled;
+    if (!spilled.isEmpty()) {
+      that.lease = new Lease(that);
+      that.lease.retainAll(spilled);
+    }
+    that.buffer.write(buffer.getBuffer(), 0, buffer.size());
+    that.bufferedCount = bufferedCount;
+    return that;
+  }
+
+  private void spill() throws IOException {
+    if (spillFile == null) {
+      if (lease == null) {
+        lease = new Lease(this);
+      }
+      spillFile = new SpillFile(File.createTempFile("beam-bag-", ".spill", spillDirectory));
+      lease.retain(spillFile);
+      spillOutput = new FileOutputStream(spillFile.file);
+      lease.setStream(spillOutput);
+      spillFileLength = 0;
+    }
+    int length = buffer.size();
+    spillOutput.write(buffer.getBuffer(), 0, length);
+    spillOutput.flush();
+    spilled =
+        ImmutableList.<Segment>builder()
+            .addAll(spilled)
+            .add(new FileSegment(spillFile, spillFileLength, length, bufferedCount))
+            .build();
+    spillFileLength += length;
+    buffer = new ExposedByteArrayOutputStream();
+    bufferedCount = 0;
+  }
+
+  /**
+   * A run of encoded elements.
+   */
+  private abstract static class Segment {
+    private final int count;
+
+    private Segment(int count) {
+      this.count = count;
+    }
+
+    abstract InputStream open() throws IOException;
+  }
+
+  /**
+   * Elements held in a range of a spill file.
+   */
+  private static final class FileSegment extends Segment {
+    private final SpillFile spillFile;
+    private final long offset;
+    private final long length;
+
+    private FileSegment(SpillFile spillFile, long offset, long length, int count) {
+      super(count);
+      this.spillFile = spillFile;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    InputStream open() throws IOException {
+      FileInputStream input = new FileInputStream(spillFile.file);
+      input.getChannel().position(offset);
+      return ByteStreams.limit(new BufferedInputStream(input), length);
+    }
+  }
+
+  /**
+   * Elements held in a prefix of a buffer that is no longer written to within that prefix.
+   */
+  private static final class BufferSegment extends Segment {
+    private final byte[] bytes;
+    private final int length;
+
+    private BufferSegment(byte[] bytes, int length, int count) {
+      super(count);
+      this.bytes = bytes;
+      this.length = length;
+    }
+
+    @Override
+    InputStream open() {
+      return new ByteArrayInputStream(bytes, 0, length);
+    }
+  }
+
+  /**
+   * The elements of a bag at the time it was read, which refers to their spill files until it is
+   * unreachable.
+   */
+  private static final class Snapshot<T> implements Iterable<T> {
+    private final Coder<T> elemCoder;
+    private final ImmutableList<Segment> segments;
+
+    private Snapshot(Coder<T> elemCoder, ImmutableList<Segment> segments) {
+      this.elemCoder = elemCoder;
+      this.segments = segments;
+      // File segments precede the buffer segment, so this checks for any file segment
+      if (!segments.isEmpty() && segments.get(0) instanceof FileSegment) {
+        new Lease(this).retainAll(segments);
+      }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return new DecodingIterator();
+    }
+
+    /**
+     * Decodes the elements of the snapshot, opening each segment when it is reached. Keeps the
+     * snapshot, and so its spill files, reachable while iterating.
+     */
+    private final class DecodingIterator extends AbstractIterator<T> {
+      private final Iterator<Segment> remainingSegments = segments.iterator();
+      @Nullable private InputStream current;
+      /** Closes {@link #current} if this iterator is abandoned before it is exhausted. */
+      @Nullable private Lease currentLease;
+      private int remaining;
+
+      @Override
+      protected T computeNext() {
+        try {
+          while (remaining == 0) {
+            closeCurrent();
+            if (!remainingSegments.hasNext()) {
+              return endOfData();
+            }
+            Segment segment = remainingSegments.next();
+            current = segment.open();
+            if (segment instanceof FileSegment) {
+              currentLease = new Lease(this);
+              currentLease.setStream(current);
+            }
+            remaining = segment.count;
+          }
+          remaining--;
+          return elemCoder.decode(current);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      private void closeCurrent() throws IOException {
+        if (currentLease != null) {
+          currentLease.release();
+          currentLease = null;
+        } else if (current != null) {
+          current.close();
+        }
+        current = null;
+      }
+    }
+  }
+
+  /**
+   * A spill file, which is deleted once no {@link Lease} refers to it any longer.
+   */
+  private static final class SpillFile {
+    private final File file;
+    private final AtomicInteger references = new AtomicInteger();
+
+    private SpillFile(File file) {
+      this.file = file;
+    }
+
+    private void retain() {
+      references.incrementAndGet();
+    }
+
+    private void release() {
+      if (references.decrementAndGet() == 0) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * References to spill files, and optionally an open stream, held on behalf of an owner. They are
+   * released by {@link #release()}, or by {@link ResourceReleaser} once the owner is unreachable.
+   */
+  private static final class Lease implements Closeable {
+    private final Set<SpillFile> spillFiles =
+        Collections.newSetFromMap(new ConcurrentHashMap<SpillFile, Boolean>());
+    @Nullable private volatile Closeable stream;
+    private final ResourceReleaser.Registration registration;
+
+    private Lease(Object owner) {
+      this.registration = ResourceReleaser.register(owner, this);
+    }
+
+    private void retain(SpillFile spillFile) {
+      if (spillFiles.add(spillFile)) {
+        spillFile.retain();
+      }
+    }
+
+    private void retainAll(Iterable<Segment> segments) {
+      for (Segment segment : segments) {
+        if (segment instanceof FileSegment) {
+          retain(((FileSegment) segment).spillFile);
+        }
+      }
+    }
+
+    private void setStream(Closeable stream) {
+      this.stream = stream;
+    }
+
+    /** Closes the stream and releases the spill files, unless this lease was already released. */
+    private void release() {
+      try {
+        registration.release();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (stream != null) {
+          stream.close();
+        }
+      } finally {
+        for (SpillFile spillFile : spillFiles) {
+          spillFile.release();
+        }
+      }
+    }
+  }
+}
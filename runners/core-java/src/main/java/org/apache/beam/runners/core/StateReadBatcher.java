@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+import org.apache.beam.sdk.state.ReadableState;
+
+/**
+ * A hook through which a state backend can perform the reads of many keys together.
+ *
+ * <p>A {@link BatchedReduceFnRunner} prefetches the state of every key in a bundle by calling
+ * {@link ReadableState#readLater()} on the state provided by the {@link StateInternals} of each
+ * key, and then calls {@link #readPending()} before reading any of that state. A backend which
+ * records the requested reads rather than performing them immediately can issue all of them in a
+ * single round trip.
+ */
+@Experimental(Kind.STATE)
+public interface StateReadBatcher {
+  /**
+   * Performs every read requested through {@link ReadableState#readLater()} since the previous
+   * call to this method.
+   */
+  void readPending();
+}
@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core.triggers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.InMemoryStateInternals.InMemoryCombiningState;
+import org.apache.beam.runners.core.InMemoryStateInternals.InMemoryValue;
+import org.apache.beam.runners.core.StateInternals;
+import org.apache.beam.runners.core.StateNamespaces;
+import org.apache.beam.runners.core.StateTag;
+import org.apache.beam.runners.core.StateTag.StateBinder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.CombiningState;
+import org.apache.beam.sdk.state.MapState;
+import org.apache.beam.sdk.state.ReadableState;
+import org.apache.beam.sdk.state.SetState;
+import org.apache.beam.sdk.state.State;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.state.WatermarkHoldState;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.CombineWithContext.CombineFnWithContext;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.util.VarInt;
+
+/**
+ * Keeps the state of every node of a trigger tree, together with its finished bits, in a single
+ * packed cell per window.
+ *
+ * <p>Cells are read from the underlying {@link StateInternals} the first time a window's trigger
+ * state is accessed, and stay decoded until {@link #commit()}, so that every call made while
+ * processing a work unit shares them. The triggers are served in-memory {@link ValueState} and
+ * {@link CombiningState} instances which record whether they were modified; {@link #commit()}
+ * only encodes those, and only writes back the cells that contain one. Only value and combining
+ * state are supported, which is all that the trigger state machines use.
+ *
+ * @param <W> The kind of windows being processed.
+ */
+final class PackedTriggerState<W extends BoundedWindow> {
+  private final StateInternals stateInternals;
+  private final Coder<W> windowCoder;
+  private final Map<W, Cell> cells = new HashMap<>();
+
+  PackedTriggerState(StateInternals stateInternals, Coder<W> windowCoder) {
+    this.stateInternals = stateInternals;
+    this.windowCoder = windowCoder;
+  }
+
+  /**
+   * Indicates that the cell of the given window is likely to be accessed soon.
+   */
+  void prefetch(W window) {
+    if (!cells.containsKey(window)) {
+      stored(window).readLater();
+    }
+  }
+
+  /**
+   * Returns the state for the given tag of the trigger with the given index in the given window.
+   */
+  <StateT extends State> StateT access(W window, int triggerIndex, StateTag<StateT> address) {
+    return cell(window).access(triggerIndex, address);
+  }
+
+  /**
+   * Returns the finished bits of the given window, or {@code null} if no trigger is finished.
+   */
+  @Nullable
+  BitSet readFinishedBits(W window) {
+    return cell(window).finishedBits;
+  }
+
+  /**
+   * Replaces the finished bits of the given window. A {@code null} or empty set clears them.
+   */
+  void writeFinishedBits(W window, @Nullable BitSet finishedBits) {
+    cell(window).writeFinishedBits(
+        finishedBits == null || finishedBits.isEmpty() ? null : (BitSet) finishedBits.clone());
+  }
+
+  /**
+   * Writes every cell that changed since it was read, clearing the ones that no longer hold any
+   * state, and forgets all cells so that the next access reads them again. Called once at the end
+   * of each work unit.
+   */
+  void commit() {
+    try {
+      for (Cell cell : cells.values()) {
+        cell.persist();
+      }
+    } finally {
+      cells.clear();
+    }
+  }
+
+  private ValueState<byte[]> stored(W window) {
+    return stateInternals.state(
+        StateNamespaces.window(windowCoder, window), TriggerStateMachineRunner.PACKED_STATE_TAG);
+  }
+
+  private Cell cell(W window) {
+    Cell cell = cells.get(window);
+    if (cell == null) {
+      cell = new Cell(stored(window));
+      cells.put(window, cell);
+    }
+    return cell;
+  }
+
+  /**
+   * The decoded contents of a single window's packed cell.
+   */
+  private static class Cell {
+    private final ValueState<byte[]> stored;
+    @Nullable
+    private byte[] persisted;
+    private final Map<String, byte[]> encodedStates = new TreeMap<>();
+    private final Map<String, PackedState> liveStates = new LinkedHashMap<>();
+    @Nullable
+    private BitSet finishedBits;
+    private boolean finishedBitsDirty;
+
+    private Cell(ValueState<byte[]> stored) {
+      this.stored = stored;
+      this.persisted = stored.read();
+      if (persisted != null) {
+        try {
+          decode(persisted);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+
+    private <StateT extends State> StateT access(int triggerIndex, StateTag<StateT> address) {
+      String key = triggerIndex + "/" + address.getId();
+      PackedState packed = liveStates.get(key);
+      if (packed == null) {
+        PackedStateBinder binder = new PackedStateBinder(encodedStates.get(key));
+        address.bind(binder);
+        packed = binder.packedState;
+        liveStates.put(key, packed);
+      }
+      @SuppressWarnings("unchecked")
+      StateT state = (StateT) packed;
+      return state;
+    }
+
+    private void writeFinishedBits(@Nullable BitSet updated) {
+      if (!Objects.equals(finishedBits, updated)) {
+        finishedBits = updated;
+        finishedBitsDirty = true;
+      }
+    }
+
+    /**
+     * Encodes the states that were modified since the last call and writes the cell back if any
+     * of them, or the finished bits, changed its contents.
+     */
+    private void persist() {
+      boolean dirty = finishedBitsDirty;
+      try {
+        for (Map.Entry<String, PackedState> entry : liveStates.entrySet()) {
+          PackedState packed = entry.getValue();
+          if (!packed.dirty) {
+            continue;
+          }
+          byte[] encoded = packed.encode();
+          if (encoded == null) {
+            encodedStates.remove(entry.getKey());
+          } else {
+            encodedStates.put(entry.getKey(), encoded);
+          }
+          packed.dirty = false;
+          dirty = true;
+        }
+        if (!dirty) {
+          return;
+        }
+        finishedBitsDirty = false;
+        byte[] updated = encode();
+        if (updated == null) {
+          if (persisted != null) {
+            stored.clear();
+          }
+        } else if (!Arrays.equals(persisted, updated)) {
+          stored.write(updated);
+        }
+        persisted = updated;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private void decode(byte[] bytes) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      int finishedWords = VarInt.decodeInt(in);
+      if (finishedWords > 0) {
+        long[] words = new long[finishedWords];
+        for (int i = 0; i < finishedWords; i++) {
+          words[i] = in.readLong();
+        }
+        finishedBits = BitSet.valueOf(words);
+      }
+      int numStates = VarInt.decodeInt(in);
+      for (int i = 0; i < numStates; i++) {
+        String key = in.readUTF();
+        byte[] encoded = new byte[VarInt.decodeInt(in)];
+        in.readFully(encoded);
+        encodedStates.put(key, encoded);
+      }
+    }
+
+    @Nullable
+    private byte[] encode() throws IOException {
+      if (finishedBits == null && encodedStates.isEmpty()) {
+        return null;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      long[] words = finishedBits == null ? new long[0] : finishedBits.toLongArray();
+      VarInt.encode(words.length, out);
+      for (long word : words) {
+        out.writeLong(word);
+      }
+      VarInt.encode(encodedStates.size(), out);
+      for (Map.Entry<String, byte[]> entry : encodedStates.entrySet()) {
+        out.writeUTF(entry.getKey());
+        VarInt.encode(entry.getValue().length, out);
+        out.write(entry.getValue());
+      }
+      out.flush();
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * An in-memory state that records whether it was modified, together with the means to encode
+   * its current contents.
+   */
+  private abstract static class PackedState {
+    boolean dirty;
+
+    /**
+     * Returns the encoded contents of the state, or {@code null} if it is cleared.
+     */
+    @Nullable
+    abstract byte[] encode() throws IOException;
+  }
+
+  private static class PackedValue<T> extends PackedState implements ValueState<T> {
+    private final InMemoryValue<T> value = new InMemoryValue<>();
+    private final Coder<T> coder;
+
+    private PackedValue(Coder<T> coder, @Nullable byte[] encoded) throws IOException {
+      this.coder = coder;
+      if (encoded != null) {
+        value.write(CoderUtils.decodeFromByteArray(coder, encoded));
+      }
+    }
+
+    @Override
+    public T read() {
+      return value.read();
+    }
+
+    @Override
+    public void write(T input) {
+      value.write(input);
+      dirty = true;
+    }
+
+    @Override
+    public void clear() {
+      value.clear();
+      dirty = true;
+    }
+
+    @Override
+    public ValueState<T> readLater() {
+      return this;
+    }
+
+    @Override
+    byte[] encode() throws IOException {
+      T current = value.read();
+      return current == null ? null : CoderUtils.encodeToByteArray(coder, current);
+    }
+  }
+
+  private static class PackedCombiningState<InputT, AccumT, OutputT> extends PackedState
+      implements CombiningState<InputT, AccumT, OutputT> {
+    private final InMemoryCombiningState<InputT, AccumT, OutputT> combining;
+    private final Coder<AccumT> accumCoder;
+
+    private PackedCombiningState(
+        Coder<AccumT> accumCoder,
+        CombineFn<InputT, AccumT, OutputT> combineFn,
+        @Nullable byte[] encoded) throws IOException {
+      this.combining = new InMemoryCombiningState<>(combineFn);
+      this.accumCoder = accumCoder;
+      if (encoded != null) {
+        combining.addAccum(CoderUtils.decodeFromByteArray(accumCoder, encoded));
+      }
+    }
+
+    @Override
+    public OutputT read() {
+      return combining.read();
+    }
+
+    @Override
+    public void add(InputT input) {
+      combining.add(input);
+      dirty = true;
+    }
+
+    @Override
+    public ReadableState<Boolean> isEmpty() {
+      return combining.isEmpty();
+    }
+
+    @Override
+    public AccumT getAccum() {
+      return combining.getAccum();
+    }
+
+    @Override
+    public void addAccum(AccumT accum) {
+      combining.addAccum(accum);
+      dirty = true;
+    }
+
+    @Override
+    public AccumT mergeAccumulators(Iterable<AccumT> accumulators) {
+      return combining.mergeAccumulators(accumulators);
+    }
+
+    @Override
+    public void clear() {
+      combining.clear();
+      dirty = true;
+    }
+
+    @Override
+    public CombiningState<InputT, AccumT, OutputT> readLater() {
+      return this;
+    }
+
+    @Override
+    byte[] encode() throws IOException {
+      return combining.isCleared()
+          ? null
+          : CoderUtils.encodeToByteArray(accumCoder, combining.getAccum());
+    }
+  }
+
+  /**
+   * Binds a {@link StateTag} to a {@link PackedState} seeded from its encoded contents. The bound
+   * state is recorded in {@link #packedState}, since {@link StateTag#bind} only returns the
+   * {@link State} itself.
+   */
+  private static class PackedStateBinder implements StateBinder {
+    @Nullable
+    private final byte[] encoded;
+    private PackedState packedState;
+
+    private PackedStateBinder(@Nullable byte[] encoded) {
+      this.encoded = encoded;
+    }
+
+    @Override
+    public <T> ValueState<T> bindValue(StateTag<ValueState<T>> spec, Coder<T> coder) {
+      try {
+        PackedValue<T> value = new PackedValue<>(coder, encoded);
+        packedState = value;
+        return value;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public <InputT, AccumT, OutputT>
+        CombiningState<InputT, AccumT, OutputT> bindCombiningValue(
+            StateTag<CombiningState<InputT, AccumT, OutputT>> spec,
+            Coder<AccumT> accumCoder,
+            CombineFn<InputT, AccumT, OutputT> combineFn) {
+      try {
+        PackedCombiningState<InputT, AccumT, OutputT> combining =
+            new PackedCombiningState<>(accumCoder, combineFn, encoded);
+        packedState = combining;
+        return combining;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public <InputT, AccumT, OutputT>
+        CombiningState<InputT, AccumT, OutputT> bindCombiningValueWithContext(
+            StateTag<CombiningState<InputT, AccumT, OutputT>> spec,
+            Coder<AccumT> accumCoder,
+            CombineFnWithContext<InputT, AccumT, OutputT> combineFn) {
+      throw unsupported(spec);
+    }
+
+    @Override
+    public <T> BagState<T> bindBag(StateTag<BagState<T>> spec, Coder<T> elemCoder) {
+      throw unsupported(spec);
+    }
+
+    @Override
+    public <T> SetState<T> bindSet(StateTag<SetState<T>> spec, Coder<T> elemCoder) {
+      throw unsupported(spec);
+    }
+
+    @Override
+    public <KeyT, ValueT> MapState<KeyT, ValueT> bindMap(
+        StateTag<MapState<KeyT, ValueT>> spec,
+        Coder<KeyT> mapKeyCoder,
+        Coder<ValueT> mapValueCoder) {
+      throw unsupported(spec);
+    }
+
+    @Override
+    public WatermarkHoldState bindWatermark(
+        StateTag<WatermarkHoldState> spec, TimestampCombiner timestampCombiner) {
+      throw unsupported(spec);
+    }
+
+    private static UnsupportedOperationException unsupported(StateTag<?> spec) {
+      return new UnsupportedOperationException(
+          String.format(
+              "Packed trigger state only supports value and combining state, but %s is neither",
+              spec.getId()));
+    }
+  }
+}
@@ -52,13 +52,42 @@ public class TriggerStateMachineContextFactory<W extends BoundedWindow> {
   private final WindowFn<?, W> windowFn;
   private StateInternals stateInternals;
   private final Coder<W> windowCoder;
+  @Nullable
+  private final PackedTriggerState<W> packedState;
 
   public TriggerStateMachineContextFactory(
       WindowFn<?, W> windowFn, StateInternals stateInternals, ActiveWindowSet<W> activeWindows) {
+    this(windowFn, stateInternals, activeWindows, false);
+  }
+
+  /**
+   * Creates a factory whose contexts keep trigger state in {@code stateInternals}.
+   *
+   * <p>If {@code packTriggerState} is true, the state of all the triggers in the tree is kept in
+   * a single cell per window rather than in a namespace per trigger. Packed state is only written
+   * back by {@link TriggerStateMachineRunner#persist}, so such a factory must not be used without
+   * a runner. The two layouts are not compatible, so a pipeline must not change this setting on
+   * update.
+   */
+  public TriggerStateMachineContextFactory(
+      WindowFn<?, W> windowFn,
+      StateInternals stateInternals,
+      ActiveWindowSet<W> activeWindows,
+      boolean packTriggerState) {
     // Future triggers may be able to exploit the active window to state address window mapping.
     this.windowFn = windowFn;
     this.stateInternals = stateInternals;
     this.windowCoder = windowFn.windowCoder();
+    this.packedState =
+        packTriggerState ? new PackedTriggerState<>(stateInternals, windowCoder) : null;
+  }
+
+  /**
+   * Returns the packed trigger state, or {@code null} if each trigger keeps its own state.
+   */
+  @Nullable
+  PackedTriggerState<W> getPackedState() {
+    return packedState;
   }
 
   public TriggerStateMachine.TriggerContext base(W window, Timers timers,
@@ -249,12 +278,14 @@ public class TriggerStateMachineContextFactory<W extends BoundedWindow> {
 
   private class StateAccessorImpl implements StateAccessor<Object> {
     protected final int triggerIndex;
+    protected final W window;
     protected final StateNamespace windowNamespace;
 
     public StateAccessorImpl(
         W window,
         ExecutableTriggerStateMachine trigger) {
       this.triggerIndex = trigger.getTriggerIndex();
+      this.window = window;
       this.windowNamespace = namespaceFor(window);
     }
 
@@ -262,9 +293,17 @@ public class TriggerStateMachineContextFactory<W extends BoundedWindow> {
       return StateNamespaces.windowAndTrigger(windowCoder, window, triggerIndex);
     }
 
+    protected <StateT extends State> StateT accessIn(W window, StateTag<StateT> address) {
+      return packedState == null
+          ? stateInternals.state(namespaceFor(window), address)
+          : packedState.access(window, triggerIndex, address);
+    }
+
     @Override
     public <StateT extends State> StateT access(StateTag<StateT> address) {
-      return stateInternals.state(windowNamespace, address);
+      return packedState == null
+          ? stateInternals.state(windowNamespace, address)
+          : packedState.access(window, triggerIndex, address);
     }
   }
 
@@ -278,18 +317,12 @@ public class TriggerStateMachineContextFactory<W extends BoundedWindow> {
       this.activeToBeMerged = activeToBeMerged;
     }
 
-    @Override
-    public <StateT extends State> StateT access(
-        StateTag<StateT> address) {
-      return stateInternals.state(windowNamespace, address);
-    }
-
     @Override
     public <StateT extends State> Map<W, StateT> accessInEachMergingWindow(
         StateTag<StateT> address) {
       ImmutableMap.Builder<W, StateT> builder = ImmutableMap.builder();
       for (W mergingWindow : activeToBeMerged) {
-        StateT stateForWindow = stateInternals.state(namespaceFor(mergingWindow), address);
+        StateT stateForWindow = accessIn(mergingWindow, address);
         builder.put(mergingWindow, stateForWindow);
       }
       return builder.build();
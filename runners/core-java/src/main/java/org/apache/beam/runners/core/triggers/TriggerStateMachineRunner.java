@@ -24,11 +24,13 @@ import com.google.common.collect.ImmutableMap;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Map;
+import javax.annotation.Nullable;
 import org.apache.beam.runners.core.MergingStateAccessor;
 import org.apache.beam.runners.core.StateAccessor;
 import org.apache.beam.runners.core.StateTag;
 import org.apache.beam.runners.core.StateTags;
 import org.apache.beam.sdk.coders.BitSetCoder;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
 import org.apache.beam.sdk.state.Timers;
 import org.apache.beam.sdk.state.ValueState;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
@@ -53,6 +55,11 @@ import org.joda.time.Instant;
  * which subtriggers are finished. This class provides the information when building the contexts
  * and commits the information when the method of the {@link ExecutableTriggerStateMachine} returns.
  *
+ * <p>If the {@link TriggerStateMachineContextFactory} packs trigger state, the finished bits are
+ * kept in the same cell as the state of the triggers themselves. The cell of a window is read at
+ * most once per work unit and kept in memory, so that changes made by these methods are only
+ * written back, at most once per cell, by {@link #persist}.
+ *
  * @param <W> The kind of windows being processed.
  */
 public class TriggerStateMachineRunner<W extends BoundedWindow> {
@@ -60,8 +67,14 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
   public static final StateTag<ValueState<BitSet>> FINISHED_BITS_TAG =
       StateTags.makeSystemTagInternal(StateTags.value("closed", BitSetCoder.of()));
 
+  @VisibleForTesting
+  public static final StateTag<ValueState<byte[]>> PACKED_STATE_TAG =
+      StateTags.makeSystemTagInternal(StateTags.value("trigger", ByteArrayCoder.of()));
+
   private final ExecutableTriggerStateMachine rootTrigger;
   private final TriggerStateMachineContextFactory<W> contextFactory;
+  @Nullable
+  private final PackedTriggerState<W> packedState;
 
   public TriggerStateMachineRunner(
       ExecutableTriggerStateMachine rootTrigger,
@@ -69,6 +82,20 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
     checkState(rootTrigger.getTriggerIndex() == 0);
     this.rootTrigger = rootTrigger;
     this.contextFactory = contextFactory;
+    this.packedState = contextFactory.getPackedState();
+  }
+
+  private FinishedTriggersBitSet readFinishedBits(W window, StateAccessor<?> state) {
+    if (packedState == null) {
+      return readFinishedBits(state.access(FINISHED_BITS_TAG));
+    }
+    if (!isFinishedSetNeeded()) {
+      return FinishedTriggersBitSet.emptyWithCapacity(rootTrigger.getFirstIndexAfterSubtree());
+    }
+    BitSet bitSet = packedState.readFinishedBits(window);
+    return bitSet == null
+        ? FinishedTriggersBitSet.emptyWithCapacity(rootTrigger.getFirstIndexAfterSubtree())
+        : FinishedTriggersBitSet.fromBitSet((BitSet) bitSet.clone());
   }
 
   private FinishedTriggersBitSet readFinishedBits(ValueState<BitSet> state) {
@@ -95,31 +122,40 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
   }
 
   /** Return true if the trigger is closed in the window corresponding to the specified state. */
-  public boolean isClosed(StateAccessor<?> state) {
-    return readFinishedBits(state.access(FINISHED_BITS_TAG)).isFinished(rootTrigger);
+  public boolean isClosed(W window, StateAccessor<?> state) {
+    return readFinishedBits(window, state).isFinished(rootTrigger);
   }
 
-  public void prefetchIsClosed(StateAccessor<?> state) {
-    if (isFinishedSetNeeded()) {
+  public void prefetchIsClosed(W window, StateAccessor<?> state) {
+    if (packedState != null) {
+      packedState.prefetch(window);
+    } else if (isFinishedSetNeeded()) {
       state.access(FINISHED_BITS_TAG).readLater();
     }
   }
 
   public void prefetchForValue(W window, StateAccessor<?> state) {
-    prefetchIsClosed(state);
-    rootTrigger.getSpec().prefetchOnElement(
-        contextFactory.createStateAccessor(window, rootTrigger));
+    prefetchIsClosed(window, state);
+    if (packedState == null) {
+      rootTrigger.getSpec().prefetchOnElement(
+          contextFactory.createStateAccessor(window, rootTrigger));
+    }
   }
 
   public void prefetchOnFire(W window, StateAccessor<?> state) {
-    prefetchIsClosed(state);
-    rootTrigger.getSpec().prefetchOnFire(contextFactory.createStateAccessor(window, rootTrigger));
+    prefetchIsClosed(window, state);
+    if (packedState == null) {
+      rootTrigger.getSpec().prefetchOnFire(
+          contextFactory.createStateAccessor(window, rootTrigger));
+    }
   }
 
   public void prefetchShouldFire(W window, StateAccessor<?> state) {
-    prefetchIsClosed(state);
-    rootTrigger.getSpec().prefetchShouldFire(
-        contextFactory.createStateAccessor(window, rootTrigger));
+    prefetchIsClosed(window, state);
+    if (packedState == null) {
+      rootTrigger.getSpec().prefetchShouldFire(
+          contextFactory.createStateAccessor(window, rootTrigger));
+    }
   }
 
   /**
@@ -128,16 +164,22 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
   public void processValue(W window, Instant timestamp, Timers timers, StateAccessor<?> state)
       throws Exception {
     // Clone so that we can detect changes and so that changes here don't pollute merging.
-    FinishedTriggersBitSet finishedSet =
-        readFinishedBits(state.access(FINISHED_BITS_TAG)).copy();
+    FinishedTriggersBitSet finishedSet = readFinishedBits(window, state).copy();
     TriggerStateMachine.OnElementContext triggerContext = contextFactory.createOnElementContext(
         window, timers, timestamp, rootTrigger, finishedSet);
     rootTrigger.invokeOnElement(triggerContext);
-    persistFinishedSet(state, finishedSet);
+    persistFinishedSet(window, state, finishedSet);
   }
 
   public void prefetchForMerge(
       W window, Collection<W> mergingWindows, MergingStateAccessor<?, W> state) {
+    if (packedState != null) {
+      packedState.prefetch(window);
+      for (W mergingWindow : mergingWindows) {
+        packedState.prefetch(mergingWindow);
+      }
+      return;
+    }
     if (isFinishedSetNeeded()) {
       for (ValueState<?> value : state.accessInEachMergingWindow(FINISHED_BITS_TAG).values()) {
         value.readLater();
@@ -148,21 +190,30 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
   }
 
   /**
-   * Run the trigger merging logic as part of executing the specified merge.
+   * Run the trigger merging logic as part of executing the specified merge of the
+   * {@code mergingWindows} into {@code window}.
    */
-  public void onMerge(W window, Timers timers, MergingStateAccessor<?, W> state) throws Exception {
+  public void onMerge(
+      W window, Collection<W> mergingWindows, Timers timers, MergingStateAccessor<?, W> state)
+      throws Exception {
     // Clone so that we can detect changes and so that changes here don't pollute merging.
-    FinishedTriggersBitSet finishedSet =
-        readFinishedBits(state.access(FINISHED_BITS_TAG)).copy();
+    FinishedTriggersBitSet finishedSet = readFinishedBits(window, state).copy();
 
     // And read the finished bits in each merging window.
     ImmutableMap.Builder<W, FinishedTriggers> builder = ImmutableMap.builder();
-    for (Map.Entry<W, ValueState<BitSet>> entry :
-        state.accessInEachMergingWindow(FINISHED_BITS_TAG).entrySet()) {
-      // Don't need to clone these, since the trigger context doesn't allow modification
-      builder.put(entry.getKey(), readFinishedBits(entry.getValue()));
-      // Clear the underlying finished bits.
-      clearFinishedBits(entry.getValue());
+    if (packedState == null) {
+      for (Map.Entry<W, ValueState<BitSet>> entry :
+          state.accessInEachMergingWindow(FINISHED_BITS_TAG).entrySet()) {
+        // Don't need to clone these, since the trigger context doesn't allow modification
+        builder.put(entry.getKey(), readFinishedBits(entry.getValue()));
+        // Clear the underlying finished bits.
+        clearFinishedBits(entry.getValue());
+      }
+    } else {
+      for (W mergingWindow : mergingWindows) {
+        builder.put(mergingWindow, readFinishedBits(mergingWindow, state));
+        clearFinished(mergingWindow);
+      }
     }
     ImmutableMap<W, FinishedTriggers> mergingFinishedSets = builder.build();
 
@@ -172,11 +223,11 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
     // Run the merge from the trigger
     rootTrigger.invokeOnMerge(mergeContext);
 
-    persistFinishedSet(state, finishedSet);
+    persistFinishedSet(window, state, finishedSet);
   }
 
   public boolean shouldFire(W window, Timers timers, StateAccessor<?> state) throws Exception {
-    FinishedTriggers finishedSet = readFinishedBits(state.access(FINISHED_BITS_TAG)).copy();
+    FinishedTriggers finishedSet = readFinishedBits(window, state).copy();
     TriggerStateMachine.TriggerContext context = contextFactory.base(window, timers,
         rootTrigger, finishedSet);
     return rootTrigger.invokeShouldFire(context);
@@ -185,20 +236,24 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
   public void onFire(W window, Timers timers, StateAccessor<?> state) throws Exception {
     // shouldFire should be false.
     // However it is too expensive to assert.
-    FinishedTriggersBitSet finishedSet =
-        readFinishedBits(state.access(FINISHED_BITS_TAG)).copy();
+    FinishedTriggersBitSet finishedSet = readFinishedBits(window, state).copy();
     TriggerStateMachine.TriggerContext context = contextFactory.base(window, timers,
         rootTrigger, finishedSet);
     rootTrigger.invokeOnFire(context);
-    persistFinishedSet(state, finishedSet);
+    persistFinishedSet(window, state, finishedSet);
   }
 
   private void persistFinishedSet(
-      StateAccessor<?> state, FinishedTriggersBitSet modifiedFinishedSet) {
+      W window, StateAccessor<?> state, FinishedTriggersBitSet modifiedFinishedSet) {
     if (!isFinishedSetNeeded()) {
       return;
     }
 
+    if (packedState != null) {
+      packedState.writeFinishedBits(window, modifiedFinishedSet.getBitSet());
+      return;
+    }
+
     ValueState<BitSet> finishedSetState = state.access(FINISHED_BITS_TAG);
     if (!readFinishedBits(finishedSetState).equals(modifiedFinishedSet)) {
       if (modifiedFinishedSet.getBitSet().isEmpty()) {
@@ -212,8 +267,18 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
   /**
    * Clear the finished bits.
    */
-  public void clearFinished(StateAccessor<?> state) {
-    clearFinishedBits(state.access(FINISHED_BITS_TAG));
+  public void clearFinished(W window, StateAccessor<?> state) {
+    if (packedState == null) {
+      clearFinishedBits(state.access(FINISHED_BITS_TAG));
+      return;
+    }
+    clearFinished(window);
+  }
+
+  private void clearFinished(W window) {
+    if (isFinishedSetNeeded()) {
+      packedState.writeFinishedBits(window, null);
+    }
   }
 
   /**
@@ -222,10 +287,20 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
    */
   public void clearState(W window, Timers timers, StateAccessor<?> state) throws Exception {
     // Don't need to clone, because we'll be clearing the finished bits anyways.
-    FinishedTriggers finishedSet = readFinishedBits(state.access(FINISHED_BITS_TAG));
+    FinishedTriggers finishedSet = readFinishedBits(window, state);
     rootTrigger.invokeClear(contextFactory.base(window, timers, rootTrigger, finishedSet));
   }
 
+  /**
+   * Writes back any trigger state that is kept in memory. Must be called once the work unit that
+   * this runner was used for is complete.
+   */
+  public void persist() {
+    if (packedState != null) {
+      packedState.commit();
+    }
+  }
+
   private boolean isFinishedSetNeeded() {
     // TODO: If we know that no trigger in the tree will ever finish, we don't need to do the
     // lookup. Right now, we special case this for the DefaultTrigger.
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.runners.core.TimerInternals.TimerData;
+import org.apache.beam.runners.core.construction.TriggerTranslation;
+import org.apache.beam.runners.core.triggers.ExecutableTriggerStateMachine;
+import org.apache.beam.runners.core.triggers.TriggerStateMachines;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.WindowingStrategy;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link BatchedReduceFnRunner}.
+ */
+@RunWith(JUnit4.class)
+public class BatchedReduceFnRunnerTest {
+  private final WindowingStrategy<Object, IntervalWindow> windowingStrategy =
+      WindowingStrategy.of(FixedWindows.of(Duration.millis(10L)));
+  private final IntervalWindow window = new IntervalWindow(new Instant(0L), new Instant(10L));
+
+  private final Map<String, InMemoryStateInternals<String>> stateInternals = new HashMap<>();
+  private final Map<String, InMemoryTimerInternals> timerInternals = new HashMap<>();
+  private final List<KV<String, Iterable<Integer>>> outputs = new ArrayList<>();
+  private int readBatches;
+
+  private BatchedReduceFnRunner<String, Integer, Iterable<Integer>, IntervalWindow> batched;
+
+  @Before
+  public void setup() {
+    batched =
+        new BatchedReduceFnRunner<>(
+            new StateReadBatcher() {
+              @Override
+              public void readPending() {
+                readBatches++;
+              }
+            });
+  }
+
+  @Test
+  public void processesElementsAndTimersOfAllKeys() throws Exception {
+    batched.add(
+        runnerFor("foo"),
+        Arrays.asList(valueInWindow(1, 1L), valueInWindow(3, 3L)),
+        Collections.<TimerData>emptyList());
+    batched.add(
+        runnerFor("bar"),
+        Collections.singletonList(valueInWindow(2, 2L)),
+        Collections.<TimerData>emptyList());
+    batched.run();
+
+    assertThat(outputs, emptyIterable());
+    // One batch of reads for each phase of processing elements and timers
+    assertThat(readBatches, equalTo(5));
+
+    for (String key : new String[] {"foo", "bar"}) {
+      InMemoryTimerInternals timers = timerInternals.get(key);
+      timers.advanceInputWatermark(new Instant(100L));
+      List<TimerData> firedTimers = new ArrayList<>();
+      for (TimerData timer = timers.removeNextEventTimer();
+          timer != null;
+          timer = timers.removeNextEventTimer()) {
+        firedTimers.add(timer);
+      }
+      batched.add(runnerFor(key), Collections.<WindowedValue<Integer>>emptyList(), firedTimers);
+    }
+    batched.run();
+
+    Map<String, Iterable<Integer>> outputsByKey = new HashMap<>();
+    for (KV<String, Iterable<Integer>> output : outputs) {
+      outputsByKey.put(output.getKey(), output.getValue());
+    }
+    assertThat(outputs.size(), equalTo(2));
+    assertThat(outputsByKey.get("foo"), containsInAnyOrder(1, 3));
+    assertThat(outputsByKey.get("bar"), containsInAnyOrder(2));
+  }
+
+  @Test
+  public void emptyBatchDoesNotRead() throws Exception {
+    batched.run();
+    assertThat(readBatches, equalTo(0));
+  }
+
+  private WindowedValue<Integer> valueInWindow(int value, long timestamp) {
+    return WindowedValue.of(value, new Instant(timestamp), window, PaneInfo.NO_FIRING);
+  }
+
+  private ReduceFnRunner<String, Integer, Iterable<Integer>, IntervalWindow> runnerFor(
+      String key) {
+    if (!stateInternals.containsKey(key)) {
+      stateInternals.put(key, InMemoryStateInternals.forKey(key));
+      timerInternals.put(key, new InMemoryTimerInternals());
+    }
+    return new ReduceFnRunner<>(
+        key,
+        windowingStrategy,
+        ExecutableTriggerStateMachine.create(
+            TriggerStateMachines.stateMachineForTrigger(
+                TriggerTranslation.toProto(windowingStrategy.getTrigger()))),
+        stateInternals.get(key),
+        timerInternals.get(key),
+        new CollectingOutput(),
+        NullSideInputReader.empty(),
+        SystemReduceFn.<String, Integer, IntervalWindow>buffering(VarIntCoder.of()),
+        PipelineOptionsFactory.create());
+  }
+
+  private class CollectingOutput implements OutputWindowedValue<KV<String, Iterable<Integer>>> {
+    @Override
+    public void outputWindowedValue(
+        KV<String, Iterable<Integer>> output,
+        Instant timestamp,
+        Collection<? extends BoundedWindow> windows,
+        PaneInfo pane) {
+      outputs.add(output);
+    }
+
+    @Override
+    public <AdditionalOutputT> void outputWindowedValue(
+        TupleTag<AdditionalOutputT> tag,
+        AdditionalOutputT output,
+        Instant timestamp,
+        Collection<? extends BoundedWindow> windows,
+        PaneInfo pane) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -19,6 +19,11 @@ package org.apache.beam.runners.core;
 
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.runners.core.InMemoryStateInternals.InMemoryBag;
+import org.apache.beam.runners.core.InMemoryStateInternals.InMemoryMap;
+import org.apache.beam.runners.core.InMemoryStateInternals.InMemorySet;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.state.BagState;
@@ -42,6 +47,7 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
     InMemoryStateInternalsTest.StandardStateInternalsTests.class,
+    InMemoryStateInternalsTest.SpillingStateInternalsTests.class,
     InMemoryStateInternalsTest.OtherTests.class
 })
 public class InMemoryStateInternalsTest {
@@ -57,6 +63,17 @@ public class InMemoryStateInternalsTest {
     }
   }
 
+  /**
+   * A standard StateInternals test where bags spill every element.
+   */
+  @RunWith(JUnit4.class)
+  public static class SpillingStateInternalsTests extends StateInternalsTest {
+    @Override
+    protected StateInternals createStateInternals() {
+      return InMemoryStateInternals.forKeyWithSpilling("dummyKey", 1L, null);
+    }
+  }
+
   /**
    * A specific test of InMemoryStateInternals.
    */
@@ -95,6 +112,50 @@ public class InMemoryStateInternalsTest {
       assertSameInstance(WATERMARK_EARLIEST_ADDR);
     }
 
+    @Test
+    public void testCopiesAreIndependent() {
+      BagState<String> bag = underTest.state(NAMESPACE, STRING_BAG_ADDR);
+      SetState<String> set = underTest.state(NAMESPACE, STRING_SET_ADDR);
+      MapState<String, Integer> map = underTest.state(NAMESPACE, STRING_MAP_ADDR);
+      bag.add("foo");
+      set.add("foo");
+      map.put("foo", 1);
+
+      BagState<String> bagCopy = ((InMemoryBag<String>) bag).copy();
+      SetState<String> setCopy = ((InMemorySet<String>) set).copy();
+      MapState<String, Integer> mapCopy = ((InMemoryMap<String, Integer>) map).copy();
+      bag.add("bar");
+      bagCopy.add("baz");
+      set.remove("foo");
+      setCopy.add("baz");
+      map.put("foo", 2);
+      mapCopy.put("baz", 3);
+
+      assertThat(bag.read(), Matchers.contains("foo", "bar"));
+      assertThat(bagCopy.read(), Matchers.contains("foo", "baz"));
+      assertThat(set.read(), Matchers.emptyIterable());
+      assertThat(setCopy.read(), Matchers.containsInAnyOrder("foo", "baz"));
+      assertThat(map.get("foo").read(), Matchers.equalTo(2));
+      assertThat(map.get("baz").read(), Matchers.nullValue());
+      assertThat(mapCopy.get("foo").read(), Matchers.equalTo(1));
+      assertThat(mapCopy.get("baz").read(), Matchers.equalTo(3));
+    }
+
+    @Test
+    public void testBagCopiesPreserveOrder() {
+      InMemoryBag<String> bag = (InMemoryBag<String>) underTest.state(NAMESPACE, STRING_BAG_ADDR);
+      List<String> expected = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        for (int j = 0; j <= i % 7; j++) {
+          String element = i + "-" + j;
+          bag.add(element);
+          expected.add(element);
+        }
+        bag = bag.copy();
+      }
+      assertThat(bag.read(), Matchers.<String>contains(expected.toArray(new String[0])));
+    }
+
     private <T extends State> void assertSameInstance(StateTag<T> address) {
       assertThat(underTest.state(NAMESPACE, address),
           Matchers.sameInstance(underTest.state(NAMESPACE, address)));
@@ -24,9 +24,14 @@ import static org.mockito.Mockito.verify;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
@@ -257,4 +262,63 @@ public class MergingActiveWindowSetTest {
     // For then on we are back to the eager case.
     assertEquals(ImmutableSet.of(window(1, 10)), set.readStateAddresses(window(1, 12)));
   }
+
+  @Test
+  public void testIncrementalMergesMatchSessions() throws Exception {
+    Random random = new Random(17);
+    List<IntervalWindow> windows = new ArrayList<>();
+    for (int round = 0; round < 200; round++) {
+      set = new MergingActiveWindowSet<>(windowFn, state);
+      for (int i = random.nextInt(4); i >= 0; i--) {
+        long instant = random.nextInt(2000);
+        add(instant);
+        windows.add(window(instant, 10));
+      }
+      set.merge(callback);
+      for (IntervalWindow window : set.getActiveAndNewWindows()) {
+        set.ensureWindowIsActive(window);
+      }
+      cleanup();
+      assertEquals(sessions(windows), set.getActiveAndNewWindows());
+    }
+  }
+
+  @Test
+  public void testMergesOverlappingWindowsReadFromState() throws Exception {
+    // Windows persisted without being merged must all be considered by the next merge.
+    set.addActiveForTesting(window(1, 10));
+    set.addActiveForTesting(window(5, 10));
+    set.addActiveForTesting(window(30, 10));
+    set.persist();
+
+    set = new MergingActiveWindowSet<>(windowFn, state);
+    add(35);
+    merge(ImmutableList.of(window(1, 10), window(5, 10)), window(1, 14));
+    verify(callback).onMerge(ImmutableList.of(window(30, 10), window(35, 10)), window(30, 15));
+    assertEquals(ImmutableSet.of(window(1, 14), window(30, 15)), set.getActiveAndNewWindows());
+  }
+
+  /**
+   * The sessions formed by merging all overlapping {@code windows}.
+   */
+  private static Set<IntervalWindow> sessions(List<IntervalWindow> windows) {
+    List<IntervalWindow> sorted = new ArrayList<>(windows);
+    Collections.sort(sorted);
+    Set<IntervalWindow> sessions = new HashSet<>();
+    IntervalWindow session = null;
+    for (IntervalWindow window : sorted) {
+      if (session != null && session.intersects(window)) {
+        session = session.span(window);
+      } else {
+        if (session != null) {
+          sessions.add(session);
+        }
+        session = window;
+      }
+    }
+    if (session != null) {
+      sessions.add(session);
+    }
+    return sessions;
+  }
 }
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link OffHeapSlabs}.
+ */
+@RunWith(JUnit4.class)
+public class OffHeapSlabsTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private final OffHeapSlabs slabs = OffHeapSlabs.create(1024);
+
+  @Test
+  public void allocatedBlocksHoldTheirContents() {
+    long first = slabs.allocate(100);
+    long second = slabs.allocate(100);
+    assertThat(first, not(equalTo(OffHeapSlabs.NULL_ADDRESS)));
+    assertThat(slabs.capacity(first), greaterThanOrEqualTo(100));
+
+    byte[] bytes = new byte[100];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    slabs.write(first, 0, bytes, 0, bytes.length);
+    slabs.putLong(second, 0, 42L);
+    slabs.putInt(second, 96, 7);
+
+    byte[] read = new byte[100];
+    slabs.read(first, 0, read, 0, read.length);
+    assertThat(read, equalTo(bytes));
+    assertThat(slabs.getLong(second, 0), equalTo(42L));
+    assertThat(slabs.getInt(second, 96), equalTo(7));
+  }
+
+  @Test
+  public void freedBlocksAreReused() {
+    long first = slabs.allocate(100);
+    slabs.free(first);
+    assertThat(slabs.getUsedBytes(), equalTo(0L));
+
+    long second = slabs.allocate(90);
+    assertThat(second, equalTo(first));
+  }
+
+  @Test
+  public void blocksLargerThanSlabs() {
+    long small = slabs.allocate(10);
+    long large = slabs.allocate(5000);
+    assertThat(slabs.capacity(large), greaterThanOrEqualTo(5000));
+
+    byte[] bytes = new byte[5000];
+    bytes[4999] = 1;
+    slabs.write(large, 0, bytes, 0, bytes.length);
+    slabs.putInt(small, 0, 3);
+
+    byte[] read = new byte[5000];
+    slabs.read(large, 0, read, 0, read.length);
+    assertThat(read, equalTo(bytes));
+    assertThat(slabs.getInt(small, 0), equalTo(3));
+    assertThat(slabs.getAllocatedBytes(), greaterThanOrEqualTo(1024L + 5000L));
+  }
+
+  @Test
+  public void slabSizeMustBePowerOfTwo() {
+    thrown.expect(IllegalArgumentException.class);
+    OffHeapSlabs.create(1000);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Strings;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.CombiningState;
+import org.apache.beam.sdk.state.MapState;
+import org.apache.beam.sdk.state.SetState;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.Sum;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.runners.Suite;
+
+/**
+ * Tests for {@link OffHeapStateInternals}. This is based on {@link StateInternalsTest}.
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+    OffHeapStateInternalsTest.StandardStateInternalsTests.class,
+    OffHeapStateInternalsTest.UncachedStateInternalsTests.class,
+    OffHeapStateInternalsTest.OtherTests.class
+})
+public class OffHeapStateInternalsTest {
+
+  /**
+   * A standard StateInternals test.
+   */
+  @RunWith(JUnit4.class)
+  public static class StandardStateInternalsTests extends StateInternalsTest {
+    @Override
+    protected StateInternals createStateInternals() {
+      return OffHeapStateInternals.forKey("dummyKey", OffHeapSlabs.create());
+    }
+  }
+
+  /**
+   * A standard StateInternals test where every value is encoded as soon as it is written.
+   */
+  @RunWith(JUnit4.class)
+  public static class UncachedStateInternalsTests extends StateInternalsTest {
+    @Override
+    protected StateInternals createStateInternals() {
+      return OffHeapStateInternals.forKey("dummyKey", OffHeapSlabs.create(), 0);
+    }
+  }
+
+  /**
+   * A specific test of OffHeapStateInternals.
+   */
+  @RunWith(JUnit4.class)
+  public static class OtherTests {
+
+    private static final StateNamespace NAMESPACE_1 = new StateNamespaceForTest("ns1");
+    private static final StateNamespace NAMESPACE_2 = new StateNamespaceForTest("ns2");
+
+    private static final StateTag<ValueState<String>> STRING_VALUE_ADDR =
+        StateTags.value("stringValue", StringUtf8Coder.of());
+    private static final StateTag<CombiningState<Integer, int[], Integer>>
+        SUM_INTEGER_ADDR = StateTags.combiningValueFromInputInternal(
+        "sumInteger", VarIntCoder.of(), Sum.ofIntegers());
+    private static final StateTag<BagState<String>> STRING_BAG_ADDR =
+        StateTags.bag("stringBag", StringUtf8Coder.of());
+    private static final StateTag<SetState<String>> STRING_SET_ADDR =
+        StateTags.set("stringSet", StringUtf8Coder.of());
+    private static final StateTag<MapState<String, Integer>> STRING_MAP_ADDR =
+        StateTags.map("stringMap", StringUtf8Coder.of(), VarIntCoder.of());
+
+    private final OffHeapSlabs slabs = OffHeapSlabs.create(4096);
+    private final OffHeapStateInternals<String> underTest =
+        OffHeapStateInternals.forKey("dummyKey", slabs, 1);
+
+    @Test
+    public void testEvictedValuesAreRetained() {
+      underTest.state(NAMESPACE_1, STRING_VALUE_ADDR).write("foo");
+      underTest.state(NAMESPACE_1, SUM_INTEGER_ADDR).add(3);
+      underTest.state(NAMESPACE_2, STRING_VALUE_ADDR).write("bar");
+      underTest.state(NAMESPACE_1, SUM_INTEGER_ADDR).add(4);
+
+      assertThat(underTest.state(NAMESPACE_1, STRING_VALUE_ADDR).read(), equalTo("foo"));
+      assertThat(underTest.state(NAMESPACE_2, STRING_VALUE_ADDR).read(), equalTo("bar"));
+      assertThat(underTest.state(NAMESPACE_1, SUM_INTEGER_ADDR).read(), equalTo(7));
+      assertThat(underTest.state(NAMESPACE_2, SUM_INTEGER_ADDR).isEmpty().read(), equalTo(true));
+    }
+
+    @Test
+    public void testBagElementsLargerThanBlocks() {
+      BagState<String> bag = underTest.state(NAMESPACE_1, STRING_BAG_ADDR);
+      String large = Strings.repeat("large", 10000);
+      bag.add("small");
+      bag.add(large);
+      bag.add("small again");
+
+      assertThat(bag.read(), contains("small", large, "small again"));
+    }
+
+    @Test
+    public void testLargeBag() {
+      BagState<String> bag = underTest.state(NAMESPACE_1, STRING_BAG_ADDR);
+      String element = Strings.repeat("x", 100);
+      List<String> expected = new ArrayList<>();
+      long lastGrowth = 0;
+      for (int i = 0; i < 80000; i++) {
+        long usedBytes = slabs.getUsedBytes();
+        bag.add(element + i);
+        expected.add(element + i);
+        long growth = slabs.getUsedBytes() - usedBytes;
+        if (growth > 0) {
+          // The blocks grow until they reach their maximum size, and then stay at that size.
+          assertThat(growth, greaterThanOrEqualTo(lastGrowth));
+          lastGrowth = growth;
+        }
+      }
+
+      assertThat(slabs.getUsedBytes(), greaterThan(8L * 1000 * 1000));
+      assertThat(bag.read(), equalTo((Iterable<String>) expected));
+    }
+
+    @Test
+    public void testClearFreesMemory() {
+      underTest.state(NAMESPACE_1, STRING_VALUE_ADDR).write("foo");
+      underTest.state(NAMESPACE_2, STRING_VALUE_ADDR).write("bar");
+      underTest.state(NAMESPACE_1, SUM_INTEGER_ADDR).add(3);
+      for (int i = 0; i < 1000; i++) {
+        underTest.state(NAMESPACE_1, STRING_BAG_ADDR).add("bag" + i);
+        underTest.state(NAMESPACE_1, STRING_SET_ADDR).add("set" + i);
+        underTest.state(NAMESPACE_1, STRING_MAP_ADDR).put("map" + i, i);
+      }
+      assertThat(slabs.getUsedBytes(), greaterThan(0L));
+
+      underTest.clear();
+      assertThat(slabs.getUsedBytes(), equalTo(0L));
+      assertThat(underTest.state(NAMESPACE_1, STRING_VALUE_ADDR).read(), equalTo(null));
+    }
+  }
+}
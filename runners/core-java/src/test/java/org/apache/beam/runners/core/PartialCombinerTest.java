@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.Sum;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.transforms.windowing.Sessions;
+import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.WindowingStrategy;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link PartialCombiner}.
+ */
+@RunWith(JUnit4.class)
+public class PartialCombinerTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private final FixedWindows windowFn = FixedWindows.of(Duration.millis(10L));
+  private final IntervalWindow first = new IntervalWindow(new Instant(0L), new Instant(10L));
+  private final IntervalWindow second = new IntervalWindow(new Instant(10L), new Instant(20L));
+  private final List<WindowedValue<KV<String, Integer>>> outputs = new ArrayList<>();
+
+  @Test
+  public void combinesValuesPerKeyAndWindow() {
+    PartialCombiner<String, Integer, int[]> combiner =
+        combinerFor(WindowingStrategy.of(windowFn), 100);
+    combiner.add(valueInWindow("foo", 1, 1L, first));
+    combiner.add(valueInWindow("foo", 2, 2L, first));
+    combiner.add(valueInWindow("bar", 4, 3L, first));
+    combiner.add(valueInWindow("foo", 8, 12L, second));
+    combiner.add(valueInWindow("bar", 16, 5L, first));
+
+    assertThat(combiner.size(), equalTo(3));
+    assertThat(outputs, emptyIterable());
+
+    combiner.flush();
+    assertThat(combiner.size(), equalTo(0));
+    assertThat(
+        outputs,
+        containsInAnyOrder(
+            valueInWindow("foo", 3, 1L, first),
+            valueInWindow("bar", 20, 3L, first),
+            valueInWindow("foo", 8, 12L, second)));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    PartialCombiner<String, Integer, int[]> combiner =
+        combinerFor(WindowingStrategy.of(windowFn), 2);
+    combiner.add(valueInWindow("foo", 1, 1L, first));
+    combiner.add(valueInWindow("bar", 2, 1L, first));
+    combiner.add(valueInWindow("foo", 4, 1L, first));
+    combiner.add(valueInWindow("baz", 8, 1L, first));
+
+    assertThat(combiner.size(), equalTo(2));
+    assertThat(outputs, contains(valueInWindow("bar", 2, 1L, first)));
+
+    combiner.flush();
+    assertThat(
+        outputs,
+        contains(
+            valueInWindow("bar", 2, 1L, first),
+            valueInWindow("foo", 5, 1L, first),
+            valueInWindow("baz", 8, 1L, first)));
+  }
+
+  @Test
+  public void combinesTimestamps() {
+    PartialCombiner<String, Integer, int[]> combiner =
+        combinerFor(
+            WindowingStrategy.of(windowFn).withTimestampCombiner(TimestampCombiner.EARLIEST),
+            100);
+    combiner.add(valueInWindow("foo", 1, 7L, first));
+    combiner.add(valueInWindow("foo", 2, 3L, first));
+    combiner.add(valueInWindow("foo", 4, 5L, first));
+    combiner.flush();
+
+    assertThat(outputs, contains(valueInWindow("foo", 7, 3L, first)));
+  }
+
+  @Test
+  public void rejectsMergingWindows() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("merging windows");
+    combinerFor(WindowingStrategy.of(Sessions.withGapDuration(Duration.millis(10L))), 100);
+  }
+
+  private PartialCombiner<String, Integer, int[]> combinerFor(
+      WindowingStrategy<?, ?> windowingStrategy, int maxEntries) {
+    return PartialCombiner.create(
+        StringUtf8Coder.of(),
+        Sum.ofIntegers(),
+        windowingStrategy,
+        maxEntries,
+        PipelineOptionsFactory.create(),
+        NullSideInputReader.empty(),
+        new OutputWindowedValue<KV<String, int[]>>() {
+          @Override
+          public void outputWindowedValue(
+              KV<String, int[]> output,
+              Instant timestamp,
+              Collection<? extends BoundedWindow> windows,
+              PaneInfo pane) {
+            outputs.add(
+                WindowedValue.of(
+                    KV.of(output.getKey(), output.getValue()[0]), timestamp, windows, pane));
+          }
+
+          @Override
+          public <AdditionalOutputT> void outputWindowedValue(
+              TupleTag<AdditionalOutputT> tag,
+              AdditionalOutputT output,
+              Instant timestamp,
+              Collection<? extends BoundedWindow> windows,
+              PaneInfo pane) {
+            throw new UnsupportedOperationException();
+          }
+        });
+  }
+
+  private static WindowedValue<KV<String, Integer>> valueInWindow(
+      String key, int value, long timestamp, IntervalWindow window) {
+    return WindowedValue.of(KV.of(key, value), new Instant(timestamp), window, PaneInfo.NO_FIRING);
+  }
+}
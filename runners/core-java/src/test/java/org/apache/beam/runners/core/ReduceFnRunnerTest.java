@@ -40,12 +40,14 @@ import com.google.common.collect.Iterables;
 import java.util.List;
 import org.apache.beam.runners.core.metrics.MetricsContainerImpl;
 import org.apache.beam.runners.core.triggers.TriggerStateMachine;
+import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.metrics.MetricName;
 import org.apache.beam.sdk.metrics.MetricsEnvironment;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
 import org.apache.beam.sdk.transforms.CombineWithContext.CombineFnWithContext;
 import org.apache.beam.sdk.transforms.CombineWithContext.Context;
 import org.apache.beam.sdk.transforms.Sum;
@@ -123,6 +125,67 @@ public class ReduceFnRunnerTest {
     firstWindow = new IntervalWindow(new Instant(0), new Instant(10));
   }
 
+  /**
+   * Returns whether the testers created by this test keep the state of the trigger in a single
+   * cell per window.
+   */
+  protected boolean packTriggerState() {
+    return false;
+  }
+
+  private <TesterT extends ReduceFnTester<?, ?, ?>> TesterT configure(TesterT tester) {
+    tester.setPackTriggerState(packTriggerState());
+    return tester;
+  }
+
+  private <W extends BoundedWindow> ReduceFnTester<Integer, Iterable<Integer>, W> nonCombining(
+      WindowingStrategy<?, W> windowingStrategy) throws Exception {
+    return configure(ReduceFnTester.nonCombining(windowingStrategy));
+  }
+
+  private <W extends BoundedWindow> ReduceFnTester<Integer, Iterable<Integer>, W> nonCombining(
+      WindowFn<?, W> windowFn,
+      TriggerStateMachine triggerStateMachine,
+      AccumulationMode mode,
+      Duration allowedDataLateness,
+      ClosingBehavior closingBehavior)
+      throws Exception {
+    return configure(
+        ReduceFnTester.nonCombining(
+            windowFn, triggerStateMachine, mode, allowedDataLateness, closingBehavior));
+  }
+
+  private <W extends BoundedWindow, AccumT, OutputT> ReduceFnTester<Integer, OutputT, W> combining(
+      WindowingStrategy<?, W> strategy,
+      CombineFn<Integer, AccumT, OutputT> combineFn,
+      Coder<OutputT> outputCoder)
+      throws Exception {
+    return configure(ReduceFnTester.combining(strategy, combineFn, outputCoder));
+  }
+
+  private <W extends BoundedWindow, AccumT, OutputT> ReduceFnTester<Integer, OutputT, W> combining(
+      WindowingStrategy<?, W> strategy,
+      TriggerStateMachine triggerStateMachine,
+      CombineFn<Integer, AccumT, OutputT> combineFn,
+      Coder<OutputT> outputCoder)
+      throws Exception {
+    return configure(
+        ReduceFnTester.combining(strategy, triggerStateMachine, combineFn, outputCoder));
+  }
+
+  private <W extends BoundedWindow, AccumT, OutputT> ReduceFnTester<Integer, OutputT, W> combining(
+      WindowingStrategy<?, W> strategy,
+      TriggerStateMachine triggerStateMachine,
+      CombineFnWithContext<Integer, AccumT, OutputT> combineFn,
+      Coder<OutputT> outputCoder,
+      PipelineOptions options,
+      SideInputReader sideInputReader)
+      throws Exception {
+    return configure(
+        ReduceFnTester.combining(
+            strategy, triggerStateMachine, combineFn, outputCoder, options, sideInputReader));
+  }
+
   private void injectElement(ReduceFnTester<Integer, ?, IntervalWindow> tester, int element)
       throws Exception {
     doNothing().when(mockTriggerStateMachine).onElement(anyElementContext());
@@ -158,7 +221,7 @@ public class ReduceFnRunnerTest {
                     AfterProcessingTime.pastFirstElementInPane().plusDelayOf(Duration.millis(10))));
 
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
+        combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
 
     tester.advanceProcessingTime(new Instant(5000));
     injectElement(tester, 2); // processing timer @ 5000 + 10; EOW timer @ 100
@@ -182,7 +245,7 @@ public class ReduceFnRunnerTest {
     MetricsContainerImpl container = new MetricsContainerImpl("any");
     MetricsEnvironment.setCurrentContainer(container);
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
+        nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
             AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(100),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
 
@@ -215,7 +278,7 @@ public class ReduceFnRunnerTest {
   public void testOnElementBufferingAccumulating() throws Exception {
     // Test basic execution of a trigger using a non-combining window set and accumulating mode.
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(
+        nonCombining(
             FixedWindows.of(Duration.millis(10)),
             mockTriggerStateMachine,
             AccumulationMode.ACCUMULATING_FIRED_PANES,
@@ -256,7 +319,7 @@ public class ReduceFnRunnerTest {
             .withAllowedLateness(Duration.millis(100));
 
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(
+        combining(
             strategy,
             mockTriggerStateMachine,
             Sum.ofIntegers(),
@@ -299,7 +362,7 @@ public class ReduceFnRunnerTest {
                     AfterProcessingTime.pastFirstElementInPane().plusDelayOf(Duration.millis(10))));
 
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
+        combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
 
     tester.advanceProcessingTime(new Instant(5000));
     injectElement(tester, 2); // processing timer @ 5000 + 10; EOW timer @ 100
@@ -404,7 +467,7 @@ public class ReduceFnRunnerTest {
                     AfterProcessingTime.pastFirstElementInPane().plusDelayOf(Duration.millis(10))));
 
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
+        combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
 
     tester.advanceProcessingTime(new Instant(5000));
     injectElement(tester, 2); // processing timer @ 5000 + 10; EOW timer @ 100
@@ -435,7 +498,7 @@ public class ReduceFnRunnerTest {
             .withTrigger(Repeatedly.forever(AfterWatermark.pastEndOfWindow()));
 
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
+        combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
 
     injectElement(tester, 2); // processing timer @ 5000 + 10; EOW timer @ 100
     injectElement(tester, 5);
@@ -461,7 +524,7 @@ public class ReduceFnRunnerTest {
             .withAllowedLateness(Duration.millis(100));
 
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(
+        combining(
             strategy,
             mockTriggerStateMachine,
             Sum.ofIntegers(),
@@ -529,7 +592,7 @@ public class ReduceFnRunnerTest {
 
     SumAndVerifyContextFn combineFn = new SumAndVerifyContextFn(mockView, expectedValue);
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(
+        combining(
             mainInputWindowingStrategy,
             mockTriggerStateMachine,
             combineFn,
@@ -561,7 +624,7 @@ public class ReduceFnRunnerTest {
     MetricsEnvironment.setCurrentContainer(container);
     // Test handling of late data. Specifically, ensure the watermark hold is correct.
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
+        nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
             AccumulationMode.ACCUMULATING_FIRED_PANES, Duration.millis(10),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
 
@@ -688,7 +751,7 @@ public class ReduceFnRunnerTest {
   public void dontSetHoldIfTooLateForEndOfWindowTimer() throws Exception {
     // Make sure holds are only set if they are accompanied by an end-of-window timer.
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
+        nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
             AccumulationMode.ACCUMULATING_FIRED_PANES, Duration.millis(10),
             ClosingBehavior.FIRE_ALWAYS);
     tester.setAutoAdvanceOutputWatermark(false);
@@ -726,7 +789,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void testPaneInfoAllStates() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
+        nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
             AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(100),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
 
@@ -764,7 +827,7 @@ public class ReduceFnRunnerTest {
 
   @Test
   public void testPaneInfoAllStatesAfterWatermark() throws Exception {
-    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = ReduceFnTester.nonCombining(
+    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = nonCombining(
         WindowingStrategy.of(FixedWindows.of(Duration.millis(10)))
             .withTrigger(Repeatedly.forever(AfterFirst.of(
                 AfterPane.elementCountAtLeast(2),
@@ -817,7 +880,7 @@ public class ReduceFnRunnerTest {
 
   @Test
   public void noEmptyPanesFinalIfNonEmpty() throws Exception {
-    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = ReduceFnTester.nonCombining(
+    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = nonCombining(
         WindowingStrategy.of(FixedWindows.of(Duration.millis(10)))
             .withTrigger(Repeatedly.<IntervalWindow>forever(AfterFirst.<IntervalWindow>of(
                 AfterPane.elementCountAtLeast(2),
@@ -844,7 +907,7 @@ public class ReduceFnRunnerTest {
 
   @Test
   public void noEmptyPanesFinalAlways() throws Exception {
-    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = ReduceFnTester.nonCombining(
+    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = nonCombining(
         WindowingStrategy.of(FixedWindows.of(Duration.millis(10)))
             .withTrigger(Repeatedly.<IntervalWindow>forever(AfterFirst.<IntervalWindow>of(
                 AfterPane.elementCountAtLeast(2),
@@ -873,7 +936,7 @@ public class ReduceFnRunnerTest {
 
   @Test
   public void testPaneInfoAllStatesAfterWatermarkAccumulating() throws Exception {
-    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = ReduceFnTester.nonCombining(
+    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = nonCombining(
         WindowingStrategy.of(FixedWindows.of(Duration.millis(10)))
             .withTrigger(Repeatedly.forever(AfterFirst.of(
                 AfterPane.elementCountAtLeast(2),
@@ -926,7 +989,7 @@ public class ReduceFnRunnerTest {
 
   @Test
   public void testPaneInfoFinalAndOnTime() throws Exception {
-    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = ReduceFnTester.nonCombining(
+    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester = nonCombining(
         WindowingStrategy.of(FixedWindows.of(Duration.millis(10)))
             .withTrigger(
                 Repeatedly.forever(AfterPane.elementCountAtLeast(2))
@@ -954,7 +1017,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void testPaneInfoSkipToFinish() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
+        nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
             AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(100),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
 
@@ -969,7 +1032,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void testPaneInfoSkipToNonSpeculativeAndFinish() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
+        nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
             AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(100),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
 
@@ -986,7 +1049,7 @@ public class ReduceFnRunnerTest {
     // Verify that we merge windows before producing output so users don't see undesired
     // unmerged windows.
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(Sessions.withGapDuration(Duration.millis(10)),
+        nonCombining(Sessions.withGapDuration(Duration.millis(10)),
             mockTriggerStateMachine,
             AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(0),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
@@ -1020,7 +1083,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void testMergingWithCloseBeforeGC() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(Sessions.withGapDuration(Duration.millis(10)),
+        nonCombining(Sessions.withGapDuration(Duration.millis(10)),
             mockTriggerStateMachine,
             AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(50),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
@@ -1056,7 +1119,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void testMergingWithCloseTrigger() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(Sessions.withGapDuration(Duration.millis(10)),
+        nonCombining(Sessions.withGapDuration(Duration.millis(10)),
             mockTriggerStateMachine,
                                     AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(50),
                                     ClosingBehavior.FIRE_IF_NON_EMPTY);
@@ -1090,7 +1153,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void testMergingWithReusedWindow() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(Sessions.withGapDuration(Duration.millis(10)),
+        nonCombining(Sessions.withGapDuration(Duration.millis(10)),
             mockTriggerStateMachine,
                                     AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(50),
                                     ClosingBehavior.FIRE_IF_NON_EMPTY);
@@ -1132,7 +1195,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void testMergingWithClosedRepresentative() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(Sessions.withGapDuration(Duration.millis(10)),
+        nonCombining(Sessions.withGapDuration(Duration.millis(10)),
             mockTriggerStateMachine,
                                     AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(50),
                                     ClosingBehavior.FIRE_IF_NON_EMPTY);
@@ -1174,7 +1237,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void testMergingWithClosedDoesNotPoison() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(Sessions.withGapDuration(Duration.millis(10)),
+        nonCombining(Sessions.withGapDuration(Duration.millis(10)),
             mockTriggerStateMachine,
             AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(50),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
@@ -1220,7 +1283,7 @@ public class ReduceFnRunnerTest {
   public void testDropDataMultipleWindowsFinishedTrigger() throws Exception {
     MetricsContainerImpl container = new MetricsContainerImpl("any");
     MetricsEnvironment.setCurrentContainer(container);
-    ReduceFnTester<Integer, Integer, IntervalWindow> tester = ReduceFnTester.combining(
+    ReduceFnTester<Integer, Integer, IntervalWindow> tester = combining(
         WindowingStrategy.of(
             SlidingWindows.of(Duration.millis(100)).every(Duration.millis(30)))
         .withTrigger(AfterWatermark.pastEndOfWindow())
@@ -1270,7 +1333,7 @@ public class ReduceFnRunnerTest {
     // Test uninteresting (empty) panes don't increment the index or otherwise
     // modify PaneInfo.
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
+        nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
             AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(100),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
 
@@ -1321,7 +1384,7 @@ public class ReduceFnRunnerTest {
     // Test uninteresting (empty) panes don't increment the index or otherwise
     // modify PaneInfo.
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
+        nonCombining(FixedWindows.of(Duration.millis(10)), mockTriggerStateMachine,
             AccumulationMode.ACCUMULATING_FIRED_PANES, Duration.millis(100),
             ClosingBehavior.FIRE_IF_NON_EMPTY);
 
@@ -1391,7 +1454,7 @@ public class ReduceFnRunnerTest {
             .withAllowedLateness(Duration.millis(100));
 
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
+        combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
 
     tester.advanceInputWatermark(new Instant(0));
     tester.advanceProcessingTime(new Instant(0));
@@ -1446,7 +1509,7 @@ public class ReduceFnRunnerTest {
             .withAllowedLateness(Duration.millis(100));
 
     ReduceFnTester<Integer, Integer, IntervalWindow> tester =
-        ReduceFnTester.combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
+        combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
 
     tester.advanceInputWatermark(new Instant(0));
     tester.advanceProcessingTime(new Instant(0));
@@ -1515,7 +1578,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void fireNonEmptyOnDrainInGlobalWindow() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, GlobalWindow> tester =
-        ReduceFnTester.nonCombining(
+        nonCombining(
             WindowingStrategy.of(new GlobalWindows())
                              .withTrigger(Repeatedly.<GlobalWindow>forever(
                                  AfterPane.elementCountAtLeast(3)))
@@ -1552,7 +1615,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void fireEmptyOnDrainInGlobalWindowIfRequested() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, GlobalWindow> tester =
-        ReduceFnTester.nonCombining(
+        nonCombining(
             WindowingStrategy.of(new GlobalWindows())
                              .withTrigger(Repeatedly.<GlobalWindow>forever(
                                  AfterProcessingTime.pastFirstElementInPane().plusDelayOf(
@@ -1589,7 +1652,7 @@ public class ReduceFnRunnerTest {
   @Test
   public void setGarbageCollectionHoldOnLateElements() throws Exception {
     ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
-        ReduceFnTester.nonCombining(
+        nonCombining(
             WindowingStrategy.of(FixedWindows.of(Duration.millis(10)))
                 .withTrigger(
                     AfterWatermark.pastEndOfWindow()
@@ -107,6 +107,12 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
    */
   private boolean autoAdvanceOutputWatermark = true;
 
+  /**
+   * If true, the runners keep the state of the trigger and its finished bits in a single cell per
+   * window.
+   */
+  private boolean packTriggerState = false;
+
   /**
    * Creates a {@link ReduceFnTester} for the given {@link WindowingStrategy}, creating
    * a {@link TriggerStateMachine} from its {@link Trigger}.
@@ -284,6 +290,10 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
     this.autoAdvanceOutputWatermark = autoAdvanceOutputWatermark;
   }
 
+  public void setPackTriggerState(boolean packTriggerState) {
+    this.packTriggerState = packTriggerState;
+  }
+
   @Nullable
   public Instant getNextTimer(TimeDomain domain) {
     return timerInternals.getNextTimer(domain);
@@ -299,7 +309,8 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
         testOutputter,
         sideInputReader,
         reduceFn,
-        options);
+        options,
+        packTriggerState);
   }
 
   public boolean isMarkedFinished(W window) {
@@ -314,7 +325,7 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
   public final void assertHasOnlyGlobalAndFinishedSetsFor(W... expectedWindows) {
     assertHasOnlyGlobalAndAllowedTags(
         ImmutableSet.copyOf(expectedWindows),
-        ImmutableSet.<StateTag<?>>of(TriggerStateMachineRunner.FINISHED_BITS_TAG));
+        ImmutableSet.<StateTag<?>>of(finishedBitsTag()));
   }
 
   @SafeVarargs
@@ -323,7 +334,7 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
         ImmutableSet.copyOf(expectedWindows),
         ImmutableSet.<StateTag<?>>of(
             ((SystemReduceFn<?, ?, ?, ?, ?>) reduceFn).getBufferTag(),
-            TriggerStateMachineRunner.FINISHED_BITS_TAG,
+            finishedBitsTag(),
             PaneInfoTracker.PANE_INFO_TAG,
             WatermarkHold.watermarkHoldTagForTimestampCombiner(
                 objectStrategy.getTimestampCombiner()),
@@ -335,7 +346,7 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
     assertHasOnlyGlobalAndAllowedTags(
         ImmutableSet.copyOf(expectedWindows),
         ImmutableSet.<StateTag<?>>of(
-            TriggerStateMachineRunner.FINISHED_BITS_TAG,
+            finishedBitsTag(),
             PaneInfoTracker.PANE_INFO_TAG,
             WatermarkHold.watermarkHoldTagForTimestampCombiner(
                 objectStrategy.getTimestampCombiner()),
@@ -358,6 +369,16 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
             WatermarkHold.EXTRA_HOLD_TAG));
   }
 
+  /**
+   * Returns the tag under which the finished bits of the trigger are stored, which also holds the
+   * state of the trigger if it is packed.
+   */
+  private StateTag<?> finishedBitsTag() {
+    return packTriggerState
+        ? TriggerStateMachineRunner.PACKED_STATE_TAG
+        : TriggerStateMachineRunner.FINISHED_BITS_TAG;
+  }
+
   /**
    * Verifies that the the set of windows that have any state stored is exactly
    * {@code expectedWindows} and that each of these windows has only tags from {@code allowedTags}.
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link SharedHashTrie}.
+ */
+@RunWith(JUnit4.class)
+public class SharedHashTrieTest {
+  @Test
+  public void putGetRemove() {
+    SharedHashTrie<String, Integer> trie = SharedHashTrie.create();
+    assertThat(trie.put("foo", 1), nullValue());
+    assertThat(trie.put("bar", 2), nullValue());
+    assertThat(trie.put("foo", 3), equalTo(1));
+
+    assertThat(trie.get("foo"), equalTo(3));
+    assertThat(trie.get("bar"), equalTo(2));
+    assertThat(trie.get("baz"), nullValue());
+    assertThat(trie.size(), equalTo(2));
+
+    assertThat(trie.remove("foo"), equalTo(3));
+    assertThat(trie.remove("foo"), nullValue());
+    assertThat(trie.size(), equalTo(1));
+    assertThat(
+        trie.entries(),
+        containsInAnyOrder((Map.Entry<String, Integer>) new SimpleImmutableEntry<>("bar", 2)));
+  }
+
+  @Test
+  public void nullKeysAndValues() {
+    SharedHashTrie<String, Integer> trie = SharedHashTrie.create();
+    trie.put(null, 1);
+    trie.put("foo", null);
+
+    assertThat(trie.get(null), equalTo(1));
+    assertTrue(trie.containsKey("foo"));
+    assertThat(trie.get("foo"), nullValue());
+    assertThat(trie.size(), equalTo(2));
+  }
+
+  @Test
+  public void collidingKeys() {
+    SharedHashTrie<CollidingKey, Integer> trie = SharedHashTrie.create();
+    for (int i = 0; i < 100; i++) {
+      trie.put(new CollidingKey(i % 3, i), i);
+    }
+    for (int i = 0; i < 100; i += 2) {
+      assertThat(trie.remove(new CollidingKey(i % 3, i)), equalTo(i));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertThat(trie.get(new CollidingKey(i % 3, i)), equalTo(i % 2 == 0 ? null : i));
+    }
+    assertThat(trie.size(), equalTo(50));
+  }
+
+  @Test
+  public void copiesAreIndependent() {
+    SharedHashTrie<Integer, Integer> original = SharedHashTrie.create();
+    for (int i = 0; i < 1000; i++) {
+      original.put(i, i);
+    }
+    SharedHashTrie<Integer, Integer> copy = original.copy();
+    original.put(0, -1);
+    original.remove(1);
+    copy.put(2, -2);
+    copy.put(1000, 1000);
+
+    assertThat(original.get(0), equalTo(-1));
+    assertThat(original.get(1), nullValue());
+    assertThat(original.get(2), equalTo(2));
+    assertThat(original.get(1000), nullValue());
+    assertThat(original.size(), equalTo(999));
+
+    assertThat(copy.get(0), equalTo(0));
+    assertThat(copy.get(1), equalTo(1));
+    assertThat(copy.get(2), equalTo(-2));
+    assertThat(copy.get(1000), equalTo(1000));
+    assertThat(copy.size(), equalTo(1001));
+  }
+
+  @Test
+  public void entriesAreSnapshots() {
+    SharedHashTrie<String, Integer> trie = SharedHashTrie.create();
+    Iterable<Map.Entry<String, Integer>> empty = trie.entries();
+    trie.put("foo", 1);
+    Iterable<Map.Entry<String, Integer>> foo = trie.entries();
+    trie.put("foo", 2);
+    trie.put("bar", 3);
+
+    assertThat(empty, emptyIterable());
+    assertThat(
+        foo,
+        containsInAnyOrder((Map.Entry<String, Integer>) new SimpleImmutableEntry<>("foo", 1)));
+  }
+
+  @Test
+  public void matchesHashMap() {
+    Random random = new Random(0L);
+    SharedHashTrie<Integer, Integer> trie = SharedHashTrie.create();
+    Map<Integer, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      int key = random.nextInt(5000);
+      if (random.nextBoolean()) {
+        assertThat(trie.put(key, i), equalTo(expected.put(key, i)));
+      } else {
+        assertThat(trie.remove(key), equalTo(expected.remove(key)));
+      }
+      if (i % 1000 == 0) {
+        trie = trie.copy();
+      }
+    }
+    assertThat(trie.size(), equalTo(expected.size()));
+    Map<Integer, Integer> actual = new HashMap<>();
+    for (Map.Entry<Integer, Integer> entry : trie.entries()) {
+      actual.put(entry.getKey(), entry.getValue());
+    }
+    assertThat(actual, equalTo(expected));
+  }
+
+  private static class CollidingKey {
+    private final int hash;
+    private final int id;
+
+    private CollidingKey(int hash, int id) {
+      this.hash = hash;
+      this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof CollidingKey && ((CollidingKey) other).id == id;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.Iterator;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.state.BagState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link SpillingBagState}.
+ */
+@RunWith(JUnit4.class)
+public class SpillingBagStateTest {
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void spillsOnceThresholdIsExceeded() throws Exception {
+    File spillDirectory = tmpFolder.newFolder();
+    SpillingBagState<String> bag = new SpillingBagState<>(StringUtf8Coder.of(), 8L, spillDirectory);
+
+    bag.add("foo");
+    assertThat(spillDirectory.list().length, equalTo(0));
+    bag.add("barbaz");
+    assertThat(spillDirectory.list().length, equalTo(1));
+    bag.add("qux");
+
+    assertThat(bag.read(), contains("foo", "barbaz", "qux"));
+  }
+
+  @Test
+  public void readsAreSnapshots() throws Exception {
+    SpillingBagState<String> bag =
+        new SpillingBagState<>(StringUtf8Coder.of(), 8L, tmpFolder.newFolder());
+    bag.add("foo");
+    bag.add("barbaz");
+    bag.add("qux");
+
+    Iterable<String> beforeClear = bag.read();
+    bag.add("quux");
+    bag.clear();
+    bag.add("corge");
+
+    assertThat(beforeClear, contains("foo", "barbaz", "qux"));
+    assertThat(bag.read(), contains("corge"));
+  }
+
+  @Test
+  public void copiesAreIndependent() throws Exception {
+    SpillingBagState<String> bag =
+        new SpillingBagState<>(StringUtf8Coder.of(), 8L, tmpFolder.newFolder());
+    bag.add("foo");
+    bag.add("barbaz");
+    bag.add("qux");
+
+    SpillingBagState<String> copy = bag.copy();
+    bag.add("quux");
+    copy.add("corge");
+    copy.add("grault");
+
+    assertThat(bag.read(), contains("foo", "barbaz", "qux", "quux"));
+    assertThat(copy.read(), contains("foo", "barbaz", "qux", "corge", "grault"));
+
+    copy.clear();
+    assertThat(copy.isCleared(), equalTo(true));
+    assertThat(copy.read(), emptyIterable());
+    assertThat(bag.read(), contains("foo", "barbaz", "qux", "quux"));
+  }
+
+  @Test
+  public void clearDeletesUnsharedSpillFile() throws Exception {
+    File spillDirectory = tmpFolder.newFolder();
+    SpillingBagState<String> bag = new SpillingBagState<>(StringUtf8Coder.of(), 8L, spillDirectory);
+    bag.add("foo");
+    bag.add("barbaz");
+    assertThat(spillDirectory.list().length, equalTo(1));
+
+    bag.clear();
+    assertThat(spillDirectory.list().length, equalTo(0));
+  }
+
+  @Test
+  public void clearKeepsSpillFileUntilSnapshotIsUnreachable() throws Exception {
+    File spillDirectory = tmpFolder.newFolder();
+    SpillingBagState<String> bag = new SpillingBagState<>(StringUtf8Coder.of(), 8L, spillDirectory);
+    bag.add("foo");
+    bag.add("barbaz");
+    bag.add("qux");
+    bag.add("quuxcorge");
+
+    Iterable<String> snapshot = bag.read();
+    // Abandon an iterator while it has a segment of the spill file open
+    Iterator<String> abandoned = snapshot.iterator();
+    abandoned.next();
+    bag.clear();
+    assertThat(spillDirectory.list().length, equalTo(1));
+    assertThat(snapshot, contains("foo", "barbaz", "qux", "quuxcorge"));
+
+    snapshot = null;
+    abandoned = null;
+    for (int i = 0; i < 100 && spillDirectory.list().length > 0; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    assertThat(spillDirectory.list().length, equalTo(0));
+  }
+
+  @Test
+  public void clearingStateInternalsDeletesSpillFiles() throws Exception {
+    File spillDirectory = tmpFolder.newFolder();
+    InMemoryStateInternals<String> stateInternals =
+        InMemoryStateInternals.forKeyWithSpilling("key", 8L, spillDirectory);
+    BagState<String> bag =
+        stateInternals.state(StateNamespaces.global(), StateTags.bag("bag", StringUtf8Coder.of()));
+    bag.add("foo");
+    bag.add("barbaz");
+    assertThat(spillDirectory.list().length, equalTo(1));
+
+    stateInternals.clear();
+    assertThat(spillDirectory.list().length, equalTo(0));
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core.triggers;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.MergingStateAccessor;
+import org.apache.beam.runners.core.NonMergingActiveWindowSet;
+import org.apache.beam.runners.core.StateNamespace;
+import org.apache.beam.runners.core.StateNamespaces;
+import org.apache.beam.runners.core.StateTag;
+import org.apache.beam.runners.core.TestInMemoryStateInternals;
+import org.apache.beam.sdk.state.State;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timers;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.Sessions;
+import org.apache.beam.sdk.transforms.windowing.WindowFn;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link PackedTriggerState} as used by {@link TriggerStateMachineRunner}.
+ */
+@RunWith(JUnit4.class)
+public class PackedTriggerStateTest {
+
+  private static final WindowFn<Object, IntervalWindow> WINDOW_FN =
+      Sessions.withGapDuration(Duration.millis(10));
+
+  private static final IntervalWindow FIRST_WINDOW =
+      new IntervalWindow(new Instant(0), new Instant(10));
+  private static final IntervalWindow SECOND_WINDOW =
+      new IntervalWindow(new Instant(5), new Instant(15));
+  private static final IntervalWindow MERGED_WINDOW =
+      new IntervalWindow(new Instant(0), new Instant(15));
+
+  /**
+   * A trigger with composite and stateful nodes, which finishes after nine elements.
+   */
+  private static TriggerStateMachine compositeTrigger() {
+    return AfterEachStateMachine.inOrder(
+            AfterPaneStateMachine.elementCountAtLeast(2),
+            RepeatedlyStateMachine.forever(
+                AfterFirstStateMachine.of(
+                    AfterPaneStateMachine.elementCountAtLeast(3),
+                    AfterProcessingTimeStateMachine.pastFirstElementInPane()
+                        .plusDelayOf(Duration.millis(5)))))
+        .orFinally(AfterPaneStateMachine.elementCountAtLeast(9));
+  }
+
+  @Test
+  public void testPackedStateBehavesLikeUnpackedState() throws Exception {
+    Harness packed = new Harness(true);
+    Harness unpacked = new Harness(false);
+
+    List<String> packedEvents = packed.processElements(FIRST_WINDOW, 20);
+    List<String> unpackedEvents = unpacked.processElements(FIRST_WINDOW, 20);
+
+    assertThat(packedEvents, hasItem("closed"));
+    assertEquals(unpackedEvents, packedEvents);
+  }
+
+  @Test
+  public void testPackedStateUsesOneCellPerWindow() throws Exception {
+    Harness packed = new Harness(true);
+    packed.processElements(FIRST_WINDOW, 4);
+    packed.processElements(SECOND_WINDOW, 1);
+
+    assertThat(
+        packed.tagsInUse(FIRST_WINDOW),
+        contains((StateTag<?>) TriggerStateMachineRunner.PACKED_STATE_TAG));
+    assertThat(
+        packed.tagsInUse(SECOND_WINDOW),
+        contains((StateTag<?>) TriggerStateMachineRunner.PACKED_STATE_TAG));
+    for (StateNamespace namespace : packed.stateInternals.getNamespacesInUse()) {
+      assertTrue(
+          "Unexpected namespace " + namespace,
+          namespace.equals(packed.namespace(FIRST_WINDOW))
+              || namespace.equals(packed.namespace(SECOND_WINDOW))
+              || packed.stateInternals.getTagsInUse(namespace).isEmpty());
+    }
+  }
+
+  @Test
+  public void testClearingRemovesCell() throws Exception {
+    Harness packed = new Harness(true);
+    packed.processElements(FIRST_WINDOW, 20);
+    assertTrue(packed.runner.isClosed(FIRST_WINDOW, packed.accessor(FIRST_WINDOW)));
+
+    packed.runner.clearState(FIRST_WINDOW, packed.timers, packed.accessor(FIRST_WINDOW));
+    assertTrue(packed.runner.isClosed(FIRST_WINDOW, packed.accessor(FIRST_WINDOW)));
+
+    packed.runner.clearFinished(FIRST_WINDOW, packed.accessor(FIRST_WINDOW));
+    packed.runner.persist();
+    assertThat(packed.tagsInUse(FIRST_WINDOW), empty());
+  }
+
+  @Test
+  public void testChangesAreOnlyWrittenOnPersist() throws Exception {
+    Harness packed = new Harness(true);
+    packed.runner.processValue(
+        FIRST_WINDOW, FIRST_WINDOW.start(), packed.timers, packed.accessor(FIRST_WINDOW));
+    packed.runner.processValue(
+        FIRST_WINDOW, FIRST_WINDOW.start(), packed.timers, packed.accessor(FIRST_WINDOW));
+    assertNull(packed.storedCell(FIRST_WINDOW));
+
+    packed.runner.persist();
+    assertThat(
+        packed.tagsInUse(FIRST_WINDOW),
+        contains((StateTag<?>) TriggerStateMachineRunner.PACKED_STATE_TAG));
+  }
+
+  @Test
+  public void testCellIsReadOncePerWorkUnit() throws Exception {
+    Harness packed = new Harness(true);
+    packed.processElements(FIRST_WINDOW, 3);
+    assertEquals(3, packed.packedStateAccesses);
+  }
+
+  @Test
+  public void testReadOnlyCallsDoNotRewriteCell() throws Exception {
+    Harness packed = new Harness(true);
+    packed.processElements(FIRST_WINDOW, 1);
+    byte[] cell = packed.storedCell(FIRST_WINDOW);
+
+    packed.runner.isClosed(FIRST_WINDOW, packed.accessor(FIRST_WINDOW));
+    packed.runner.shouldFire(FIRST_WINDOW, packed.timers, packed.accessor(FIRST_WINDOW));
+    packed.runner.persist();
+
+    assertSame(cell, packed.storedCell(FIRST_WINDOW));
+  }
+
+  @Test
+  public void testPackedMergeBehavesLikeUnpackedMerge() throws Exception {
+    Harness packed = new Harness(true);
+    Harness unpacked = new Harness(false);
+    for (Harness harness : ImmutableList.of(packed, unpacked)) {
+      harness.processElements(FIRST_WINDOW, 2);
+      harness.processElements(SECOND_WINDOW, 1);
+      harness.merge(MERGED_WINDOW, FIRST_WINDOW, SECOND_WINDOW);
+    }
+
+    assertThat(packed.tagsInUse(FIRST_WINDOW), empty());
+    assertThat(packed.tagsInUse(SECOND_WINDOW), empty());
+    assertEquals(
+        unpacked.processElements(MERGED_WINDOW, 10), packed.processElements(MERGED_WINDOW, 10));
+  }
+
+  /**
+   * Runs a {@link TriggerStateMachineRunner} against its own in-memory state.
+   */
+  private static class Harness {
+    private int packedStateAccesses = 0;
+    private final TestInMemoryStateInternals<?> stateInternals =
+        new TestInMemoryStateInternals<Object>(null /* key */) {
+          @Override
+          public <T extends State> T state(StateNamespace namespace, StateTag<T> address) {
+            if (address.equals(TriggerStateMachineRunner.PACKED_STATE_TAG)) {
+              packedStateAccesses++;
+            }
+            return super.state(namespace, address);
+          }
+        };
+    private final FakeTimers timers = new FakeTimers();
+    private final TriggerStateMachineRunner<IntervalWindow> runner;
+
+    private Harness(boolean packTriggerState) {
+      runner =
+          new TriggerStateMachineRunner<>(
+              ExecutableTriggerStateMachine.create(compositeTrigger()),
+              new TriggerStateMachineContextFactory<>(
+                  WINDOW_FN,
+                  stateInternals,
+                  new NonMergingActiveWindowSet<IntervalWindow>(),
+                  packTriggerState));
+    }
+
+    /**
+     * Processes elements in the given window one at a time, each in its own work unit, firing
+     * whenever the trigger is ready, and returns what happened.
+     */
+    private List<String> processElements(IntervalWindow window, int count) throws Exception {
+      List<String> events = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        timers.processingTime = timers.processingTime.plus(2);
+        if (runner.isClosed(window, accessor(window))) {
+          events.add("closed");
+          continue;
+        }
+        runner.prefetchForValue(window, accessor(window));
+        runner.processValue(window, window.start(), timers, accessor(window));
+        runner.prefetchShouldFire(window, accessor(window));
+        if (runner.shouldFire(window, timers, accessor(window))) {
+          runner.prefetchOnFire(window, accessor(window));
+          runner.onFire(window, timers, accessor(window));
+          events.add("fired@" + i);
+        }
+        runner.persist();
+      }
+      return events;
+    }
+
+    private void merge(IntervalWindow result, IntervalWindow... sources) throws Exception {
+      ImmutableList<IntervalWindow> mergingWindows = ImmutableList.copyOf(sources);
+      MergingStateAccessor<?, IntervalWindow> accessor = mergingAccessor(result, mergingWindows);
+      runner.prefetchForMerge(result, mergingWindows, accessor);
+      runner.onMerge(result, mergingWindows, timers, accessor);
+      runner.persist();
+    }
+
+    private StateNamespace namespace(IntervalWindow window) {
+      return StateNamespaces.window(WINDOW_FN.windowCoder(), window);
+    }
+
+    @Nullable
+    private byte[] storedCell(IntervalWindow window) {
+      return stateInternals
+          .state(namespace(window), TriggerStateMachineRunner.PACKED_STATE_TAG)
+          .read();
+    }
+
+    private Set<StateTag<?>> tagsInUse(IntervalWindow window) {
+      Set<StateTag<?>> tags = new HashSet<>();
+      for (StateNamespace namespace : stateInternals.getNamespacesInUse()) {
+        if (namespace.equals(namespace(window))) {
+          tags.addAll(stateInternals.getTagsInUse(namespace));
+        }
+      }
+      return tags;
+    }
+
+    private MergingStateAccessor<?, IntervalWindow> accessor(IntervalWindow window) {
+      return mergingAccessor(window, ImmutableList.<IntervalWindow>of());
+    }
+
+    private MergingStateAccessor<?, IntervalWindow> mergingAccessor(
+        final IntervalWindow window, final List<IntervalWindow> mergingWindows) {
+      return new MergingStateAccessor<Object, IntervalWindow>() {
+        @Override
+        public <StateT extends State> StateT access(StateTag<StateT> address) {
+          return stateInternals.state(namespace(window), address);
+        }
+
+        @Override
+        public <StateT extends State> Map<IntervalWindow, StateT> accessInEachMergingWindow(
+            StateTag<StateT> address) {
+          ImmutableMap.Builder<IntervalWindow, StateT> states = ImmutableMap.builder();
+          for (IntervalWindow mergingWindow : mergingWindows) {
+            states.put(mergingWindow, stateInternals.state(namespace(mergingWindow), address));
+          }
+          return states.build();
+        }
+      };
+    }
+  }
+
+  private static class FakeTimers implements Timers {
+    private Instant processingTime = new Instant(0);
+
+    @Override
+    public void setTimer(Instant timestamp, TimeDomain timeDomain) {}
+
+    @Override
+    public void deleteTimer(Instant timestamp, TimeDomain timeDomain) {}
+
+    @Override
+    public Instant currentProcessingTime() {
+      return processingTime;
+    }
+
+    @Override
+    @Nullable
+    public Instant currentSynchronizedProcessingTime() {
+      return processingTime;
+    }
+
+    @Override
+    public Instant currentEventTime() {
+      return new Instant(0);
+    }
+  }
+}
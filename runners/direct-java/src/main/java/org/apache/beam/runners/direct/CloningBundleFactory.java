@@ -18,8 +18,10 @@
 
 package org.apache.beam.runners.direct;
 
+import javax.annotation.Nullable;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.runners.AppliedPTransform;
 import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.util.UserCodeException;
 import org.apache.beam.sdk.util.WindowedValue;
@@ -31,15 +33,29 @@ import org.joda.time.Instant;
  * using the coder of the {@link PCollection}.
  */
 class CloningBundleFactory implements BundleFactory {
-  private static final CloningBundleFactory INSTANCE = new CloningBundleFactory();
+  private static final CloningBundleFactory INSTANCE = new CloningBundleFactory(null, null);
 
   public static CloningBundleFactory create() {
     return INSTANCE;
   }
 
+  /**
+   * Create a new {@link CloningBundleFactory} that only clones the elements selected by the
+   * provided {@link EnforcementPolicy}. Elements that are not selected are added unchanged.
+   */
+  public static CloningBundleFactory create(EnforcementPolicy policy, DirectGraph graph) {
+    return new CloningBundleFactory(policy, graph);
+  }
+
   private final ImmutableListBundleFactory underlying;
-  private CloningBundleFactory() {
+  @Nullable private final EnforcementPolicy policy;
+  @Nullable private final DirectGraph graph;
+
+  private CloningBundleFactory(
+      @Nullable EnforcementPolicy policy, @Nullable DirectGraph graph) {
     this.underlying = ImmutableListBundleFactory.create();
+    this.policy = policy;
+    this.graph = graph;
   }
 
   @Override
@@ -51,21 +67,29 @@ class CloningBundleFactory implements BundleFactory {
   @Override
   public <T> UncommittedBundle<T> createBundle(
       PCollection<T> output) {
-    return new CloningBundle<>(underlying.createBundle(output));
+    return new CloningBundle<>(underlying.createBundle(output), producer(output));
   }
 
   @Override
   public <K, T> UncommittedBundle<T> createKeyedBundle(
       StructuralKey<K> key, PCollection<T> output) {
-    return new CloningBundle<>(underlying.createKeyedBundle(key, output));
+    return new CloningBundle<>(underlying.createKeyedBundle(key, output), producer(output));
+  }
+
+  @Nullable
+  private AppliedPTransform<?, ?, ?> producer(PCollection<?> output) {
+    return policy == null ? null : graph.getProducer(output);
   }
 
-  private static class CloningBundle<T> implements UncommittedBundle<T> {
+  private class CloningBundle<T> implements UncommittedBundle<T> {
     private final UncommittedBundle<T> underlying;
+    @Nullable private final AppliedPTransform<?, ?, ?> producer;
     private final Coder<T> coder;
 
-    private CloningBundle(UncommittedBundle<T> underlying) {
+    private CloningBundle(
+        UncommittedBundle<T> underlying, @Nullable AppliedPTransform<?, ?, ?> producer) {
       this.underlying = underlying;
+      this.producer = producer;
       this.coder = underlying.getPCollection().getCoder();
     }
 
@@ -77,6 +101,10 @@ class CloningBundleFactory implements BundleFactory {
     @Override
     public UncommittedBundle<T> add(WindowedValue<T> element) {
       try {
+        if (policy != null && !policy.shouldCheck(producer, coder, element.getValue())) {
+          underlying.add(element);
+          return this;
+        }
         // Use the cloned value to ensure that if the coder behaves poorly (e.g. a NoOpCoder that
         // does not expect to be used) that is reflected in the values given to downstream
         // transforms
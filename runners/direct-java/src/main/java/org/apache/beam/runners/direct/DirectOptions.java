@@ -17,6 +17,7 @@
  */
 package org.apache.beam.runners.direct;
 
+import java.util.List;
 import org.apache.beam.sdk.options.ApplicationNameOptions;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.DefaultValueFactory;
@@ -53,6 +54,72 @@ public interface DirectOptions extends PipelineOptions, ApplicationNameOptions {
   boolean isEnforceEncodability();
   void setEnforceEncodability(boolean test);
 
+  @Default.Double(1.0)
+  @Description(
+      "The fraction of elements, between 0 and 1, that the DirectRunner checks for immutability "
+          + "and encodability. Each element is sampled independently. Defaults to checking every "
+          + "element.")
+  double getEnforcementSampleRate();
+  void setEnforcementSampleRate(double sampleRate);
+
+  @Default.Long(0L)
+  @Description(
+      "If positive, elements that encode to at most this many bytes are always checked for "
+          + "immutability and encodability, and only larger elements are sampled at the "
+          + "enforcement sample rate. Determining the size of a sampled element requires encoding "
+          + "it once.")
+  long getEnforcementSizeThreshold();
+  void setEnforcementSizeThreshold(long sizeThreshold);
+
+  @Description(
+      "Overrides of the enforcement sample rate for individual PTransforms, as entries of the "
+          + "form TransformName=rate. An entry applies to the PTransform with that full name and "
+          + "to all PTransforms nested within it. The most specific entry applies.")
+  List<String> getEnforcementSampleRateOverrides();
+  void setEnforcementSampleRateOverrides(List<String> overrides);
+
+  @Default.Boolean(false)
+  @Description(
+      "Controls whether the DirectRunner detects mutations of values whose Coder is consistent "
+          + "with equals by comparing their hash codes instead of their encoded forms. This avoids "
+          + "encoding those values, but does not detect mutations that leave the hash code "
+          + "unchanged.")
+  boolean isDetectMutationsByStructuralHash();
+  void setDetectMutationsByStructuralHash(boolean detectByHash);
+
+  @Default.Long(64L * 1024L * 1024L)
+  @Description(
+      "The approximate number of bytes the DirectRunner uses to track the record IDs of each "
+          + "unbounded source that requires deduplication. If the budget is exhausted, record IDs "
+          + "are retained for less than the usual 10 minutes.")
+  long getRecordIdDeduplicationMemoryBytes();
+  void setRecordIdDeduplicationMemoryBytes(long bytes);
+
+  @Default.Boolean(false)
+  @Description(
+      "Controls whether the DirectRunner fronts the record IDs tracked for deduplication with "
+          + "Bloom filters, which reduces the cost of checking IDs that have not been seen.")
+  boolean isRecordIdDeduplicationBloomFilter();
+  void setRecordIdDeduplicationBloomFilter(boolean useBloomFilter);
+
+  @Default.Boolean(false)
+  @Description(
+      "Controls whether the DirectRunner fuses chains of stateless ParDos, window assignments and "
+          + "Flattens into a single stage that passes elements directly from one transform to "
+          + "the next. Immutability and encodability are only enforced at the inputs and outputs "
+          + "of fused stages.")
+  boolean isFuseStages();
+  void setFuseStages(boolean fuse);
+
+  @Default.Long(0L)
+  @Description(
+      "The interval, in seconds, at which the DirectRunner logs the throughput, bundle latency, "
+          + "queue wait and output watermark lag of each transform. These are always available as "
+          + "metrics in the org.apache.beam.runners.direct.DirectRunner namespace. Zero or less "
+          + "disables logging.")
+  long getTransformMetricsLogIntervalSeconds();
+  void setTransformMetricsLogIntervalSeconds(long intervalSeconds);
+
   @Default.InstanceFactory(AvailableParallelismFactory.class)
   @Description(
       "Controls the amount of target parallelism the DirectRunner will use. Defaults to"
@@ -61,6 +128,29 @@ public interface DirectOptions extends PipelineOptions, ApplicationNameOptions {
   int getTargetParallelism();
   void setTargetParallelism(int target);
 
+  @Default.Enum("FIXED")
+  @Description(
+      "The threads the DirectRunner evaluates bundles on. FIXED uses a pool of targetParallelism "
+          + "threads. ELASTIC uses a thread per executing bundle, which is a virtual thread if the "
+          + "JVM supports them, so that bundles which block on I/O do not hold up other bundles.")
+  WorkerThreads getWorkerThreads();
+  void setWorkerThreads(WorkerThreads workerThreads);
+
+  /**
+   * The kinds of threads the {@link DirectRunner} can evaluate bundles on.
+   */
+  enum WorkerThreads {
+    /**
+     * A fixed pool of {@link DirectOptions#getTargetParallelism()} platform threads.
+     */
+    FIXED,
+    /**
+     * A new virtual thread for each executing bundle if the JVM supports virtual threads, and
+     * otherwise a pool of platform threads which grows as bundles block.
+     */
+    ELASTIC
+  }
+
   /**
    * A {@link DefaultValueFactory} that returns the result of {@link Runtime#availableProcessors()}
    * from the {@link #create(PipelineOptions)} method. Uses {@link Runtime#getRuntime()} to obtain
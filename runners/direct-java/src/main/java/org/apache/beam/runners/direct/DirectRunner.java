@@ -100,26 +100,26 @@ public class DirectRunner extends PipelineRunner<DirectPipelineResult> {
     }
 
     static BundleFactory bundleFactoryFor(
-        Set<Enforcement> enforcements, DirectGraph graph) {
+        Set<Enforcement> enforcements, EnforcementPolicy policy, DirectGraph graph) {
       BundleFactory bundleFactory =
           enforcements.contains(Enforcement.ENCODABILITY)
-              ? CloningBundleFactory.create()
+              ? CloningBundleFactory.create(policy, graph)
               : ImmutableListBundleFactory.create();
       if (enforcements.contains(Enforcement.IMMUTABILITY)) {
-        bundleFactory = ImmutabilityCheckingBundleFactory.create(bundleFactory, graph);
+        bundleFactory = ImmutabilityCheckingBundleFactory.create(bundleFactory, graph, policy);
       }
       return bundleFactory;
     }
 
     @SuppressWarnings("rawtypes")
     private static Map<Class<? extends PTransform>, Collection<ModelEnforcementFactory>>
-        defaultModelEnforcements(Set<Enforcement> enabledEnforcements) {
+        defaultModelEnforcements(Set<Enforcement> enabledEnforcements, EnforcementPolicy policy) {
       ImmutableMap.Builder<Class<? extends PTransform>, Collection<ModelEnforcementFactory>>
           enforcements = ImmutableMap.builder();
       ImmutableList.Builder<ModelEnforcementFactory> enabledParDoEnforcements =
           ImmutableList.builder();
       if (enabledEnforcements.contains(Enforcement.IMMUTABILITY)) {
-        enabledParDoEnforcements.add(ImmutabilityEnforcementFactory.create());
+        enabledParDoEnforcements.add(ImmutabilityEnforcementFactory.create(policy));
       }
       Collection<ModelEnforcementFactory> parDoEnforcements = enabledParDoEnforcements.build();
       enforcements.put(ParDo.SingleOutput.class, parDoEnforcements);
@@ -176,22 +176,28 @@ public class DirectRunner extends PipelineRunner<DirectPipelineResult> {
     DisplayDataValidator.validateOptions(getPipelineOptions());
 
     DirectGraph graph = graphVisitor.getGraph();
+    EnforcementPolicy enforcementPolicy = EnforcementPolicy.fromOptions(options);
     EvaluationContext context =
         EvaluationContext.create(
             getPipelineOptions(),
             clockSupplier.get(),
-            Enforcement.bundleFactoryFor(enabledEnforcements, graph),
+            Enforcement.bundleFactoryFor(enabledEnforcements, enforcementPolicy, graph),
             graph,
             keyedPValueVisitor.getKeyedPValues());
 
     RootProviderRegistry rootInputProvider = RootProviderRegistry.defaultRegistry(context);
-    TransformEvaluatorRegistry registry = TransformEvaluatorRegistry.defaultRegistry(context);
+    TransformEvaluatorFactory registry = TransformEvaluatorRegistry.defaultRegistry(context);
+    if (options.isFuseStages()) {
+      registry = FusedStageEvaluatorFactory.create(context, graph, registry);
+    }
     PipelineExecutor executor =
         ExecutorServiceParallelExecutor.create(
-            options.getTargetParallelism(), graph,
+            options.getTargetParallelism(),
+            options.getWorkerThreads(),
+            graph,
             rootInputProvider,
             registry,
-            Enforcement.defaultModelEnforcements(enabledEnforcements),
+            Enforcement.defaultModelEnforcements(enabledEnforcements, enforcementPolicy),
             context);
     executor.start(graph.getRootTransforms());
 
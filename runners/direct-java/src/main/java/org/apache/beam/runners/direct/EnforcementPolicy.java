@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.direct;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.runners.AppliedPTransform;
+import org.apache.beam.sdk.util.IllegalMutationException;
+import org.apache.beam.sdk.util.MutationDetector;
+import org.apache.beam.sdk.util.MutationDetectors;
+import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
+
+/**
+ * Determines which elements the {@link DirectRunner} checks for immutability and encodability, and
+ * how mutations are detected, as configured by {@link DirectOptions}.
+ *
+ * <p>Every element is checked at the default configuration. With a sample rate below one, each
+ * element is checked with that probability. With a positive size threshold, elements that encode
+ * to at most that many bytes are always checked, and only larger elements are sampled.
+ *
+ * <p>The sample is drawn before the size of an element is computed, so elements that are sampled
+ * are never sized. The size of the remaining elements is observed with the {@link Coder} if that
+ * is {@link Coder#isRegisterByteSizeObserverCheap cheap}. Otherwise the element is encoded, but
+ * only until it exceeds the size threshold.
+ */
+class EnforcementPolicy {
+  private static final EnforcementPolicy CHECK_ALL =
+      new EnforcementPolicy(1.0, 0L, ImmutableMap.<String, Double>of(), false);
+
+  /** Returns an {@link EnforcementPolicy} that checks every element using its encoded form. */
+  public static EnforcementPolicy checkAll() {
+    return CHECK_ALL;
+  }
+
+  /** Returns the {@link EnforcementPolicy} configured by the provided {@link DirectOptions}. */
+  public static EnforcementPolicy fromOptions(DirectOptions options) {
+    return new EnforcementPolicy(
+        options.getEnforcementSampleRate(),
+        options.getEnforcementSizeThreshold(),
+        parseOverrides(options.getEnforcementSampleRateOverrides()),
+        options.isDetectMutationsByStructuralHash());
+  }
+
+  private static Map<String, Double> parseOverrides(List<String> overrides) {
+    ImmutableMap.Builder<String, Double> parsed = ImmutableMap.builder();
+    if (overrides != null) {
+      for (String override : overrides) {
+        int separator = override.lastIndexOf('=');
+        checkArgument(
+            separator > 0,
+            "Enforcement sample rate override %s must be of the form TransformName=rate",
+            override);
+        parsed.put(
+            override.substring(0, separator),
+            checkSampleRate(Double.parseDouble(override.substring(separator + 1))));
+      }
+    }
+    return parsed.build();
+  }
+
+  private static double checkSampleRate(double sampleRate) {
+    checkArgument(
+        sampleRate >= 0.0 && sampleRate <= 1.0,
+        "Enforcement sample rate must be between 0 and 1, got %s",
+        sampleRate);
+    return sampleRate;
+  }
+
+  private final double sampleRate;
+  private final long sizeThreshold;
+  private final Map<String, Double> sampleRateOverrides;
+  private final boolean detectMutationsByStructuralHash;
+
+  private final ConcurrentMap<AppliedPTransform<?, ?, ?>, Double> transformSampleRates;
+
+  private EnforcementPolicy(
+      double sampleRate,
+      long sizeThreshold,
+      Map<String, Double> sampleRateOverrides,
+      boolean detectMutationsByStructuralHash) {
+    this.sampleRate = checkSampleRate(sampleRate);
+    this.sizeThreshold = sizeThreshold;
+    this.sampleRateOverrides = sampleRateOverrides;
+    this.detectMutationsByStructuralHash = detectMutationsByStructuralHash;
+    this.transformSampleRates = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns whether the provided value, produced or consumed by the provided transform, should be
+   * checked.
+   */
+  public <T> boolean shouldCheck(AppliedPTransform<?, ?, ?> transform, Coder<T> coder, T value)
+      throws CoderException {
+    double rate = getSampleRate(transform);
+    if (rate >= 1.0) {
+      return true;
+    }
+    if (rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate) {
+      return true;
+    }
+    return sizeThreshold > 0 && isWithinSizeThreshold(coder, value);
+  }
+
+  /**
+   * Returns the rate at which elements of the provided transform are sampled. This is the rate of
+   * the most specific override that names the transform or one of its enclosing composites, or
+   * the default rate if there is no such override.
+   */
+  double getSampleRate(AppliedPTransform<?, ?, ?> transform) {
+    if (sampleRateOverrides.isEmpty()) {
+      return sampleRate;
+    }
+    Double rate = transformSampleRates.get(transform);
+    if (rate == null) {
+      rate = sampleRate;
+      int matchedLength = -1;
+      String name = transform.getFullName();
+      for (Map.Entry<String, Double> override : sampleRateOverrides.entrySet()) {
+        String overridden = override.getKey();
+        boolean matches = name.equals(overridden) || name.startsWith(overridden + "/");
+        if (matches && overridden.length() > matchedLength) {
+          rate = override.getValue();
+          matchedLength = overridden.length();
+        }
+      }
+      transformSampleRates.putIfAbsent(transform, rate);
+    }
+    return rate;
+  }
+
+  /**
+   * Creates a {@link MutationDetector} for the provided value.
+   *
+   * <p>If enabled, values whose {@link Coder} is {@link Coder#consistentWithEquals() consistent
+   * with equals} are checked by comparing their structural hash codes, which does not require
+   * encoding them. Otherwise the value is compared to a copy made with its {@link Coder}.
+   */
+  public <T> MutationDetector mutationDetectorFor(T value, Coder<T> coder) throws CoderException {
+    if (detectMutationsByStructuralHash && value != null && coder.consistentWithEquals()) {
+      return new StructuralHashMutationDetector<>(value, coder);
+    }
+    return MutationDetectors.forValueWithCoder(value, coder);
+  }
+
+  private <T> boolean isWithinSizeThreshold(Coder<T> coder, T value) throws CoderException {
+    if (coder.isRegisterByteSizeObserverCheap(value)) {
+      SizeObserver observer = new SizeObserver();
+      try {
+        coder.registerByteSizeObserver(value, observer);
+      } catch (CoderException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new CoderException(e);
+      }
+      // A lazy observer is only told the size as the element is iterated over
+      if (!observer.getIsLazy()) {
+        observer.advance();
+        return observer.size <= sizeThreshold;
+      }
+    }
+    ThresholdOutputStream stream = new ThresholdOutputStream(sizeThreshold);
+    try {
+      coder.encode(value, stream);
+    } catch (IOException e) {
+      if (stream.exceeded) {
+        return false;
+      }
+      if (e instanceof CoderException) {
+        throw (CoderException) e;
+      }
+      throw new CoderException(e);
+    }
+    return true;
+  }
+
+  /** An {@link ElementByteSizeObserver} that records the size of a single element. */
+  private static class SizeObserver extends ElementByteSizeObserver {
+    private long size;
+
+    @Override
+    protected void reportElementSize(long elementByteSize) {
+      size = elementByteSize;
+    }
+  }
+
+  /**
+   * An {@link OutputStream} that discards its contents, and fails as soon as more than a
+   * threshold number of bytes have been written to it.
+   */
+  private static class ThresholdOutputStream extends OutputStream {
+    private final long threshold;
+    private long count;
+    private boolean exceeded;
+
+    private ThresholdOutputStream(long threshold) {
+      this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      count(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      count(len);
+    }
+
+    private void count(int len) throws IOException {
+      count += len;
+      if (count > threshold) {
+        exceeded = true;
+        throw new IOException(
+            String.format("Encoded element exceeds the size threshold of %s bytes", threshold));
+      }
+    }
+  }
+
+  /**
+   * A {@link MutationDetector} that detects a mutation if the hash code of the structural value of
+   * the checked value changes. Mutations that do not change the hash code are not detected.
+   */
+  private static class StructuralHashMutationDetector<T> implements MutationDetector {
+    private final T value;
+    private final Coder<T> coder;
+    private final int originalHashCode;
+
+    private StructuralHashMutationDetector(T value, Coder<T> coder) {
+      this.value = value;
+      this.coder = coder;
+      this.originalHashCode = coder.structuralValue(value).hashCode();
+    }
+
+    @Override
+    public void verifyUnmodified() {
+      int hashCode = coder.structuralValue(value).hashCode();
+      if (hashCode != originalHashCode) {
+        // No copy of the original value is kept, so only its hash code can be reported
+        throw new IllegalMutationException(
+            String.format(
+                "Value %s mutated illegally, its hash code changed from %s to %s.",
+                value, originalHashCode, hashCode),
+            String.format("<value with structural hash code %s>", originalHashCode),
+            value);
+      }
+    }
+
+    @Override
+    public void close() {
+      verifyUnmodified();
+    }
+  }
+}
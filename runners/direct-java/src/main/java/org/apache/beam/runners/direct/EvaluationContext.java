@@ -49,6 +49,7 @@ import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.PValue;
 import org.apache.beam.sdk.values.WindowingStrategy;
+import org.joda.time.Duration;
 import org.joda.time.Instant;
 
 /**
@@ -384,8 +385,27 @@ class EvaluationContext {
 
   @VisibleForTesting
   void forceRefresh() {
-    watermarkManager.refreshAll();
+    refreshWatermarks();
+  }
+
+  /**
+   * Refreshes all watermarks and executes any callbacks that have become eligible.
+   *
+   * @return whether the output watermark of any transform advanced
+   */
+  public boolean refreshWatermarks() {
+    boolean advanced = watermarkManager.refreshAll();
     fireAllAvailableCallbacks();
+    return advanced;
+  }
+
+  /**
+   * Returns the earliest processing time at which a timer may become eligible to fire only due to
+   * the passage of processing time, or {@link BoundedWindow#TIMESTAMP_MAX_VALUE} if there is no
+   * such timer.
+   */
+  public Instant getEarliestProcessingTimeTimerTimestamp() {
+    return watermarkManager.getEarliestProcessingTimeTimerTimestamp();
   }
 
   /**
@@ -408,6 +428,16 @@ class EvaluationContext {
     return !stepWatermark.isBefore(BoundedWindow.TIMESTAMP_MAX_VALUE);
   }
 
+  /**
+   * Returns the amount of processing time by which the output watermark of the transform trails
+   * the current time, or {@code null} if the output watermark has not yet advanced or will not
+   * advance further.
+   */
+  @Nullable
+  public Duration getOutputWatermarkLag(AppliedPTransform<?, ?, ?> transform) {
+    return watermarkManager.getWatermarks(transform).getOutputWatermarkLag();
+  }
+
   /**
    * Returns true if all steps are done.
    */
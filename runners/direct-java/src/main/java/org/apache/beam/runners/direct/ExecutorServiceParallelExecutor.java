@@ -30,6 +30,8 @@ import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -42,6 +44,8 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -49,11 +53,13 @@ import javax.annotation.Nullable;
 import org.apache.beam.runners.core.KeyedWorkItem;
 import org.apache.beam.runners.core.KeyedWorkItems;
 import org.apache.beam.runners.core.TimerInternals.TimerData;
+import org.apache.beam.runners.direct.DirectOptions.WorkerThreads;
 import org.apache.beam.runners.direct.WatermarkManager.FiredTimers;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.PipelineResult.State;
 import org.apache.beam.sdk.runners.AppliedPTransform;
 import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.util.UserCodeException;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.values.PCollection;
@@ -73,10 +79,13 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
 
   private final int targetParallelism;
   private final ExecutorService executorService;
+  private final ExecutorService coordinatorService;
+  private final ScheduledExecutorService metricsLoggerService;
+  private final ScheduledExecutorService timerWakeUpService;
 
   private final DirectGraph graph;
   private final RootProviderRegistry rootProviderRegistry;
-  private final TransformEvaluatorRegistry registry;
+  private final TransformEvaluatorFactory registry;
   @SuppressWarnings("rawtypes")
   private final Map<Class<? extends PTransform>, Collection<ModelEnforcementFactory>>
       transformEnforcements;
@@ -88,6 +97,13 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
   private final Queue<ExecutorUpdate> allUpdates;
   private final BlockingQueue<VisibleExecutorUpdate> visibleUpdates;
 
+  /**
+   * Signals the {@link Coordinator} when an event that it has not yet observed occurs. Events are
+   * completed work, newly available updates, changes of the pipeline state, advances of the
+   * watermarks, and processing time timers becoming due.
+   */
+  private final WakeUpSignal coordinatorWakeUps;
+
   private final TransformExecutorService parallelExecutorService;
   private final CompletionCallback defaultCompletionCallback;
 
@@ -109,15 +125,17 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
 
   public static ExecutorServiceParallelExecutor create(
       int targetParallelism,
+      WorkerThreads workerThreads,
       DirectGraph graph,
       RootProviderRegistry rootProviderRegistry,
-      TransformEvaluatorRegistry registry,
+      TransformEvaluatorFactory registry,
       @SuppressWarnings("rawtypes")
           Map<Class<? extends PTransform>, Collection<ModelEnforcementFactory>>
               transformEnforcements,
       EvaluationContext context) {
     return new ExecutorServiceParallelExecutor(
         targetParallelism,
+        workerThreads,
         graph,
         rootProviderRegistry,
         registry,
@@ -127,21 +145,34 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
 
   private ExecutorServiceParallelExecutor(
       int targetParallelism,
+      WorkerThreads workerThreads,
       DirectGraph graph,
       RootProviderRegistry rootProviderRegistry,
-      TransformEvaluatorRegistry registry,
+      TransformEvaluatorFactory registry,
       @SuppressWarnings("rawtypes")
       Map<Class<? extends PTransform>, Collection<ModelEnforcementFactory>> transformEnforcements,
       EvaluationContext context) {
     this.targetParallelism = targetParallelism;
-    // Don't use Daemon threads for workers. The Pipeline should continue to execute even if there
-    // are no other active threads (for example, because waitUntilFinish was not called)
-    this.executorService =
-        Executors.newFixedThreadPool(
-            targetParallelism,
+    this.executorService = createWorkerService(workerThreads, targetParallelism);
+    this.coordinatorService =
+        Executors.newSingleThreadExecutor(
             new ThreadFactoryBuilder()
                 .setThreadFactory(MoreExecutors.platformThreadFactory())
-                .setNameFormat("direct-runner-worker")
+                .setNameFormat("direct-runner-coordinator")
+                .build());
+    this.metricsLoggerService =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setThreadFactory(MoreExecutors.platformThreadFactory())
+                .setDaemon(true)
+                .setNameFormat("direct-runner-metrics-logger")
+                .build());
+    this.timerWakeUpService =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setThreadFactory(MoreExecutors.platformThreadFactory())
+                .setDaemon(true)
+                .setNameFormat("direct-runner-timer-wake-up")
                 .build());
     this.graph = graph;
     this.rootProviderRegistry = rootProviderRegistry;
@@ -160,6 +191,7 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
 
     this.allUpdates = new ConcurrentLinkedQueue<>();
     this.visibleUpdates = new LinkedBlockingQueue<>();
+    this.coordinatorWakeUps = WakeUpSignal.create(context.getClock(), timerWakeUpService);
 
     parallelExecutorService = TransformExecutorServices.parallel(executorService);
     defaultCompletionCallback =
@@ -167,6 +199,55 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
     this.pendingRootBundles = new ConcurrentHashMap<>();
   }
 
+  /**
+   * Create the {@link ExecutorService} that {@link TransformExecutor TransformExecutors} are run
+   * on.
+   */
+  private static ExecutorService createWorkerService(
+      WorkerThreads workerThreads, int targetParallelism) {
+    // Don't use Daemon threads for workers. The Pipeline should continue to execute even if there
+    // are no other active threads (for example, because waitUntilFinish was not called)
+    ThreadFactory workerThreadFactory =
+        new ThreadFactoryBuilder()
+            .setThreadFactory(MoreExecutors.platformThreadFactory())
+            .setNameFormat("direct-runner-worker")
+            .build();
+    switch (workerThreads) {
+      case FIXED:
+        return Executors.newFixedThreadPool(targetParallelism, workerThreadFactory);
+      case ELASTIC:
+        // Virtual threads are always daemon threads. The coordinator thread is not, and it keeps
+        // the JVM alive for as long as the Pipeline is executing.
+        Optional<ExecutorService> virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+        if (virtualThreadExecutor.isPresent()) {
+          return virtualThreadExecutor.get();
+        }
+        return Executors.newCachedThreadPool(workerThreadFactory);
+      default:
+        throw new IllegalArgumentException(
+            String.format("Unknown %s %s", WorkerThreads.class.getSimpleName(), workerThreads));
+    }
+  }
+
+  /**
+   * Create an {@link ExecutorService} that starts a new virtual thread for each task, if the
+   * running JVM supports virtual threads.
+   */
+  private static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+    Method factory;
+    try {
+      factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return Optional.absent();
+    }
+    try {
+      return Optional.of((ExecutorService) factory.invoke(null));
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      LOG.warn("Could not create virtual threads, using platform threads instead", e);
+      return Optional.absent();
+    }
+  }
+
   private CacheLoader<StepAndKey, TransformExecutorService>
       serialTransformExecutorServiceCacheLoader() {
     return new CacheLoader<StepAndKey, TransformExecutorService>() {
@@ -205,8 +286,27 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
       pendingRootBundles.put(root, pending);
     }
     evaluationContext.initialize(pendingRootBundles);
-    Runnable monitorRunnable = new MonitorRunnable();
-    executorService.submit(monitorRunnable);
+    long metricsLogIntervalSeconds =
+        evaluationContext
+            .getPipelineOptions()
+            .as(DirectOptions.class)
+            .getTransformMetricsLogIntervalSeconds();
+    if (metricsLogIntervalSeconds > 0L) {
+      metricsLoggerService.scheduleAtFixedRate(
+          TransformMetrics.logger(evaluationContext.getMetrics()),
+          metricsLogIntervalSeconds,
+          metricsLogIntervalSeconds,
+          TimeUnit.SECONDS);
+    }
+    coordinatorService.submit(new Coordinator());
+  }
+
+  /**
+   * Signals the {@link Coordinator} that an event has occurred. Wake ups are coalesced, so this
+   * is cheap to call from every completing {@link TransformExecutor}.
+   */
+  private void wakeUpCoordinator() {
+    coordinatorWakeUps.wakeUp();
   }
 
   @SuppressWarnings("unchecked")
@@ -315,6 +415,7 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
       // Make sure "This Pipeline was Cancelled" notification arrives.
       visibleUpdates.poll();
     }
+    wakeUpCoordinator();
   }
 
   private void shutdownIfNecessary(State newState) {
@@ -329,6 +430,9 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
     executorServices.cleanUp();
     parallelExecutorService.shutdown();
     executorService.shutdown();
+    coordinatorService.shutdown();
+    metricsLoggerService.shutdown();
+    timerWakeUpService.shutdown();
     try {
       registry.cleanup();
     } catch (Exception e) {
@@ -375,23 +479,27 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
         state.set(ExecutorState.ACTIVE);
       }
       outstandingWork.decrementAndGet();
+      wakeUpCoordinator();
       return committedResult;
     }
 
     @Override
     public void handleEmpty(AppliedPTransform<?, ?, ?> transform) {
       outstandingWork.decrementAndGet();
+      wakeUpCoordinator();
     }
 
     @Override
     public final void handleException(CommittedBundle<?> inputBundle, Exception e) {
       allUpdates.offer(ExecutorUpdate.fromException(e));
       outstandingWork.decrementAndGet();
+      wakeUpCoordinator();
     }
 
     @Override
     public void handleError(Error err) {
       visibleUpdates.add(VisibleExecutorUpdate.fromError(err));
+      wakeUpCoordinator();
     }
   }
 
@@ -467,20 +575,53 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
     }
   }
 
-  private class MonitorRunnable implements Runnable {
-    private final String runnableName = String.format("%s$%s-monitor",
+  /**
+   * Schedules work in response to events, on a thread of its own.
+   *
+   * <p>Each pass of the coordinator fires eligible timers, schedules the consumers of committed
+   * bundles, and adds work from the roots when the executor is {@link ExecutorState#QUIESCENT}.
+   * Passes run back to back while they make progress, meaning they schedule work or move the
+   * {@link ExecutorState}. Otherwise the coordinator blocks, without a timeout, until work
+   * completes, the pipeline is stopped, or the earliest pending processing time timer becomes due.
+   * A pass that advances a watermark wakes the coordinator up for another pass, and makes a
+   * {@link ExecutorState#QUIESCENT} executor {@link ExecutorState#ACTIVE}, as the advance may have
+   * unblocked work.
+   */
+  private class Coordinator implements Runnable {
+    private final String runnableName = String.format("%s$%s-coordinator",
         evaluationContext.getPipelineOptions().getAppName(),
         ExecutorServiceParallelExecutor.class.getSimpleName());
 
     private boolean exceptionThrown = false;
 
+    /** Whether the current pass has scheduled any work. */
+    private boolean scheduledWork = false;
+
     @Override
     public void run() {
       String oldName = Thread.currentThread().getName();
       Thread.currentThread().setName(runnableName);
+      try {
+        while (true) {
+          boolean madeProgress = runPass();
+          if (shouldShutdown()) {
+            return;
+          }
+          if (!madeProgress) {
+            awaitEvent();
+          }
+        }
+      } finally {
+        Thread.currentThread().setName(oldName);
+      }
+    }
+
+    /** Runs a single pass and returns whether it made progress. */
+    private boolean runPass() {
+      scheduledWork = false;
+      ExecutorState startingState = state.get();
       try {
         boolean noWorkOutstanding = outstandingWork.get() == 0L;
-        ExecutorState startingState = state.get();
         if (startingState == ExecutorState.ACTIVE) {
           // The remainder of this call will add all available work to the Executor, and there will
           // be no new work available
@@ -492,6 +633,10 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
           // The executor re-ran all blocked work and nothing could make progress.
           state.compareAndSet(ExecutorState.QUIESCING, ExecutorState.QUIESCENT);
         }
+        if (evaluationContext.refreshWatermarks()) {
+          state.compareAndSet(ExecutorState.QUIESCENT, ExecutorState.ACTIVE);
+          wakeUpCoordinator();
+        }
         fireTimers();
         Collection<ExecutorUpdate> updates = new ArrayList<>();
         // Pull all available updates off of the queue before adding additional work. This ensures
@@ -505,23 +650,33 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
           applyUpdate(noWorkOutstanding, startingState, update);
         }
         addWorkIfNecessary();
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-        LOG.error("Monitor died due to being interrupted");
-        while (!visibleUpdates.offer(VisibleExecutorUpdate.fromException(e))) {
-          visibleUpdates.poll();
-        }
       } catch (Exception t) {
-        LOG.error("Monitor thread died due to exception", t);
+        LOG.error("Coordinator pass failed due to exception", t);
         while (!visibleUpdates.offer(VisibleExecutorUpdate.fromException(t))) {
           visibleUpdates.poll();
         }
-      } finally {
-        if (!shouldShutdown()) {
-          // The monitor thread should always be scheduled; but we only need to be scheduled once
-          executorService.submit(this);
+      }
+      return scheduledWork || state.get() != startingState;
+    }
+
+    /**
+     * Blocks until an event occurs, scheduling a wake up for when the earliest pending processing
+     * time timer becomes due.
+     */
+    private void awaitEvent() {
+      try {
+        Instant nextTimer = evaluationContext.getEarliestProcessingTimeTimerTimestamp();
+        if (nextTimer.isBefore(BoundedWindow.TIMESTAMP_MAX_VALUE)) {
+          coordinatorWakeUps.wakeUpAt(nextTimer);
         }
-        Thread.currentThread().setName(oldName);
+        coordinatorWakeUps.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOG.error("Coordinator died due to being interrupted");
+        while (!visibleUpdates.offer(VisibleExecutorUpdate.fromException(e))) {
+          visibleUpdates.poll();
+        }
+        exceptionThrown = true;
       }
     }
 
@@ -533,6 +688,7 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
             || (ExecutorState.PROCESSING == startingState
                 && noWorkOutstanding)) {
           scheduleConsumers(update);
+          scheduledWork = true;
         } else {
           allUpdates.offer(update);
         }
@@ -568,6 +724,7 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
               bundle,
               new TimerIterableCompletionCallback(delivery));
           state.set(ExecutorState.ACTIVE);
+          scheduledWork = true;
         }
       } catch (Exception e) {
         LOG.error("Internal Error while delivering timers", e);
@@ -608,6 +765,7 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
           for (CommittedBundle<?> bundle : bundles) {
             scheduleConsumption(pendingRootEntry.getKey(), bundle, defaultCompletionCallback);
             state.set(ExecutorState.ACTIVE);
+            scheduledWork = true;
           }
         }
       }
@@ -617,12 +775,13 @@ final class ExecutorServiceParallelExecutor implements PipelineExecutor {
 
   /**
    * The state of the executor. The state of the executor determines the behavior of the
-   * {@link MonitorRunnable} when it runs.
+   * {@link Coordinator} when it runs.
    */
   private enum ExecutorState {
     /**
-     * Output has been produced since the last time the monitor ran. Work exists that has not yet
-     * been evaluated, and all pending, including potentially blocked work, should be evaluated.
+     * Output has been produced since the last time the coordinator ran. Work exists that has not
+     * yet been evaluated, and all pending, including potentially blocked work, should be
+     * evaluated.
      *
      * <p>The executor becomes active whenever a timer fires, a {@link PCollectionView} is updated,
      * or output is produced by the evaluation of a {@link TransformExecutor}.
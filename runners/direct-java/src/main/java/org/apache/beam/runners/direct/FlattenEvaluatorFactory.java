@@ -49,13 +49,30 @@ class FlattenEvaluatorFactory implements TransformEvaluatorFactory {
   @Override
   public void cleanup() throws Exception {}
 
+  /**
+   * Creates an evaluator for an application of {@link Flatten.PCollections} that is part of a
+   * fused stage, which outputs to the provided bundle.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  <InputT> TransformEvaluator<InputT> forFusedApplication(
+      AppliedPTransform<?, ?, ?> application, UncommittedBundle<InputT> outputBundle) {
+    return createInMemoryEvaluator((AppliedPTransform) application, outputBundle);
+  }
+
   private <InputT> TransformEvaluator<InputT> createInMemoryEvaluator(
       final AppliedPTransform<
               PCollectionList<InputT>, PCollection<InputT>, PCollections<InputT>>
           application) {
-    final UncommittedBundle<InputT> outputBundle =
+    return createInMemoryEvaluator(
+        application,
         evaluationContext.createBundle(
-            (PCollection<InputT>) Iterables.getOnlyElement(application.getOutputs().values()));
+            (PCollection<InputT>) Iterables.getOnlyElement(application.getOutputs().values())));
+  }
+
+  private <InputT> TransformEvaluator<InputT> createInMemoryEvaluator(
+      AppliedPTransform<PCollectionList<InputT>, PCollection<InputT>, PCollections<InputT>>
+          application,
+      UncommittedBundle<InputT> outputBundle) {
     final TransformResult<InputT> result =
         StepTransformResult.<InputT>withoutHold(application).addOutput(outputBundle).build();
     return new FlattenEvaluator<>(outputBundle, result);
@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.direct;
+
+import static com.google.common.base.Preconditions.checkState;
+import static org.apache.beam.runners.core.construction.PTransformTranslation.FLATTEN_TRANSFORM_URN;
+import static org.apache.beam.runners.core.construction.PTransformTranslation.PAR_DO_TRANSFORM_URN;
+import static org.apache.beam.runners.core.construction.PTransformTranslation.WINDOW_TRANSFORM_URN;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.construction.PTransformTranslation;
+import org.apache.beam.runners.core.metrics.MetricUpdates;
+import org.apache.beam.runners.core.metrics.MetricsContainerImpl;
+import org.apache.beam.runners.direct.ParDoEvaluator.BundleOutputManager;
+import org.apache.beam.sdk.metrics.MetricsEnvironment;
+import org.apache.beam.sdk.runners.AppliedPTransform;
+import org.apache.beam.sdk.transforms.Flatten;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.util.UserCodeException;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PValue;
+import org.apache.beam.sdk.values.TupleTag;
+import org.joda.time.Instant;
+
+/**
+ * A {@link TransformEvaluatorFactory} that fuses chains of stateless {@link ParDo ParDos}, {@link
+ * Window.Assign window assignments} and {@link Flatten Flattens}, delegating all other
+ * applications to another {@link TransformEvaluatorFactory}.
+ *
+ * <p>A transform is fused with its consumer if the transform has exactly one output, that output
+ * is consumed by exactly one transform, and the consumer is a {@link ParDo} without side inputs,
+ * a {@link Window.Assign} or a {@link Flatten}. The evaluator for a fused stage passes each
+ * element output by a transform directly to the evaluator of its consumer, so no bundles are
+ * created, committed or scheduled for the intermediate {@link PCollection PCollections}.
+ *
+ * <p>The result of a fused stage is reported as the result of the first transform of the stage,
+ * with the output bundles of the last transform. As the outputs are added as pending to their
+ * consumers before the input is completed, the watermarks of the transforms within the stage
+ * cannot advance past the elements that are in flight. {@link ModelEnforcement} and the checks
+ * performed by the {@link BundleFactory} apply to the input and outputs of the stage, but not to
+ * the elements passed between the transforms within it.
+ */
+class FusedStageEvaluatorFactory implements TransformEvaluatorFactory {
+  /**
+   * Creates a {@link FusedStageEvaluatorFactory} that fuses the transforms of the provided {@link
+   * DirectGraph} where possible and evaluates all other transforms with the delegate.
+   */
+  public static FusedStageEvaluatorFactory create(
+      EvaluationContext evaluationContext,
+      DirectGraph graph,
+      TransformEvaluatorFactory delegate) {
+    return new FusedStageEvaluatorFactory(evaluationContext, fusedConsumers(graph), delegate);
+  }
+
+  /**
+   * Returns a map from each transform to the consumer it is fused with, for every transform that
+   * is fused with its consumer.
+   */
+  static Map<AppliedPTransform<?, ?, ?>, AppliedPTransform<?, ?, ?>> fusedConsumers(
+      DirectGraph graph) {
+    Map<AppliedPTransform<?, ?, ?>, AppliedPTransform<?, ?, ?>> fusedConsumers = new HashMap<>();
+    for (AppliedPTransform<?, ?, ?> transform : graph.getPrimitiveTransforms()) {
+      if (!isFusible(transform) || transform.getOutputs().size() != 1) {
+        continue;
+      }
+      PValue output = Iterables.getOnlyElement(transform.getOutputs().values());
+      List<AppliedPTransform<?, ?, ?>> consumers = graph.getAllConsumers(output);
+      if (consumers.size() != 1 || graph.getPerElementConsumers(output).size() != 1) {
+        continue;
+      }
+      AppliedPTransform<?, ?, ?> consumer = consumers.get(0);
+      if (isFusible(consumer) && !hasSideInputs(consumer)) {
+        fusedConsumers.put(transform, consumer);
+      }
+    }
+    return fusedConsumers;
+  }
+
+  private static boolean isFusible(AppliedPTransform<?, ?, ?> transform) {
+    String urn = urnForTransform(transform);
+    return PAR_DO_TRANSFORM_URN.equals(urn)
+        || WINDOW_TRANSFORM_URN.equals(urn)
+        || FLATTEN_TRANSFORM_URN.equals(urn);
+  }
+
+  private static boolean hasSideInputs(AppliedPTransform<?, ?, ?> transform) {
+    return transform.getTransform() instanceof ParDo.MultiOutput
+        && !((ParDo.MultiOutput<?, ?>) transform.getTransform()).getSideInputs().isEmpty();
+  }
+
+  @Nullable
+  private static String urnForTransform(AppliedPTransform<?, ?, ?> transform) {
+    return PTransformTranslation.urnForTransformOrNull(transform.getTransform());
+  }
+
+  private final EvaluationContext evaluationContext;
+  private final Map<AppliedPTransform<?, ?, ?>, AppliedPTransform<?, ?, ?>> fusedConsumers;
+  private final TransformEvaluatorFactory delegate;
+
+  private final ParDoEvaluatorFactory<?, ?> parDoFactory;
+  private final WindowEvaluatorFactory windowFactory;
+  private final FlattenEvaluatorFactory flattenFactory;
+
+  private FusedStageEvaluatorFactory(
+      EvaluationContext evaluationContext,
+      Map<AppliedPTransform<?, ?, ?>, AppliedPTransform<?, ?, ?>> fusedConsumers,
+      TransformEvaluatorFactory delegate) {
+    this.evaluationContext = evaluationContext;
+    this.fusedConsumers = fusedConsumers;
+    this.delegate = delegate;
+    this.parDoFactory =
+        new ParDoEvaluatorFactory<>(evaluationContext, ParDoEvaluator.defaultRunnerFactory());
+    this.windowFactory = new WindowEvaluatorFactory(evaluationContext);
+    this.flattenFactory = new FlattenEvaluatorFactory(evaluationContext);
+  }
+
+  @Override
+  public <InputT> TransformEvaluator<InputT> forApplication(
+      AppliedPTransform<?, ?, ?> application, CommittedBundle<?> inputBundle) throws Exception {
+    if (inputBundle == null || !fusedConsumers.containsKey(application)) {
+      return delegate.forApplication(application, inputBundle);
+    }
+
+    List<AppliedPTransform<?, ?, ?>> transforms = new ArrayList<>();
+    for (AppliedPTransform<?, ?, ?> transform = application;
+        transform != null;
+        transform = fusedConsumers.get(transform)) {
+      transforms.add(transform);
+    }
+
+    // Evaluators are created from the last transform to the first, as each evaluator outputs to
+    // the evaluator of its consumer.
+    StructuralKey<?> key = inputBundle.getKey();
+    List<FusedTransform<?>> consumers = new ArrayList<>();
+    FusedTransform<?> consumer = null;
+    for (int i = transforms.size() - 1; i > 0; i--) {
+      AppliedPTransform<?, ?, ?> transform = transforms.get(i);
+      consumer =
+          new FusedTransform<>(
+              transform,
+              createEvaluator(transform, key, consumer),
+              new MetricsContainerImpl(transform.getFullName()));
+      consumers.add(consumer);
+    }
+    Collections.reverse(consumers);
+
+    TransformEvaluator<InputT> first = createEvaluator(application, key, consumer);
+    return new FusedStageEvaluator<>(first, consumers, inputBundle);
+  }
+
+  /**
+   * Creates an evaluator for the provided transform, which outputs to the provided consumer, or to
+   * bundles for its outputs if the consumer is null.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private <InputT> TransformEvaluator<InputT> createEvaluator(
+      AppliedPTransform<?, ?, ?> transform,
+      @Nullable StructuralKey<?> key,
+      @Nullable FusedTransform<?> consumer)
+      throws Exception {
+    String urn = urnForTransform(transform);
+    if (PAR_DO_TRANSFORM_URN.equals(urn)) {
+      BundleOutputManager outputManager;
+      if (consumer == null) {
+        outputManager =
+            ParDoEvaluator.createOutputManager(
+                evaluationContext, key, ParDoEvaluatorFactory.pcollections(transform.getOutputs()));
+      } else {
+        Map.Entry<TupleTag<?>, PValue> output =
+            Iterables.getOnlyElement(transform.getOutputs().entrySet());
+        outputManager =
+            BundleOutputManager.create(
+                Collections.<TupleTag<?>, UncommittedBundle<?>>singletonMap(
+                    output.getKey(),
+                    new ForwardingBundle((PCollection<?>) output.getValue(), consumer)));
+      }
+      return (TransformEvaluator) parDoFactory.forFusedApplication(transform, key, outputManager);
+    }
+
+    PCollection<InputT> output =
+        (PCollection<InputT>) Iterables.getOnlyElement(transform.getOutputs().values());
+    UncommittedBundle<InputT> outputBundle =
+        consumer == null
+            ? evaluationContext.createBundle(output)
+            : new ForwardingBundle(output, consumer);
+    if (WINDOW_TRANSFORM_URN.equals(urn)) {
+      return windowFactory.forFusedApplication(transform, outputBundle);
+    }
+    checkState(
+        FLATTEN_TRANSFORM_URN.equals(urn),
+        "Cannot fuse %s, which is not a %s, %s or %s",
+        transform.getFullName(),
+        ParDo.class.getSimpleName(),
+        Window.class.getSimpleName(),
+        Flatten.class.getSimpleName());
+    return flattenFactory.forFusedApplication(transform, outputBundle);
+  }
+
+  @Override
+  public void cleanup() throws Exception {
+    try {
+      parDoFactory.cleanup();
+    } finally {
+      delegate.cleanup();
+    }
+  }
+
+  /**
+   * A transform within a fused stage other than the first, along with its evaluator and the
+   * {@link MetricsContainerImpl} that its metrics are reported to.
+   */
+  private static class FusedTransform<InputT> {
+    private final AppliedPTransform<?, ?, ?> transform;
+    private final TransformEvaluator<InputT> evaluator;
+    private final MetricsContainerImpl metricsContainer;
+
+    private FusedTransform(
+        AppliedPTransform<?, ?, ?> transform,
+        TransformEvaluator<InputT> evaluator,
+        MetricsContainerImpl metricsContainer) {
+      this.transform = transform;
+      this.evaluator = evaluator;
+      this.metricsContainer = metricsContainer;
+    }
+
+    private void processElement(WindowedValue<InputT> element) throws Exception {
+      try (Closeable metricsScope = MetricsEnvironment.scopedMetricsContainer(metricsContainer)) {
+        evaluator.processElement(element);
+      }
+    }
+
+    private TransformResult<InputT> finishBundle() throws Exception {
+      try (Closeable metricsScope = MetricsEnvironment.scopedMetricsContainer(metricsContainer)) {
+        return evaluator.finishBundle();
+      }
+    }
+  }
+
+  /**
+   * An {@link UncommittedBundle} that passes each element added to it directly to the evaluator
+   * of a {@link FusedTransform}. It is never committed.
+   */
+  private static class ForwardingBundle<T> implements UncommittedBundle<T> {
+    private final PCollection<T> pcollection;
+    private final FusedTransform<T> consumer;
+
+    private ForwardingBundle(PCollection<T> pcollection, FusedTransform<T> consumer) {
+      this.pcollection = pcollection;
+      this.consumer = consumer;
+    }
+
+    @Override
+    public PCollection<T> getPCollection() {
+      return pcollection;
+    }
+
+    @Override
+    public UncommittedBundle<T> add(WindowedValue<T> element) {
+      try {
+        consumer.processElement(element);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw UserCodeException.wrap(e);
+      }
+      return this;
+    }
+
+    @Override
+    public CommittedBundle<T> commit(Instant synchronizedProcessingTime) {
+      throw new IllegalStateException(
+          String.format(
+              "Elements of %s are passed directly to %s and are never committed",
+              pcollection,
+              consumer.transform.getFullName()));
+    }
+  }
+
+  /**
+   * A {@link TransformEvaluator} for a fused stage. Elements are provided to the evaluator of the
+   * first transform, which passes its outputs on to the evaluators of its fused consumers.
+   */
+  private class FusedStageEvaluator<InputT> implements TransformEvaluator<InputT> {
+    private final TransformEvaluator<InputT> first;
+    private final List<FusedTransform<?>> consumers;
+    private final CommittedBundle<?> inputBundle;
+
+    private FusedStageEvaluator(
+        TransformEvaluator<InputT> first,
+        List<FusedTransform<?>> consumers,
+        CommittedBundle<?> inputBundle) {
+      this.first = first;
+      this.consumers = ImmutableList.copyOf(consumers);
+      this.inputBundle = inputBundle;
+    }
+
+    @Override
+    public void processElement(WindowedValue<InputT> element) throws Exception {
+      first.processElement(element);
+    }
+
+    @Override
+    public TransformResult<InputT> finishBundle() throws Exception {
+      // Finishing a transform can output elements to its consumer, so transforms are finished
+      // in the order that they are fused.
+      TransformResult<InputT> firstResult = first.finishBundle();
+      TransformResult<?> lastResult = null;
+      for (FusedTransform<?> consumer : consumers) {
+        lastResult = consumer.finishBundle();
+      }
+
+      for (FusedTransform<?> consumer : consumers) {
+        // The executor only reports the metrics of the first transform, so the metrics of the
+        // fused consumers are reported here.
+        MetricUpdates updates = consumer.metricsContainer.getCumulative();
+        evaluationContext.getMetrics().commitPhysical(inputBundle, updates);
+        evaluationContext.getMetrics().commitLogical(inputBundle, updates);
+      }
+
+      StepTransformResult.Builder<InputT> result =
+          StepTransformResult.<InputT>withHold(
+                  firstResult.getTransform(), firstResult.getWatermarkHold())
+              .withTimerUpdate(firstResult.getTimerUpdate())
+              .addUnprocessedElements(firstResult.getUnprocessedElements());
+      if (firstResult.getState() != null) {
+        result.withState(firstResult.getState());
+      }
+      for (UncommittedBundle<?> outputBundle : lastResult.getOutputBundles()) {
+        result.addOutput(outputBundle);
+      }
+      return result.build();
+    }
+  }
+}
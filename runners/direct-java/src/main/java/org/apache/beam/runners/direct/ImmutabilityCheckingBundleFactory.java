@@ -24,10 +24,10 @@ import com.google.common.collect.SetMultimap;
 import org.apache.beam.runners.direct.DirectRunner.Enforcement;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.runners.AppliedPTransform;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.util.IllegalMutationException;
 import org.apache.beam.sdk.util.MutationDetector;
-import org.apache.beam.sdk.util.MutationDetectors;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.values.PCollection;
 import org.joda.time.Instant;
@@ -49,15 +49,28 @@ class ImmutabilityCheckingBundleFactory implements BundleFactory {
    */
   public static ImmutabilityCheckingBundleFactory create(
       BundleFactory underlying, DirectGraph graph) {
-    return new ImmutabilityCheckingBundleFactory(underlying, graph);
+    return create(underlying, graph, EnforcementPolicy.checkAll());
+  }
+
+  /**
+   * Create a new {@link ImmutabilityCheckingBundleFactory} that uses the underlying {@link
+   * BundleFactory} to create the output bundle, and checks the elements selected by the provided
+   * {@link EnforcementPolicy}.
+   */
+  public static ImmutabilityCheckingBundleFactory create(
+      BundleFactory underlying, DirectGraph graph, EnforcementPolicy policy) {
+    return new ImmutabilityCheckingBundleFactory(underlying, graph, policy);
   }
 
   private final BundleFactory underlying;
   private final DirectGraph graph;
+  private final EnforcementPolicy policy;
 
-  private ImmutabilityCheckingBundleFactory(BundleFactory underlying, DirectGraph graph) {
+  private ImmutabilityCheckingBundleFactory(
+      BundleFactory underlying, DirectGraph graph, EnforcementPolicy policy) {
     this.underlying = checkNotNull(underlying);
     this.graph = graph;
+    this.policy = checkNotNull(policy);
   }
 
   /**
@@ -91,11 +104,13 @@ class ImmutabilityCheckingBundleFactory implements BundleFactory {
   private class ImmutabilityEnforcingBundle<T> implements UncommittedBundle<T> {
     private final UncommittedBundle<T> underlying;
     private final SetMultimap<WindowedValue<T>, MutationDetector> mutationDetectors;
+    private final AppliedPTransform<?, ?, ?> producer;
     private Coder<T> coder;
 
     public ImmutabilityEnforcingBundle(UncommittedBundle<T> underlying) {
       this.underlying = underlying;
       mutationDetectors = HashMultimap.create();
+      producer = graph.getProducer(getPCollection());
       coder = getPCollection().getCoder();
     }
 
@@ -107,8 +122,9 @@ class ImmutabilityCheckingBundleFactory implements BundleFactory {
     @Override
     public UncommittedBundle<T> add(WindowedValue<T> element) {
       try {
-        mutationDetectors.put(
-            element, MutationDetectors.forValueWithCoder(element.getValue(), coder));
+        if (policy.shouldCheck(producer, coder, element.getValue())) {
+          mutationDetectors.put(element, policy.mutationDetectorFor(element.getValue(), coder));
+        }
       } catch (CoderException e) {
         throw new RuntimeException(e);
       }
@@ -126,7 +142,7 @@ class ImmutabilityCheckingBundleFactory implements BundleFactory {
                 String.format(
                     "PTransform %s mutated value %s after it was output (new value was %s)."
                         + " Values must not be mutated in any way after being output.",
-                    graph.getProducer(underlying.getPCollection()).getFullName(),
+                    producer.getFullName(),
                     exn.getSavedValue(),
                     exn.getNewValue()),
                 exn.getSavedValue(),
@@ -24,7 +24,6 @@ import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.runners.AppliedPTransform;
 import org.apache.beam.sdk.util.IllegalMutationException;
 import org.apache.beam.sdk.util.MutationDetector;
-import org.apache.beam.sdk.util.MutationDetectors;
 import org.apache.beam.sdk.util.UserCodeException;
 import org.apache.beam.sdk.util.WindowedValue;
 
@@ -34,7 +33,21 @@ import org.apache.beam.sdk.util.WindowedValue;
  */
 class ImmutabilityEnforcementFactory implements ModelEnforcementFactory {
   public static ModelEnforcementFactory create() {
-    return new ImmutabilityEnforcementFactory();
+    return create(EnforcementPolicy.checkAll());
+  }
+
+  /**
+   * Create a new {@link ImmutabilityEnforcementFactory} that checks the elements selected by the
+   * provided {@link EnforcementPolicy}.
+   */
+  public static ModelEnforcementFactory create(EnforcementPolicy policy) {
+    return new ImmutabilityEnforcementFactory(policy);
+  }
+
+  private final EnforcementPolicy policy;
+
+  private ImmutabilityEnforcementFactory(EnforcementPolicy policy) {
+    this.policy = policy;
   }
 
   @Override
@@ -43,7 +56,7 @@ class ImmutabilityEnforcementFactory implements ModelEnforcementFactory {
     return new ImmutabilityCheckingEnforcement<T>(input, consumer);
   }
 
-  private static class ImmutabilityCheckingEnforcement<T> extends AbstractModelEnforcement<T> {
+  private class ImmutabilityCheckingEnforcement<T> extends AbstractModelEnforcement<T> {
     private final AppliedPTransform<?, ?, ?> transform;
     private final Map<WindowedValue<T>, MutationDetector> mutationElements;
     private final Coder<T> coder;
@@ -58,8 +71,9 @@ class ImmutabilityEnforcementFactory implements ModelEnforcementFactory {
     @Override
     public void beforeElement(WindowedValue<T> element) {
       try {
-        mutationElements.put(
-            element, MutationDetectors.forValueWithCoder(element.getValue(), coder));
+        if (policy.shouldCheck(transform, coder, element.getValue())) {
+          mutationElements.put(element, policy.mutationDetectorFor(element.getValue(), coder));
+        }
       } catch (CoderException e) {
         throw UserCodeException.wrap(e);
       }
@@ -67,7 +81,10 @@ class ImmutabilityEnforcementFactory implements ModelEnforcementFactory {
 
     @Override
     public void afterElement(WindowedValue<T> element) {
-      verifyUnmodified(mutationElements.get(element));
+      MutationDetector detector = mutationElements.get(element);
+      if (detector != null) {
+        verifyUnmodified(detector);
+      }
     }
 
     @Override
@@ -98,8 +98,34 @@ class ParDoEvaluator<InputT> implements TransformEvaluator<InputT> {
       Map<TupleTag<?>, PCollection<?>> outputs,
       DoFnRunnerFactory<InputT, OutputT> runnerFactory) {
 
-    BundleOutputManager outputManager = createOutputManager(evaluationContext, key, outputs);
+    return create(
+        evaluationContext,
+        stepContext,
+        application,
+        windowingStrategy,
+        fn,
+        sideInputs,
+        mainOutputTag,
+        additionalOutputTags,
+        createOutputManager(evaluationContext, key, outputs),
+        runnerFactory);
+  }
 
+  /**
+   * Creates a {@link ParDoEvaluator} that sends its outputs to the provided {@link
+   * BundleOutputManager}, such as one that passes them directly to a fused consumer.
+   */
+  public static <InputT, OutputT> ParDoEvaluator<InputT> create(
+      EvaluationContext evaluationContext,
+      DirectStepContext stepContext,
+      AppliedPTransform<?, ?, ?> application,
+      WindowingStrategy<?, ? extends BoundedWindow> windowingStrategy,
+      DoFn<InputT, OutputT> fn,
+      List<PCollectionView<?>> sideInputs,
+      TupleTag<OutputT> mainOutputTag,
+      List<TupleTag<?>> additionalOutputTags,
+      BundleOutputManager outputManager,
+      DoFnRunnerFactory<InputT, OutputT> runnerFactory) {
     ReadyCheckingSideInputReader sideInputReader =
         evaluationContext.createSideInputReader(sideInputs);
 
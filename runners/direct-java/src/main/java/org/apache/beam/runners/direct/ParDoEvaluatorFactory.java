@@ -20,10 +20,14 @@ package org.apache.beam.runners.direct;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.construction.TransformInputs;
 import org.apache.beam.runners.direct.DirectExecutionContext.DirectStepContext;
+import org.apache.beam.runners.direct.ParDoEvaluator.BundleOutputManager;
 import org.apache.beam.sdk.runners.AppliedPTransform;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.ParDo;
@@ -142,6 +146,71 @@ final class ParDoEvaluatorFactory<InputT, OutputT> implements TransformEvaluator
       DoFn<InputT, OutputT> fn,
       DoFnLifecycleManager fnManager)
       throws Exception {
+    return createParDoEvaluator(
+        application,
+        mainInput,
+        sideInputs,
+        mainOutputTag,
+        additionalOutputTags,
+        stepContext,
+        fn,
+        fnManager,
+        ParDoEvaluator.createOutputManager(
+            evaluationContext, key, pcollections(application.getOutputs())));
+  }
+
+  /**
+   * Creates an evaluator for an application of a {@link ParDo} that is part of a fused stage. The
+   * outputs of the evaluator are sent to the provided {@link BundleOutputManager} rather than to
+   * bundles created for the outputs of the application.
+   */
+  @SuppressWarnings("unchecked")
+  TransformEvaluator<InputT> forFusedApplication(
+      AppliedPTransform<?, ?, ?> application,
+      @Nullable StructuralKey<?> key,
+      BundleOutputManager outputManager)
+      throws Exception {
+    AppliedPTransform<PCollection<InputT>, PCollectionTuple, ParDo.MultiOutput<InputT, OutputT>>
+        parDoApplication =
+            (AppliedPTransform<
+                    PCollection<InputT>, PCollectionTuple, ParDo.MultiOutput<InputT, OutputT>>)
+                application;
+    ParDo.MultiOutput<InputT, OutputT> transform = parDoApplication.getTransform();
+    PCollection<InputT> mainInput =
+        (PCollection<InputT>)
+            Iterables.getOnlyElement(TransformInputs.nonAdditionalInputs(application));
+
+    String stepName = evaluationContext.getStepName(application);
+    DirectStepContext stepContext =
+        evaluationContext.getExecutionContext(application, key).getStepContext(stepName);
+
+    DoFnLifecycleManager fnManager = fnClones.getUnchecked(transform.getFn());
+
+    return DoFnLifecycleManagerRemovingTransformEvaluator.wrapping(
+        createParDoEvaluator(
+            parDoApplication,
+            mainInput,
+            transform.getSideInputs(),
+            transform.getMainOutputTag(),
+            transform.getAdditionalOutputTags().getAll(),
+            stepContext,
+            fnManager.<InputT, OutputT>get(),
+            fnManager,
+            outputManager),
+        fnManager);
+  }
+
+  private ParDoEvaluator<InputT> createParDoEvaluator(
+      AppliedPTransform<PCollection<InputT>, PCollectionTuple, ?> application,
+      PCollection<InputT> mainInput,
+      List<PCollectionView<?>> sideInputs,
+      TupleTag<OutputT> mainOutputTag,
+      List<TupleTag<?>> additionalOutputTags,
+      DirectStepContext stepContext,
+      DoFn<InputT, OutputT> fn,
+      DoFnLifecycleManager fnManager,
+      BundleOutputManager outputManager)
+      throws Exception {
     try {
       return ParDoEvaluator.create(
           evaluationContext,
@@ -149,11 +218,10 @@ final class ParDoEvaluatorFactory<InputT, OutputT> implements TransformEvaluator
           application,
           mainInput.getWindowingStrategy(),
           fn,
-          key,
           sideInputs,
           mainOutputTag,
           additionalOutputTags,
-          pcollections(application.getOutputs()),
+          outputManager,
           runnerFactory);
     } catch (Exception e) {
       try {
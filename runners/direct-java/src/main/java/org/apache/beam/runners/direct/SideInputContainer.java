@@ -25,7 +25,6 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -37,6 +36,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import org.apache.beam.runners.core.ReadyCheckingSideInputReader;
 import org.apache.beam.runners.core.SideInputReader;
+import org.apache.beam.sdk.transforms.ViewFn;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.util.WindowedValue;
@@ -47,11 +47,14 @@ import org.apache.beam.sdk.values.WindowingStrategy;
  * An in-process container for {@link PCollectionView PCollectionViews}, which provides methods for
  * constructing {@link SideInputReader SideInputReaders} which block until a side input is
  * available and writing to a {@link PCollectionView}.
+ *
+ * <p>The {@link ViewFn} of each {@link PCollectionView} is applied at most once per window and
+ * pane. All readers share the materialized result until a later pane replaces the contents of the
+ * window.
  */
 class SideInputContainer {
   private final Collection<PCollectionView<?>> containedViews;
-  private final LoadingCache<
-          PCollectionViewWindow<?>, AtomicReference<Iterable<? extends WindowedValue<?>>>>
+  private final LoadingCache<PCollectionViewWindow<?>, AtomicReference<ViewContents>>
       viewByWindows;
 
   /**
@@ -60,15 +63,14 @@ class SideInputContainer {
    */
   public static SideInputContainer create(
       final EvaluationContext context, Collection<PCollectionView<?>> containedViews) {
-    LoadingCache<PCollectionViewWindow<?>, AtomicReference<Iterable<? extends WindowedValue<?>>>>
-        viewByWindows = CacheBuilder.newBuilder().build(new CallbackSchedulingLoader(context));
+    LoadingCache<PCollectionViewWindow<?>, AtomicReference<ViewContents>> viewByWindows =
+        CacheBuilder.newBuilder().build(new CallbackSchedulingLoader(context));
     return new SideInputContainer(containedViews, viewByWindows);
   }
 
   private SideInputContainer(
       Collection<PCollectionView<?>> containedViews,
-      LoadingCache<PCollectionViewWindow<?>, AtomicReference<Iterable<? extends WindowedValue<?>>>>
-          viewByWindows) {
+      LoadingCache<PCollectionViewWindow<?>, AtomicReference<ViewContents>> viewByWindows) {
     this.containedViews = ImmutableSet.copyOf(containedViews);
     this.viewByWindows = viewByWindows;
   }
@@ -134,28 +136,56 @@ class SideInputContainer {
   private void updatePCollectionViewWindowValues(
       PCollectionView<?> view, BoundedWindow window, Collection<WindowedValue<?>> windowValues) {
     PCollectionViewWindow<?> windowedView = PCollectionViewWindow.of(view, window);
-    AtomicReference<Iterable<? extends WindowedValue<?>>> contents =
-        viewByWindows.getUnchecked(windowedView);
-    if (contents.compareAndSet(null, windowValues)) {
+    AtomicReference<ViewContents> contents = viewByWindows.getUnchecked(windowedView);
+    PaneInfo newPane = windowValues.iterator().next().getPane();
+    ViewContents newContents = new ViewContents(windowValues, newPane.getIndex());
+    if (contents.compareAndSet(null, newContents)) {
       // the value had never been set, so we set it and are done.
       return;
     }
-    PaneInfo newPane = windowValues.iterator().next().getPane();
 
-    Iterable<? extends WindowedValue<?>> existingValues;
-    long existingPane;
+    ViewContents existingContents;
     do {
-      existingValues = contents.get();
-      existingPane =
-          Iterables.isEmpty(existingValues)
-              ? -1L
-              : existingValues.iterator().next().getPane().getIndex();
-    } while (newPane.getIndex() > existingPane
-        && !contents.compareAndSet(existingValues, windowValues));
+      existingContents = contents.get();
+    } while (newPane.getIndex() > existingContents.paneIndex
+        && !contents.compareAndSet(existingContents, newContents));
+  }
+
+  /**
+   * The values of a {@link PCollectionView} in a single window and pane, and the result of applying
+   * the {@link ViewFn} of the {@link PCollectionView} to those values, which is computed on first
+   * access.
+   */
+  private static class ViewContents {
+    private final Iterable<? extends WindowedValue<?>> values;
+    private final long paneIndex;
+
+    private volatile boolean materialized;
+    private Object materializedValue;
+
+    private ViewContents(Iterable<? extends WindowedValue<?>> values, long paneIndex) {
+      this.values = values;
+      this.paneIndex = paneIndex;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T materialize(PCollectionView<T> view) {
+      if (!materialized) {
+        synchronized (this) {
+          if (!materialized) {
+            // Safe covariant cast
+            Iterable<WindowedValue<?>> viewValues = (Iterable<WindowedValue<?>>) values;
+            materializedValue = view.getViewFn().apply(viewValues);
+            materialized = true;
+          }
+        }
+      }
+      return (T) materializedValue;
+    }
   }
 
-  private static class CallbackSchedulingLoader extends
-      CacheLoader<PCollectionViewWindow<?>, AtomicReference<Iterable<? extends WindowedValue<?>>>> {
+  private static class CallbackSchedulingLoader
+      extends CacheLoader<PCollectionViewWindow<?>, AtomicReference<ViewContents>> {
     private final EvaluationContext context;
 
     public CallbackSchedulingLoader(
@@ -164,10 +194,9 @@ class SideInputContainer {
     }
 
     @Override
-    public AtomicReference<Iterable<? extends WindowedValue<?>>>
-        load(PCollectionViewWindow<?> view) {
+    public AtomicReference<ViewContents> load(PCollectionViewWindow<?> view) {
 
-      AtomicReference<Iterable<? extends WindowedValue<?>>> contents = new AtomicReference<>();
+      AtomicReference<ViewContents> contents = new AtomicReference<>();
       WindowingStrategy<?, ?> windowingStrategy = view.getView().getWindowingStrategyInternal();
 
       context.scheduleAfterOutputWouldBeProduced(view.getView(),
@@ -181,10 +210,10 @@ class SideInputContainer {
   private static class WriteEmptyViewContents implements Runnable {
     private final PCollectionView<?> view;
     private final BoundedWindow window;
-    private final AtomicReference<Iterable<? extends WindowedValue<?>>> contents;
+    private final AtomicReference<ViewContents> contents;
 
     private WriteEmptyViewContents(PCollectionView<?> view, BoundedWindow window,
-        AtomicReference<Iterable<? extends WindowedValue<?>>> contents) {
+        AtomicReference<ViewContents> contents) {
       this.contents = contents;
       this.view = view;
       this.window = window;
@@ -194,7 +223,8 @@ class SideInputContainer {
     public void run() {
       // The requested window has closed without producing elements, so reflect that in
       // the PCollectionView. If set has already been called, will do nothing.
-      contents.compareAndSet(null, Collections.<WindowedValue<?>>emptyList());
+      contents.compareAndSet(
+          null, new ViewContents(Collections.<WindowedValue<?>>emptyList(), -1L));
     }
 
     @Override
@@ -208,9 +238,7 @@ class SideInputContainer {
 
   private final class SideInputContainerSideInputReader implements ReadyCheckingSideInputReader {
     private final Collection<PCollectionView<?>> readerViews;
-    private final LoadingCache<
-        PCollectionViewWindow<?>, Optional<? extends Iterable<? extends WindowedValue<?>>>>
-        viewContents;
+    private final LoadingCache<PCollectionViewWindow<?>, Optional<ViewContents>> viewContents;
 
     private SideInputContainerSideInputReader(Collection<PCollectionView<?>> readerViews) {
       this.readerViews = ImmutableSet.copyOf(readerViews);
@@ -239,11 +267,9 @@ class SideInputContainer {
           "calling get() on PCollectionView %s that is not ready in window %s",
           view,
           window);
-      // Safe covariant cast
-      @SuppressWarnings("unchecked") Iterable<WindowedValue<?>> values =
-          (Iterable<WindowedValue<?>>) viewContents.getUnchecked(PCollectionViewWindow.of(view,
-              window)).get();
-      return view.getViewFn().apply(values);
+      return viewContents.getUnchecked(PCollectionViewWindow.of(view, window))
+          .get()
+          .materialize(view);
     }
 
     @Override
@@ -261,12 +287,11 @@ class SideInputContainer {
    * A {@link CacheLoader} that loads the current contents of a {@link PCollectionViewWindow} into
    * an optional.
    */
-  private class CurrentViewContentsLoader extends CacheLoader<
-      PCollectionViewWindow<?>, Optional<? extends Iterable<? extends WindowedValue<?>>>> {
+  private class CurrentViewContentsLoader
+      extends CacheLoader<PCollectionViewWindow<?>, Optional<ViewContents>> {
 
     @Override
-    public Optional<? extends Iterable<? extends WindowedValue<?>>>
-        load(PCollectionViewWindow<?> key) {
+    public Optional<ViewContents> load(PCollectionViewWindow<?> key) {
       return Optional.fromNullable(viewByWindows.getUnchecked(key).get());
     }
   }
@@ -17,10 +17,12 @@
  */
 package org.apache.beam.runners.direct;
 
+import com.google.common.base.Stopwatch;
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import org.apache.beam.runners.core.metrics.MetricUpdates;
 import org.apache.beam.runners.core.metrics.MetricsContainerImpl;
 import org.apache.beam.sdk.metrics.MetricsEnvironment;
@@ -70,6 +72,9 @@ class TransformExecutor<T> implements Runnable {
   private final TransformExecutorService transformEvaluationState;
   private final EvaluationContext context;
 
+  /** Measures the time from the creation of this executor, when its bundle is scheduled. */
+  private final Stopwatch sinceScheduled;
+
   private TransformExecutor(
       EvaluationContext context,
       TransformEvaluatorFactory factory,
@@ -88,10 +93,13 @@ class TransformExecutor<T> implements Runnable {
 
     this.transformEvaluationState = transformEvaluationState;
     this.context = context;
+    this.sinceScheduled = Stopwatch.createStarted();
   }
 
   @Override
   public void run() {
+    long queueMillis = sinceScheduled.elapsed(TimeUnit.MILLISECONDS);
+    Stopwatch processing = Stopwatch.createStarted();
     MetricsContainerImpl metricsContainer = new MetricsContainerImpl(transform.getFullName());
     try (Closeable metricsScope = MetricsEnvironment.scopedMetricsContainer(metricsContainer)) {
       Collection<ModelEnforcement<T>> enforcements = new ArrayList<>();
@@ -107,9 +115,9 @@ class TransformExecutor<T> implements Runnable {
         return;
       }
 
-      processElements(evaluator, metricsContainer, enforcements);
+      long elements = processElements(evaluator, metricsContainer, enforcements);
 
-      finishBundle(evaluator, metricsContainer, enforcements);
+      finishBundle(evaluator, metricsContainer, enforcements, elements, queueMillis, processing);
     } catch (Exception e) {
       onComplete.handleException(inputBundle, e);
       if (e instanceof RuntimeException) {
@@ -131,14 +139,18 @@ class TransformExecutor<T> implements Runnable {
   /**
    * Processes all the elements in the input bundle using the transform evaluator, applying any
    * necessary {@link ModelEnforcement ModelEnforcements}.
+   *
+   * @return the number of elements processed
    */
-  private void processElements(
+  private long processElements(
       TransformEvaluator<T> evaluator,
       MetricsContainerImpl metricsContainer,
       Collection<ModelEnforcement<T>> enforcements)
       throws Exception {
+    long elements = 0L;
     if (inputBundle != null) {
       for (WindowedValue<T> value : inputBundle.getElements()) {
+        elements++;
         for (ModelEnforcement<T> enforcement : enforcements) {
           enforcement.beforeElement(value);
         }
@@ -157,21 +169,34 @@ class TransformExecutor<T> implements Runnable {
         }
       }
     }
+    return elements;
   }
 
   /**
    * Finishes processing the input bundle and commit the result using the
-   * {@link CompletionCallback}, applying any {@link ModelEnforcement} if necessary.
+   * {@link CompletionCallback}, applying any {@link ModelEnforcement} if necessary. Records the
+   * {@link TransformMetrics} of the bundle before the result is committed.
    *
    * @return the {@link TransformResult} produced by
    *         {@link TransformEvaluator#finishBundle()}
    */
   private TransformResult<T> finishBundle(
-      TransformEvaluator<T> evaluator, MetricsContainerImpl metricsContainer,
-      Collection<ModelEnforcement<T>> enforcements)
+      TransformEvaluator<T> evaluator,
+      MetricsContainerImpl metricsContainer,
+      Collection<ModelEnforcement<T>> enforcements,
+      long elements,
+      long queueMillis,
+      Stopwatch processing)
       throws Exception {
+    TransformResult<T> evaluatorResult = evaluator.finishBundle();
+    TransformMetrics.recordBundle(
+        metricsContainer,
+        elements,
+        queueMillis,
+        processing.elapsed(TimeUnit.MILLISECONDS),
+        context.getOutputWatermarkLag(transform));
     TransformResult<T> result =
-        evaluator.finishBundle().withLogicalMetricUpdates(metricsContainer.getCumulative());
+        evaluatorResult.withLogicalMetricUpdates(metricsContainer.getCumulative());
     CommittedResult outputs = onComplete.handleResult(inputBundle, result);
     for (ModelEnforcement<T> enforcement : enforcements) {
       enforcement.afterFinish(inputBundle, result, outputs.getOutputs());
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.direct;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.metrics.MetricsContainerImpl;
+import org.apache.beam.sdk.metrics.DistributionResult;
+import org.apache.beam.sdk.metrics.GaugeResult;
+import org.apache.beam.sdk.metrics.MetricName;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.MetricResults;
+import org.apache.beam.sdk.metrics.MetricsFilter;
+import org.apache.beam.sdk.runners.AppliedPTransform;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * System metrics that the {@link DirectRunner} reports for each {@link AppliedPTransform}, in the
+ * {@link #NAMESPACE} namespace.
+ *
+ * <p>These are reported alongside user metrics, and can be queried through
+ * {@link org.apache.beam.sdk.PipelineResult#metrics()}.
+ */
+final class TransformMetrics {
+  static final String NAMESPACE = DirectRunner.class.getName();
+
+  /** The number of elements in the input bundles processed by a transform. */
+  static final MetricName ELEMENTS_PROCESSED = MetricName.named(NAMESPACE, "elementsProcessed");
+  /** The time between a bundle being scheduled and a transform starting to process it. */
+  static final MetricName BUNDLE_QUEUE_MILLIS = MetricName.named(NAMESPACE, "bundleQueueMillis");
+  /** The time a transform spends processing and finishing a bundle. */
+  static final MetricName BUNDLE_PROCESSING_MILLIS =
+      MetricName.named(NAMESPACE, "bundleProcessingMillis");
+  /** The processing time by which the output watermark of a transform trails the current time. */
+  static final MetricName OUTPUT_WATERMARK_LAG_MILLIS =
+      MetricName.named(NAMESPACE, "outputWatermarkLagMillis");
+
+  private TransformMetrics() {}
+
+  /**
+   * Records the system metrics for a bundle that has been processed by a transform.
+   */
+  static void recordBundle(
+      MetricsContainerImpl container,
+      long elements,
+      long queueMillis,
+      long processingMillis,
+      @Nullable Duration outputWatermarkLag) {
+    container.getCounter(ELEMENTS_PROCESSED).inc(elements);
+    container.getDistribution(BUNDLE_QUEUE_MILLIS).update(queueMillis);
+    container.getDistribution(BUNDLE_PROCESSING_MILLIS).update(processingMillis);
+    if (outputWatermarkLag != null) {
+      container.getGauge(OUTPUT_WATERMARK_LAG_MILLIS).set(outputWatermarkLag.getMillis());
+    }
+  }
+
+  /**
+   * Returns a {@link Runnable} that logs the system metrics of every transform, including the
+   * rate at which each transform has processed elements since the previous run.
+   */
+  static Runnable logger(MetricResults metrics) {
+    return new MetricsLogger(metrics);
+  }
+
+  private static class MetricsLogger implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(TransformMetrics.class);
+
+    private final MetricResults metrics;
+    private final Map<String, Long> previousElements = new HashMap<>();
+    private long previousNanos = System.nanoTime();
+
+    private MetricsLogger(MetricResults metrics) {
+      this.metrics = metrics;
+    }
+
+    @Override
+    public void run() {
+      if (!LOG.isInfoEnabled()) {
+        // Nothing would be logged, so don't query the metrics either.
+        return;
+      }
+      MetricQueryResults results =
+          metrics.queryMetrics(
+              MetricsFilter.builder()
+                  .addNameFilter(MetricNameFilter.inNamespace(NAMESPACE))
+                  .build());
+      long nanos = System.nanoTime();
+      double elapsedSeconds = (nanos - previousNanos) / (double) TimeUnit.SECONDS.toNanos(1L);
+      previousNanos = nanos;
+
+      Map<String, StepSummary> summaries = new HashMap<>();
+      for (MetricResult<Long> counter : results.counters()) {
+        if (counter.name().equals(ELEMENTS_PROCESSED)) {
+          summaryFor(summaries, counter.step()).elements = counter.attempted();
+        }
+      }
+      for (MetricResult<DistributionResult> distribution : results.distributions()) {
+        if (distribution.name().equals(BUNDLE_QUEUE_MILLIS)) {
+          summaryFor(summaries, distribution.step()).queueMillis = distribution.attempted();
+        } else if (distribution.name().equals(BUNDLE_PROCESSING_MILLIS)) {
+          summaryFor(summaries, distribution.step()).processingMillis = distribution.attempted();
+        }
+      }
+      for (MetricResult<GaugeResult> gauge : results.gauges()) {
+        if (gauge.name().equals(OUTPUT_WATERMARK_LAG_MILLIS)) {
+          summaryFor(summaries, gauge.step()).watermarkLagMillis = gauge.attempted().value();
+        }
+      }
+
+      for (Map.Entry<String, StepSummary> step : summaries.entrySet()) {
+        StepSummary summary = step.getValue();
+        Long previous = previousElements.put(step.getKey(), summary.elements);
+        long newElements = summary.elements - (previous == null ? 0L : previous);
+        LOG.info(
+            "{}: {} elements ({} elements/sec), {} bundles, mean bundle latency {} ms, "
+                + "mean queue wait {} ms, output watermark lag {} ms",
+            step.getKey(),
+            summary.elements,
+            oneDecimal(elapsedSeconds > 0D ? newElements / elapsedSeconds : 0D),
+            summary.processingMillis == null ? 0L : summary.processingMillis.count(),
+            oneDecimal(summary.processingMillis == null ? 0D : summary.processingMillis.mean()),
+            oneDecimal(summary.queueMillis == null ? 0D : summary.queueMillis.mean()),
+            summary.watermarkLagMillis == null ? "unknown" : summary.watermarkLagMillis);
+      }
+    }
+
+    /** Rounds to one decimal place for logging. */
+    private static double oneDecimal(double value) {
+      return Math.round(value * 10D) / 10D;
+    }
+
+    private static StepSummary summaryFor(Map<String, StepSummary> summaries, String step) {
+      StepSummary summary = summaries.get(step);
+      if (summary == null) {
+        summary = new StepSummary();
+        summaries.put(step, summary);
+      }
+      return summary;
+    }
+  }
+
+  private static class StepSummary {
+    private long elements;
+    @Nullable private DistributionResult queueMillis;
+    @Nullable private DistributionResult processingMillis;
+    @Nullable private Long watermarkLagMillis;
+  }
+}
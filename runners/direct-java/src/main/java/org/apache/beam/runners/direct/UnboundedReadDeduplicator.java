@@ -17,13 +17,22 @@
  */
 package org.apache.beam.runners.direct;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedLongs;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.beam.sdk.coders.ByteArrayCoder;
 import org.apache.beam.sdk.io.Read.Unbounded;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.joda.time.Duration;
 
@@ -96,4 +105,277 @@ interface UnboundedReadDeduplicator {
     }
   }
 
+  /**
+   * An {@link UnboundedReadDeduplicator} that returns true if the record ID has not been seen
+   * within 10 minutes, using a bounded amount of memory.
+   *
+   * <p>Record IDs are tracked as 64-bit fingerprints in a rolling sequence of sets, each covering a
+   * tenth of the retention period. A set is dropped once the period it covers has expired. A
+   * record ID that is seen again is added to the newest set, so IDs are retained for 10 minutes
+   * since they were last seen. If the newest set reaches its share of the memory budget, a new set
+   * is started early and the oldest set is dropped, so the retention period is shortened rather
+   * than the budget exceeded.
+   *
+   * <p>Each set can be fronted by a Bloom filter, which avoids probing the set for most IDs that
+   * are not in it. The number of duplicate and unique record IDs are reported as metrics.
+   */
+  class FingerprintDeduplicator implements UnboundedReadDeduplicator {
+    private static final long DEFAULT_RETENTION = Duration.standardMinutes(10L).getMillis();
+    private static final int NUM_BUCKETS = 10;
+
+    private final Counter duplicateRecordIds =
+        Metrics.counter(UnboundedReadDeduplicator.class, "duplicateRecordIds");
+    private final Counter uniqueRecordIds =
+        Metrics.counter(UnboundedReadDeduplicator.class, "uniqueRecordIds");
+
+    private final Clock clock;
+    private final long bucketMillis;
+    private final int maxSlotsPerBucket;
+    private final boolean useBloomFilter;
+
+    /** The sets of fingerprints, from newest to oldest. */
+    private final Deque<FingerprintSet> buckets;
+
+    private long duplicates;
+    private long uniques;
+
+    /**
+     * Create a new {@link FingerprintDeduplicator} that uses at most approximately the provided
+     * number of bytes to track record IDs.
+     */
+    public static UnboundedReadDeduplicator create(long memoryBudgetBytes, boolean useBloomFilter) {
+      return new FingerprintDeduplicator(
+          NanosOffsetClock.create(), DEFAULT_RETENTION, memoryBudgetBytes, useBloomFilter);
+    }
+
+    @VisibleForTesting
+    static FingerprintDeduplicator create(
+        Clock clock, Duration retention, long memoryBudgetBytes, boolean useBloomFilter) {
+      return new FingerprintDeduplicator(
+          clock, retention.getMillis(), memoryBudgetBytes, useBloomFilter);
+    }
+
+    private FingerprintDeduplicator(
+        Clock clock, long retentionMillis, long memoryBudgetBytes, boolean useBloomFilter) {
+      checkArgument(
+          retentionMillis >= NUM_BUCKETS, "Retention must be at least %s ms", NUM_BUCKETS);
+      this.clock = clock;
+      this.bucketMillis = retentionMillis / NUM_BUCKETS;
+      this.maxSlotsPerBucket =
+          FingerprintSet.maxSlotsWithin(memoryBudgetBytes / NUM_BUCKETS, useBloomFilter);
+      this.useBloomFilter = useBloomFilter;
+      this.buckets = new ArrayDeque<>();
+    }
+
+    @Override
+    public synchronized boolean shouldOutput(byte[] recordId) {
+      long fingerprint = fingerprint(recordId);
+      FingerprintSet current = currentBucket(clock.now().getMillis());
+      for (FingerprintSet bucket : buckets) {
+        if (bucket.contains(fingerprint)) {
+          if (bucket != current) {
+            // Retain the ID for the full retention period since it was last seen.
+            addToCurrentBucket(current, fingerprint);
+          }
+          duplicates++;
+          duplicateRecordIds.inc();
+          return false;
+        }
+      }
+      addToCurrentBucket(current, fingerprint);
+      uniques++;
+      uniqueRecordIds.inc();
+      return true;
+    }
+
+    /** Returns the number of record IDs that were reported as duplicates. */
+    synchronized long getDuplicateCount() {
+      return duplicates;
+    }
+
+    /** Returns the number of record IDs that were not reported as duplicates. */
+    synchronized long getUniqueCount() {
+      return uniques;
+    }
+
+    /** Returns the number of record IDs currently tracked. */
+    synchronized long getTrackedCount() {
+      long tracked = 0;
+      for (FingerprintSet bucket : buckets) {
+        tracked += bucket.size();
+      }
+      return tracked;
+    }
+
+    /**
+     * Drops the buckets that have expired at the provided time, and returns the bucket that
+     * fingerprints seen at that time are added to.
+     */
+    private FingerprintSet currentBucket(long nowMillis) {
+      while (!buckets.isEmpty()
+          && buckets.peekLast().startMillis <= nowMillis - NUM_BUCKETS * bucketMillis) {
+        buckets.removeLast();
+      }
+      FingerprintSet current = buckets.peekFirst();
+      if (current == null || current.startMillis <= nowMillis - bucketMillis) {
+        current = startBucket(nowMillis);
+      }
+      return current;
+    }
+
+    private void addToCurrentBucket(FingerprintSet current, long fingerprint) {
+      if (!current.add(fingerprint)) {
+        // The bucket is using all of its memory, so start a new one early.
+        current = startBucket(current.startMillis);
+        current.add(fingerprint);
+      }
+    }
+
+    private FingerprintSet startBucket(long startMillis) {
+      if (buckets.size() == NUM_BUCKETS) {
+        buckets.removeLast();
+      }
+      FingerprintSet bucket = new FingerprintSet(startMillis, maxSlotsPerBucket, useBloomFilter);
+      buckets.addFirst(bucket);
+      return bucket;
+    }
+
+    private static long fingerprint(byte[] recordId) {
+      long fingerprint = Hashing.murmur3_128().hashBytes(recordId).asLong();
+      // Zero marks an empty slot.
+      return fingerprint == 0L ? 1L : fingerprint;
+    }
+  }
+
+  /**
+   * An open addressing hash set of nonzero 64-bit fingerprints, optionally fronted by a Bloom
+   * filter, which grows up to a maximum number of slots.
+   */
+  class FingerprintSet {
+    private static final int INITIAL_SLOTS = 1024;
+    /**
+     * The number of bits of the Bloom filter per slot of the table. The table is at most half
+     * full, so this is 10 bits per fingerprint, which with {@link #BLOOM_HASHES} hash functions
+     * gives a false positive rate of about 1.2%.
+     */
+    private static final int BLOOM_BITS_PER_SLOT = 5;
+    private static final int BLOOM_HASHES = 4;
+
+    /**
+     * Returns the largest number of slots, a power of two, whose table and Bloom filter fit within
+     * the provided number of bytes. At least {@link #INITIAL_SLOTS} slots are used.
+     */
+    static int maxSlotsWithin(long budgetBytes, boolean useBloomFilter) {
+      long bitsPerSlot = Long.SIZE + (useBloomFilter ? BLOOM_BITS_PER_SLOT : 0);
+      long slots = Long.highestOneBit(Math.max(1L, budgetBytes * Byte.SIZE / bitsPerSlot));
+      return (int) Math.min(1 << 30, Math.max(INITIAL_SLOTS, slots));
+    }
+
+    private final long startMillis;
+    private final int maxSlots;
+    private final boolean useBloomFilter;
+
+    private long[] table;
+    private long[] bloomFilter;
+    private int size;
+
+    FingerprintSet(long startMillis, int maxSlots, boolean useBloomFilter) {
+      this.startMillis = startMillis;
+      this.maxSlots = maxSlots;
+      this.useBloomFilter = useBloomFilter;
+      allocate(Math.min(INITIAL_SLOTS, maxSlots));
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean contains(long fingerprint) {
+      if (useBloomFilter && !mightContain(fingerprint)) {
+        return false;
+      }
+      int mask = table.length - 1;
+      for (int slot = spread(fingerprint) & mask; table[slot] != 0L; slot = (slot + 1) & mask) {
+        if (table[slot] == fingerprint) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Adds the fingerprint and returns true, or returns false if the set is at its maximum size.
+     * The fingerprint must not already be in the set.
+     */
+    boolean add(long fingerprint) {
+      if (2 * (size + 1) > table.length) {
+        if (table.length == maxSlots) {
+          return false;
+        }
+        long[] previous = table;
+        allocate(table.length * 2);
+        for (long existing : previous) {
+          if (existing != 0L) {
+            insert(existing);
+          }
+        }
+      }
+      insert(fingerprint);
+      size++;
+      return true;
+    }
+
+    private void allocate(int slots) {
+      table = new long[slots];
+      if (useBloomFilter) {
+        bloomFilter = new long[slots * BLOOM_BITS_PER_SLOT / Long.SIZE];
+      }
+    }
+
+    private void insert(long fingerprint) {
+      int mask = table.length - 1;
+      int slot = spread(fingerprint) & mask;
+      while (table[slot] != 0L) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = fingerprint;
+      if (useBloomFilter) {
+        long numBits = (long) bloomFilter.length * Long.SIZE;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+          long bit = bloomBit(fingerprint, i, numBits);
+          bloomFilter[(int) (bit >>> 6)] |= 1L << bit;
+        }
+      }
+    }
+
+    /**
+     * Returns whether the Bloom filter admits that the fingerprint may be in the set. Must only be
+     * called if the set uses a Bloom filter.
+     */
+    @VisibleForTesting
+    boolean mightContain(long fingerprint) {
+      long numBits = (long) bloomFilter.length * Long.SIZE;
+      for (int i = 0; i < BLOOM_HASHES; i++) {
+        long bit = bloomBit(fingerprint, i, numBits);
+        if ((bloomFilter[(int) (bit >>> 6)] & (1L << bit)) == 0L) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns the i-th bit for the fingerprint, using double hashing of the fingerprint and the
+     * fingerprint with its halves swapped.
+     */
+    private static long bloomBit(long fingerprint, int i, long numBits) {
+      long combined = fingerprint + i * Long.rotateLeft(fingerprint, 32);
+      return UnsignedLongs.remainder(combined, numBits);
+    }
+
+    private static int spread(long fingerprint) {
+      return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+  }
+
 }
@@ -305,7 +305,9 @@ class UnboundedReadEvaluatorFactory implements TransformEvaluatorFactory {
           source.split(targetParallelism, evaluationContext.getPipelineOptions());
       UnboundedReadDeduplicator deduplicator =
           source.requiresDeduping()
-              ? UnboundedReadDeduplicator.CachedIdDeduplicator.create()
+              ? UnboundedReadDeduplicator.FingerprintDeduplicator.create(
+                  evaluationContext.getPipelineOptions().getRecordIdDeduplicationMemoryBytes(),
+                  evaluationContext.getPipelineOptions().isRecordIdDeduplicationBloomFilter())
               : NeverDeduplicator.create();
 
       ImmutableList.Builder<CommittedBundle<UnboundedSourceShard<T, ?>>> initialShards =
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.direct;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+/**
+ * Wakes up a thread that waits for events, either as soon as an event occurs or once the
+ * {@link Clock} reaches a point in processing time.
+ *
+ * <p>Wake ups are coalesced: any number of wake ups that occur while no thread is waiting release
+ * a single call to {@link #await()}.
+ */
+class WakeUpSignal {
+  /**
+   * Create a new {@link WakeUpSignal} that schedules timed wake ups on the provided
+   * {@link ScheduledExecutorService}.
+   */
+  public static WakeUpSignal create(Clock clock, ScheduledExecutorService scheduler) {
+    return new WakeUpSignal(clock, scheduler);
+  }
+
+  private final Clock clock;
+  private final ScheduledExecutorService scheduler;
+
+  /** Holds a token while a wake up has occurred that no call to {@link #await()} observed. */
+  private final BlockingQueue<Boolean> wakeUps;
+
+  /** The time of the earliest timed wake up that is scheduled but has not occurred. */
+  @GuardedBy("this")
+  @Nullable
+  private Instant scheduledWakeUp;
+
+  private WakeUpSignal(Clock clock, ScheduledExecutorService scheduler) {
+    this.clock = clock;
+    this.scheduler = scheduler;
+    this.wakeUps = new ArrayBlockingQueue<>(1);
+  }
+
+  /** Wakes up the waiting thread, or the next thread to wait if no thread is waiting. */
+  public void wakeUp() {
+    wakeUps.offer(true);
+  }
+
+  /**
+   * Wakes up the waiting thread once the {@link Clock} reaches the provided time, or immediately
+   * if it already has. Does nothing if a wake up is already scheduled no later than that time.
+   */
+  public synchronized void wakeUpAt(final Instant time) {
+    Instant now = clock.now();
+    if (!time.isAfter(now)) {
+      wakeUp();
+    } else if (scheduledWakeUp == null || time.isBefore(scheduledWakeUp)) {
+      scheduledWakeUp = time;
+      scheduler.schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              scheduledWakeUpOccurred(time);
+            }
+          },
+          new Duration(now, time).getMillis(),
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private synchronized void scheduledWakeUpOccurred(Instant time) {
+    if (time.equals(scheduledWakeUp)) {
+      scheduledWakeUp = null;
+    }
+    wakeUp();
+  }
+
+  /** Blocks until a wake up occurs. Returns immediately if one occurred since the last call. */
+  public void await() throws InterruptedException {
+    wakeUps.take();
+  }
+}
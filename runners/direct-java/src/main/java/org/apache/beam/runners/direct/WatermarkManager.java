@@ -34,11 +34,14 @@ import com.google.common.collect.Table;
 import com.google.common.collect.TreeMultiset;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -63,6 +66,7 @@ import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.PValue;
+import org.joda.time.Duration;
 import org.joda.time.Instant;
 
 /**
@@ -297,6 +301,11 @@ class WatermarkManager {
       }
     }
 
+    /** Returns whether any event time timers are set or have fired without completing. */
+    private synchronized boolean hasTimers() {
+      return !pendingTimers.isEmpty();
+    }
+
     private synchronized void updateTimers(TimerUpdate update) {
       NavigableSet<TimerData> keyTimers = objectTimers.get(update.key);
       if (keyTimers == null) {
@@ -537,6 +546,42 @@ class WatermarkManager {
       return earliest;
     }
 
+    /**
+     * Returns the earliest timestamp of a timer that is not yet eligible to fire only because
+     * processing time has not reached it, or the end of time if there is no such timer.
+     * Synchronized processing time timers that are also held back by pending work are excluded,
+     * as they become eligible when that work completes.
+     */
+    private synchronized Instant getEarliestTimeBoundTimerTimestamp() {
+      Instant earliest = THE_END_OF_TIME.get();
+      for (NavigableSet<TimerData> timers : processingTimers.values()) {
+        if (!timers.isEmpty()) {
+          earliest = INSTANT_ORDERING.min(timers.first().getTimestamp(), earliest);
+        }
+      }
+      for (NavigableSet<TimerData> timers : synchronizedProcessingTimers.values()) {
+        if (!timers.isEmpty() && !timers.first().getTimestamp().isAfter(earliestHold.get())) {
+          earliest = INSTANT_ORDERING.min(timers.first().getTimestamp(), earliest);
+        }
+      }
+      return earliest;
+    }
+
+    /** Returns whether any processing or synchronized processing time timers are set. */
+    private synchronized boolean hasUnfiredTimers() {
+      for (NavigableSet<TimerData> timers : processingTimers.values()) {
+        if (!timers.isEmpty()) {
+          return true;
+        }
+      }
+      for (NavigableSet<TimerData> timers : synchronizedProcessingTimers.values()) {
+        if (!timers.isEmpty()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
     private synchronized void updateTimers(TimerUpdate update) {
       Map<TimeDomain, NavigableSet<TimerData>> timerMap = timerMap(update.key);
       for (TimerData addedTimer : update.setTimers) {
@@ -754,11 +799,50 @@ class WatermarkManager {
   private final Lock refreshLock;
 
   /**
-   * A queue of pending {@link AppliedPTransform AppliedPTransforms} that have potentially
-   * stale data.
+   * All {@link AppliedPTransform AppliedPTransforms} in a topological order: every transform
+   * comes after the producers of its inputs. Sets of transforms are kept as {@link BitSet
+   * BitSets} of their positions in this order.
+   */
+  private final List<AppliedPTransform<?, ?, ?>> topologicalOrder;
+
+  /**
+   * The position of each {@link AppliedPTransform} in {@link #topologicalOrder}.
+   */
+  private final Map<AppliedPTransform<?, ?, ?>, Integer> topologicalIndices;
+
+  /**
+   * The watermarks of the transform at each position in {@link #topologicalOrder}.
+   */
+  private final TransformWatermarks[] watermarksByIndex;
+
+  /**
+   * The positions of the per-element consumers of the outputs of the transform at each position
+   * in {@link #topologicalOrder}, all of which are larger than the position itself.
+   */
+  private final int[][] consumerIndices;
+
+  /**
+   * The {@link AppliedPTransform AppliedPTransforms} that have potentially stale data. Refreshing
+   * visits them in topological order, so that each transform is refreshed at most once per call
+   * to {@link #refreshAll()}.
    */
   @GuardedBy("refreshLock")
-  private final Set<AppliedPTransform<?, ?, ?>> pendingRefreshes;
+  private final BitSet pendingRefreshes;
+
+  /**
+   * The {@link AppliedPTransform AppliedPTransforms} that have event time timers and have been
+   * updated or refreshed since timers were last extracted. The event time timers of any other
+   * transform cannot have become eligible to fire.
+   */
+  @GuardedBy("refreshLock")
+  private final BitSet eventTimeTimerCandidates;
+
+  /**
+   * The {@link AppliedPTransform AppliedPTransforms} that have processing time or synchronized
+   * processing time timers, which may become eligible to fire as time passes.
+   */
+  @GuardedBy("refreshLock")
+  private final BitSet processingTimeTimerCandidates;
 
   /**
    * Creates a new {@link WatermarkManager}. All watermarks within the newly created {@link
@@ -779,23 +863,86 @@ class WatermarkManager {
     this.pendingUpdates = new ConcurrentLinkedQueue<>();
 
     this.refreshLock = new ReentrantLock();
-    this.pendingRefreshes = new HashSet<>();
 
     transformToWatermarks = new HashMap<>();
 
-    for (AppliedPTransform<?, ?, ?> rootTransform : graph.getRootTransforms()) {
-      getTransformWatermark(rootTransform);
+    Set<AppliedPTransform<?, ?, ?>> transforms = new LinkedHashSet<>();
+    transforms.addAll(graph.getRootTransforms());
+    transforms.addAll(graph.getPrimitiveTransforms());
+    for (AppliedPTransform<?, ?, ?> transform : transforms) {
+      getTransformWatermark(transform);
+    }
+
+    this.topologicalOrder = topologicalOrder(transforms);
+    this.topologicalIndices = new HashMap<>();
+    this.watermarksByIndex = new TransformWatermarks[topologicalOrder.size()];
+    for (int i = 0; i < topologicalOrder.size(); i++) {
+      topologicalIndices.put(topologicalOrder.get(i), i);
+      watermarksByIndex[i] = transformToWatermarks.get(topologicalOrder.get(i));
+    }
+    this.consumerIndices = new int[topologicalOrder.size()][];
+    for (int i = 0; i < topologicalOrder.size(); i++) {
+      Set<AppliedPTransform<?, ?, ?>> consumers = new LinkedHashSet<>();
+      for (PValue outputPValue : topologicalOrder.get(i).getOutputs().values()) {
+        consumers.addAll(graph.getPerElementConsumers(outputPValue));
+      }
+      consumerIndices[i] = new int[consumers.size()];
+      int consumerIndex = 0;
+      for (AppliedPTransform<?, ?, ?> consumer : consumers) {
+        consumerIndices[i][consumerIndex++] = topologicalIndices.get(consumer);
+      }
     }
-    for (AppliedPTransform<?, ?, ?> primitiveTransform : graph.getPrimitiveTransforms()) {
-      getTransformWatermark(primitiveTransform);
+
+    this.pendingRefreshes = new BitSet(topologicalOrder.size());
+    this.eventTimeTimerCandidates = new BitSet(topologicalOrder.size());
+    this.processingTimeTimerCandidates = new BitSet(topologicalOrder.size());
+  }
+
+  /**
+   * Orders the transforms by their depth in the graph, which is zero for transforms without
+   * inputs and one more than the largest depth of the producers of their inputs otherwise.
+   */
+  private List<AppliedPTransform<?, ?, ?>> topologicalOrder(
+      Collection<AppliedPTransform<?, ?, ?>> transforms) {
+    final Map<AppliedPTransform<?, ?, ?>, Integer> depths = new HashMap<>();
+    for (AppliedPTransform<?, ?, ?> transform : transforms) {
+      computeDepth(transform, depths);
+    }
+    List<AppliedPTransform<?, ?, ?>> ordered = new ArrayList<>(transforms);
+    // The sort is stable, so transforms of the same depth keep their order.
+    Collections.sort(
+        ordered,
+        new Comparator<AppliedPTransform<?, ?, ?>>() {
+          @Override
+          public int compare(AppliedPTransform<?, ?, ?> left, AppliedPTransform<?, ?, ?> right) {
+            return Integer.compare(depths.get(left), depths.get(right));
+          }
+        });
+    return ordered;
+  }
+
+  private int computeDepth(
+      AppliedPTransform<?, ?, ?> transform, Map<AppliedPTransform<?, ?, ?>, Integer> depths) {
+    Integer depth = depths.get(transform);
+    if (depth == null) {
+      depth = 0;
+      for (PValue input : TransformInputs.nonAdditionalInputs(transform)) {
+        depth = Math.max(depth, computeDepth(getProducer(input), depths) + 1);
+      }
+      depths.put(transform, depth);
     }
+    return depth;
   }
 
   private TransformWatermarks getValueWatermark(PValue pvalue) {
+    return getTransformWatermark(getProducer(pvalue));
+  }
+
+  private AppliedPTransform<?, ?, ?> getProducer(PValue pvalue) {
     if (pvalue instanceof PCollection) {
-      return getTransformWatermark(graph.getProducer((PCollection<?>) pvalue));
+      return graph.getProducer((PCollection<?>) pvalue);
     } else if (pvalue instanceof PCollectionView<?>) {
-      return getTransformWatermark(graph.getWriter((PCollectionView<?>) pvalue));
+      return graph.getWriter((PCollectionView<?>) pvalue);
     } else {
       throw new IllegalArgumentException(
           String.format(
@@ -880,7 +1027,7 @@ class WatermarkManager {
         for (CommittedBundle<?> initialBundle : rootEntry.getValue()) {
           rootWms.addPending(initialBundle);
         }
-        pendingRefreshes.add(rootEntry.getKey());
+        pendingRefreshes.set(topologicalIndices.get(rootEntry.getKey()));
       }
     } finally {
       refreshLock.unlock();
@@ -950,7 +1097,16 @@ class WatermarkManager {
     for (int i = 0; !pendingUpdates.isEmpty() && (i < numUpdates || numUpdates <= 0); i++) {
       PendingWatermarkUpdate pending = pendingUpdates.poll();
       applyPendingUpdate(pending);
-      pendingRefreshes.add(pending.getTransform());
+      int index = topologicalIndices.get(pending.getTransform());
+      pendingRefreshes.set(index);
+      // Newly set timers may be eligible to fire already.
+      eventTimeTimerCandidates.set(index);
+      for (TimerData setTimer : pending.getTimerUpdate().getSetTimers()) {
+        if (!TimeDomain.EVENT_TIME.equals(setTimer.getDomain())) {
+          processingTimeTimerCandidates.set(index);
+          break;
+        }
+      }
     }
   }
 
@@ -1007,53 +1163,95 @@ class WatermarkManager {
   /**
    * Refresh the watermarks contained within this {@link WatermarkManager}, causing all
    * watermarks to be advanced as far as possible.
+   *
+   * <p>Only transforms that were updated since the last refresh, and the consumers of transforms
+   * whose output watermark advanced, are refreshed. They are visited in topological order, so the
+   * consumers of a refreshed transform are visited later in the same pass.
+   *
+   * @return whether the output watermark of any transform advanced
    */
-  synchronized void refreshAll() {
+  synchronized boolean refreshAll() {
     refreshLock.lock();
     try {
       applyAllPendingUpdates();
-      Set<AppliedPTransform<?, ?, ?>> toRefresh = pendingRefreshes;
-      while (!toRefresh.isEmpty()) {
-        toRefresh = refreshAllOf(toRefresh);
+      boolean advanced = false;
+      for (int index = pendingRefreshes.nextSetBit(0);
+          index >= 0;
+          index = pendingRefreshes.nextSetBit(index + 1)) {
+        pendingRefreshes.clear(index);
+        advanced |= refreshWatermarks(index);
       }
+      return advanced;
     } finally {
       refreshLock.unlock();
     }
   }
 
-  private Set<AppliedPTransform<?, ?, ?>> refreshAllOf(Set<AppliedPTransform<?, ?, ?>> toRefresh) {
-    Set<AppliedPTransform<?, ?, ?>> newRefreshes = new HashSet<>();
-    for (AppliedPTransform<?, ?, ?> transform : toRefresh) {
-      newRefreshes.addAll(refreshWatermarks(transform));
+  @GuardedBy("refreshLock")
+  private boolean refreshWatermarks(int index) {
+    TransformWatermarks myWatermarks = watermarksByIndex[index];
+    WatermarkUpdate updateResult = myWatermarks.refresh();
+    if (myWatermarks.inputWatermark.hasTimers()) {
+      eventTimeTimerCandidates.set(index);
+    }
+    if (updateResult.isAdvanced()) {
+      for (int consumerIndex : consumerIndices[index]) {
+        pendingRefreshes.set(consumerIndex);
+      }
+      return true;
     }
-    return newRefreshes;
+    return false;
   }
 
-  private Set<AppliedPTransform<?, ?, ?>> refreshWatermarks(AppliedPTransform<?, ?, ?> toRefresh) {
-    TransformWatermarks myWatermarks = transformToWatermarks.get(toRefresh);
-    WatermarkUpdate updateResult = myWatermarks.refresh();
-    if (updateResult.isAdvanced()) {
-      Set<AppliedPTransform<?, ?, ?>> additionalRefreshes = new HashSet<>();
-      for (PValue outputPValue : toRefresh.getOutputs().values()) {
-        additionalRefreshes.addAll(graph.getPerElementConsumers(outputPValue));
+  /**
+   * Returns the earliest processing time at which a processing time or synchronized processing
+   * time timer may become eligible to fire without any other change to this
+   * {@link WatermarkManager}, or {@link BoundedWindow#TIMESTAMP_MAX_VALUE} if there is no such
+   * timer.
+   */
+  public Instant getEarliestProcessingTimeTimerTimestamp() {
+    Instant earliest = BoundedWindow.TIMESTAMP_MAX_VALUE;
+    refreshLock.lock();
+    try {
+      for (int index = processingTimeTimerCandidates.nextSetBit(0);
+          index >= 0;
+          index = processingTimeTimerCandidates.nextSetBit(index + 1)) {
+        earliest =
+            INSTANT_ORDERING.min(
+                earliest,
+                watermarksByIndex[index]
+                    .synchronizedProcessingInputWatermark
+                    .getEarliestTimeBoundTimerTimestamp());
       }
-      return additionalRefreshes;
+      return earliest;
+    } finally {
+      refreshLock.unlock();
     }
-    return Collections.emptySet();
   }
 
   /**
    * Returns a map of each {@link PTransform} that has pending timers to those timers. All of the
    * pending timers will be removed from this {@link WatermarkManager}.
+   *
+   * <p>Only transforms that may have timers eligible to fire are examined: those with processing
+   * time timers, and those with event time timers that were updated or refreshed since the last
+   * call.
    */
   public Collection<FiredTimers> extractFiredTimers() {
     Collection<FiredTimers> allTimers = new ArrayList<>();
     refreshLock.lock();
     try {
-      for (Map.Entry<AppliedPTransform<?, ?, ?>, TransformWatermarks> watermarksEntry
-          : transformToWatermarks.entrySet()) {
-        Collection<FiredTimers> firedTimers = watermarksEntry.getValue().extractFiredTimers();
-        allTimers.addAll(firedTimers);
+      BitSet candidates = (BitSet) eventTimeTimerCandidates.clone();
+      candidates.or(processingTimeTimerCandidates);
+      eventTimeTimerCandidates.clear();
+      for (int index = candidates.nextSetBit(0);
+          index >= 0;
+          index = candidates.nextSetBit(index + 1)) {
+        TransformWatermarks watermarks = watermarksByIndex[index];
+        allTimers.addAll(watermarks.extractFiredTimers());
+        if (!watermarks.synchronizedProcessingInputWatermark.hasUnfiredTimers()) {
+          processingTimeTimerCandidates.clear(index);
+        }
       }
       return allTimers;
     } finally {
@@ -1208,6 +1406,22 @@ class WatermarkManager {
       return outputWatermark.get();
     }
 
+    /**
+     * Returns the amount of processing time by which the output watermark of the
+     * {@link AppliedPTransform} trails the current time, or {@code null} if the output watermark
+     * has not yet advanced or will not advance further.
+     */
+    @Nullable
+    public Duration getOutputWatermarkLag() {
+      Instant output = getOutputWatermark();
+      if (!output.isAfter(BoundedWindow.TIMESTAMP_MIN_VALUE)
+          || !output.isBefore(BoundedWindow.TIMESTAMP_MAX_VALUE)) {
+        return null;
+      }
+      Instant now = clock.now();
+      return output.isBefore(now) ? new Duration(output, now) : Duration.ZERO;
+    }
+
     /**
      * Returns the synchronized processing input time of the {@link AppliedPTransform}.
      *
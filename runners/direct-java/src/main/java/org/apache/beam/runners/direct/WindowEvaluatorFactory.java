@@ -49,13 +49,30 @@ class WindowEvaluatorFactory implements TransformEvaluatorFactory {
     return createTransformEvaluator((AppliedPTransform) application);
   }
 
+  /**
+   * Creates an evaluator for an application of {@link Window.Assign} that is part of a fused
+   * stage, which outputs to the provided bundle.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  <InputT> TransformEvaluator<InputT> forFusedApplication(
+      AppliedPTransform<?, ?, ?> application, UncommittedBundle<InputT> outputBundle) {
+    return createTransformEvaluator((AppliedPTransform) application, outputBundle);
+  }
+
   private <InputT> TransformEvaluator<InputT> createTransformEvaluator(
       AppliedPTransform<PCollection<InputT>, PCollection<InputT>, Window.Assign<InputT>>
           transform) {
-    WindowFn<? super InputT, ?> fn = transform.getTransform().getWindowFn();
     UncommittedBundle<InputT> outputBundle =
         evaluationContext.createBundle(
             (PCollection<InputT>) Iterables.getOnlyElement(transform.getOutputs().values()));
+    return createTransformEvaluator(transform, outputBundle);
+  }
+
+  private <InputT> TransformEvaluator<InputT> createTransformEvaluator(
+      AppliedPTransform<PCollection<InputT>, PCollection<InputT>, Window.Assign<InputT>>
+          transform,
+      UncommittedBundle<InputT> outputBundle) {
+    WindowFn<? super InputT, ?> fn = transform.getTransform().getWindowFn();
     if (fn == null) {
       return PassthroughTransformEvaluator.create(transform, outputBundle);
     }
@@ -36,6 +36,7 @@ import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.testing.TestPipeline;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.DoFn;
@@ -44,6 +45,7 @@ import org.apache.beam.sdk.transforms.SimpleFunction;
 import org.apache.beam.sdk.transforms.WithKeys;
 import org.apache.beam.sdk.util.UserCodeException;
 import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.hamcrest.Matchers;
@@ -172,6 +174,39 @@ public class CloningBundleFactoryTest {
     bundle.add(WindowedValue.valueInGlobalWindow(new Record()));
   }
 
+  @Test
+  public void unsampledElementsAreNotEncodedOrCloned() {
+    DirectOptions options = PipelineOptionsFactory.as(DirectOptions.class);
+    options.setEnforcementSampleRate(0.0);
+    PCollection<Record> pc = p.apply(Create.empty(new RecordNoEncodeCoder()));
+    CloningBundleFactory sampling =
+        CloningBundleFactory.create(
+            EnforcementPolicy.fromOptions(options), DirectGraphs.getGraph(p));
+
+    WindowedValue<Record> record = WindowedValue.valueInGlobalWindow(new Record());
+    CommittedBundle<Record> bundle = sampling.createBundle(pc).add(record).commit(Instant.now());
+
+    assertThat(
+        Iterables.getOnlyElement(bundle.getElements()).getValue(), theInstance(record.getValue()));
+  }
+
+  @Test
+  public void unsampledElementsLargerThanThresholdAreNotEncodedOrCloned() {
+    DirectOptions options = PipelineOptionsFactory.as(DirectOptions.class);
+    options.setEnforcementSampleRate(0.0);
+    options.setEnforcementSizeThreshold(8L);
+    PCollection<Record> pc = p.apply(Create.empty(new RecordLargeNoEncodeCoder()));
+    CloningBundleFactory sampling =
+        CloningBundleFactory.create(
+            EnforcementPolicy.fromOptions(options), DirectGraphs.getGraph(p));
+
+    WindowedValue<Record> record = WindowedValue.valueInGlobalWindow(new Record());
+    CommittedBundle<Record> bundle = sampling.createBundle(pc).add(record).commit(Instant.now());
+
+    assertThat(
+        Iterables.getOnlyElement(bundle.getElements()).getValue(), theInstance(record.getValue()));
+  }
+
   static class Record {}
   static class RecordNoEncodeCoder extends AtomicCoder<Record> {
 
@@ -191,6 +226,19 @@ public class CloningBundleFactoryTest {
     }
   }
 
+  /** A {@link RecordNoEncodeCoder} that cheaply reports every {@link Record} as large. */
+  static class RecordLargeNoEncodeCoder extends RecordNoEncodeCoder {
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(Record value) {
+      return true;
+    }
+
+    @Override
+    public void registerByteSizeObserver(Record value, ElementByteSizeObserver observer) {
+      observer.update(1024L);
+    }
+  }
+
   static class RecordNoDecodeCoder extends AtomicCoder<Record> {
     @Override
     public void encode(
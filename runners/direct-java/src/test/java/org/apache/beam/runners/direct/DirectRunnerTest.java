@@ -19,12 +19,15 @@ package org.apache.beam.runners.direct;
 
 import static com.google.common.base.Preconditions.checkState;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.isA;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -54,6 +57,13 @@ import org.apache.beam.sdk.io.BoundedSource;
 import org.apache.beam.sdk.io.CountingSource;
 import org.apache.beam.sdk.io.GenerateSequence;
 import org.apache.beam.sdk.io.Read;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.DistributionResult;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.metrics.MetricsFilter;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.testing.PAssert;
@@ -67,6 +77,8 @@ import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.transforms.SerializableFunction;
 import org.apache.beam.sdk.transforms.SimpleFunction;
 import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.util.IllegalMutationException;
 import org.apache.beam.sdk.values.KV;
@@ -131,6 +143,121 @@ public class DirectRunnerTest implements Serializable {
     result.waitUntilFinish();
   }
 
+  @Test
+  public void fusedStagesShouldSucceed() throws Throwable {
+    PipelineOptions opts = PipelineOptionsFactory.create();
+    opts.setRunner(DirectRunner.class);
+    opts.as(DirectOptions.class).setFuseStages(true);
+    Pipeline p = Pipeline.create(opts);
+
+    PCollection<Integer> doubled =
+        p.apply("First", Create.of(1, 2, 3))
+            .apply(
+                "Double",
+                ParDo.of(
+                    new DoFn<Integer, Integer>() {
+                      private final Counter doubledElements =
+                          Metrics.counter(DirectRunnerTest.class, "doubledElements");
+
+                      @ProcessElement
+                      public void processElement(ProcessContext c) {
+                        doubledElements.inc();
+                        c.output(c.element() * 2);
+                      }
+                    }))
+            .apply(Window.<Integer>into(FixedWindows.of(Duration.standardMinutes(1))));
+    PCollection<Integer> other =
+        p.apply("Second", Create.of(2, 5))
+            .apply(
+                "WindowSecond",
+                Window.<Integer>into(FixedWindows.of(Duration.standardMinutes(1))));
+    PCollection<KV<Integer, Long>> counts =
+        PCollectionList.of(doubled)
+            .and(other)
+            .apply(Flatten.<Integer>pCollections())
+            .apply(Count.<Integer>perElement());
+
+    PAssert.that(counts).containsInAnyOrder(KV.of(2, 2L), KV.of(4, 1L), KV.of(6, 1L), KV.of(5, 1L));
+
+    DirectPipelineResult result = ((DirectPipelineResult) p.run());
+    result.waitUntilFinish();
+
+    MetricResult<Long> doubledElements =
+        Iterables.getOnlyElement(
+            result
+                .metrics()
+                .queryMetrics(
+                    MetricsFilter.builder()
+                        .addNameFilter(
+                            MetricNameFilter.named(DirectRunnerTest.class, "doubledElements"))
+                        .build())
+                .counters());
+    assertThat(doubledElements.step(), startsWith("Double"));
+    assertThat(doubledElements.committed(), equalTo(3L));
+  }
+
+  @Test
+  public void transformMetricsShouldBeReported() throws Throwable {
+    Pipeline p = getPipeline();
+    p.apply(Create.of(1, 2, 3))
+        .apply(
+            "Identity",
+            MapElements.via(
+                new SimpleFunction<Integer, Integer>() {
+                  @Override
+                  public Integer apply(Integer input) {
+                    return input;
+                  }
+                }));
+
+    PipelineResult result = p.run();
+    result.waitUntilFinish();
+
+    MetricQueryResults metrics =
+        result
+            .metrics()
+            .queryMetrics(
+                MetricsFilter.builder()
+                    .addNameFilter(MetricNameFilter.inNamespace(TransformMetrics.NAMESPACE))
+                    .addStep("Identity")
+                    .build());
+    MetricResult<Long> elements = Iterables.getOnlyElement(metrics.counters());
+    assertThat(elements.name(), equalTo(TransformMetrics.ELEMENTS_PROCESSED));
+    assertThat(elements.committed(), equalTo(3L));
+
+    long bundles = 0L;
+    for (MetricResult<DistributionResult> distribution : metrics.distributions()) {
+      if (distribution.name().equals(TransformMetrics.BUNDLE_PROCESSING_MILLIS)) {
+        bundles += distribution.committed().count();
+      }
+    }
+    assertThat(bundles, greaterThan(0L));
+  }
+
+  @Test
+  public void elasticWorkerThreadsShouldSucceed() throws Throwable {
+    PipelineOptions opts = PipelineOptionsFactory.create();
+    opts.setRunner(DirectRunner.class);
+    opts.as(DirectOptions.class).setWorkerThreads(DirectOptions.WorkerThreads.ELASTIC);
+    opts.as(DirectOptions.class).setTargetParallelism(1);
+    Pipeline p = Pipeline.create(opts);
+
+    PCollection<KV<Integer, Long>> counts =
+        p.apply(Create.of(1, 2, 2, 3, 3, 3))
+            .apply(
+                MapElements.via(
+                    new SimpleFunction<Integer, Integer>() {
+                      @Override
+                      public Integer apply(Integer input) {
+                        return input * 2;
+                      }
+                    }))
+            .apply(Count.<Integer>perElement());
+
+    PAssert.that(counts).containsInAnyOrder(KV.of(2, 1L), KV.of(4, 2L), KV.of(6, 3L));
+    p.run().waitUntilFinish();
+  }
+
   private static AtomicInteger changed;
   @Test
   public void reusePipelineSucceeds() throws Throwable {
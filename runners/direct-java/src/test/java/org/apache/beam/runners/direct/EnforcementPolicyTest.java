@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.direct;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.beam.sdk.coders.AtomicCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.runners.AppliedPTransform;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.SimpleFunction;
+import org.apache.beam.sdk.util.IllegalMutationException;
+import org.apache.beam.sdk.util.MutationDetector;
+import org.apache.beam.sdk.values.PBegin;
+import org.apache.beam.sdk.values.PCollection;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link EnforcementPolicy}.
+ */
+@RunWith(JUnit4.class)
+public class EnforcementPolicyTest {
+  @Rule
+  public TestPipeline p = TestPipeline.create().enableAbandonedNodeEnforcement(false);
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private DirectOptions options;
+  private AppliedPTransform<?, ?, ?> inner;
+  private AppliedPTransform<?, ?, ?> other;
+
+  @Before
+  public void setup() {
+    options = PipelineOptionsFactory.as(DirectOptions.class);
+    PCollection<String> nested = p.apply("Outer", new NestedCreate());
+    PCollection<String> unnested = p.apply("Other", Create.of("foo"));
+    inner = DirectGraphs.getProducer(nested);
+    other = DirectGraphs.getProducer(unnested);
+  }
+
+  @Test
+  public void checkAllChecksEveryElement() throws Exception {
+    EnforcementPolicy policy = EnforcementPolicy.checkAll();
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.shouldCheck(inner, StringUtf8Coder.of(), "foo"), is(true));
+    }
+  }
+
+  @Test
+  public void zeroSampleRateChecksNoElements() throws Exception {
+    options.setEnforcementSampleRate(0.0);
+    EnforcementPolicy policy = EnforcementPolicy.fromOptions(options);
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.shouldCheck(inner, StringUtf8Coder.of(), "foo"), is(false));
+    }
+  }
+
+  @Test
+  public void sizeThresholdChecksSmallElements() throws Exception {
+    options.setEnforcementSampleRate(0.0);
+    options.setEnforcementSizeThreshold(8L);
+    EnforcementPolicy policy = EnforcementPolicy.fromOptions(options);
+
+    assertThat(policy.shouldCheck(inner, StringUtf8Coder.of(), "small"), is(true));
+    assertThat(
+        policy.shouldCheck(inner, StringUtf8Coder.of(), "much too large to check"), is(false));
+  }
+
+  @Test
+  public void sizeThresholdStopsEncodingAtThreshold() throws Exception {
+    options.setEnforcementSampleRate(0.0);
+    options.setEnforcementSizeThreshold(8L);
+    EnforcementPolicy policy = EnforcementPolicy.fromOptions(options);
+    CountingByteCoder coder = new CountingByteCoder();
+
+    assertThat(policy.shouldCheck(inner, coder, 1024), is(false));
+    assertThat(coder.written, equalTo(9));
+    assertThat(policy.shouldCheck(inner, coder, 8), is(true));
+  }
+
+  @Test
+  public void sampleRateOverridesApplyToNestedTransforms() throws Exception {
+    options.setEnforcementSampleRate(0.5);
+    options.setEnforcementSampleRateOverrides(
+        ImmutableList.of("Outer=0.0", inner.getFullName() + "=0.25", "Unrelated=1.0"));
+    EnforcementPolicy policy = EnforcementPolicy.fromOptions(options);
+
+    assertThat(policy.getSampleRate(inner), equalTo(0.25));
+    assertThat(policy.getSampleRate(other), equalTo(0.5));
+
+    options.setEnforcementSampleRateOverrides(ImmutableList.of("Outer=0.0"));
+    assertThat(EnforcementPolicy.fromOptions(options).getSampleRate(inner), equalTo(0.0));
+  }
+
+  @Test
+  public void invalidSampleRateOverrideThrows() {
+    options.setEnforcementSampleRateOverrides(ImmutableList.of("Outer=2.0"));
+    thrown.expect(IllegalArgumentException.class);
+    EnforcementPolicy.fromOptions(options);
+  }
+
+  @Test
+  public void structuralHashDetectsMutation() throws Exception {
+    options.setDetectMutationsByStructuralHash(true);
+    EnforcementPolicy policy = EnforcementPolicy.fromOptions(options);
+    List<Integer> value = new ArrayList<>(Arrays.asList(1, 2, 3));
+    int originalHashCode = value.hashCode();
+
+    MutationDetector detector = policy.mutationDetectorFor(value, new ConsistentListCoder());
+    detector.verifyUnmodified();
+
+    value.set(0, 4);
+    try {
+      detector.verifyUnmodified();
+      fail("Expected an IllegalMutationException");
+    } catch (IllegalMutationException e) {
+      assertThat(e.getNewValue(), Matchers.<Object>theInstance(value));
+      assertThat(
+          e.getSavedValue().toString(),
+          containsString(Integer.toString(originalHashCode)));
+    }
+  }
+
+  /** A {@link Coder} of lists that is consistent with equals, and that cannot encode. */
+  private static class ConsistentListCoder extends AtomicCoder<List<Integer>> {
+    @Override
+    public void encode(List<Integer> value, OutputStream outStream) {
+      throw new UnsupportedOperationException("Detecting mutations should not encode values");
+    }
+
+    @Override
+    public List<Integer> decode(InputStream inStream) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean consistentWithEquals() {
+      return true;
+    }
+  }
+
+  /** Encodes an integer as that many bytes, counting the bytes it writes. */
+  private static class CountingByteCoder extends AtomicCoder<Integer> {
+    private int written;
+
+    @Override
+    public void encode(Integer value, OutputStream outStream) throws IOException {
+      for (int i = 0; i < value; i++) {
+        written++;
+        outStream.write(0);
+      }
+    }
+
+    @Override
+    public Integer decode(InputStream inStream) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static class NestedCreate extends PTransform<PBegin, PCollection<String>> {
+    @Override
+    public PCollection<String> expand(PBegin input) {
+      return input
+          .apply(Create.of("foo", "bar"))
+          .apply(
+              MapElements.via(
+                  new SimpleFunction<String, String>() {
+                    @Override
+                    public String apply(String input) {
+                      return input;
+                    }
+                  }));
+    }
+  }
+}
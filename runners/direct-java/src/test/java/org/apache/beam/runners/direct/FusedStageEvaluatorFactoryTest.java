@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.direct;
+
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import org.apache.beam.sdk.runners.AppliedPTransform;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Flatten;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.View;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.hamcrest.Matchers;
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link FusedStageEvaluatorFactory}.
+ */
+@RunWith(JUnit4.class)
+public class FusedStageEvaluatorFactoryTest {
+  @Rule
+  public TestPipeline p = TestPipeline.create().enableAbandonedNodeEnforcement(false);
+
+  @Test
+  public void fusesChainsOfStatelessTransforms() {
+    PCollection<Integer> created = p.apply("First", Create.of(1, 2, 3));
+    PCollection<Integer> incremented = created.apply("Increment", ParDo.of(new IncrementFn()));
+    PCollection<Integer> windowed =
+        incremented.apply(Window.<Integer>into(FixedWindows.of(Duration.standardMinutes(1))));
+    PCollection<Integer> other = p.apply("Second", Create.of(4, 5, 6));
+    PCollection<Integer> flattened =
+        PCollectionList.of(windowed).and(other).apply(Flatten.<Integer>pCollections());
+    PCollection<Integer> last = flattened.apply("IncrementAgain", ParDo.of(new IncrementFn()));
+
+    DirectGraphs.performDirectOverrides(p);
+    Map<AppliedPTransform<?, ?, ?>, AppliedPTransform<?, ?, ?>> fused =
+        FusedStageEvaluatorFactory.fusedConsumers(DirectGraphs.getGraph(p));
+
+    AppliedPTransform<?, ?, ?> increment = DirectGraphs.getProducer(incremented);
+    AppliedPTransform<?, ?, ?> window = DirectGraphs.getProducer(windowed);
+    AppliedPTransform<?, ?, ?> flatten = DirectGraphs.getProducer(flattened);
+    assertThat(fused.get(increment), Matchers.<AppliedPTransform<?, ?, ?>>equalTo(window));
+    assertThat(fused.get(window), Matchers.<AppliedPTransform<?, ?, ?>>equalTo(flatten));
+    assertThat(
+        fused.get(flatten),
+        Matchers.<AppliedPTransform<?, ?, ?>>equalTo(DirectGraphs.getProducer(last)));
+    // Reads are never fused with their consumers
+    assertThat(fused, not(hasKey(DirectGraphs.getProducer(created))));
+    assertThat(fused, not(hasKey(DirectGraphs.getProducer(other))));
+  }
+
+  @Test
+  public void doesNotFuseOutputsWithMultipleConsumers() {
+    PCollection<Integer> incremented =
+        p.apply(Create.of(1, 2, 3)).apply("Increment", ParDo.of(new IncrementFn()));
+    incremented.apply("First", ParDo.of(new IncrementFn()));
+    incremented.apply("Second", ParDo.of(new IncrementFn()));
+
+    DirectGraphs.performDirectOverrides(p);
+    Map<AppliedPTransform<?, ?, ?>, AppliedPTransform<?, ?, ?>> fused =
+        FusedStageEvaluatorFactory.fusedConsumers(DirectGraphs.getGraph(p));
+
+    assertThat(fused, not(hasKey(DirectGraphs.getProducer(incremented))));
+  }
+
+  @Test
+  public void doesNotFuseConsumersWithSideInputs() {
+    PCollection<Integer> created = p.apply(Create.of(1, 2, 3));
+    final PCollectionView<Integer> view =
+        p.apply("CreateSide", Create.of(4)).apply(View.<Integer>asSingleton());
+    PCollection<Integer> incremented = created.apply("Increment", ParDo.of(new IncrementFn()));
+    PCollection<Integer> withSideInput =
+        incremented.apply(
+            "AddSideInput",
+            ParDo.of(
+                    new DoFn<Integer, Integer>() {
+                      @ProcessElement
+                      public void processElement(ProcessContext c) {
+                        c.output(c.element() + c.sideInput(view));
+                      }
+                    })
+                .withSideInputs(view));
+    PCollection<Integer> last = withSideInput.apply("IncrementAgain", ParDo.of(new IncrementFn()));
+
+    DirectGraphs.performDirectOverrides(p);
+    Map<AppliedPTransform<?, ?, ?>, AppliedPTransform<?, ?, ?>> fused =
+        FusedStageEvaluatorFactory.fusedConsumers(DirectGraphs.getGraph(p));
+
+    assertThat(fused, not(hasKey(DirectGraphs.getProducer(incremented))));
+    // A transform with side inputs can begin a fused stage
+    assertThat(
+        fused.get(DirectGraphs.getProducer(withSideInput)),
+        Matchers.<AppliedPTransform<?, ?, ?>>equalTo(DirectGraphs.getProducer(last)));
+  }
+
+  private static class IncrementFn extends DoFn<Integer, Integer> {
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      c.output(c.element() + 1);
+    }
+  }
+}
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertThat;
 
 import org.apache.beam.sdk.coders.ByteArrayCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.testing.TestPipeline;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.DoFn;
@@ -183,6 +184,26 @@ public class ImmutabilityCheckingBundleFactoryTest {
     intermediate.commit(Instant.now());
   }
 
+  @Test
+  public void mutationAfterAddOfUnsampledElementSucceeds() {
+    DirectOptions options = PipelineOptionsFactory.as(DirectOptions.class);
+    options.setEnforcementSampleRate(0.0);
+    ImmutabilityCheckingBundleFactory sampling =
+        ImmutabilityCheckingBundleFactory.create(
+            ImmutableListBundleFactory.create(),
+            DirectGraphs.getGraph(p),
+            EnforcementPolicy.fromOptions(options));
+    UncommittedBundle<byte[]> intermediate = sampling.createBundle(transformed);
+
+    byte[] array = new byte[] {4, 8, 12};
+    WindowedValue<byte[]> windowedArray = WindowedValue.valueInGlobalWindow(array);
+    intermediate.add(windowedArray);
+    array[2] = -3;
+
+    CommittedBundle<byte[]> committed = intermediate.commit(Instant.now());
+    assertThat(committed.getElements(), containsInAnyOrder(windowedArray));
+  }
+
   private static class IdentityDoFn<T> extends DoFn<T, T> {
     @ProcessElement
     public void processElement(ProcessContext c) throws Exception {
@@ -21,6 +21,8 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.theInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doAnswer;
@@ -191,6 +193,43 @@ public class SideInputContainerTest {
     assertThat(overwrittenViewContents.size(), is(1));
   }
 
+  @Test
+  public void getMaterializesViewOncePerPane() throws Exception {
+    WindowedValue<KV<String, Integer>> one =
+        WindowedValue.of(
+            KV.of("one", 1),
+            new Instant(1L),
+            FIRST_WINDOW,
+            PaneInfo.createPane(true, false, Timing.EARLY));
+    container.write(mapView, ImmutableList.<WindowedValue<?>>of(one));
+
+    Map<String, Integer> firstContents =
+        container
+            .createReaderForViews(ImmutableList.<PCollectionView<?>>of(mapView))
+            .get(mapView, FIRST_WINDOW);
+    Map<String, Integer> secondContents =
+        container
+            .createReaderForViews(ImmutableList.<PCollectionView<?>>of(mapView))
+            .get(mapView, FIRST_WINDOW);
+    assertThat(secondContents, theInstance(firstContents));
+
+    WindowedValue<KV<String, Integer>> two =
+        WindowedValue.of(
+            KV.of("two", 2),
+            new Instant(20L),
+            FIRST_WINDOW,
+            PaneInfo.createPane(false, false, Timing.EARLY, 1, -1));
+    container.write(mapView, ImmutableList.<WindowedValue<?>>of(two));
+
+    Map<String, Integer> laterPaneContents =
+        container
+            .createReaderForViews(ImmutableList.<PCollectionView<?>>of(mapView))
+            .get(mapView, FIRST_WINDOW);
+    assertThat(laterPaneContents, not(theInstance(firstContents)));
+    assertThat(laterPaneContents, hasEntry("two", 2));
+    assertThat(laterPaneContents.size(), is(1));
+  }
+
   /**
    * Demonstrates that calling get() on a window that currently has no data does not return until
    * there is data in the pane.
@@ -22,13 +22,19 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertThat;
 
+import com.google.common.primitives.Ints;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.beam.runners.direct.UnboundedReadDeduplicator.CachedIdDeduplicator;
+import org.apache.beam.runners.direct.UnboundedReadDeduplicator.FingerprintDeduplicator;
+import org.apache.beam.runners.direct.UnboundedReadDeduplicator.FingerprintSet;
 import org.apache.beam.runners.direct.UnboundedReadDeduplicator.NeverDeduplicator;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -89,6 +95,113 @@ public class UnboundedReadDeduplicatorTest {
     assertThat(noOutputCount.get(), lessThan(numThreads));
   }
 
+  @Test
+  public void fingerprintDeduplicatorTrueForFirstIdThenFalse() {
+    byte[] id = new byte[] {-1, 2, 4, 22};
+    UnboundedReadDeduplicator dedupper = FingerprintDeduplicator.create(1024L * 1024L, false);
+
+    assertThat(dedupper.shouldOutput(id), is(true));
+    assertThat(dedupper.shouldOutput(id), is(false));
+    assertThat(dedupper.shouldOutput(new byte[] {-1, 2, 4, 23}), is(true));
+  }
+
+  @Test
+  public void fingerprintDeduplicatorWithBloomFilter() {
+    FingerprintDeduplicator dedupper =
+        FingerprintDeduplicator.create(
+            MockClock.fromInstant(new Instant(0L)), Duration.standardMinutes(10L), 1 << 20, true);
+    for (int i = 0; i < 10000; i++) {
+      assertThat(dedupper.shouldOutput(Ints.toByteArray(i)), is(true));
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertThat(dedupper.shouldOutput(Ints.toByteArray(i)), is(false));
+    }
+    assertThat(dedupper.getUniqueCount(), equalTo(10000L));
+    assertThat(dedupper.getDuplicateCount(), equalTo(10000L));
+  }
+
+  @Test
+  public void fingerprintSetBloomFilterHasFewFalsePositives() {
+    FingerprintSet set = new FingerprintSet(0L, 1 << 14, true);
+    Random random = new Random(0L);
+    while (set.add(random.nextLong() | 1L)) {
+      // Fill the set to its maximum size
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (set.mightContain(random.nextLong())) {
+        falsePositives++;
+      }
+    }
+    assertThat(falsePositives, lessThan(2500));
+  }
+
+  @Test
+  public void fingerprintDeduplicatorExpiresIdsAfterRetention() {
+    MockClock clock = MockClock.fromInstant(new Instant(0L));
+    FingerprintDeduplicator dedupper =
+        FingerprintDeduplicator.create(clock, Duration.standardMinutes(10L), 1 << 20, false);
+    byte[] id = new byte[] {-1, 2, 4, 22};
+    byte[] otherId = new byte[] {-1, 2, 4, 23};
+
+    assertThat(dedupper.shouldOutput(id), is(true));
+    assertThat(dedupper.shouldOutput(otherId), is(true));
+    clock.advance(Duration.standardMinutes(6L));
+    // Seeing the ID again retains it for the full retention period from now
+    assertThat(dedupper.shouldOutput(id), is(false));
+    clock.advance(Duration.standardMinutes(6L));
+
+    assertThat(dedupper.shouldOutput(id), is(false));
+    assertThat(dedupper.shouldOutput(otherId), is(true));
+  }
+
+  @Test
+  public void fingerprintDeduplicatorStaysWithinMemoryBudget() {
+    long budget = 1 << 20;
+    FingerprintDeduplicator dedupper =
+        FingerprintDeduplicator.create(
+            MockClock.fromInstant(new Instant(0L)), Duration.standardMinutes(10L), budget, false);
+    for (int i = 0; i < 1000000; i++) {
+      dedupper.shouldOutput(Ints.toByteArray(i));
+    }
+    assertThat(dedupper.getUniqueCount(), equalTo(1000000L));
+    // Each tracked fingerprint uses at least 16 bytes
+    assertThat(dedupper.getTrackedCount(), lessThan(budget / 16L + 1L));
+    // The most recent IDs are still tracked
+    assertThat(dedupper.shouldOutput(Ints.toByteArray(999999)), is(false));
+  }
+
+  @Test
+  public void fingerprintDeduplicatorMultithreaded() throws InterruptedException {
+    byte[] id = new byte[] {-1, 2, 4, 22};
+    UnboundedReadDeduplicator dedupper = FingerprintDeduplicator.create(1024L * 1024L, true);
+    final CountDownLatch startSignal = new CountDownLatch(1);
+    int numThreads = 50;
+    final CountDownLatch readyLatch = new CountDownLatch(numThreads);
+    final CountDownLatch finishLine = new CountDownLatch(numThreads);
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    AtomicInteger successCount = new AtomicInteger();
+    AtomicInteger noOutputCount = new AtomicInteger();
+    for (int i = 0; i < numThreads; i++) {
+      executor.submit(new TryOutputIdRunnable(dedupper,
+          id,
+          successCount,
+          noOutputCount,
+          readyLatch,
+          startSignal,
+          finishLine));
+    }
+
+    readyLatch.await();
+    startSignal.countDown();
+    finishLine.await(10L, TimeUnit.SECONDS);
+    executor.shutdownNow();
+
+    assertThat(successCount.get(), equalTo(1));
+    assertThat(noOutputCount.get(), lessThan(numThreads));
+  }
+
   private static class TryOutputIdRunnable implements Runnable {
     private final UnboundedReadDeduplicator deduplicator;
     private final byte[] id;
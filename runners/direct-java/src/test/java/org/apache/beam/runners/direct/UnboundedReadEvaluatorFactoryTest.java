@@ -108,6 +108,8 @@ public class UnboundedReadEvaluatorFactoryTest {
     output = bundleFactory.createBundle(longs);
     graph = DirectGraphs.getGraph(p);
     when(context.createBundle(longs)).thenReturn(output);
+    when(context.getPipelineOptions())
+        .thenReturn(PipelineOptionsFactory.create().as(DirectOptions.class));
   }
 
   @Test
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.direct;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link WakeUpSignal}.
+ */
+@RunWith(JUnit4.class)
+public class WakeUpSignalTest {
+  private MockClock clock;
+  private ScheduledThreadPoolExecutor scheduler;
+  private ExecutorService waiters;
+  private WakeUpSignal signal;
+
+  @Before
+  public void setup() {
+    clock = MockClock.fromInstant(new Instant(1000L));
+    scheduler = new ScheduledThreadPoolExecutor(1);
+    waiters = Executors.newCachedThreadPool();
+    signal = WakeUpSignal.create(clock, scheduler);
+  }
+
+  @After
+  public void teardown() {
+    scheduler.shutdownNow();
+    waiters.shutdownNow();
+  }
+
+  @Test
+  public void wakeUpReleasesWaitingThread() throws Exception {
+    CountDownLatch awoken = awaitInBackground();
+    assertThat(awoken.await(50L, TimeUnit.MILLISECONDS), is(false));
+
+    signal.wakeUp();
+    assertThat(awoken.await(1L, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void wakeUpsWhileNotWaitingAreCoalesced() throws Exception {
+    signal.wakeUp();
+    signal.wakeUp();
+    signal.await();
+
+    CountDownLatch awoken = awaitInBackground();
+    assertThat(awoken.await(50L, TimeUnit.MILLISECONDS), is(false));
+    signal.wakeUp();
+    assertThat(awoken.await(1L, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void wakeUpAtReachedTimeWakesUpImmediately() throws Exception {
+    signal.wakeUpAt(new Instant(999L));
+    assertThat(scheduler.getQueue().size(), equalTo(0));
+    assertThat(awaitInBackground().await(1L, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void wakeUpAtFutureTimeWakesUpOnceDue() throws Exception {
+    CountDownLatch awoken = awaitInBackground();
+    signal.wakeUpAt(clock.now().plus(Duration.millis(20L)));
+    assertThat(awoken.await(1L, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void wakeUpAtOnlySchedulesEarlierWakeUps() {
+    signal.wakeUpAt(clock.now().plus(Duration.standardMinutes(10L)));
+    assertThat(scheduler.getQueue().size(), equalTo(1));
+
+    // A wake up is already scheduled before this time
+    signal.wakeUpAt(clock.now().plus(Duration.standardMinutes(20L)));
+    assertThat(scheduler.getQueue().size(), equalTo(1));
+
+    signal.wakeUpAt(clock.now().plus(Duration.standardMinutes(5L)));
+    assertThat(scheduler.getQueue().size(), equalTo(2));
+  }
+
+  private CountDownLatch awaitInBackground() {
+    final CountDownLatch awoken = new CountDownLatch(1);
+    waiters.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              signal.await();
+              awoken.countDown();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    return awoken;
+  }
+}
@@ -21,6 +21,7 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.emptyIterable;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
 
@@ -1212,6 +1213,43 @@ public class WatermarkManagerTest implements Serializable {
     assertThat(secondFired.getTimers(), contains(middleTimer, lastTimer));
   }
 
+  /**
+   * Demonstrates that event time timers fire when the watermark advance that makes them eligible
+   * comes from an upstream transform, and that they are only extracted once.
+   */
+  @Test
+  public void extractFiredTimersAfterUpstreamWatermarkAdvance() {
+    TimerData timer =
+        TimerData.of(StateNamespaces.global(), new Instant(5000L), TimeDomain.EVENT_TIME);
+    StructuralKey<?> key = StructuralKey.of(-12L, VarLongCoder.of());
+    manager.updateWatermarks(null,
+        TimerUpdate.builder(key).setTimer(timer).build(),
+        result(graph.getProducer(filteredTimesTwo),
+            null,
+            Collections.<CommittedBundle<?>>emptyList()),
+        BoundedWindow.TIMESTAMP_MAX_VALUE);
+    manager.refreshAll();
+    assertThat(manager.extractFiredTimers(), emptyIterable());
+
+    // Advance the watermark of the root, two transforms upstream of the timer
+    manager.updateWatermarks(null,
+        TimerUpdate.empty(),
+        result(graph.getProducer(createdInts),
+            null,
+            Collections.<CommittedBundle<?>>emptyList()),
+        new Instant(10_000L));
+    manager.refreshAll();
+
+    FiredTimers fired = Iterables.getOnlyElement(manager.extractFiredTimers());
+    assertThat(
+        fired.getTransform(),
+        Matchers.<AppliedPTransform<?, ?, ?>>equalTo(graph.getProducer(filteredTimesTwo)));
+    assertThat(fired.getTimers(), contains(timer));
+
+    manager.refreshAll();
+    assertThat(manager.extractFiredTimers(), emptyIterable());
+  }
+
   @Test
   public void extractFiredTimersReturnsFiredProcessingTimeTimers() {
     Collection<FiredTimers> initialTimers = manager.extractFiredTimers();
@@ -1271,6 +1309,54 @@ public class WatermarkManagerTest implements Serializable {
     assertThat(secondFired.getTimers(), contains(middleTimer, lastTimer));
   }
 
+  @Test
+  public void getEarliestProcessingTimeTimerTimestampReturnsNextDueTimer() {
+    assertThat(
+        manager.getEarliestProcessingTimeTimerTimestamp(),
+        equalTo(BoundedWindow.TIMESTAMP_MAX_VALUE));
+
+    CommittedBundle<Integer> createdBundle = multiWindowedBundle(filtered);
+    manager.updateWatermarks(null,
+        TimerUpdate.empty(),
+        result(graph.getProducer(createdInts),
+            null,
+            Collections.singleton(createdBundle)),
+        new Instant(1500L));
+
+    TimerData earliestTimer =
+        TimerData.of(StateNamespaces.global(), new Instant(999L), TimeDomain.PROCESSING_TIME);
+    TimerData laterTimer =
+        TimerData.of(StateNamespaces.global(), new Instant(5000L), TimeDomain.PROCESSING_TIME);
+    StructuralKey<?> key = StructuralKey.of(-12L, VarLongCoder.of());
+    manager.updateWatermarks(
+        createdBundle,
+        TimerUpdate.builder(key).setTimer(laterTimer).setTimer(earliestTimer).build(),
+        result(graph.getProducer(filtered),
+            createdBundle.withElements(Collections.<WindowedValue<Integer>>emptyList()),
+            Collections.<CommittedBundle<?>>emptyList()),
+        new Instant(1000L));
+    manager.refreshAll();
+    assertThat(manager.getEarliestProcessingTimeTimerTimestamp(), equalTo(new Instant(999L)));
+
+    // Firing the earliest timer makes the next timer the one to wait for
+    FiredTimers fired = Iterables.getOnlyElement(manager.extractFiredTimers());
+    assertThat(fired.getTimers(), contains(earliestTimer));
+    assertThat(manager.getEarliestProcessingTimeTimerTimestamp(), equalTo(new Instant(5000L)));
+  }
+
+  @Test
+  public void refreshAllReturnsWhetherAnyWatermarkAdvanced() {
+    CommittedBundle<Integer> output = multiWindowedBundle(createdInts, 1);
+    manager.updateWatermarks(null,
+        TimerUpdate.empty(),
+        result(graph.getProducer(createdInts),
+            null,
+            Collections.<CommittedBundle<?>>singleton(output)),
+        new Instant(8000L));
+    assertThat(manager.refreshAll(), is(true));
+    assertThat(manager.refreshAll(), is(false));
+  }
+
   @Test
   public void extractFiredTimersReturnsFiredSynchronizedProcessingTimeTimers() {
     Collection<FiredTimers> initialTimers = manager.extractFiredTimers();
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.coders;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.reflect.ReflectData;
+import org.apache.avro.specific.SpecificData;
+import org.apache.beam.sdk.util.VarInt;
+import org.apache.beam.sdk.values.TypeDescriptor;
+import org.apache.beam.sdk.values.TypeParameter;
+
+/**
+ * A {@link Coder} for {@link List Lists} of Avro records of the same schema, such as {@link
+ * GenericRecord GenericRecords} or POJOs handled by {@link AvroCoder}, that encodes the records
+ * column by column instead of one record at a time.
+ *
+ * <p>Each top-level field of the schema is encoded as a column. The values of a column are encoded
+ * individually using Avro's binary encoding, and then written either as is or as indexes into a
+ * dictionary of the distinct values of the column, whichever is smaller. In both cases runs of
+ * equal consecutive values are written only once. Batches of records with repetitive fields, such
+ * as enums, flags or keys, are therefore encoded in far fewer bytes than with a {@link ListCoder}
+ * of an {@link AvroCoder}.
+ *
+ * <p>The encoding is self-delimiting, so the same bytes are produced in the outer and in the nested
+ * context.
+ *
+ * @param <T> the type of the records in the Lists being transcoded
+ */
+public class AvroColumnarCoder<T> extends StructuredCoder<List<T>> {
+
+  /**
+   * Returns an {@link AvroColumnarCoder} for Lists of records encoded by the given {@link
+   * AvroCoder}.
+   */
+  public static <T> AvroColumnarCoder<T> of(AvroCoder<T> elementCoder) {
+    return new AvroColumnarCoder<>(elementCoder);
+  }
+
+  /**
+   * Returns an {@link AvroColumnarCoder} for Lists of instances of the given class, using the
+   * schema Avro infers for it by reflection.
+   */
+  public static <T> AvroColumnarCoder<T> of(Class<T> clazz) {
+    return of(AvroCoder.of(clazz));
+  }
+
+  /** Returns an {@link AvroColumnarCoder} for Lists of {@link GenericRecord GenericRecords}. */
+  public static AvroColumnarCoder<GenericRecord> of(Schema schema) {
+    return of(AvroCoder.of(schema));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** Column values are written one run at a time, each with its own bytes. */
+  private static final int PLAIN = 0;
+
+  /** Column values are written as a dictionary, followed by runs of dictionary indexes. */
+  private static final int DICTIONARY = 1;
+
+  // Factories allocated by .get() are thread-safe and immutable.
+  private static final EncoderFactory ENCODER_FACTORY = EncoderFactory.get();
+  private static final DecoderFactory DECODER_FACTORY = DecoderFactory.get();
+
+  private final AvroCoder<T> elementCoder;
+
+  // Lazily re-instantiated after deserialization
+  private transient GenericData data;
+
+  protected AvroColumnarCoder(AvroCoder<T> elementCoder) {
+    checkArgument(
+        elementCoder.getSchema().getType() == Schema.Type.RECORD,
+        "%s requires a record schema, but got %s",
+        AvroColumnarCoder.class.getSimpleName(),
+        elementCoder.getSchema());
+    this.elementCoder = elementCoder;
+  }
+
+  public AvroCoder<T> getElementCoder() {
+    return elementCoder;
+  }
+
+  @Override
+  public void encode(List<T> value, OutputStream outStream) throws IOException, CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null List");
+    }
+    GenericData data = getData();
+    VarInt.encode(value.size(), outStream);
+
+    ByteArrayOutputStream valueStream = new ByteArrayOutputStream();
+    BinaryEncoder encoder = null;
+    byte[][] column = new byte[value.size()][];
+    for (Schema.Field field : elementCoder.getSchema().getFields()) {
+      @SuppressWarnings("unchecked")
+      DatumWriter<Object> writer = data.createDatumWriter(field.schema());
+      for (int i = 0; i < column.length; ++i) {
+        T record = value.get(i);
+        if (record == null) {
+          throw new CoderException("cannot encode a null record");
+        }
+        valueStream.reset();
+        encoder = ENCODER_FACTORY.directBinaryEncoder(valueStream, encoder);
+        writer.write(data.getField(record, field.name(), field.pos()), encoder);
+        column[i] = valueStream.toByteArray();
+      }
+      encodeColumn(column, outStream);
+    }
+  }
+
+  @Override
+  public List<T> decode(InputStream inStream) throws IOException, CoderException {
+    GenericData data = getData();
+    Schema schema = elementCoder.getSchema();
+    int size = VarInt.decodeInt(inStream);
+    if (size < 0) {
+      throw new CoderException("invalid number of records " + size);
+    }
+
+    List<T> records = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) {
+      records.add(newRecord(schema));
+    }
+
+    BinaryDecoder decoder = null;
+    for (Schema.Field field : schema.getFields()) {
+      @SuppressWarnings("unchecked")
+      DatumReader<Object> reader = data.createDatumReader(field.schema());
+      byte[][] column = decodeColumn(size, inStream);
+      for (int i = 0; i < size; ++i) {
+        decoder = DECODER_FACTORY.binaryDecoder(column[i], decoder);
+        data.setField(records.get(i), field.name(), field.pos(), reader.read(null, decoder));
+      }
+    }
+    return records;
+  }
+
+  @Override
+  public List<? extends Coder<?>> getCoderArguments() {
+    return Collections.singletonList(elementCoder);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NonDeterministicException if the element coder is not deterministic. Dictionaries are
+   *     built in order of first occurrence, so the encoding is otherwise deterministic.
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    verifyDeterministic(
+        this, "AvroColumnarCoder.elementCoder must be deterministic", elementCoder);
+  }
+
+  @Override
+  public TypeDescriptor<List<T>> getEncodedTypeDescriptor() {
+    return new TypeDescriptor<List<T>>(getClass()) {}.where(
+        new TypeParameter<T>() {}, elementCoder.getEncodedTypeDescriptor());
+  }
+
+  /**
+   * Writes the encoded values of a column, choosing between the plain and the dictionary encoding
+   * by their exact size.
+   */
+  private static void encodeColumn(byte[][] column, OutputStream outStream) throws IOException {
+    // Find the runs of equal consecutive values.
+    int[] runStarts = new int[column.length];
+    int[] runLengths = new int[column.length];
+    int numRuns = 0;
+    for (int i = 0; i < column.length; ++i) {
+      if (numRuns > 0 && Arrays.equals(column[runStarts[numRuns - 1]], column[i])) {
+        runLengths[numRuns - 1]++;
+      } else {
+        runStarts[numRuns] = i;
+        runLengths[numRuns] = 1;
+        numRuns++;
+      }
+    }
+
+    // Assign dictionary indexes in order of first occurrence and compute both encoded sizes.
+    Map<StructuralByteArray, Integer> indexes = new HashMap<>();
+    List<byte[]> dictionary = new ArrayList<>();
+    int[] runIndexes = new int[numRuns];
+    long plainSize = 0;
+    long dictionarySize = 0;
+    for (int run = 0; run < numRuns; ++run) {
+      byte[] runValue = column[runStarts[run]];
+      StructuralByteArray key = new StructuralByteArray(runValue);
+      Integer index = indexes.get(key);
+      if (index == null) {
+        index = dictionary.size();
+        indexes.put(key, index);
+        dictionary.add(runValue);
+        dictionarySize += VarInt.getLength(runValue.length) + runValue.length;
+      }
+      runIndexes[run] = index;
+      plainSize += VarInt.getLength(runLengths[run])
+          + VarInt.getLength(runValue.length) + runValue.length;
+      dictionarySize += VarInt.getLength(runLengths[run]) + VarInt.getLength(index);
+    }
+    dictionarySize += VarInt.getLength(dictionary.size());
+
+    if (dictionarySize < plainSize) {
+      outStream.write(DICTIONARY);
+      VarInt.encode(dictionary.size(), outStream);
+      for (byte[] entry : dictionary) {
+        VarInt.encode(entry.length, outStream);
+        outStream.write(entry);
+      }
+      for (int run = 0; run < numRuns; ++run) {
+        VarInt.encode(runLengths[run], outStream);
+        VarInt.encode(runIndexes[run], outStream);
+      }
+    } else {
+      outStream.write(PLAIN);
+      for (int run = 0; run < numRuns; ++run) {
+        byte[] runValue = column[runStarts[run]];
+        VarInt.encode(runLengths[run], outStream);
+        VarInt.encode(runValue.length, outStream);
+        outStream.write(runValue);
+      }
+    }
+  }
+
+  /**
+   * Reads the encoded values of a column of the given size. Equal values may share the same array.
+   */
+  private static byte[][] decodeColumn(int size, InputStream inStream) throws IOException {
+    int mode = inStream.read();
+    if (mode < 0) {
+      throw new CoderException(new EOFException());
+    }
+
+    byte[][] dictionary = null;
+    if (mode == DICTIONARY) {
+      int dictionarySize = VarInt.decodeInt(inStream);
+      if (dictionarySize < 0 || dictionarySize > size) {
+        throw new CoderException("invalid dictionary size " + dictionarySize);
+      }
+      dictionary = new byte[dictionarySize][];
+      for (int i = 0; i < dictionarySize; ++i) {
+        dictionary[i] = readBytes(inStream);
+      }
+    } else if (mode != PLAIN) {
+      throw new CoderException("unknown column encoding " + mode);
+    }
+
+    byte[][] column = new byte[size][];
+    int position = 0;
+    while (position < size) {
+      int runLength = VarInt.decodeInt(inStream);
+      if (runLength <= 0 || runLength > size - position) {
+        throw new CoderException("invalid run length " + runLength);
+      }
+      byte[] runValue;
+      if (dictionary != null) {
+        int index = VarInt.decodeInt(inStream);
+        if (index < 0 || index >= dictionary.length) {
+          throw new CoderException("invalid dictionary index " + index);
+        }
+        runValue = dictionary[index];
+      } else {
+        runValue = readBytes(inStream);
+      }
+      Arrays.fill(column, position, position + runLength, runValue);
+      position += runLength;
+    }
+    return column;
+  }
+
+  private static byte[] readBytes(InputStream inStream) throws IOException {
+    int length = VarInt.decodeInt(inStream);
+    if (length < 0) {
+      throw new CoderException("invalid value length " + length);
+    }
+    byte[] bytes = new byte[length];
+    try {
+      ByteStreams.readFully(inStream, bytes);
+    } catch (EOFException exn) {
+      throw new CoderException(exn);
+    }
+    return bytes;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T newRecord(Schema schema) {
+    return elementCoder.getType().equals(GenericRecord.class)
+        ? (T) new GenericData.Record(schema)
+        : (T) SpecificData.newInstance(elementCoder.getType(), schema);
+  }
+
+  private GenericData getData() {
+    if (data == null) {
+      data = elementCoder.getType().equals(GenericRecord.class)
+          ? GenericData.get()
+          : new ReflectData(elementCoder.getType().getClassLoader());
+    }
+    return data;
+  }
+}
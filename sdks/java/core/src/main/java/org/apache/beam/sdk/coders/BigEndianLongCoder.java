@@ -17,13 +17,10 @@
  */
 package org.apache.beam.sdk.coders;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UTFDataFormatException;
 import org.apache.beam.sdk.values.TypeDescriptor;
 
 /**
@@ -48,19 +45,39 @@ public class BigEndianLongCoder extends AtomicCoder<Long> {
     if (value == null) {
       throw new CoderException("cannot encode a null Long");
     }
-    new DataOutputStream(outStream).writeLong(value);
+    encodeLong(value, outStream);
+  }
+
+  /**
+   * Encodes the given {@code long} the same way as {@link #encode}, without boxing it or
+   * allocating a {@link java.io.DataOutputStream}.
+   */
+  public void encodeLong(long value, OutputStream outStream) throws IOException {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      outStream.write((int) (value >>> shift));
+    }
   }
 
   @Override
   public Long decode(InputStream inStream)
       throws IOException, CoderException {
-    try {
-      return new DataInputStream(inStream).readLong();
-    } catch (EOFException | UTFDataFormatException exn) {
-      // These exceptions correspond to decoding problems, so change
-      // what kind of exception they're branded as.
-      throw new CoderException(exn);
+    return decodeLong(inStream);
+  }
+
+  /**
+   * Decodes a {@code long} encoded by {@link #encode} or {@link #encodeLong}, without boxing it.
+   */
+  public long decodeLong(InputStream inStream) throws IOException, CoderException {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      int b = inStream.read();
+      if (b < 0) {
+        // A truncated input is a decoding problem, so brand it as such.
+        throw new CoderException(new EOFException());
+      }
+      value = (value << 8) | b;
     }
+    return value;
   }
 
   @Override
@@ -17,13 +17,9 @@
  */
 package org.apache.beam.sdk.coders;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UTFDataFormatException;
 import org.apache.beam.sdk.values.TypeDescriptor;
 
 /**
@@ -48,19 +44,28 @@ public class DoubleCoder extends AtomicCoder<Double> {
     if (value == null) {
       throw new CoderException("cannot encode a null Double");
     }
-    new DataOutputStream(outStream).writeDouble(value);
+    encodeDouble(value, outStream);
+  }
+
+  /**
+   * Encodes the given {@code double} the same way as {@link #encode}, without boxing it.
+   */
+  public void encodeDouble(double value, OutputStream outStream) throws IOException {
+    BigEndianLongCoder.of().encodeLong(Double.doubleToLongBits(value), outStream);
   }
 
   @Override
   public Double decode(InputStream inStream)
       throws IOException, CoderException {
-    try {
-      return new DataInputStream(inStream).readDouble();
-    } catch (EOFException | UTFDataFormatException exn) {
-      // These exceptions correspond to decoding problems, so change
-      // what kind of exception they're branded as.
-      throw new CoderException(exn);
-    }
+    return decodeDouble(inStream);
+  }
+
+  /**
+   * Decodes a {@code double} encoded by {@link #encode} or {@link #encodeDouble}, without boxing
+   * it.
+   */
+  public double decodeDouble(InputStream inStream) throws IOException, CoderException {
+    return Double.longBitsToDouble(BigEndianLongCoder.of().decodeLong(inStream));
   }
 
   /**
@@ -49,12 +49,26 @@ public class VarIntCoder extends AtomicCoder<Integer> {
     if (value == null) {
       throw new CoderException("cannot encode a null Integer");
     }
-    VarInt.encode(value.intValue(), outStream);
+    encodeInt(value, outStream);
+  }
+
+  /**
+   * Encodes the given {@code int} the same way as {@link #encode}, without boxing it.
+   */
+  public void encodeInt(int value, OutputStream outStream) throws IOException {
+    VarInt.encode(value, outStream);
   }
 
   @Override
   public Integer decode(InputStream inStream)
       throws IOException, CoderException {
+    return decodeInt(inStream);
+  }
+
+  /**
+   * Decodes an {@code int} encoded by {@link #encode} or {@link #encodeInt}, without boxing it.
+   */
+  public int decodeInt(InputStream inStream) throws IOException, CoderException {
     try {
       return VarInt.decodeInt(inStream);
     } catch (EOFException | UTFDataFormatException exn) {
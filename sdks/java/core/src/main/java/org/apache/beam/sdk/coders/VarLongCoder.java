@@ -50,12 +50,26 @@ public class VarLongCoder extends StructuredCoder<Long> {
     if (value == null) {
       throw new CoderException("cannot encode a null Long");
     }
-    VarInt.encode(value.longValue(), outStream);
+    encodeLong(value, outStream);
+  }
+
+  /**
+   * Encodes the given {@code long} the same way as {@link #encode}, without boxing it.
+   */
+  public void encodeLong(long value, OutputStream outStream) throws IOException {
+    VarInt.encode(value, outStream);
   }
 
   @Override
   public Long decode(InputStream inStream)
       throws IOException, CoderException {
+    return decodeLong(inStream);
+  }
+
+  /**
+   * Decodes a {@code long} encoded by {@link #encode} or {@link #encodeLong}, without boxing it.
+   */
+  public long decodeLong(InputStream inStream) throws IOException, CoderException {
     try {
       return VarInt.decodeLong(inStream);
     } catch (EOFException | UTFDataFormatException exn) {
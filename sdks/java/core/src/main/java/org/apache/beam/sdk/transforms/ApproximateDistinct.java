@@ -0,0 +1,596 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.io.ByteStreams;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import org.apache.beam.sdk.coders.AtomicCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.transforms.ApproximateUnique.ApproximateUniqueCombineFn;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.VarInt;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+
+/**
+ * {@code PTransform}s for estimating the number of distinct elements in a {@code PCollection}, or
+ * the number of distinct values associated with each key in a {@code PCollection} of {@code KV}s,
+ * using HyperLogLog++ sketches.
+ *
+ * <p>Unlike {@link ApproximateUnique}, whose accumulator holds a sample of hashes that grows with
+ * the desired accuracy, the accumulator of {@link ApproximateDistinct} is a {@link
+ * HyperLogLogSketch} of at most {@code 2^precision} bytes, regardless of the number of distinct
+ * elements. Sketches of few distinct elements use a sparse representation that is smaller still,
+ * which matters when counting distinct values for many keys. The relative standard error of the
+ * estimate is about {@code 1.04 / sqrt(2^precision)}:
+ *
+ * <table border="1">
+ *   <tr><th>precision</th><th>standard error</th><th>maximum accumulator size</th></tr>
+ *   <tr><td>10</td><td>3.25%</td><td>1 KiB</td></tr>
+ *   <tr><td>12 (default)</td><td>1.63%</td><td>4 KiB</td></tr>
+ *   <tr><td>14</td><td>0.81%</td><td>16 KiB</td></tr>
+ *   <tr><td>16</td><td>0.41%</td><td>64 KiB</td></tr>
+ * </table>
+ *
+ * <p>Example of use:
+ * <pre> {@code
+ * PCollection<String> pc = ...;
+ * PCollection<Long> approxNumDistinct =
+ *     pc.apply(ApproximateDistinct.<String>globally().withPrecision(14));
+ * } </pre>
+ */
+public class ApproximateDistinct {
+
+  /** The precision used unless specified otherwise. */
+  public static final int DEFAULT_PRECISION = 12;
+
+  /** The smallest supported precision. */
+  public static final int MIN_PRECISION = 4;
+
+  /** The largest supported precision. */
+  public static final int MAX_PRECISION = 18;
+
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<T>} and returns a {@code
+   * PCollection<Long>} containing a single value that is an estimate of the number of distinct
+   * elements in the input {@code PCollection}. If the input is empty, the estimate is 0.
+   *
+   * <p>As with {@link Combine#globally}, the input must be in the global window, or the result of
+   * {@link Globally#withoutDefaults()} be used instead. See also {@link #perWindow()}.
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   */
+  public static <T> Globally<T> globally() {
+    return new Globally<>(DEFAULT_PRECISION, true);
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<T>} and returns a {@code
+   * PCollection<Long>} containing, for each window of the input that contains elements, an
+   * estimate of the number of distinct elements in that window.
+   *
+   * <p>This is equivalent to {@code globally().withoutDefaults()}.
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   */
+  public static <T> Globally<T> perWindow() {
+    return new Globally<>(DEFAULT_PRECISION, false);
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<KV<K, V>>} and returns a {@code
+   * PCollection<KV<K, Long>>} that contains an output element mapping each distinct key in the
+   * input {@code PCollection} to an estimate of the number of distinct values associated with
+   * that key in the input {@code PCollection}, per window.
+   *
+   * @param <K> the type of the keys in the input and output {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   */
+  public static <K, V> PerKey<K, V> perKey() {
+    return new PerKey<>(DEFAULT_PRECISION);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * {@code PTransform} for estimating the number of distinct elements in a {@code PCollection}.
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   */
+  public static class Globally<T> extends PTransform<PCollection<T>, PCollection<Long>> {
+
+    private final int precision;
+    private final boolean insertDefault;
+
+    private Globally(int precision, boolean insertDefault) {
+      checkPrecision(precision);
+      this.precision = precision;
+      this.insertDefault = insertDefault;
+    }
+
+    /**
+     * Returns a new {@code PTransform} like this one, but using sketches with {@code
+     * 2^precision} registers. The precision must be between
+     * {@link ApproximateDistinct#MIN_PRECISION} and {@link ApproximateDistinct#MAX_PRECISION}.
+     */
+    public Globally<T> withPrecision(int precision) {
+      return new Globally<>(precision, insertDefault);
+    }
+
+    /**
+     * Returns a new {@code PTransform} like this one, but that outputs nothing rather than an
+     * estimate of 0 for empty windows. This is required for inputs that are not in the global
+     * window.
+     */
+    public Globally<T> withoutDefaults() {
+      return new Globally<>(precision, false);
+    }
+
+    @Override
+    public PCollection<Long> expand(PCollection<T> input) {
+      Combine.Globally<T, Long> combine =
+          Combine.globally(ApproximateDistinctFn.create(precision, input.getCoder()));
+      return input.apply(insertDefault ? combine : combine.withoutDefaults());
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      ApproximateDistinct.populateDisplayData(builder, precision);
+    }
+  }
+
+  /**
+   * {@code PTransform} for estimating the number of distinct values associated with each key in a
+   * {@code PCollection} of {@code KV}s.
+   *
+   * @param <K> the type of the keys in the input and output {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   */
+  public static class PerKey<K, V>
+      extends PTransform<PCollection<KV<K, V>>, PCollection<KV<K, Long>>> {
+
+    private final int precision;
+
+    private PerKey(int precision) {
+      checkPrecision(precision);
+      this.precision = precision;
+    }
+
+    /**
+     * Returns a new {@code PTransform} like this one, but using sketches with {@code
+     * 2^precision} registers. The precision must be between
+     * {@link ApproximateDistinct#MIN_PRECISION} and {@link ApproximateDistinct#MAX_PRECISION}.
+     */
+    public PerKey<K, V> withPrecision(int precision) {
+      return new PerKey<>(precision);
+    }
+
+    @Override
+    public PCollection<KV<K, Long>> expand(PCollection<KV<K, V>> input) {
+      Coder<KV<K, V>> inputCoder = input.getCoder();
+      if (!(inputCoder instanceof KvCoder)) {
+        throw new IllegalStateException(
+            "ApproximateDistinct.PerKey requires its input to use KvCoder");
+      }
+      @SuppressWarnings("unchecked")
+      Coder<V> coder = ((KvCoder<K, V>) inputCoder).getValueCoder();
+
+      return input.apply(
+          Combine.<K, V, Long>perKey(ApproximateDistinctFn.create(precision, coder)));
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      ApproximateDistinct.populateDisplayData(builder, precision);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * {@code CombineFn} that computes an estimate of the number of distinct values that were
+   * combined, using a {@link HyperLogLogSketch} as accumulator.
+   *
+   * <p>Values are hashed by encoding them with the given {@link Coder} and hashing the encoding,
+   * so the coder should be deterministic.
+   *
+   * @param <T> the type of the values being combined
+   */
+  public static class ApproximateDistinctFn<T> extends CombineFn<T, HyperLogLogSketch, Long> {
+
+    private final int precision;
+    private final Coder<T> coder;
+
+    private ApproximateDistinctFn(int precision, Coder<T> coder) {
+      this.precision = precision;
+      this.coder = coder;
+    }
+
+    /**
+     * Returns an {@link ApproximateDistinctFn} using sketches with {@code 2^precision} registers,
+     * hashing values encoded by the given {@link Coder}.
+     */
+    public static <T> ApproximateDistinctFn<T> create(int precision, Coder<T> coder) {
+      checkPrecision(precision);
+      return new ApproximateDistinctFn<>(precision, coder);
+    }
+
+    @Override
+    public HyperLogLogSketch createAccumulator() {
+      return new HyperLogLogSketch(precision);
+    }
+
+    @Override
+    public HyperLogLogSketch addInput(HyperLogLogSketch sketch, T input) {
+      try {
+        sketch.addHash(ApproximateUniqueCombineFn.hash(input, coder));
+        return sketch;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public HyperLogLogSketch mergeAccumulators(Iterable<HyperLogLogSketch> sketches) {
+      Iterator<HyperLogLogSketch> iterator = sketches.iterator();
+      if (!iterator.hasNext()) {
+        return createAccumulator();
+      }
+      HyperLogLogSketch merged = iterator.next();
+      while (iterator.hasNext()) {
+        merged.merge(iterator.next());
+      }
+      return merged;
+    }
+
+    @Override
+    public Long extractOutput(HyperLogLogSketch sketch) {
+      return sketch.estimate();
+    }
+
+    @Override
+    public Coder<HyperLogLogSketch> getAccumulatorCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return HyperLogLogSketchCoder.of();
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      ApproximateDistinct.populateDisplayData(builder, precision);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * A HyperLogLog++ sketch of a set of 64-bit hashes.
+   *
+   * <p>In dense mode, the sketch is a byte array of {@code 2^precision} registers, each holding the
+   * largest number of leading zeros plus one seen among the hashes whose first {@code precision}
+   * bits select that register. In sparse mode, used while few hashes have been added, it is a
+   * sorted array of the same information for {@code 2^25} registers, which is smaller and allows
+   * exact linear counting. The sketch switches to dense mode once the sparse array would no longer
+   * be smaller than the registers.
+   *
+   * <p>As in the original HyperLogLog, dense estimates use linear counting over the registers while
+   * the raw estimate is below {@code 2.5 * 2^precision}. The empirical bias correction tables of
+   * HyperLogLog++ are not applied.
+   */
+  public static class HyperLogLogSketch {
+
+    /** The precision of the sparse representation. */
+    static final int SPARSE_PRECISION = 25;
+
+    /** The number of bits used for the register value in a sparse entry. */
+    private static final int SPARSE_VALUE_BITS = 6;
+
+    private final int precision;
+
+    /** The registers in dense mode, or null in sparse mode. */
+    private byte[] registers;
+
+    /**
+     * The sorted sparse entries, each a register index at {@link #SPARSE_PRECISION} followed by
+     * {@link #SPARSE_VALUE_BITS} bits of register value, with at most one entry per index.
+     */
+    private int[] sparseEntries;
+    private int numSparseEntries;
+
+    /** Sparse entries added since the last {@link #flushSparseBuffer}, in insertion order. */
+    private int[] sparseBuffer;
+    private int numSparseBuffered;
+
+    /** Creates an empty sketch with {@code 2^precision} registers, starting in sparse mode. */
+    public HyperLogLogSketch(int precision) {
+      checkPrecision(precision);
+      this.precision = precision;
+      this.sparseEntries = new int[0];
+      this.sparseBuffer = new int[Math.max(16, (1 << precision) / 32)];
+    }
+
+    public int getPrecision() {
+      return precision;
+    }
+
+    /** Returns whether the sketch is in the compact sparse representation. */
+    public boolean isSparse() {
+      return registers == null;
+    }
+
+    /** Adds a 64-bit hash, such as a murmur3 hash of an element, to the sketch. */
+    public void addHash(long hash) {
+      if (registers != null) {
+        int index = (int) (hash >>> (64 - precision));
+        int value = Math.min(Long.numberOfLeadingZeros(hash << precision), 64 - precision) + 1;
+        if (value > registers[index]) {
+          registers[index] = (byte) value;
+        }
+      } else {
+        int index = (int) (hash >>> (64 - SPARSE_PRECISION));
+        int value =
+            Math.min(Long.numberOfLeadingZeros(hash << SPARSE_PRECISION), 64 - SPARSE_PRECISION)
+                + 1;
+        addSparseEntry((index << SPARSE_VALUE_BITS) | value);
+      }
+    }
+
+    /** Merges the given sketch, which must have the same precision, into this one. */
+    public void merge(HyperLogLogSketch other) {
+      checkArgument(
+          other.precision == precision,
+          "Cannot merge a sketch of precision %s into a sketch of precision %s",
+          other.precision,
+          precision);
+      if (other.registers != null) {
+        if (registers == null) {
+          convertToDense();
+        }
+        for (int i = 0; i < registers.length; ++i) {
+          if (other.registers[i] > registers[i]) {
+            registers[i] = other.registers[i];
+          }
+        }
+      } else {
+        other.flushSparseBuffer();
+        for (int i = 0; i < other.numSparseEntries; ++i) {
+          if (registers != null) {
+            addDenseEntry(other.sparseEntries[i]);
+          } else {
+            addSparseEntry(other.sparseEntries[i]);
+          }
+        }
+      }
+    }
+
+    /** Returns the estimated number of distinct hashes added to this sketch. */
+    public long estimate() {
+      if (registers == null) {
+        flushSparseBuffer();
+        return Math.round(linearCounting(1 << SPARSE_PRECISION, numSparseEntries));
+      }
+
+      int numRegisters = registers.length;
+      double sum = 0;
+      int numZeros = 0;
+      for (byte register : registers) {
+        sum += 1.0 / (1L << register);
+        if (register == 0) {
+          numZeros++;
+        }
+      }
+      double rawEstimate = alpha(numRegisters) * numRegisters * numRegisters / sum;
+      if (numZeros > 0 && rawEstimate <= 2.5 * numRegisters) {
+        return Math.round(linearCounting(numRegisters, numRegisters - numZeros));
+      }
+      return Math.round(rawEstimate);
+    }
+
+    private static double linearCounting(int numRegisters, int numNonZero) {
+      return numRegisters * Math.log((double) numRegisters / (numRegisters - numNonZero));
+    }
+
+    private static double alpha(int numRegisters) {
+      switch (numRegisters) {
+        case 16:
+          return 0.673;
+        case 32:
+          return 0.697;
+        case 64:
+          return 0.709;
+        default:
+          return 0.7213 / (1 + 1.079 / numRegisters);
+      }
+    }
+
+    private void addSparseEntry(int entry) {
+      sparseBuffer[numSparseBuffered++] = entry;
+      if (numSparseBuffered == sparseBuffer.length) {
+        flushSparseBuffer();
+        if (numSparseEntries > (1 << precision) / 4) {
+          // The sparse entries now take more memory than the registers would.
+          convertToDense();
+        }
+      }
+    }
+
+    /** Merges the buffered sparse entries into the sorted sparse entries. */
+    private void flushSparseBuffer() {
+      if (numSparseBuffered == 0) {
+        return;
+      }
+      Arrays.sort(sparseBuffer, 0, numSparseBuffered);
+      int[] merged = new int[numSparseEntries + numSparseBuffered];
+      int numMerged = 0;
+      int i = 0;
+      int j = 0;
+      while (i < numSparseEntries || j < numSparseBuffered) {
+        int entry;
+        if (j == numSparseBuffered
+            || (i < numSparseEntries && sparseEntries[i] <= sparseBuffer[j])) {
+          entry = sparseEntries[i++];
+        } else {
+          entry = sparseBuffer[j++];
+        }
+        // Entries are sorted by index and then value, so a later entry for the same index has a
+        // value at least as large and replaces the earlier one.
+        if (numMerged > 0
+            && merged[numMerged - 1] >>> SPARSE_VALUE_BITS == entry >>> SPARSE_VALUE_BITS) {
+          merged[numMerged - 1] = entry;
+        } else {
+          merged[numMerged++] = entry;
+        }
+      }
+      sparseEntries = merged;
+      numSparseEntries = numMerged;
+      numSparseBuffered = 0;
+    }
+
+    private void convertToDense() {
+      flushSparseBuffer();
+      registers = new byte[1 << precision];
+      for (int i = 0; i < numSparseEntries; ++i) {
+        addDenseEntry(sparseEntries[i]);
+      }
+      sparseEntries = null;
+      sparseBuffer = null;
+      numSparseEntries = 0;
+    }
+
+    /** Updates the registers with an entry of the sparse representation. */
+    private void addDenseEntry(int sparseEntry) {
+      int sparseIndex = sparseEntry >>> SPARSE_VALUE_BITS;
+      int extraBits = SPARSE_PRECISION - precision;
+      int index = sparseIndex >>> extraBits;
+      int remainder = sparseIndex & ((1 << extraBits) - 1);
+      int value = remainder != 0
+          // The leading zeros of the hash end within the bits of the sparse index.
+          ? Integer.numberOfLeadingZeros(remainder) - (32 - extraBits) + 1
+          : extraBits + (sparseEntry & ((1 << SPARSE_VALUE_BITS) - 1));
+      if (value > registers[index]) {
+        registers[index] = (byte) value;
+      }
+    }
+  }
+
+  /**
+   * A {@link Coder} for {@link HyperLogLogSketch HyperLogLogSketches}. Sparse sketches are encoded
+   * as delta encoded variable length integers, dense sketches as their registers.
+   */
+  public static class HyperLogLogSketchCoder extends AtomicCoder<HyperLogLogSketch> {
+    private static final HyperLogLogSketchCoder INSTANCE = new HyperLogLogSketchCoder();
+
+    private static final int SPARSE = 0;
+    private static final int DENSE = 1;
+
+    public static HyperLogLogSketchCoder of() {
+      return INSTANCE;
+    }
+
+    private HyperLogLogSketchCoder() {}
+
+    @Override
+    public void encode(HyperLogLogSketch value, OutputStream outStream)
+        throws IOException, CoderException {
+      if (value == null) {
+        throw new CoderException("cannot encode a null HyperLogLogSketch");
+      }
+      outStream.write(value.precision);
+      if (value.registers == null) {
+        value.flushSparseBuffer();
+        outStream.write(SPARSE);
+        VarInt.encode(value.numSparseEntries, outStream);
+        int previous = 0;
+        for (int i = 0; i < value.numSparseEntries; ++i) {
+          VarInt.encode(value.sparseEntries[i] - previous, outStream);
+          previous = value.sparseEntries[i];
+        }
+      } else {
+        outStream.write(DENSE);
+        outStream.write(value.registers);
+      }
+    }
+
+    @Override
+    public HyperLogLogSketch decode(InputStream inStream) throws IOException, CoderException {
+      int precision = inStream.read();
+      int mode = inStream.read();
+      if (mode < 0) {
+        throw new CoderException(new EOFException());
+      }
+      if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+        throw new CoderException("invalid HyperLogLogSketch precision " + precision);
+      }
+
+      HyperLogLogSketch sketch = new HyperLogLogSketch(precision);
+      if (mode == SPARSE) {
+        int numEntries = VarInt.decodeInt(inStream);
+        if (numEntries < 0) {
+          throw new CoderException("invalid number of sparse entries " + numEntries);
+        }
+        int[] entries = new int[numEntries];
+        int previous = 0;
+        for (int i = 0; i < numEntries; ++i) {
+          previous += VarInt.decodeInt(inStream);
+          entries[i] = previous;
+        }
+        sketch.sparseEntries = entries;
+        sketch.numSparseEntries = numEntries;
+      } else if (mode == DENSE) {
+        sketch.convertToDense();
+        try {
+          ByteStreams.readFully(inStream, sketch.registers);
+        } catch (EOFException e) {
+          throw new CoderException(e);
+        }
+      } else {
+        throw new CoderException("unknown HyperLogLogSketch encoding " + mode);
+      }
+      return sketch;
+    }
+
+    @Override
+    public void verifyDeterministic() {}
+  }
+
+  private static void checkPrecision(int precision) {
+    checkArgument(
+        precision >= MIN_PRECISION && precision <= MAX_PRECISION,
+        "ApproximateDistinct needs a precision between %s and %s, but got %s",
+        MIN_PRECISION,
+        MAX_PRECISION,
+        precision);
+  }
+
+  private static void populateDisplayData(DisplayData.Builder builder, int precision) {
+    builder.add(DisplayData.item("precision", precision).withLabel("Sketch Precision"));
+  }
+}
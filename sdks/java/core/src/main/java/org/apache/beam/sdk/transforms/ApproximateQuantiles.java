@@ -29,6 +29,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -36,12 +37,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import javax.annotation.Nullable;
+import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.CoderRegistry;
 import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.coders.DoubleCoder;
 import org.apache.beam.sdk.coders.ListCoder;
 import org.apache.beam.sdk.transforms.Combine.AccumulatingCombineFn;
 import org.apache.beam.sdk.transforms.Combine.AccumulatingCombineFn.Accumulator;
@@ -175,6 +179,41 @@ public class ApproximateQuantiles {
     return Combine.perKey(ApproximateQuantilesCombineFn.<V>create(numQuantiles));
   }
 
+  /**
+   * Like {@link #globally(int)}, but for {@code Double} elements, using an {@link
+   * ApproximateDoubleQuantilesCombineFn} whose accumulator is a compact sketch of primitive
+   * {@code double} arrays rather than buffers of boxed elements.
+   *
+   * <p>Example of use:
+   * <pre> {@code
+   * PCollection<Double> latencies = ...;
+   * PCollection<List<Double>> percentiles =
+   *     latencies.apply(ApproximateQuantiles.doublesGlobally(101));
+   * } </pre>
+   *
+   * @param numQuantiles the number of elements in the resulting
+   *        quantile values {@code List}
+   */
+  public static PTransform<PCollection<Double>, PCollection<List<Double>>> doublesGlobally(
+      int numQuantiles) {
+    return Combine.globally(ApproximateDoubleQuantilesCombineFn.create(numQuantiles));
+  }
+
+  /**
+   * Like {@link #perKey(int)}, but for {@code Double} values, using an {@link
+   * ApproximateDoubleQuantilesCombineFn} per key.
+   *
+   * @param <K> the type of the keys in the input and output
+   *        {@code PCollection}s
+   * @param numQuantiles the number of elements in the resulting
+   *        quantile values {@code List}
+   */
+  public static <K>
+      PTransform<PCollection<KV<K, Double>>, PCollection<KV<K, List<Double>>>>
+      doublesPerKey(int numQuantiles) {
+    return Combine.perKey(ApproximateDoubleQuantilesCombineFn.create(numQuantiles));
+  }
+
 
   /////////////////////////////////////////////////////////////////////////////
 
@@ -775,4 +814,400 @@ public class ApproximateQuantiles {
           this, "QuantileState.ElementListCoder must be deterministic", elementListCoder);
     }
   }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * A combiner like {@link ApproximateQuantilesCombineFn}, specialized to {@code Double} values.
+   * The output is a {@code List} of size {@code numQuantiles} containing the minimum value,
+   * {@code numQuantiles-2} intermediate values and the maximum value, or an empty {@code List}
+   * if there are no inputs. The quantiles are exact as long as fewer than {@code k} values have
+   * been added.
+   *
+   * <p>The accumulator is a KLL sketch, as described in:
+   * <pre>
+   *   [KLL16] Karnin, Lang &amp; Liberty, "Optimal Quantile Approximation in Streams",
+   *   Proc. 2016 IEEE FOCS, p 71-78, 2016.
+   *   https://arxiv.org/abs/1603.05346
+   * </pre>
+   *
+   * <p>The sketch keeps its samples in one primitive {@code double} array per level, and its size
+   * is bounded by about {@code 3 * k} values independently of the number of inputs. The rank error
+   * of each quantile is below about {@code 1.65 / k} with high probability, so about 0.8% for the
+   * default {@code k} of {@value #DEFAULT_K}. Minimum and maximum are always exact.
+   */
+  public static class ApproximateDoubleQuantilesCombineFn
+      extends Combine.CombineFn<Double, DoubleQuantileSketch, List<Double>> {
+
+    /** The default value of {@code k}, the capacity of the highest level of the sketch. */
+    public static final int DEFAULT_K = 200;
+
+    private final int numQuantiles;
+    private final int k;
+
+    private ApproximateDoubleQuantilesCombineFn(int numQuantiles, int k) {
+      checkArgument(numQuantiles >= 2);
+      checkArgument(
+          k >= DoubleQuantileSketch.MIN_LEVEL_CAPACITY,
+          "k must be at least %s",
+          DoubleQuantileSketch.MIN_LEVEL_CAPACITY);
+      this.numQuantiles = numQuantiles;
+      this.k = k;
+    }
+
+    /**
+     * Returns an approximate quantiles combiner for {@code Double} values with the desired number
+     * of quantiles, including the minimum and maximum, and the default {@code k}.
+     */
+    public static ApproximateDoubleQuantilesCombineFn create(int numQuantiles) {
+      return new ApproximateDoubleQuantilesCombineFn(numQuantiles, DEFAULT_K);
+    }
+
+    /**
+     * Returns an {@code ApproximateDoubleQuantilesCombineFn} that's like this one except that its
+     * sketches use the specified {@code k}. Larger values reduce the error, which is about
+     * {@code 1.65 / k}, at the cost of proportionally larger accumulators. Does not modify this
+     * combiner.
+     */
+    public ApproximateDoubleQuantilesCombineFn withK(int k) {
+      return new ApproximateDoubleQuantilesCombineFn(numQuantiles, k);
+    }
+
+    @Override
+    public DoubleQuantileSketch createAccumulator() {
+      return new DoubleQuantileSketch(k);
+    }
+
+    @Override
+    public DoubleQuantileSketch addInput(DoubleQuantileSketch sketch, Double input) {
+      sketch.update(input);
+      return sketch;
+    }
+
+    @Override
+    public DoubleQuantileSketch mergeAccumulators(Iterable<DoubleQuantileSketch> sketches) {
+      Iterator<DoubleQuantileSketch> iterator = sketches.iterator();
+      if (!iterator.hasNext()) {
+        return createAccumulator();
+      }
+      DoubleQuantileSketch merged = iterator.next();
+      while (iterator.hasNext()) {
+        merged.merge(iterator.next());
+      }
+      return merged;
+    }
+
+    @Override
+    public List<Double> extractOutput(DoubleQuantileSketch sketch) {
+      return sketch.quantiles(numQuantiles);
+    }
+
+    @Override
+    public Coder<DoubleQuantileSketch> getAccumulatorCoder(
+        CoderRegistry registry, Coder<Double> inputCoder) {
+      return DoubleQuantileSketchCoder.of();
+    }
+
+    @Override
+    public Coder<List<Double>> getDefaultOutputCoder(
+        CoderRegistry registry, Coder<Double> inputCoder) {
+      return ListCoder.of(DoubleCoder.of());
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder
+          .add(DisplayData.item("numQuantiles", numQuantiles)
+            .withLabel("Quantile Count"))
+          .add(DisplayData.item("k", k)
+            .withLabel("Sketch Size Parameter"));
+    }
+  }
+
+  /**
+   * A KLL quantile sketch of {@code double} values.
+   *
+   * <p>Values are kept in levels of compactors: each value at level {@code h} stands for {@code
+   * 2^h} input values. New values are appended to level 0. When the sketch exceeds its capacity,
+   * the lowest level that is over its own capacity is sorted and every other value of it, starting
+   * at a random offset, is promoted to the next level. The capacities of the levels decrease
+   * geometrically by a factor of 2/3 from {@code k} at the highest level.
+   *
+   * <p>Only used as the accumulator of {@link ApproximateDoubleQuantilesCombineFn}.
+   */
+  public static final class DoubleQuantileSketch {
+
+    /** The smallest capacity of a level, and thus of {@code k}. */
+    static final int MIN_LEVEL_CAPACITY = 8;
+
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /** The values of each level. Level 0 is unsorted, all other levels are sorted. */
+    private double[][] levels;
+    private int[] levelSizes;
+    private int numLevels;
+
+    /** The number of values in all levels. */
+    private int totalSize;
+
+    /** The capacity of each level, which depends on {@link #numLevels}. */
+    private int[] capacities;
+    private int totalCapacity;
+
+    DoubleQuantileSketch(int k) {
+      this.k = k;
+      this.levels = new double[][] {new double[MIN_LEVEL_CAPACITY]};
+      this.levelSizes = new int[1];
+      this.numLevels = 1;
+      computeCapacities();
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    void update(double value) {
+      checkArgument(!Double.isNaN(value), "Cannot compute quantiles of NaN");
+      count++;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      append(0, value);
+      compress();
+    }
+
+    void merge(DoubleQuantileSketch other) {
+      if (other.count == 0) {
+        return;
+      }
+      count += other.count;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+      while (numLevels < other.numLevels) {
+        addLevel();
+      }
+      for (int i = 0; i < other.levelSizes[0]; ++i) {
+        append(0, other.levels[0][i]);
+      }
+      for (int h = 1; h < other.numLevels; ++h) {
+        mergeSortedIntoLevel(h, other.levels[h], 0, other.levelSizes[h]);
+      }
+      compress();
+    }
+
+    /**
+     * Returns {@code numQuantiles} values from the minimum to the maximum at equally spaced ranks,
+     * or an empty list if the sketch is empty.
+     */
+    List<Double> quantiles(int numQuantiles) {
+      if (count == 0) {
+        return Collections.emptyList();
+      }
+
+      // Merge all levels into one sorted list of values, weighted by the level they come from.
+      double[] values = Arrays.copyOf(levels[0], levelSizes[0]);
+      Arrays.sort(values);
+      long[] weights = new long[values.length];
+      Arrays.fill(weights, 1);
+      for (int h = 1; h < numLevels; ++h) {
+        int size = values.length + levelSizes[h];
+        double[] mergedValues = new double[size];
+        long[] mergedWeights = new long[size];
+        int i = 0;
+        int j = 0;
+        for (int out = 0; out < size; ++out) {
+          if (j == levelSizes[h] || (i < values.length && values[i] <= levels[h][j])) {
+            mergedValues[out] = values[i];
+            mergedWeights[out] = weights[i++];
+          } else {
+            mergedValues[out] = levels[h][j++];
+            mergedWeights[out] = 1L << h;
+          }
+        }
+        values = mergedValues;
+        weights = mergedWeights;
+      }
+
+      List<Double> result = new ArrayList<>(numQuantiles);
+      result.add(min);
+      int index = 0;
+      long cumulativeWeight = weights[0];
+      for (int q = 1; q < numQuantiles - 1; ++q) {
+        double rank = (double) q * count / (numQuantiles - 1);
+        while (cumulativeWeight < rank && index < values.length - 1) {
+          cumulativeWeight += weights[++index];
+        }
+        result.add(values[index]);
+      }
+      result.add(max);
+      return result;
+    }
+
+    /** Recomputes the capacities of the levels after the number of levels has changed. */
+    private void computeCapacities() {
+      capacities = new int[numLevels];
+      totalCapacity = 0;
+      double capacity = k;
+      for (int h = numLevels - 1; h >= 0; --h) {
+        capacities[h] = Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(capacity));
+        totalCapacity += capacities[h];
+        capacity *= CAPACITY_DECAY;
+      }
+    }
+
+    /** Compacts levels until the sketch fits in its total capacity. */
+    private void compress() {
+      while (totalSize >= totalCapacity) {
+        for (int h = 0; h < numLevels; ++h) {
+          if (levelSizes[h] >= capacities[h]) {
+            compact(h);
+            break;
+          }
+        }
+      }
+    }
+
+    /**
+     * Promotes every other value of the given level to the next level. If the level has an odd
+     * number of values, its smallest value stays behind.
+     */
+    private void compact(int level) {
+      if (level + 1 == numLevels) {
+        addLevel();
+      }
+      double[] values = levels[level];
+      int size = levelSizes[level];
+      if (level == 0) {
+        Arrays.sort(values, 0, size);
+      }
+      int start = size % 2;
+      int offset = ThreadLocalRandom.current().nextBoolean() ? 1 : 0;
+      int numPromoted = (size - start) / 2;
+      double[] promoted = new double[numPromoted];
+      for (int i = 0; i < numPromoted; ++i) {
+        promoted[i] = values[start + 2 * i + offset];
+      }
+      levelSizes[level] = start;
+      totalSize -= 2 * numPromoted;
+      mergeSortedIntoLevel(level + 1, promoted, 0, numPromoted);
+    }
+
+    private void addLevel() {
+      levels = Arrays.copyOf(levels, numLevels + 1);
+      levelSizes = Arrays.copyOf(levelSizes, numLevels + 1);
+      levels[numLevels] = new double[MIN_LEVEL_CAPACITY];
+      numLevels++;
+      computeCapacities();
+    }
+
+    private void append(int level, double value) {
+      if (levelSizes[level] == levels[level].length) {
+        levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+      }
+      levels[level][levelSizes[level]++] = value;
+      totalSize++;
+    }
+
+    /** Merges the sorted range {@code [from, to)} of {@code values} into a sorted level. */
+    private void mergeSortedIntoLevel(int level, double[] values, int from, int to) {
+      double[] current = levels[level];
+      int currentSize = levelSizes[level];
+      double[] merged = new double[Math.max(MIN_LEVEL_CAPACITY, currentSize + to - from)];
+      int i = 0;
+      int j = from;
+      int out = 0;
+      while (i < currentSize || j < to) {
+        if (j == to || (i < currentSize && current[i] <= values[j])) {
+          merged[out++] = current[i++];
+        } else {
+          merged[out++] = values[j++];
+        }
+      }
+      levels[level] = merged;
+      levelSizes[level] = out;
+      totalSize += to - from;
+    }
+  }
+
+  /**
+   * Coder for {@link DoubleQuantileSketch}.
+   */
+  private static class DoubleQuantileSketchCoder extends AtomicCoder<DoubleQuantileSketch> {
+    private static final DoubleQuantileSketchCoder INSTANCE = new DoubleQuantileSketchCoder();
+
+    public static DoubleQuantileSketchCoder of() {
+      return INSTANCE;
+    }
+
+    @Override
+    public void encode(DoubleQuantileSketch sketch, OutputStream outStream)
+        throws CoderException, IOException {
+      DataOutputStream outData = new DataOutputStream(outStream);
+      outData.writeInt(sketch.k);
+      outData.writeLong(sketch.count);
+      outData.writeDouble(sketch.min);
+      outData.writeDouble(sketch.max);
+      outData.writeInt(sketch.numLevels);
+      for (int h = 0; h < sketch.numLevels; ++h) {
+        outData.writeInt(sketch.levelSizes[h]);
+        for (int i = 0; i < sketch.levelSizes[h]; ++i) {
+          outData.writeDouble(sketch.levels[h][i]);
+        }
+      }
+      outData.flush();
+    }
+
+    @Override
+    public DoubleQuantileSketch decode(InputStream inStream)
+        throws CoderException, IOException {
+      DataInputStream inData = new DataInputStream(inStream);
+      int k = inData.readInt();
+      if (k < DoubleQuantileSketch.MIN_LEVEL_CAPACITY) {
+        throw new CoderException("invalid k " + k);
+      }
+      DoubleQuantileSketch sketch = new DoubleQuantileSketch(k);
+      sketch.count = inData.readLong();
+      sketch.min = inData.readDouble();
+      sketch.max = inData.readDouble();
+      int numLevels = inData.readInt();
+      if (numLevels < 1) {
+        throw new CoderException("invalid number of levels " + numLevels);
+      }
+      sketch.levels = new double[numLevels][];
+      sketch.levelSizes = new int[numLevels];
+      sketch.numLevels = numLevels;
+      for (int h = 0; h < numLevels; ++h) {
+        int size = inData.readInt();
+        if (size < 0) {
+          throw new CoderException("invalid level size " + size);
+        }
+        double[] values = new double[Math.max(DoubleQuantileSketch.MIN_LEVEL_CAPACITY, size)];
+        for (int i = 0; i < size; ++i) {
+          values[i] = inData.readDouble();
+        }
+        sketch.levels[h] = values;
+        sketch.levelSizes[h] = size;
+        sketch.totalSize += size;
+      }
+      sketch.computeCapacities();
+      return sketch;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NonDeterministicException always. The sketch depends on random choices and
+     *         floating point values are not guaranteed to be encoded deterministically.
+     */
+    @Override
+    public void verifyDeterministic() throws NonDeterministicException {
+      throw new NonDeterministicException(this,
+          "DoubleQuantileSketch contains floating point values and random choices.");
+    }
+  }
 }
@@ -32,15 +32,18 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
+import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.CannotProvideCoderException;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.CoderRegistry;
 import org.apache.beam.sdk.coders.DelegateCoder;
+import org.apache.beam.sdk.coders.DoubleCoder;
 import org.apache.beam.sdk.coders.IterableCoder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StructuredCoder;
 import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
 import org.apache.beam.sdk.coders.VoidCoder;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.transforms.CombineFnBase.AbstractGlobalCombineFn;
@@ -625,6 +628,9 @@ public class Combine {
 
     @Override
     public Coder<int[]> getAccumulatorCoder(CoderRegistry registry, Coder<Integer> inputCoder) {
+      if (inputCoder instanceof VarIntCoder) {
+        return new VarIntAccumulatorCoder();
+      }
       return DelegateCoder.of(
           inputCoder, new ToIntegerCodingFunction(), new FromIntegerCodingFunction());
     }
@@ -674,6 +680,27 @@ public class Combine {
         return this.getClass().hashCode();
       }
     }
+
+    /**
+     * Encodes accumulators the same way as a {@link DelegateCoder} to {@link VarIntCoder}, but
+     * without boxing.
+     */
+    private static final class VarIntAccumulatorCoder extends AtomicCoder<int[]> {
+      @Override
+      public void encode(int[] accumulator, OutputStream outStream) throws IOException {
+        VarIntCoder.of().encodeInt(accumulator[0], outStream);
+      }
+
+      @Override
+      public int[] decode(InputStream inStream) throws IOException {
+        return wrap(VarIntCoder.of().decodeInt(inStream));
+      }
+
+      @Override
+      public Object structuralValue(int[] accumulator) {
+        return accumulator[0];
+      }
+    }
   }
 
   /**
@@ -726,6 +753,9 @@ public class Combine {
 
     @Override
     public Coder<long[]> getAccumulatorCoder(CoderRegistry registry, Coder<Long> inputCoder) {
+      if (inputCoder instanceof VarLongCoder) {
+        return new VarLongAccumulatorCoder();
+      }
       return DelegateCoder.of(inputCoder, new ToLongCodingFunction(), new FromLongCodingFunction());
     }
 
@@ -773,6 +803,27 @@ public class Combine {
         return this.getClass().hashCode();
       }
     }
+
+    /**
+     * Encodes accumulators the same way as a {@link DelegateCoder} to {@link VarLongCoder}, but
+     * without boxing.
+     */
+    private static final class VarLongAccumulatorCoder extends AtomicCoder<long[]> {
+      @Override
+      public void encode(long[] accumulator, OutputStream outStream) throws IOException {
+        VarLongCoder.of().encodeLong(accumulator[0], outStream);
+      }
+
+      @Override
+      public long[] decode(InputStream inStream) throws IOException {
+        return wrap(VarLongCoder.of().decodeLong(inStream));
+      }
+
+      @Override
+      public Object structuralValue(long[] accumulator) {
+        return accumulator[0];
+      }
+    }
   }
 
   /**
@@ -826,6 +877,9 @@ public class Combine {
 
     @Override
     public Coder<double[]> getAccumulatorCoder(CoderRegistry registry, Coder<Double> inputCoder) {
+      if (inputCoder instanceof DoubleCoder) {
+        return new DoubleAccumulatorCoder();
+      }
       return DelegateCoder.of(
           inputCoder, new ToDoubleCodingFunction(), new FromDoubleCodingFunction());
     }
@@ -874,6 +928,32 @@ public class Combine {
         return this.getClass().hashCode();
       }
     }
+
+    /**
+     * Encodes accumulators the same way as a {@link DelegateCoder} to {@link DoubleCoder}, but
+     * without boxing.
+     */
+    private static final class DoubleAccumulatorCoder extends AtomicCoder<double[]> {
+      @Override
+      public void encode(double[] accumulator, OutputStream outStream) throws IOException {
+        DoubleCoder.of().encodeDouble(accumulator[0], outStream);
+      }
+
+      @Override
+      public double[] decode(InputStream inStream) throws IOException {
+        return wrap(DoubleCoder.of().decodeDouble(inStream));
+      }
+
+      @Override
+      public void verifyDeterministic() throws NonDeterministicException {
+        DoubleCoder.of().verifyDeterministic();
+      }
+
+      @Override
+      public Object structuralValue(double[] accumulator) {
+        return accumulator[0];
+      }
+    }
   }
 
   /////////////////////////////////////////////////////////////////////////////
@@ -92,6 +92,9 @@ public class Count {
    * <p>By default, the {@code Coder} of the keys of the output {@code PCollection} is the same as
    * the {@code Coder} of the elements of the input {@code PCollection}.
    *
+   * <p>If only the most frequent elements are needed, {@link HeavyHitters} estimates them without
+   * shuffling every distinct element.
+   *
    * <p>Example of use:
    * <pre> {@code
    * PCollection<String> words = ...;
@@ -0,0 +1,715 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.transforms;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.beam.sdk.coders.BigEndianLongCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.ListCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.ApproximateUnique.ApproximateUniqueCombineFn;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.VarInt;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+
+/**
+ * {@code PTransform}s for finding the most frequent elements of a {@code PCollection}, or the most
+ * frequent values associated with each key in a {@code PCollection} of {@code KV}s, using a
+ * Count-Min sketch and a bounded set of candidates.
+ *
+ * <p>Finding the most frequent elements with {@link Count#perElement()} followed by {@link
+ * Top#largest} needs an exact count of every distinct element, and thus a shuffle of all distinct
+ * elements. The accumulator of {@link HeavyHitters} instead has a fixed size: a Count-Min sketch of
+ * {@code ceil(e / epsilon) * ceil(ln(1 / (1 - confidence)))} counters estimating the frequency of
+ * any element, plus a heap of the {@code 2 * count} elements with the largest estimated
+ * frequencies seen so far. With probability {@code confidence}, the estimated frequency of an
+ * element exceeds its true frequency by at most {@code epsilon} times the total number of
+ * elements, and it never underestimates it. While the input has no more than {@code 2 * count}
+ * distinct elements, the sketch is not allocated and the counts are exact.
+ *
+ * <p>Elements are identified by a 64-bit hash of their encoding with the input {@code Coder}, so
+ * that coder should be deterministic.
+ *
+ * <p>Example of use:
+ * <pre> {@code
+ * PCollection<String> urls = ...;
+ * PCollection<List<KV<String, Long>>> topUrls =
+ *     urls.apply(HeavyHitters.<String>globally(1000));
+ * } </pre>
+ */
+public class HeavyHitters {
+
+  /** The default error of the frequency estimates, relative to the total number of elements. */
+  public static final double DEFAULT_EPSILON = 0.001;
+
+  /** The default probability that the frequency estimates are within the error bound. */
+  public static final double DEFAULT_CONFIDENCE = 0.99;
+
+  /** The number of candidates tracked for each element in the output. */
+  static final int CANDIDATES_PER_RESULT = 2;
+
+  private HeavyHitters() {
+    // do not instantiate
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<T>} and returns a {@code
+   * PCollection<List<KV<T, Long>>>} with a single element containing the (approximately) {@code
+   * count} most frequent elements of the input together with their estimated frequencies, in
+   * decreasing order of frequency. If the input is empty, the list is empty.
+   *
+   * <p>As with {@link Combine#globally}, the input must be in the global window, or the result of
+   * {@link Globally#withoutDefaults()} be used instead.
+   *
+   * @param count the number of most frequent elements to return
+   * @param <T> the type of the elements in the input {@code PCollection}
+   */
+  public static <T> Globally<T> globally(int count) {
+    return new Globally<>(count, DEFAULT_EPSILON, DEFAULT_CONFIDENCE, true);
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<KV<K, V>>} and returns a {@code
+   * PCollection<KV<K, List<KV<V, Long>>>>} that maps each distinct key of the input, per window,
+   * to the (approximately) {@code count} most frequent values associated with that key together
+   * with their estimated frequencies, in decreasing order of frequency.
+   *
+   * @param count the number of most frequent values to return per key
+   * @param <K> the type of the keys in the input and output {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   */
+  public static <K, V> PerKey<K, V> perKey(int count) {
+    return new PerKey<>(count, DEFAULT_EPSILON, DEFAULT_CONFIDENCE);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * {@code PTransform} for finding the most frequent elements of a {@code PCollection}.
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   */
+  public static class Globally<T>
+      extends PTransform<PCollection<T>, PCollection<List<KV<T, Long>>>> {
+
+    private final int count;
+    private final double epsilon;
+    private final double confidence;
+    private final boolean insertDefault;
+
+    private Globally(int count, double epsilon, double confidence, boolean insertDefault) {
+      checkParameters(count, epsilon, confidence);
+      this.count = count;
+      this.epsilon = epsilon;
+      this.confidence = confidence;
+      this.insertDefault = insertDefault;
+    }
+
+    /**
+     * Returns a new {@code PTransform} like this one, but whose frequency estimates may exceed the
+     * true frequencies by at most {@code epsilon} times the number of input elements. Smaller
+     * values give proportionally larger sketches.
+     */
+    public Globally<T> withEpsilon(double epsilon) {
+      return new Globally<>(count, epsilon, confidence, insertDefault);
+    }
+
+    /**
+     * Returns a new {@code PTransform} like this one, but whose frequency estimates are within
+     * the error bound with probability {@code confidence}.
+     */
+    public Globally<T> withConfidence(double confidence) {
+      return new Globally<>(count, epsilon, confidence, insertDefault);
+    }
+
+    /**
+     * Returns a new {@code PTransform} like this one, but that outputs nothing rather than an
+     * empty list for empty windows. This is required for inputs that are not in the global
+     * window.
+     */
+    public Globally<T> withoutDefaults() {
+      return new Globally<>(count, epsilon, confidence, false);
+    }
+
+    @Override
+    public PCollection<List<KV<T, Long>>> expand(PCollection<T> input) {
+      Combine.Globally<T, List<KV<T, Long>>> combine = Combine.globally(
+          HeavyHittersFn.create(count, epsilon, confidence, input.getCoder()));
+      return input.apply(insertDefault ? combine : combine.withoutDefaults());
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      HeavyHitters.populateDisplayData(builder, count, epsilon, confidence);
+    }
+  }
+
+  /**
+   * {@code PTransform} for finding the most frequent values associated with each key in a
+   * {@code PCollection} of {@code KV}s.
+   *
+   * @param <K> the type of the keys in the input and output {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   */
+  public static class PerKey<K, V>
+      extends PTransform<PCollection<KV<K, V>>, PCollection<KV<K, List<KV<V, Long>>>>> {
+
+    private final int count;
+    private final double epsilon;
+    private final double confidence;
+
+    private PerKey(int count, double epsilon, double confidence) {
+      checkParameters(count, epsilon, confidence);
+      this.count = count;
+      this.epsilon = epsilon;
+      this.confidence = confidence;
+    }
+
+    /**
+     * Returns a new {@code PTransform} like this one, but whose frequency estimates may exceed the
+     * true frequencies by at most {@code epsilon} times the number of values of the key.
+     */
+    public PerKey<K, V> withEpsilon(double epsilon) {
+      return new PerKey<>(count, epsilon, confidence);
+    }
+
+    /**
+     * Returns a new {@code PTransform} like this one, but whose frequency estimates are within
+     * the error bound with probability {@code confidence}.
+     */
+    public PerKey<K, V> withConfidence(double confidence) {
+      return new PerKey<>(count, epsilon, confidence);
+    }
+
+    @Override
+    public PCollection<KV<K, List<KV<V, Long>>>> expand(PCollection<KV<K, V>> input) {
+      Coder<KV<K, V>> inputCoder = input.getCoder();
+      if (!(inputCoder instanceof KvCoder)) {
+        throw new IllegalStateException("HeavyHitters.PerKey requires its input to use KvCoder");
+      }
+      @SuppressWarnings("unchecked")
+      Coder<V> coder = ((KvCoder<K, V>) inputCoder).getValueCoder();
+
+      return input.apply(Combine.<K, V, List<KV<V, Long>>>perKey(
+          HeavyHittersFn.create(count, epsilon, confidence, coder)));
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      HeavyHitters.populateDisplayData(builder, count, epsilon, confidence);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * {@code CombineFn} that computes the most frequent values that were combined, with their
+   * estimated frequencies, using a {@link HeavyHittersSketch} as accumulator.
+   *
+   * @param <T> the type of the values being combined
+   */
+  public static class HeavyHittersFn<T>
+      extends CombineFn<T, HeavyHittersSketch<T>, List<KV<T, Long>>> {
+
+    private final int count;
+    private final double epsilon;
+    private final double confidence;
+    private final Coder<T> coder;
+
+    private HeavyHittersFn(int count, double epsilon, double confidence, Coder<T> coder) {
+      this.count = count;
+      this.epsilon = epsilon;
+      this.confidence = confidence;
+      this.coder = coder;
+    }
+
+    /**
+     * Returns a {@link HeavyHittersFn} that outputs the {@code count} most frequent values, with
+     * frequency estimates within {@code epsilon} times the number of values with probability
+     * {@code confidence}, hashing values encoded by the given {@link Coder}.
+     */
+    public static <T> HeavyHittersFn<T> create(
+        int count, double epsilon, double confidence, Coder<T> coder) {
+      checkParameters(count, epsilon, confidence);
+      return new HeavyHittersFn<>(count, epsilon, confidence, coder);
+    }
+
+    @Override
+    public HeavyHittersSketch<T> createAccumulator() {
+      return new HeavyHittersSketch<>(
+          (int) Math.ceil(Math.E / epsilon),
+          (int) Math.ceil(Math.log(1 / (1 - confidence))),
+          CANDIDATES_PER_RESULT * count);
+    }
+
+    @Override
+    public HeavyHittersSketch<T> addInput(HeavyHittersSketch<T> sketch, T input) {
+      try {
+        sketch.add(input, ApproximateUniqueCombineFn.hash(input, coder), 1);
+        return sketch;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public HeavyHittersSketch<T> mergeAccumulators(Iterable<HeavyHittersSketch<T>> sketches) {
+      Iterator<HeavyHittersSketch<T>> iterator = sketches.iterator();
+      if (!iterator.hasNext()) {
+        return createAccumulator();
+      }
+      HeavyHittersSketch<T> merged = iterator.next();
+      while (iterator.hasNext()) {
+        merged.merge(iterator.next());
+      }
+      return merged;
+    }
+
+    @Override
+    public List<KV<T, Long>> extractOutput(HeavyHittersSketch<T> sketch) {
+      return sketch.getTop(count);
+    }
+
+    @Override
+    public Coder<HeavyHittersSketch<T>> getAccumulatorCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return new HeavyHittersSketchCoder<>(coder);
+    }
+
+    @Override
+    public Coder<List<KV<T, Long>>> getDefaultOutputCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return ListCoder.of(KvCoder.of(coder, VarLongCoder.of()));
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      HeavyHitters.populateDisplayData(builder, count, epsilon, confidence);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * A Count-Min sketch of element frequencies together with a bounded min-heap of the candidate
+   * elements with the largest estimated frequencies.
+   *
+   * <p>The sketch has {@code depth} rows of {@code width} counters. An element increments one
+   * counter per row, chosen by double hashing of its 64-bit hash, and its estimated frequency is
+   * the smallest of these counters. Count-Min sketches of the same dimensions merge by adding
+   * their counters.
+   *
+   * <p>Until the heap would have to evict a candidate, the candidates are all distinct elements
+   * seen so far and their counts are exact, so the counters are not allocated. They are then
+   * built from the exact counts, which gives the same sketch as if they had been kept all along.
+   *
+   * @param <T> the type of the elements
+   */
+  public static class HeavyHittersSketch<T> {
+
+    private final int width;
+    private final int depth;
+    private final int capacity;
+
+    /** The number of elements added. */
+    private long totalCount;
+
+    /** The counters, row by row, or null while the candidate counts are exact. */
+    private long[] counters;
+
+    /**
+     * The candidates as a min-heap by estimated frequency, in three parallel arrays of the
+     * element hashes, the estimated frequencies and the elements.
+     */
+    private long[] heapHashes;
+    private long[] heapCounts;
+    private final List<T> heapElements;
+    private int heapSize;
+
+    /** The position in the heap of each candidate, by hash. */
+    private final Map<Long, Integer> positions = new HashMap<>();
+
+    /**
+     * Creates an empty sketch with {@code depth} rows of {@code width} counters, tracking up to
+     * {@code capacity} candidates.
+     */
+    public HeavyHittersSketch(int width, int depth, int capacity) {
+      checkArgument(width > 0 && depth > 0 && capacity > 0,
+          "HeavyHittersSketch dimensions must be positive, but got %s, %s and %s",
+          width, depth, capacity);
+      this.width = width;
+      this.depth = depth;
+      this.capacity = capacity;
+      int initialHeapSize = Math.min(capacity, 16);
+      this.heapHashes = new long[initialHeapSize];
+      this.heapCounts = new long[initialHeapSize];
+      this.heapElements = new ArrayList<>(initialHeapSize);
+    }
+
+    /** Returns the total number of elements added to this sketch. */
+    public long getTotalCount() {
+      return totalCount;
+    }
+
+    /** Returns whether the frequencies of the candidates are exact. */
+    boolean isExact() {
+      return counters == null;
+    }
+
+    /** Adds {@code count} occurrences of an element with the given hash. */
+    void add(T element, long hash, long count) {
+      totalCount += count;
+      Integer position = positions.get(hash);
+      if (counters == null) {
+        if (position != null) {
+          increase(position, heapCounts[position] + count);
+          return;
+        } else if (heapSize < capacity) {
+          insert(element, hash, count);
+          return;
+        }
+        allocateCounters();
+      }
+      long estimate = addToCounters(hash, count);
+      offer(element, hash, position, estimate);
+    }
+
+    /**
+     * Merges another sketch of the same dimensions into this one. The other sketch must not be
+     * used afterwards.
+     */
+    void merge(HeavyHittersSketch<T> other) {
+      checkArgument(
+          width == other.width && depth == other.depth && capacity == other.capacity,
+          "Cannot merge HeavyHittersSketches of different dimensions");
+      if (counters == null && other.counters == null) {
+        // Replaying the other candidates stays exact as long as they fit in the heap.
+        for (int i = 0; i < other.heapSize; ++i) {
+          add(other.heapElements.get(i), other.heapHashes[i], other.heapCounts[i]);
+        }
+        return;
+      }
+
+      if (counters == null) {
+        allocateCounters();
+      }
+      totalCount += other.totalCount;
+      if (other.counters == null) {
+        for (int i = 0; i < other.heapSize; ++i) {
+          addToCounters(other.heapHashes[i], other.heapCounts[i]);
+        }
+      } else {
+        for (int i = 0; i < counters.length; ++i) {
+          counters[i] += other.counters[i];
+        }
+      }
+
+      // Re-estimate the candidates of both sketches against the merged counters.
+      List<T> elements = new ArrayList<>(heapElements.subList(0, heapSize));
+      elements.addAll(other.heapElements.subList(0, other.heapSize));
+      long[] hashes = new long[heapSize + other.heapSize];
+      System.arraycopy(heapHashes, 0, hashes, 0, heapSize);
+      System.arraycopy(other.heapHashes, 0, hashes, heapSize, other.heapSize);
+      clearHeap();
+      for (int i = 0; i < hashes.length; ++i) {
+        offer(elements.get(i), hashes[i], positions.get(hashes[i]), estimate(hashes[i]));
+      }
+    }
+
+    /**
+     * Returns up to {@code count} candidates with the largest estimated frequencies, in
+     * decreasing order of frequency.
+     */
+    List<KV<T, Long>> getTop(int count) {
+      Integer[] order = new Integer[heapSize];
+      for (int i = 0; i < heapSize; ++i) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          int result = Long.compare(heapCounts[b], heapCounts[a]);
+          return result != 0 ? result : Long.compare(heapHashes[a], heapHashes[b]);
+        }
+      });
+      List<KV<T, Long>> top = new ArrayList<>(Math.min(count, heapSize));
+      for (int i = 0; i < order.length && i < count; ++i) {
+        top.add(KV.of(heapElements.get(order[i]), heapCounts[order[i]]));
+      }
+      return Collections.unmodifiableList(top);
+    }
+
+    /** Returns the estimated frequency of the element with the given hash. */
+    long estimate(long hash) {
+      if (counters == null) {
+        Integer position = positions.get(hash);
+        return position == null ? 0 : heapCounts[position];
+      }
+      long estimate = Long.MAX_VALUE;
+      for (int row = 0; row < depth; ++row) {
+        estimate = Math.min(estimate, counters[index(hash, row)]);
+      }
+      return estimate;
+    }
+
+    private void allocateCounters() {
+      counters = new long[width * depth];
+      for (int i = 0; i < heapSize; ++i) {
+        addToCounters(heapHashes[i], heapCounts[i]);
+      }
+    }
+
+    /** Adds {@code count} to the counters of the hash and returns its new estimate. */
+    private long addToCounters(long hash, long count) {
+      long estimate = Long.MAX_VALUE;
+      for (int row = 0; row < depth; ++row) {
+        int index = index(hash, row);
+        counters[index] += count;
+        estimate = Math.min(estimate, counters[index]);
+      }
+      return estimate;
+    }
+
+    private int index(long hash, int row) {
+      int combined = (int) hash + row * (int) (hash >>> 32);
+      if (combined < 0) {
+        combined = ~combined;
+      }
+      return row * width + combined % width;
+    }
+
+    /** Updates or inserts a candidate, evicting the least frequent one if the heap is full. */
+    private void offer(T element, long hash, Integer position, long estimate) {
+      if (position != null) {
+        increase(position, Math.max(estimate, heapCounts[position]));
+      } else if (heapSize < capacity) {
+        insert(element, hash, estimate);
+      } else if (estimate > heapCounts[0]) {
+        positions.remove(heapHashes[0]);
+        set(0, element, hash, estimate);
+        siftDown(0);
+      }
+    }
+
+    private void insert(T element, long hash, long count) {
+      if (heapSize == heapHashes.length) {
+        int newLength = Math.min(capacity, heapSize * 2);
+        heapHashes = Arrays.copyOf(heapHashes, newLength);
+        heapCounts = Arrays.copyOf(heapCounts, newLength);
+      }
+      heapElements.add(element);
+      set(heapSize++, element, hash, count);
+      siftUp(heapSize - 1);
+    }
+
+    private void increase(int position, long count) {
+      heapCounts[position] = count;
+      siftDown(position);
+    }
+
+    private void clearHeap() {
+      heapSize = 0;
+      heapElements.clear();
+      positions.clear();
+    }
+
+    private void set(int position, T element, long hash, long count) {
+      heapHashes[position] = hash;
+      heapCounts[position] = count;
+      heapElements.set(position, element);
+      positions.put(hash, position);
+    }
+
+    private void siftUp(int position) {
+      while (position > 0) {
+        int parent = (position - 1) / 2;
+        if (heapCounts[parent] <= heapCounts[position]) {
+          return;
+        }
+        swap(position, parent);
+        position = parent;
+      }
+    }
+
+    private void siftDown(int position) {
+      while (true) {
+        int smallest = position;
+        int left = 2 * position + 1;
+        int right = left + 1;
+        if (left < heapSize && heapCounts[left] < heapCounts[smallest]) {
+          smallest = left;
+        }
+        if (right < heapSize && heapCounts[right] < heapCounts[smallest]) {
+          smallest = right;
+        }
+        if (smallest == position) {
+          return;
+        }
+        swap(position, smallest);
+        position = smallest;
+      }
+    }
+
+    private void swap(int i, int j) {
+      T element = heapElements.get(i);
+      long hash = heapHashes[i];
+      long count = heapCounts[i];
+      set(i, heapElements.get(j), heapHashes[j], heapCounts[j]);
+      set(j, element, hash, count);
+    }
+  }
+
+  /**
+   * Coder for {@link HeavyHittersSketch}. The counters are encoded as variable length integers,
+   * as most of them are small.
+   */
+  static class HeavyHittersSketchCoder<T> extends CustomCoder<HeavyHittersSketch<T>> {
+    private static final BigEndianLongCoder HASH_CODER = BigEndianLongCoder.of();
+
+    private final Coder<T> elementCoder;
+
+    HeavyHittersSketchCoder(Coder<T> elementCoder) {
+      this.elementCoder = elementCoder;
+    }
+
+    @Override
+    public void encode(HeavyHittersSketch<T> sketch, OutputStream outStream)
+        throws CoderException, IOException {
+      VarInt.encode(sketch.width, outStream);
+      VarInt.encode(sketch.depth, outStream);
+      VarInt.encode(sketch.capacity, outStream);
+      VarInt.encode(sketch.totalCount, outStream);
+      if (sketch.counters == null) {
+        outStream.write(0);
+      } else {
+        outStream.write(1);
+        for (long counter : sketch.counters) {
+          VarInt.encode(counter, outStream);
+        }
+      }
+      VarInt.encode(sketch.heapSize, outStream);
+      for (int i = 0; i < sketch.heapSize; ++i) {
+        HASH_CODER.encodeLong(sketch.heapHashes[i], outStream);
+        VarInt.encode(sketch.heapCounts[i], outStream);
+        elementCoder.encode(sketch.heapElements.get(i), outStream);
+      }
+    }
+
+    @Override
+    public HeavyHittersSketch<T> decode(InputStream inStream)
+        throws CoderException, IOException {
+      HeavyHittersSketch<T> sketch = new HeavyHittersSketch<>(
+          VarInt.decodeInt(inStream), VarInt.decodeInt(inStream), VarInt.decodeInt(inStream));
+      sketch.totalCount = VarInt.decodeLong(inStream);
+      int hasCounters = inStream.read();
+      if (hasCounters == 1) {
+        sketch.counters = new long[sketch.width * sketch.depth];
+        for (int i = 0; i < sketch.counters.length; ++i) {
+          sketch.counters[i] = VarInt.decodeLong(inStream);
+        }
+      } else if (hasCounters != 0) {
+        throw new CoderException("invalid HeavyHittersSketch encoding");
+      }
+      int heapSize = VarInt.decodeInt(inStream);
+      for (int i = 0; i < heapSize; ++i) {
+        long hash = HASH_CODER.decodeLong(inStream);
+        long count = VarInt.decodeLong(inStream);
+        // The encoded candidates form a valid heap already.
+        sketch.insert(elementCoder.decode(inStream), hash, count);
+      }
+      return sketch;
+    }
+
+    @Override
+    public List<? extends Coder<?>> getCoderArguments() {
+      return Collections.singletonList(elementCoder);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == this) {
+        return true;
+      }
+      if (!(other instanceof HeavyHittersSketchCoder)) {
+        return false;
+      }
+      HeavyHittersSketchCoder<?> that = (HeavyHittersSketchCoder<?>) other;
+      return Objects.equals(this.elementCoder, that.elementCoder);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(HeavyHittersSketchCoder.class, elementCoder);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NonDeterministicException always. The order of the candidates depends on the order
+     *         in which elements were added.
+     */
+    @Override
+    public void verifyDeterministic() throws NonDeterministicException {
+      throw new NonDeterministicException(this,
+          "The candidate order of a HeavyHittersSketch depends on the order of its inputs.");
+    }
+  }
+
+  private static void checkParameters(int count, double epsilon, double confidence) {
+    checkArgument(count > 0, "HeavyHitters needs a positive count, but got %s", count);
+    checkArgument(
+        epsilon > 0 && epsilon < 1,
+        "HeavyHitters needs an epsilon between 0 and 1, but got %s",
+        epsilon);
+    checkArgument(
+        confidence > 0 && confidence < 1,
+        "HeavyHitters needs a confidence between 0 and 1, but got %s",
+        confidence);
+  }
+
+  private static void populateDisplayData(
+      DisplayData.Builder builder, int count, double epsilon, double confidence) {
+    builder
+        .add(DisplayData.item("count", count).withLabel("Number of Heavy Hitters"))
+        .add(DisplayData.item("epsilon", epsilon).withLabel("Relative Frequency Error"))
+        .add(DisplayData.item("confidence", confidence).withLabel("Confidence"));
+  }
+}
@@ -51,6 +51,9 @@ import org.apache.beam.sdk.values.PCollection;
  * of elements in a {@code PCollection}, or the largest (or smallest)
  * set of values associated with each key in a {@code PCollection} of
  * {@code KV}s.
+ *
+ * <p>To find the most frequent elements of a {@code PCollection}, {@link HeavyHitters} avoids
+ * counting every distinct element exactly before applying {@link #largest}.
  */
 public class Top {
 
@@ -27,6 +27,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.SoftReference;
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
@@ -38,18 +40,17 @@ import org.apache.beam.sdk.values.TypeDescriptor;
 public final class CoderUtils {
   private CoderUtils() {}  // Non-instantiable
 
-  private static ThreadLocal<SoftReference<ExposedByteArrayOutputStream>>
-      threadLocalOutputStream = new ThreadLocal<>();
-
   /**
-   * If true, a call to {@code encodeToByteArray} is already on the call stack.
+   * The output streams reused by {@code encodeToByteArray} on this thread, one per level of
+   * reentrant calls, so that a single thread local lookup suffices per call.
    */
-  private static ThreadLocal<Boolean> threadLocalOutputStreamInUse = new ThreadLocal<Boolean>() {
-    @Override
-    protected Boolean initialValue() {
-      return false;
-    }
-  };
+  private static ThreadLocal<ThreadLocalOutputStreams> threadLocalOutputStreams =
+      new ThreadLocal<ThreadLocalOutputStreams>() {
+        @Override
+        protected ThreadLocalOutputStreams initialValue() {
+          return new ThreadLocalOutputStreams();
+        }
+      };
 
   /**
    * Encodes the given value using the specified Coder, and returns
@@ -64,24 +65,36 @@ public final class CoderUtils {
 
   public static <T> byte[] encodeToByteArray(Coder<T> coder, T value, Coder.Context context)
       throws CoderException {
-    if (threadLocalOutputStreamInUse.get()) {
-      // encodeToByteArray() is called recursively and the thread local stream is in use,
-      // allocating a new one.
-      ByteArrayOutputStream stream = new ExposedByteArrayOutputStream();
+    ThreadLocalOutputStreams streams = threadLocalOutputStreams.get();
+    ByteArrayOutputStream stream = streams.acquire();
+    try {
       encodeToSafeStream(coder, value, stream, context);
       return stream.toByteArray();
-    } else {
-      threadLocalOutputStreamInUse.set(true);
-      try {
-        ByteArrayOutputStream stream = getThreadLocalOutputStream();
-        encodeToSafeStream(coder, value, stream, context);
-        return stream.toByteArray();
-      } finally {
-        threadLocalOutputStreamInUse.set(false);
-      }
+    } finally {
+      streams.release();
     }
   }
 
+  /**
+   * Encodes the given value using the specified Coder, appending the encoded bytes to the given
+   * {@code buffer}.
+   *
+   * <p>Unlike {@link #encodeToByteArray}, this neither copies the encoded bytes nor looks up any
+   * thread local state. The encoded bytes can be accessed without copying through
+   * {@link ExposedByteArrayOutputStream#getBuffer()}. Callers encoding many values should
+   * {@link ExposedByteArrayOutputStream#reset() reset} and reuse the same buffer.
+   */
+  public static <T> void encodeToBuffer(
+      Coder<T> coder, T value, ExposedByteArrayOutputStream buffer) throws CoderException {
+    encodeToBuffer(coder, value, buffer, Coder.Context.OUTER);
+  }
+
+  public static <T> void encodeToBuffer(
+      Coder<T> coder, T value, ExposedByteArrayOutputStream buffer, Coder.Context context)
+      throws CoderException {
+    encodeToSafeStream(coder, value, buffer, context);
+  }
+
   /**
    * Encodes {@code value} to the given {@code stream}, which should be a stream that never throws
    * {@code IOException}, such as {@code ByteArrayOutputStream} or
@@ -109,7 +122,23 @@ public final class CoderUtils {
 
   public static <T> T decodeFromByteArray(
       Coder<T> coder, byte[] encodedValue, Coder.Context context) throws CoderException {
-    try (ExposedByteArrayInputStream stream = new ExposedByteArrayInputStream(encodedValue)) {
+    return decodeFromByteArray(coder, encodedValue, 0, encodedValue.length, context);
+  }
+
+  /**
+   * Decodes the {@code length} bytes of {@code buffer} starting at {@code offset} using the
+   * specified Coder, and returns the resulting decoded value. The bytes are not copied.
+   */
+  public static <T> T decodeFromByteArray(Coder<T> coder, byte[] buffer, int offset, int length)
+      throws CoderException {
+    return decodeFromByteArray(coder, buffer, offset, length, Coder.Context.OUTER);
+  }
+
+  public static <T> T decodeFromByteArray(
+      Coder<T> coder, byte[] buffer, int offset, int length, Coder.Context context)
+      throws CoderException {
+    try (ExposedByteArrayInputStream stream =
+        new ExposedByteArrayInputStream(buffer, offset, length)) {
       T result = decodeFromSafeStream(coder, stream, context);
       if (stream.available() != 0) {
         throw new CoderException(
@@ -135,15 +164,37 @@ public final class CoderUtils {
     }
   }
 
-  private static ByteArrayOutputStream getThreadLocalOutputStream() {
-    SoftReference<ExposedByteArrayOutputStream> refStream = threadLocalOutputStream.get();
-    ExposedByteArrayOutputStream stream = refStream == null ? null : refStream.get();
-    if (stream == null) {
-      stream = new ExposedByteArrayOutputStream();
-      threadLocalOutputStream.set(new SoftReference<>(stream));
+  /**
+   * The output streams of one thread, softly referenced so that they can be reclaimed under
+   * memory pressure.
+   */
+  private static class ThreadLocalOutputStreams {
+    private final List<SoftReference<ExposedByteArrayOutputStream>> streams = new ArrayList<>();
+
+    /** The number of calls to {@code encodeToByteArray} on the call stack. */
+    private int depth = 0;
+
+    /** Returns an empty stream for the next level of reentrant calls. */
+    ExposedByteArrayOutputStream acquire() {
+      ExposedByteArrayOutputStream stream = null;
+      if (depth < streams.size()) {
+        stream = streams.get(depth).get();
+      } else {
+        streams.add(null);
+      }
+      if (stream == null) {
+        stream = new ExposedByteArrayOutputStream();
+        streams.set(depth, new SoftReference<>(stream));
+      }
+      depth++;
+      stream.reset();
+      return stream;
+    }
+
+    /** Releases the stream returned by the matching call to {@link #acquire}. */
+    void release() {
+      depth--;
     }
-    stream.reset();
-    return stream;
   }
 
   /**
@@ -29,6 +29,14 @@ public class ExposedByteArrayInputStream extends ByteArrayInputStream{
     super(buf);
   }
 
+  /**
+   * Creates a stream over {@code length} bytes of {@code buf} starting at {@code offset}, without
+   * copying them.
+   */
+  public ExposedByteArrayInputStream(byte[] buf, int offset, int length) {
+    super(buf, offset, length);
+  }
+
   /**
    * Read all remaining bytes.
    */
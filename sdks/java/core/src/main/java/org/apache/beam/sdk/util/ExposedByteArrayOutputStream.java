@@ -90,6 +90,17 @@ public class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
     super.write(b);
   }
 
+  /**
+   * Returns the internal buffer without copying it. Only the first {@link #size()} bytes are the
+   * content of the stream.
+   *
+   * <p>The returned array is only valid until the next write to or {@link #reset()} of this
+   * stream, and must not be modified.
+   */
+  public byte[] getBuffer() {
+    return buf;
+  }
+
   @Override
   public byte[] toByteArray() {
     // Note: count == buf.length is not a correct criteria to "return buf;", because the internal
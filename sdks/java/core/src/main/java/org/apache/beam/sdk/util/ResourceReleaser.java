@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Closes resources that belong to an owner object, such as temporary files or open streams, once
+ * they are released explicitly, the owner becomes unreachable, or the JVM shuts down, whichever
+ * happens first.
+ *
+ * <p>Owners should release their resources explicitly as soon as they are done with them. Closing
+ * them when the owner is found to be unreachable, which is done by a daemon thread, and at
+ * shutdown are fallbacks for owners that are abandoned without being released.
+ */
+public final class ResourceReleaser {
+  private static final Logger LOG = LoggerFactory.getLogger(ResourceReleaser.class);
+
+  /** Enqueues the registrations of owners which are no longer reachable. */
+  private static final ReferenceQueue<Object> UNREACHABLE = new ReferenceQueue<>();
+
+  /** Keeps all registrations reachable until their resources are closed. */
+  private static final Set<Registration> OUTSTANDING =
+      Collections.newSetFromMap(new ConcurrentHashMap<Registration, Boolean>());
+
+  private static boolean started = false;
+
+  private ResourceReleaser() {}
+
+  /**
+   * Registers a resource of the given owner. The resource must not refer to the owner, or the
+   * owner never becomes unreachable.
+   */
+  public static Registration register(Object owner, Closeable resource) {
+    checkNotNull(owner, "owner");
+    checkNotNull(resource, "resource");
+    start();
+    Registration registration = new Registration(owner, resource);
+    OUTSTANDING.add(registration);
+    return registration;
+  }
+
+  /** Starts the thread releasing unreachable owners and the shutdown hook on first use. */
+  private static synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+
+    Thread releaser = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            ((Registration) UNREACHABLE.remove()).releaseQuietly();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    }, "ResourceReleaser");
+    releaser.setDaemon(true);
+    releaser.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (Registration registration : OUTSTANDING) {
+          registration.releaseQuietly();
+        }
+      }
+    }, "ResourceReleaser-shutdown"));
+  }
+
+  /** A resource registered by {@link #register}. */
+  public static final class Registration extends PhantomReference<Object> {
+    private final Closeable resource;
+
+    private Registration(Object owner, Closeable resource) {
+      super(owner, UNREACHABLE);
+      this.resource = resource;
+    }
+
+    /** Closes the resource, unless it was already closed. */
+    public void release() throws IOException {
+      if (OUTSTANDING.remove(this)) {
+        clear();
+        resource.close();
+      }
+    }
+
+    private void releaseQuietly() {
+      try {
+        release();
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Failed to release {}", resource, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.coders;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.reflect.Nullable;
+import org.apache.beam.sdk.testing.CoderProperties;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.util.SerializableUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AvroColumnarCoder}. */
+@RunWith(JUnit4.class)
+public class AvroColumnarCoderTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static final Schema SCHEMA =
+      SchemaBuilder.record("Event")
+          .namespace("org.apache.beam.sdk.coders")
+          .fields()
+          .requiredString("country")
+          .requiredLong("timestamp")
+          .optionalString("comment")
+          .endRecord();
+
+  private static class Pojo {
+    private String text;
+    private int count;
+    @Nullable private Long value;
+
+    // Empty constructor required for Avro decoding.
+    @SuppressWarnings("unused")
+    public Pojo() {}
+
+    public Pojo(String text, int count, Long value) {
+      this.text = text;
+      this.count = count;
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Pojo)) {
+        return false;
+      }
+      Pojo that = (Pojo) o;
+      return Objects.equals(text, that.text)
+          && count == that.count
+          && Objects.equals(value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(text, count, value);
+    }
+
+    @Override
+    public String toString() {
+      return "Pojo(" + text + ", " + count + ", " + value + ")";
+    }
+  }
+
+  private static GenericRecord event(String country, long timestamp, String comment) {
+    GenericRecord record = new GenericData.Record(SCHEMA);
+    record.put("country", country);
+    record.put("timestamp", timestamp);
+    record.put("comment", comment);
+    return record;
+  }
+
+  @Test
+  public void testGenericRecordsDecodeEncodeEqual() throws Exception {
+    AvroColumnarCoder<GenericRecord> coder = AvroColumnarCoder.of(SCHEMA);
+    List<GenericRecord> records =
+        Arrays.asList(
+            event("US", 1L, null),
+            event("US", 1L, null),
+            event("DE", 2L, "late"),
+            event("US", 3L, null),
+            event("FR", 3L, "late"));
+
+    // Decoded strings are Utf8, so compare the records through their string form.
+    List<GenericRecord> decoded =
+        CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, records));
+    assertThat(decoded.toString(), equalTo(records.toString()));
+  }
+
+  @Test
+  public void testPojosDecodeEncodeEqual() throws Exception {
+    AvroColumnarCoder<Pojo> coder = AvroColumnarCoder.of(Pojo.class);
+    List<Pojo> pojos = new ArrayList<>();
+    for (int i = 0; i < 100; ++i) {
+      pojos.add(new Pojo(i % 3 == 0 ? "fizz" : "buzz", i / 10, i % 7 == 0 ? null : (long) i));
+    }
+
+    CoderProperties.coderDecodeEncodeEqual(coder, pojos);
+    CoderProperties.coderDecodeEncodeEqual(coder, Collections.<Pojo>emptyList());
+    CoderProperties.coderDecodeEncodeEqual(
+        coder, Collections.singletonList(new Pojo("only", 1, 2L)));
+  }
+
+  @Test
+  public void testSmallerThanRowWiseEncoding() throws Exception {
+    AvroColumnarCoder<Pojo> coder = AvroColumnarCoder.of(Pojo.class);
+    List<Pojo> pojos = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      pojos.add(new Pojo("some fairly long and repeated text " + (i % 4), 42, (long) (i / 100)));
+    }
+
+    int columnarSize = CoderUtils.encodeToByteArray(coder, pojos).length;
+    int rowWiseSize =
+        CoderUtils.encodeToByteArray(ListCoder.of(AvroCoder.of(Pojo.class)), pojos).length;
+    assertThat(columnarSize * 5, lessThan(rowWiseSize));
+  }
+
+  @Test
+  public void testEncodeNullRecordThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("cannot encode a null record");
+
+    CoderUtils.encodeToByteArray(
+        AvroColumnarCoder.of(Pojo.class), Arrays.asList(new Pojo("a", 1, 1L), null));
+  }
+
+  @Test
+  public void testNonRecordSchemaRejected() throws Exception {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("requires a record schema");
+
+    AvroColumnarCoder.of(AvroCoder.of(String.class));
+  }
+
+  @Test
+  public void testCoderIsSerializable() throws Exception {
+    CoderProperties.coderSerializable(AvroColumnarCoder.of(Pojo.class));
+    SerializableUtils.ensureSerializable(AvroColumnarCoder.of(SCHEMA));
+  }
+
+  @Test
+  public void testDeterministicIfElementCoderIs() throws Exception {
+    CoderProperties.coderDeterministic(
+        AvroColumnarCoder.of(Pojo.class),
+        Arrays.asList(new Pojo("a", 1, 1L), new Pojo("a", 1, 1L)),
+        Arrays.asList(new Pojo("a", 1, 1L), new Pojo("a", 1, 1L)));
+  }
+}
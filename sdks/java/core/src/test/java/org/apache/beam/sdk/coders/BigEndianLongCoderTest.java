@@ -20,6 +20,8 @@ package org.apache.beam.sdk.coders;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
 import org.apache.beam.sdk.testing.CoderProperties;
@@ -91,4 +93,23 @@ public class BigEndianLongCoderTest {
   public void testEncodedTypeDescriptor() throws Exception {
     assertThat(TEST_CODER.getEncodedTypeDescriptor(), equalTo(TypeDescriptor.of(Long.class)));
   }
+
+  @Test
+  public void testEncodeLongMatchesEncode() throws Exception {
+    BigEndianLongCoder coder = BigEndianLongCoder.of();
+    for (Long value : TEST_VALUES) {
+      ByteArrayOutputStream primitiveStream = new ByteArrayOutputStream();
+      coder.encodeLong(value, primitiveStream);
+      byte[] encoded = primitiveStream.toByteArray();
+      assertThat(encoded, equalTo(CoderUtils.encodeToByteArray(coder, value)));
+      assertThat(coder.decodeLong(new ByteArrayInputStream(encoded)), equalTo((long) value));
+    }
+  }
+
+  @Test
+  public void decodeLongTruncatedThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+
+    BigEndianLongCoder.of().decodeLong(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+  }
 }
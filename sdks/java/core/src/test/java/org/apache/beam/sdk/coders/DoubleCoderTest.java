@@ -20,6 +20,8 @@ package org.apache.beam.sdk.coders;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
 import org.apache.beam.sdk.testing.CoderProperties;
@@ -93,4 +95,16 @@ public class DoubleCoderTest {
   public void testEncodedTypeDescriptor() throws Exception {
     assertThat(TEST_CODER.getEncodedTypeDescriptor(), equalTo(TypeDescriptor.of(Double.class)));
   }
+
+  @Test
+  public void testEncodeDoubleMatchesEncode() throws Exception {
+    DoubleCoder coder = DoubleCoder.of();
+    for (Double value : TEST_VALUES) {
+      ByteArrayOutputStream primitiveStream = new ByteArrayOutputStream();
+      coder.encodeDouble(value, primitiveStream);
+      byte[] encoded = primitiveStream.toByteArray();
+      assertThat(encoded, equalTo(CoderUtils.encodeToByteArray(coder, value)));
+      assertThat(coder.decodeDouble(new ByteArrayInputStream(encoded)), equalTo((double) value));
+    }
+  }
 }
@@ -20,6 +20,8 @@ package org.apache.beam.sdk.coders;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
 import org.apache.beam.sdk.testing.CoderProperties;
@@ -87,4 +89,16 @@ public class VarIntCoderTest {
   public void testEncodedTypeDescriptor() throws Exception {
     assertThat(TEST_CODER.getEncodedTypeDescriptor(), equalTo(TypeDescriptor.of(Integer.class)));
   }
+
+  @Test
+  public void testEncodeIntMatchesEncode() throws Exception {
+    VarIntCoder coder = VarIntCoder.of();
+    for (Integer value : TEST_VALUES) {
+      ByteArrayOutputStream primitiveStream = new ByteArrayOutputStream();
+      coder.encodeInt(value, primitiveStream);
+      byte[] encoded = primitiveStream.toByteArray();
+      assertThat(encoded, equalTo(CoderUtils.encodeToByteArray(coder, value)));
+      assertThat(coder.decodeInt(new ByteArrayInputStream(encoded)), equalTo((int) value));
+    }
+  }
 }
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.testing.NeedsRunner;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.ApproximateDistinct.HyperLogLogSketch;
+import org.apache.beam.sdk.transforms.ApproximateDistinct.HyperLogLogSketchCoder;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TimestampedValue;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ApproximateDistinct}. */
+@RunWith(JUnit4.class)
+public class ApproximateDistinctTest implements Serializable {
+
+  @Rule public final transient TestPipeline p = TestPipeline.create();
+
+  @Rule public transient ExpectedException thrown = ExpectedException.none();
+
+  private static HyperLogLogSketch sketchOf(int precision, long[] hashes, int from, int to) {
+    HyperLogLogSketch sketch = new HyperLogLogSketch(precision);
+    for (int i = from; i < to; ++i) {
+      sketch.addHash(hashes[i]);
+    }
+    return sketch;
+  }
+
+  private static long[] randomHashes(int count) {
+    Random random = new Random(0);
+    long[] hashes = new long[count];
+    for (int i = 0; i < count; ++i) {
+      hashes[i] = random.nextLong();
+    }
+    return hashes;
+  }
+
+  private static void assertWithinError(long expected, long estimate, double maxError) {
+    double error = Math.abs(estimate - expected) / (double) expected;
+    assertTrue(
+        "Estimate=" + estimate + " Actual=" + expected + " Error=" + error, error <= maxError);
+  }
+
+  @Test
+  public void testSparseSketchIsNearlyExact() {
+    long[] hashes = randomHashes(1000);
+    HyperLogLogSketch sketch = sketchOf(12, hashes, 0, hashes.length);
+    // Adding the same hashes again does not change the estimate.
+    for (long hash : hashes) {
+      sketch.addHash(hash);
+    }
+
+    assertTrue(sketch.isSparse());
+    assertWithinError(1000, sketch.estimate(), 0.005);
+  }
+
+  @Test
+  public void testDenseSketchError() {
+    long[] hashes = randomHashes(200000);
+    HyperLogLogSketch sketch = sketchOf(12, hashes, 0, hashes.length);
+
+    assertFalse(sketch.isSparse());
+    // Three standard errors of 1.04 / sqrt(4096).
+    assertWithinError(200000, sketch.estimate(), 3 * 0.0163);
+  }
+
+  @Test
+  public void testEmptySketch() {
+    assertEquals(0L, new HyperLogLogSketch(12).estimate());
+  }
+
+  @Test
+  public void testMergeIsLossless() {
+    long[] hashes = randomHashes(20000);
+    for (int split : new int[] {10, 500, 5000, 15000}) {
+      HyperLogLogSketch all = sketchOf(10, hashes, 0, hashes.length);
+      HyperLogLogSketch first = sketchOf(10, hashes, 0, split);
+      HyperLogLogSketch second = sketchOf(10, hashes, split, hashes.length);
+      first.merge(second);
+      assertEquals(all.estimate(), first.estimate());
+
+      HyperLogLogSketch third = sketchOf(10, hashes, split, hashes.length);
+      third.merge(sketchOf(10, hashes, 0, split));
+      assertEquals(all.estimate(), third.estimate());
+    }
+  }
+
+  @Test
+  public void testMergeSparseSketches() {
+    long[] hashes = randomHashes(300);
+    HyperLogLogSketch first = sketchOf(12, hashes, 0, 200);
+    first.merge(sketchOf(12, hashes, 100, 300));
+
+    assertTrue(first.isSparse());
+    assertEquals(sketchOf(12, hashes, 0, 300).estimate(), first.estimate());
+  }
+
+  @Test
+  public void testMergeDifferentPrecisionsFails() {
+    thrown.expect(IllegalArgumentException.class);
+    new HyperLogLogSketch(10).merge(new HyperLogLogSketch(12));
+  }
+
+  @Test
+  public void testCoderRoundTrip() throws Exception {
+    long[] hashes = randomHashes(50000);
+    for (int count : new int[] {0, 1, 100, 50000}) {
+      HyperLogLogSketch sketch = sketchOf(12, hashes, 0, count);
+      byte[] encoded = CoderUtils.encodeToByteArray(HyperLogLogSketchCoder.of(), sketch);
+      HyperLogLogSketch decoded =
+          CoderUtils.decodeFromByteArray(HyperLogLogSketchCoder.of(), encoded);
+
+      assertEquals(sketch.isSparse(), decoded.isSparse());
+      assertEquals(sketch.estimate(), decoded.estimate());
+      assertArrayEquals(
+          encoded, CoderUtils.encodeToByteArray(HyperLogLogSketchCoder.of(), decoded));
+    }
+  }
+
+  @Test
+  public void testSparseEncodingIsSmall() throws Exception {
+    HyperLogLogSketch sketch = sketchOf(14, randomHashes(10), 0, 10);
+    byte[] encoded = CoderUtils.encodeToByteArray(HyperLogLogSketchCoder.of(), sketch);
+    assertTrue("Encoded size " + encoded.length, encoded.length < 64);
+  }
+
+  @Test
+  public void testInvalidPrecision() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("precision between 4 and 18");
+    ApproximateDistinct.globally().withPrecision(3);
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testGlobally() {
+    List<String> elements = new ArrayList<>();
+    for (int i = 0; i < 3000; ++i) {
+      elements.add("element" + (i % 1000));
+    }
+
+    PCollection<Long> estimate =
+        p.apply(Create.of(elements).withCoder(StringUtf8Coder.of()))
+            .apply(ApproximateDistinct.<String>globally());
+    PAssert.thatSingleton(estimate)
+        .satisfies(
+            new SerializableFunction<Long, Void>() {
+              @Override
+              public Void apply(Long input) {
+                assertWithinError(1000, input, 0.01);
+                return null;
+              }
+            });
+    p.run();
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testGloballyEmpty() {
+    PCollection<Long> estimate =
+        p.apply(Create.empty(StringUtf8Coder.of()))
+            .apply(ApproximateDistinct.<String>globally());
+    PAssert.thatSingleton(estimate).isEqualTo(0L);
+    p.run();
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testPerWindow() {
+    PCollection<Long> estimates =
+        p.apply(
+                Create.timestamped(
+                    TimestampedValue.of("a", new Instant(0)),
+                    TimestampedValue.of("b", new Instant(1)),
+                    TimestampedValue.of("a", new Instant(2)),
+                    TimestampedValue.of("c", new Instant(10))))
+            .apply(Window.<String>into(FixedWindows.of(Duration.millis(10))))
+            .apply(ApproximateDistinct.<String>perWindow());
+    PAssert.that(estimates).containsInAnyOrder(2L, 1L);
+    p.run();
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testPerKey() {
+    List<KV<String, Integer>> elements = new ArrayList<>();
+    for (int i = 0; i < 500; ++i) {
+      elements.add(KV.of("small", i % 10));
+      elements.add(KV.of("large", i));
+    }
+
+    PCollection<KV<String, Long>> estimates =
+        p.apply(Create.of(elements))
+            .apply(ApproximateDistinct.<String, Integer>perKey().withPrecision(14));
+    PAssert.that(estimates).containsInAnyOrder(KV.of("small", 10L), KV.of("large", 500L));
+    p.run();
+  }
+
+  @Test
+  public void testDisplayData() {
+    DisplayData displayData =
+        DisplayData.from(ApproximateDistinct.<String>globally().withPrecision(14));
+    assertThat(displayData, hasDisplayItem("precision", 14));
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.beam.sdk.transforms;
 import static org.apache.beam.sdk.TestUtils.checkCombineFn;
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 
 import java.io.Serializable;
@@ -29,13 +30,20 @@ import java.util.Comparator;
 import java.util.List;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.DoubleCoder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.testing.NeedsRunner;
 import org.apache.beam.sdk.testing.PAssert;
 import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.ApproximateQuantiles.ApproximateDoubleQuantilesCombineFn;
 import org.apache.beam.sdk.transforms.ApproximateQuantiles.ApproximateQuantilesCombineFn;
+import org.apache.beam.sdk.transforms.ApproximateQuantiles.DoubleQuantileSketch;
 import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.hamcrest.CoreMatchers;
@@ -244,6 +252,138 @@ public class ApproximateQuantilesTest {
     assertThat(displayData, hasDisplayItem("comparer", comparer.getClass()));
   }
 
+  @Test
+  @Category(NeedsRunner.class)
+  public void testDoubleQuantilesGlobally() {
+    PCollection<Double> input =
+        p.apply(Create.of(doubleRange(101)).withCoder(DoubleCoder.of()));
+    PCollection<List<Double>> quantiles = input.apply(ApproximateQuantiles.doublesGlobally(5));
+
+    PAssert.that(quantiles)
+        .containsInAnyOrder(Arrays.asList(0.0, 25.0, 50.0, 75.0, 100.0));
+    p.run();
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testDoubleQuantilesPerKey() {
+    PCollection<KV<String, Double>> input = p.apply(Create.of(
+        KV.of("a", 1.0), KV.of("a", 2.0), KV.of("a", 3.0),
+        KV.of("b", 1.0), KV.of("b", 10.0), KV.of("b", 10.0), KV.of("b", 100.0))
+        .withCoder(KvCoder.of(StringUtf8Coder.of(), DoubleCoder.of())));
+    PCollection<KV<String, List<Double>>> quantiles =
+        input.apply(ApproximateQuantiles.<String>doublesPerKey(3));
+
+    PAssert.that(quantiles)
+        .containsInAnyOrder(
+            KV.of("a", Arrays.asList(1.0, 2.0, 3.0)),
+            KV.of("b", Arrays.asList(1.0, 10.0, 100.0)));
+    p.run();
+  }
+
+  @Test
+  public void testDoubleSingleton() {
+    checkCombineFn(
+        ApproximateDoubleQuantilesCombineFn.create(5),
+        Arrays.asList(389.0),
+        Arrays.asList(389.0, 389.0, 389.0, 389.0, 389.0));
+  }
+
+  @Test
+  public void testDoubleSimpleQuantiles() {
+    checkCombineFn(
+        ApproximateDoubleQuantilesCombineFn.create(5),
+        doubleRange(101),
+        Arrays.asList(0.0, 25.0, 50.0, 75.0, 100.0));
+  }
+
+  @Test
+  public void testDoubleDuplicates() {
+    List<Double> all = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      all.addAll(doubleRange(21));
+    }
+    checkCombineFn(
+        ApproximateDoubleQuantilesCombineFn.create(5),
+        all,
+        Arrays.asList(0.0, 5.0, 10.0, 15.0, 20.0));
+  }
+
+  @Test
+  public void testDoubleLargerQuantiles() {
+    checkCombineFn(
+        ApproximateDoubleQuantilesCombineFn.create(11),
+        doubleRange(100001),
+        doubleQuantileMatcher(100001, 11, 2000 /* tolerance */));
+  }
+
+  @Test
+  public void testDoubleSmallK() {
+    checkCombineFn(
+        ApproximateDoubleQuantilesCombineFn.create(5).withK(50),
+        doubleRange(10001),
+        doubleQuantileMatcher(10001, 5, 800 /* tolerance */));
+  }
+
+  @Test
+  public void testDoubleQuantileSketchCoder() throws Exception {
+    ApproximateDoubleQuantilesCombineFn fn = ApproximateDoubleQuantilesCombineFn.create(11);
+    DoubleQuantileSketch sketch = fn.createAccumulator();
+    for (double value : doubleRange(10001)) {
+      fn.addInput(sketch, value);
+    }
+    Coder<DoubleQuantileSketch> coder =
+        fn.getAccumulatorCoder(CoderRegistry.createDefault(), DoubleCoder.of());
+    DoubleQuantileSketch decoded = CoderUtils.clone(coder, sketch);
+
+    assertThat(decoded.getCount(), equalTo(10001L));
+    assertThat(fn.extractOutput(decoded), equalTo(fn.extractOutput(sketch)));
+  }
+
+  @Test
+  public void testDoubleExactBelowK() {
+    checkCombineFn(
+        ApproximateDoubleQuantilesCombineFn.create(5).withK(50),
+        doubleRange(49),
+        Arrays.asList(0.0, 12.0, 24.0, 36.0, 48.0));
+  }
+
+  @Test(expected = CoderException.class)
+  public void testDoubleQuantileSketchCoderRejectsInvalidK() throws Exception {
+    ApproximateDoubleQuantilesCombineFn fn = ApproximateDoubleQuantilesCombineFn.create(5);
+    Coder<DoubleQuantileSketch> coder =
+        fn.getAccumulatorCoder(CoderRegistry.createDefault(), DoubleCoder.of());
+    CoderUtils.decodeFromByteArray(coder, new byte[] {0, 0, 0, 0});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDoubleQuantilesRejectsNaN() {
+    ApproximateDoubleQuantilesCombineFn fn = ApproximateDoubleQuantilesCombineFn.create(5);
+    fn.addInput(fn.createAccumulator(), Double.NaN);
+  }
+
+  @Test
+  public void testDoubleDisplayData() {
+    DisplayData displayData =
+        DisplayData.from(ApproximateDoubleQuantilesCombineFn.create(20).withK(100));
+
+    assertThat(displayData, hasDisplayItem("numQuantiles", 20));
+    assertThat(displayData, hasDisplayItem("k", 100));
+  }
+
+  private Matcher<Iterable<? extends Double>> doubleQuantileMatcher(
+      int size, int numQuantiles, double absoluteError) {
+    List<Matcher<? super Double>> quantiles = new ArrayList<>();
+    quantiles.add(CoreMatchers.is(0.0));
+    for (int k = 1; k < numQuantiles - 1; k++) {
+      double expected = ((double) (size - 1)) * k / (numQuantiles - 1);
+      quantiles.add(new Between<>(
+          expected - absoluteError, expected + absoluteError));
+    }
+    quantiles.add(CoreMatchers.is((double) (size - 1)));
+    return contains(quantiles);
+  }
+
   private Matcher<Iterable<? extends Integer>> quantileMatcher(
       int size, int numQuantiles, int absoluteError) {
     List<Matcher<? super Integer>> quantiles = new ArrayList<>();
@@ -307,4 +447,12 @@ public class ApproximateQuantilesTest {
     }
     return all;
   }
+
+  private List<Double> doubleRange(int size) {
+    List<Double> all = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      all.add((double) i);
+    }
+    return all;
+  }
 }
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.transforms;
+
+import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.testing.NeedsRunner;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.HeavyHitters.HeavyHittersFn;
+import org.apache.beam.sdk.transforms.HeavyHitters.HeavyHittersSketch;
+import org.apache.beam.sdk.transforms.HeavyHitters.HeavyHittersSketchCoder;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link HeavyHitters}. */
+@RunWith(JUnit4.class)
+public class HeavyHittersTest implements Serializable {
+
+  @Rule public final transient TestPipeline p = TestPipeline.create();
+
+  @Rule public transient ExpectedException thrown = ExpectedException.none();
+
+  private static final HeavyHittersFn<String> FN =
+      HeavyHittersFn.create(
+          10, HeavyHitters.DEFAULT_EPSILON, HeavyHitters.DEFAULT_CONFIDENCE, StringUtf8Coder.of());
+
+  /**
+   * Returns the elements {@code "heavy1"} to {@code "heavy10"}, where {@code "heavyI"} occurs
+   * {@code (11 - i) * 100} times, mixed with {@code numSingletons} distinct elements.
+   */
+  private static List<String> skewedElements(int numSingletons) {
+    List<String> elements = new ArrayList<>();
+    for (int i = 1; i <= 10; ++i) {
+      for (int j = 0; j < (11 - i) * 100; ++j) {
+        elements.add("heavy" + i);
+      }
+    }
+    for (int i = 0; i < numSingletons; ++i) {
+      elements.add("singleton" + i);
+    }
+    Collections.shuffle(elements, new Random(0));
+    return elements;
+  }
+
+  private static HeavyHittersSketch<String> sketchOf(List<String> elements) {
+    HeavyHittersSketch<String> sketch = FN.createAccumulator();
+    for (String element : elements) {
+      FN.addInput(sketch, element);
+    }
+    return sketch;
+  }
+
+  private static void assertHeavyElements(List<KV<String, Long>> top, long totalCount) {
+    assertEquals(10, top.size());
+    for (int i = 1; i <= 10; ++i) {
+      KV<String, Long> entry = top.get(i - 1);
+      long exact = (11 - i) * 100;
+      assertEquals("heavy" + i, entry.getKey());
+      assertTrue(
+          entry + " should be at least " + exact
+              + " and at most " + HeavyHitters.DEFAULT_EPSILON + " of " + totalCount + " more",
+          entry.getValue() >= exact
+              && entry.getValue() <= exact + HeavyHitters.DEFAULT_EPSILON * totalCount);
+    }
+  }
+
+  @Test
+  public void testCountsAreExactWhileCandidatesFit() {
+    HeavyHittersSketch<String> sketch = sketchOf(skewedElements(5));
+
+    assertTrue(sketch.isExact());
+    assertEquals(5505, sketch.getTotalCount());
+    List<KV<String, Long>> top = FN.extractOutput(sketch);
+    for (int i = 1; i <= 10; ++i) {
+      assertEquals(KV.of("heavy" + i, (11L - i) * 100), top.get(i - 1));
+    }
+  }
+
+  @Test
+  public void testFindsHeavyElements() {
+    HeavyHittersSketch<String> sketch = sketchOf(skewedElements(20000));
+
+    assertFalse(sketch.isExact());
+    assertHeavyElements(FN.extractOutput(sketch), sketch.getTotalCount());
+  }
+
+  @Test
+  public void testMerge() {
+    List<String> elements = skewedElements(20000);
+    List<HeavyHittersSketch<String>> sketches = new ArrayList<>();
+    for (int shard = 0; shard < 8; ++shard) {
+      int from = elements.size() * shard / 8;
+      int to = elements.size() * (shard + 1) / 8;
+      sketches.add(sketchOf(elements.subList(from, to)));
+    }
+    HeavyHittersSketch<String> merged = FN.mergeAccumulators(sketches);
+
+    assertEquals(elements.size(), merged.getTotalCount());
+    assertHeavyElements(FN.extractOutput(merged), merged.getTotalCount());
+  }
+
+  @Test
+  public void testMergeExactSketchesStaysExact() {
+    HeavyHittersSketch<String> merged =
+        FN.mergeAccumulators(
+            Arrays.asList(
+                sketchOf(Arrays.asList("a", "b", "a")),
+                sketchOf(Arrays.asList("a", "c")),
+                FN.createAccumulator()));
+
+    assertTrue(merged.isExact());
+    assertEquals(5, merged.getTotalCount());
+    List<KV<String, Long>> top = FN.extractOutput(merged);
+    assertEquals(3, top.size());
+    assertEquals(KV.of("a", 3L), top.get(0));
+  }
+
+  @Test
+  public void testMergeDifferentDimensionsFails() {
+    thrown.expect(IllegalArgumentException.class);
+    new HeavyHittersSketch<String>(100, 3, 10).merge(new HeavyHittersSketch<String>(200, 3, 10));
+  }
+
+  @Test
+  public void testCoderRoundTrip() throws Exception {
+    HeavyHittersSketchCoder<String> coder = new HeavyHittersSketchCoder<>(StringUtf8Coder.of());
+    for (int numSingletons : new int[] {0, 5, 20000}) {
+      HeavyHittersSketch<String> sketch = sketchOf(skewedElements(numSingletons));
+      byte[] encoded = CoderUtils.encodeToByteArray(coder, sketch);
+      HeavyHittersSketch<String> decoded = CoderUtils.decodeFromByteArray(coder, encoded);
+
+      assertEquals(sketch.isExact(), decoded.isExact());
+      assertEquals(sketch.getTotalCount(), decoded.getTotalCount());
+      assertEquals(FN.extractOutput(sketch), FN.extractOutput(decoded));
+      assertArrayEquals(encoded, CoderUtils.encodeToByteArray(coder, decoded));
+    }
+  }
+
+  @Test
+  public void testInvalidCount() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("positive count");
+    HeavyHitters.globally(0);
+  }
+
+  @Test
+  public void testInvalidEpsilon() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("epsilon between 0 and 1");
+    HeavyHitters.globally(10).withEpsilon(0);
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testGlobally() {
+    List<KV<String, Long>> expected = new ArrayList<>();
+    for (int i = 1; i <= 10; ++i) {
+      expected.add(KV.of("heavy" + i, (11L - i) * 100));
+    }
+
+    PCollection<List<KV<String, Long>>> top =
+        p.apply(Create.of(skewedElements(5)).withCoder(StringUtf8Coder.of()))
+            .apply(HeavyHitters.<String>globally(10));
+    PAssert.thatSingleton(top).isEqualTo(expected);
+    p.run();
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testGloballyEmpty() {
+    PCollection<List<KV<String, Long>>> top =
+        p.apply(Create.empty(StringUtf8Coder.of()))
+            .apply(HeavyHitters.<String>globally(3));
+    PAssert.thatSingleton(top).isEqualTo(Collections.<KV<String, Long>>emptyList());
+    p.run();
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testPerKey() {
+    List<KV<String, String>> elements = new ArrayList<>();
+    for (int i = 0; i < 100; ++i) {
+      elements.add(KV.of("a", "x"));
+      elements.add(KV.of("a", "value" + i));
+      elements.add(KV.of("b", i % 2 == 0 ? "y" : "z"));
+    }
+    elements.add(KV.of("b", "y"));
+
+    PCollection<KV<String, List<KV<String, Long>>>> top =
+        p.apply(Create.of(elements))
+            .apply(HeavyHitters.<String, String>perKey(1));
+    PAssert.that(top)
+        .containsInAnyOrder(
+            KV.of("a", Collections.singletonList(KV.of("x", 100L))),
+            KV.of("b", Collections.singletonList(KV.of("y", 51L))));
+    p.run();
+  }
+
+  @Test
+  public void testDisplayData() {
+    DisplayData displayData =
+        DisplayData.from(HeavyHitters.<String>globally(100).withEpsilon(0.01));
+    assertThat(displayData, hasDisplayItem("count", 100));
+    assertThat(displayData, hasDisplayItem("epsilon", 0.01));
+    assertThat(displayData, hasDisplayItem("confidence", HeavyHitters.DEFAULT_CONFIDENCE));
+  }
+}
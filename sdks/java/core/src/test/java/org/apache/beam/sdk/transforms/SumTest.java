@@ -18,16 +18,19 @@
 package org.apache.beam.sdk.transforms;
 
 import static org.apache.beam.sdk.TestUtils.checkCombineFn;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
 import com.google.common.collect.Lists;
 import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
 import org.apache.beam.sdk.coders.BigEndianLongCoder;
+import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderRegistry;
 import org.apache.beam.sdk.coders.DoubleCoder;
 import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -96,4 +99,28 @@ public class SumTest {
         sumDoubleFn.getAccumulatorCoder(STANDARD_REGISTRY, DoubleCoder.of()),
         sumDoubleFn.getAccumulatorCoder(STANDARD_REGISTRY, DoubleCoder.of()));
   }
+
+  @Test
+  public void testAccumulatorCoderEncodesLikeInputCoder() throws Exception {
+    Coder<int[]> intAccumulatorCoder =
+        Sum.ofIntegers().getAccumulatorCoder(STANDARD_REGISTRY, VarIntCoder.of());
+    assertArrayEquals(
+        CoderUtils.encodeToByteArray(VarIntCoder.of(), -17),
+        CoderUtils.encodeToByteArray(intAccumulatorCoder, new int[] {-17}));
+    assertEquals(
+        -17, CoderUtils.decodeFromByteArray(
+            intAccumulatorCoder, CoderUtils.encodeToByteArray(VarIntCoder.of(), -17))[0]);
+
+    Coder<long[]> longAccumulatorCoder =
+        Sum.ofLongs().getAccumulatorCoder(STANDARD_REGISTRY, VarLongCoder.of());
+    assertArrayEquals(
+        CoderUtils.encodeToByteArray(VarLongCoder.of(), 1L << 40),
+        CoderUtils.encodeToByteArray(longAccumulatorCoder, new long[] {1L << 40}));
+
+    Coder<double[]> doubleAccumulatorCoder =
+        Sum.ofDoubles().getAccumulatorCoder(STANDARD_REGISTRY, DoubleCoder.of());
+    assertArrayEquals(
+        CoderUtils.encodeToByteArray(DoubleCoder.of(), 2.5),
+        CoderUtils.encodeToByteArray(doubleAccumulatorCoder, new double[] {2.5}));
+  }
 }
@@ -17,17 +17,23 @@
  */
 package org.apache.beam.sdk.util;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.Coder.Context;
 import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.testing.CoderPropertiesTest.ClosingCoder;
 import org.junit.Rule;
 import org.junit.Test;
@@ -121,4 +127,56 @@ public class CoderUtilsTest {
     expectedException.expectMessage("Caller does not own the underlying");
     CoderUtils.encodeToByteArray(new ClosingCoder(), "test-value", Context.NESTED);
   }
+
+  @Test
+  public void testEncodeToBufferAppends() throws Exception {
+    ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream();
+    CoderUtils.encodeToBuffer(VarIntCoder.of(), 300, buffer);
+    int firstLength = buffer.size();
+    CoderUtils.encodeToBuffer(StringUtf8Coder.of(), "hello", buffer);
+
+    byte[] contents = buffer.getBuffer();
+    assertEquals(
+        300,
+        (int) CoderUtils.decodeFromByteArray(VarIntCoder.of(), contents, 0, firstLength));
+    assertEquals(
+        "hello",
+        CoderUtils.decodeFromByteArray(
+            StringUtf8Coder.of(), contents, firstLength, buffer.size() - firstLength));
+  }
+
+  @Test
+  public void testDecodeFromByteArraySliceWithExtraBytesFails() throws Exception {
+    byte[] encoded = CoderUtils.encodeToByteArray(VarIntCoder.of(), 5);
+    byte[] padded = new byte[encoded.length + 3];
+    System.arraycopy(encoded, 0, padded, 1, encoded.length);
+
+    assertEquals(
+        5, (int) CoderUtils.decodeFromByteArray(VarIntCoder.of(), padded, 1, encoded.length));
+    expectedException.expect(CoderException.class);
+    expectedException.expectMessage("unexpected extra bytes");
+    CoderUtils.decodeFromByteArray(VarIntCoder.of(), padded, 1, encoded.length + 1);
+  }
+
+  @Test
+  public void testReentrantEncodeToByteArray() throws Exception {
+    Coder<String> reentrantCoder = new AtomicCoder<String>() {
+      @Override
+      public void encode(String value, OutputStream outStream) throws IOException {
+        byte[] inner = CoderUtils.encodeToByteArray(StringUtf8Coder.of(), value);
+        VarIntCoder.of().encodeInt(inner.length, outStream);
+        outStream.write(inner);
+      }
+
+      @Override
+      public String decode(InputStream inStream) {
+        throw new UnsupportedOperationException();
+      }
+    };
+
+    byte[] expected = CoderUtils.encodeToByteArray(StringUtf8Coder.of(), "nested");
+    byte[] encoded = CoderUtils.encodeToByteArray(reentrantCoder, "nested");
+    assertEquals(expected.length, encoded[0]);
+    assertArrayEquals(expected, Arrays.copyOfRange(encoded, 1, encoded.length));
+  }
 }
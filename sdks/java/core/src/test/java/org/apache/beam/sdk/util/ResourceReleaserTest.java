@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.beam.sdk.util.ResourceReleaser.Registration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ResourceReleaser}. */
+@RunWith(JUnit4.class)
+public class ResourceReleaserTest {
+  private static class CountingResource implements Closeable {
+    private final AtomicInteger closed = new AtomicInteger();
+
+    @Override
+    public void close() {
+      closed.incrementAndGet();
+    }
+  }
+
+  @Test
+  public void testReleaseClosesResourceOnce() throws Exception {
+    Object owner = new Object();
+    CountingResource resource = new CountingResource();
+    Registration registration = ResourceReleaser.register(owner, resource);
+
+    registration.release();
+    assertEquals(1, resource.closed.get());
+
+    registration.release();
+    assertEquals(1, resource.closed.get());
+  }
+}
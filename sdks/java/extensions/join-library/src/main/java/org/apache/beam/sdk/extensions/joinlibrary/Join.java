@@ -19,14 +19,32 @@ package org.apache.beam.sdk.extensions.joinlibrary;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.extensions.sorter.BufferedExternalSorter;
+import org.apache.beam.sdk.extensions.sorter.SortValues;
 import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Flatten;
+import org.apache.beam.sdk.transforms.GroupByKey;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.transforms.View;
 import org.apache.beam.sdk.transforms.join.CoGbkResult;
 import org.apache.beam.sdk.transforms.join.CoGroupByKey;
 import org.apache.beam.sdk.transforms.join.KeyedPCollectionTuple;
+import org.apache.beam.sdk.transforms.join.RawUnionValue;
+import org.apache.beam.sdk.transforms.join.UnionCoder;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.TupleTag;
 
 /**
@@ -247,4 +265,559 @@ public class Join {
             KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
                 ((KvCoder) rightCollection.getCoder()).getValueCoder())));
   }
+
+  /**
+   * Inner join of two collections of KV elements, where the right collection is small enough to be
+   * broadcast to every worker as a side input. The left collection is joined without a shuffle.
+   *
+   * <p>The right collection is read through {@link View#asMultimap()}, so both collections must
+   * use compatible windowing for side inputs, and all values of the right collection for a window
+   * must fit in memory.
+   *
+   * @param leftCollection Left side collection to join, may be large.
+   * @param rightCollection Right side collection to join, broadcast to all workers.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastInnerJoin(
+      final PCollection<KV<K, V1>> leftCollection, final PCollection<KV<K, V2>> rightCollection) {
+    checkNotNull(leftCollection);
+    checkNotNull(rightCollection);
+
+    final PCollectionView<Map<K, Iterable<V2>>> rightView =
+        rightCollection.apply(View.<K, V2>asMultimap());
+
+    return leftCollection.apply(ParDo.of(
+        new DoFn<KV<K, V1>, KV<K, KV<V1, V2>>>() {
+          @ProcessElement
+          public void processElement(ProcessContext c) {
+            KV<K, V1> e = c.element();
+
+            Iterable<V2> rightValuesIterable = c.sideInput(rightView).get(e.getKey());
+            if (rightValuesIterable != null) {
+              for (V2 rightValue : rightValuesIterable) {
+                c.output(KV.of(e.getKey(), KV.of(e.getValue(), rightValue)));
+              }
+            }
+          }
+        }).withSideInputs(rightView))
+        .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
+            KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
+                ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+  }
+
+  /**
+   * Left Outer Join of two collections of KV elements, where the right collection is small enough
+   * to be broadcast to every worker as a side input. See {@link #broadcastInnerJoin}.
+   *
+   * @param leftCollection Left side collection to join, may be large.
+   * @param rightCollection Right side collection to join, broadcast to all workers.
+   * @param nullValue Value to use as null value when right side do not match left side.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Values that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastLeftOuterJoin(
+      final PCollection<KV<K, V1>> leftCollection,
+      final PCollection<KV<K, V2>> rightCollection,
+      final V2 nullValue) {
+    checkNotNull(leftCollection);
+    checkNotNull(rightCollection);
+    checkNotNull(nullValue);
+
+    final PCollectionView<Map<K, Iterable<V2>>> rightView =
+        rightCollection.apply(View.<K, V2>asMultimap());
+
+    return leftCollection.apply(ParDo.of(
+        new DoFn<KV<K, V1>, KV<K, KV<V1, V2>>>() {
+          @ProcessElement
+          public void processElement(ProcessContext c) {
+            KV<K, V1> e = c.element();
+
+            Iterable<V2> rightValuesIterable = c.sideInput(rightView).get(e.getKey());
+            if (rightValuesIterable != null) {
+              for (V2 rightValue : rightValuesIterable) {
+                c.output(KV.of(e.getKey(), KV.of(e.getValue(), rightValue)));
+              }
+            } else {
+              c.output(KV.of(e.getKey(), KV.of(e.getValue(), nullValue)));
+            }
+          }
+        }).withSideInputs(rightView))
+        .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
+            KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
+                ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+  }
+
+  /**
+   * Right Outer Join of two collections of KV elements, where the left collection is small enough
+   * to be broadcast to every worker as a side input. The right collection is joined without a
+   * shuffle. See {@link #broadcastInnerJoin}.
+   *
+   * @param leftCollection Left side collection to join, broadcast to all workers.
+   * @param rightCollection Right side collection to join, may be large.
+   * @param nullValue Value to use as null value when left side do not match right side.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Values that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> broadcastRightOuterJoin(
+      final PCollection<KV<K, V1>> leftCollection,
+      final PCollection<KV<K, V2>> rightCollection,
+      final V1 nullValue) {
+    checkNotNull(leftCollection);
+    checkNotNull(rightCollection);
+    checkNotNull(nullValue);
+
+    final PCollectionView<Map<K, Iterable<V1>>> leftView =
+        leftCollection.apply(View.<K, V1>asMultimap());
+
+    return rightCollection.apply(ParDo.of(
+        new DoFn<KV<K, V2>, KV<K, KV<V1, V2>>>() {
+          @ProcessElement
+          public void processElement(ProcessContext c) {
+            KV<K, V2> e = c.element();
+
+            Iterable<V1> leftValuesIterable = c.sideInput(leftView).get(e.getKey());
+            if (leftValuesIterable != null) {
+              for (V1 leftValue : leftValuesIterable) {
+                c.output(KV.of(e.getKey(), KV.of(leftValue, e.getValue())));
+              }
+            } else {
+              c.output(KV.of(e.getKey(), KV.of(nullValue, e.getValue())));
+            }
+          }
+        }).withSideInputs(leftView))
+        .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
+            KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
+                ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+  }
+
+  /**
+   * Inner join of two collections of KV elements, spreading keys with disproportionately many
+   * values over several workers.
+   *
+   * <p>Each value of the left collection is assigned to one of N buckets of its key, and each value
+   * of the right collection is copied to all N buckets, similar to
+   * {@link org.apache.beam.sdk.transforms.Combine.PerKey#withHotKeyFanout}. The left collection
+   * should therefore be the side with the hot keys, and the right side should have few values per
+   * hot key.
+   *
+   * @param leftCollection Left side collection to join, containing the hot keys.
+   * @param rightCollection Right side collection to join, replicated for hot keys.
+   * @param hotKeyFanout a function from keys to an integer N, where the key will be spread among N
+   *     buckets. If N is less than or equal to 1, the key is not spread.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> innerJoinWithHotKeyFanout(
+      final PCollection<KV<K, V1>> leftCollection,
+      final PCollection<KV<K, V2>> rightCollection,
+      final SerializableFunction<? super K, Integer> hotKeyFanout) {
+    checkNotNull(leftCollection);
+    checkNotNull(rightCollection);
+    checkNotNull(hotKeyFanout);
+
+    final TupleTag<V1> v1Tuple = new TupleTag<>();
+    final TupleTag<V2> v2Tuple = new TupleTag<>();
+
+    PCollection<KV<KV<K, Integer>, CoGbkResult>> coGbkResultCollection =
+        saltedCoGroupByKey(leftCollection, rightCollection, hotKeyFanout, v1Tuple, v2Tuple);
+
+    return coGbkResultCollection.apply(ParDo.of(
+        new DoFn<KV<KV<K, Integer>, CoGbkResult>, KV<K, KV<V1, V2>>>() {
+          @ProcessElement
+          public void processElement(ProcessContext c) {
+            KV<KV<K, Integer>, CoGbkResult> e = c.element();
+            K key = e.getKey().getKey();
+
+            Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
+            Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
+
+            for (V1 leftValue : leftValuesIterable) {
+              for (V2 rightValue : rightValuesIterable) {
+                c.output(KV.of(key, KV.of(leftValue, rightValue)));
+              }
+            }
+          }
+        }))
+        .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
+            KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
+                ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+  }
+
+  /**
+   * Like {@link #innerJoinWithHotKeyFanout(PCollection, PCollection, SerializableFunction)}, but
+   * spreading every key among the given number of buckets.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> innerJoinWithHotKeyFanout(
+      final PCollection<KV<K, V1>> leftCollection,
+      final PCollection<KV<K, V2>> rightCollection,
+      final int hotKeyFanout) {
+    return innerJoinWithHotKeyFanout(
+        leftCollection, rightCollection, new ConstantFanout<K>(hotKeyFanout));
+  }
+
+  /**
+   * Left Outer Join of two collections of KV elements, spreading keys with disproportionately many
+   * values over several workers. See
+   * {@link #innerJoinWithHotKeyFanout(PCollection, PCollection, SerializableFunction)}.
+   *
+   * @param leftCollection Left side collection to join, containing the hot keys.
+   * @param rightCollection Right side collection to join, replicated for hot keys.
+   * @param nullValue Value to use as null value when right side do not match left side.
+   * @param hotKeyFanout a function from keys to an integer N, where the key will be spread among N
+   *     buckets. If N is less than or equal to 1, the key is not spread.
+   * @param <K> Type of the key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the key and value is a
+   *         KV where Key is of type V1 and Value is type V2. Values that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> leftOuterJoinWithHotKeyFanout(
+      final PCollection<KV<K, V1>> leftCollection,
+      final PCollection<KV<K, V2>> rightCollection,
+      final V2 nullValue,
+      final SerializableFunction<? super K, Integer> hotKeyFanout) {
+    checkNotNull(leftCollection);
+    checkNotNull(rightCollection);
+    checkNotNull(nullValue);
+    checkNotNull(hotKeyFanout);
+
+    final TupleTag<V1> v1Tuple = new TupleTag<>();
+    final TupleTag<V2> v2Tuple = new TupleTag<>();
+
+    PCollection<KV<KV<K, Integer>, CoGbkResult>> coGbkResultCollection =
+        saltedCoGroupByKey(leftCollection, rightCollection, hotKeyFanout, v1Tuple, v2Tuple);
+
+    return coGbkResultCollection.apply(ParDo.of(
+        new DoFn<KV<KV<K, Integer>, CoGbkResult>, KV<K, KV<V1, V2>>>() {
+          @ProcessElement
+          public void processElement(ProcessContext c) {
+            KV<KV<K, Integer>, CoGbkResult> e = c.element();
+            K key = e.getKey().getKey();
+
+            Iterable<V1> leftValuesIterable = e.getValue().getAll(v1Tuple);
+            Iterable<V2> rightValuesIterable = e.getValue().getAll(v2Tuple);
+
+            for (V1 leftValue : leftValuesIterable) {
+              if (rightValuesIterable.iterator().hasNext()) {
+                for (V2 rightValue : rightValuesIterable) {
+                  c.output(KV.of(key, KV.of(leftValue, rightValue)));
+                }
+              } else {
+                c.output(KV.of(key, KV.of(leftValue, nullValue)));
+              }
+            }
+          }
+        }))
+        .setCoder(KvCoder.of(((KvCoder) leftCollection.getCoder()).getKeyCoder(),
+            KvCoder.of(((KvCoder) leftCollection.getCoder()).getValueCoder(),
+                ((KvCoder) rightCollection.getCoder()).getValueCoder())));
+  }
+
+  /**
+   * Like {@link #leftOuterJoinWithHotKeyFanout(PCollection, PCollection, Object,
+   * SerializableFunction)}, but spreading every key among the given number of buckets.
+   */
+  public static <K, V1, V2> PCollection<KV<K, KV<V1, V2>>> leftOuterJoinWithHotKeyFanout(
+      final PCollection<KV<K, V1>> leftCollection,
+      final PCollection<KV<K, V2>> rightCollection,
+      final V2 nullValue,
+      final int hotKeyFanout) {
+    return leftOuterJoinWithHotKeyFanout(
+        leftCollection, rightCollection, nullValue, new ConstantFanout<K>(hotKeyFanout));
+  }
+
+  /**
+   * Co-groups both collections by their key and a bucket number. Values of the left collection are
+   * assigned to one of the buckets of their key, values of the right collection to all of them.
+   */
+  private static <K, V1, V2> PCollection<KV<KV<K, Integer>, CoGbkResult>> saltedCoGroupByKey(
+      final PCollection<KV<K, V1>> leftCollection,
+      final PCollection<KV<K, V2>> rightCollection,
+      final SerializableFunction<? super K, Integer> hotKeyFanout,
+      final TupleTag<V1> v1Tuple,
+      final TupleTag<V2> v2Tuple) {
+    KvCoder<K, V1> leftCoder = (KvCoder<K, V1>) leftCollection.getCoder();
+    KvCoder<K, V2> rightCoder = (KvCoder<K, V2>) rightCollection.getCoder();
+
+    PCollection<KV<KV<K, Integer>, V1>> saltedLeft = leftCollection.apply("SaltLeft", ParDo.of(
+        new DoFn<KV<K, V1>, KV<KV<K, Integer>, V1>>() {
+          transient int counter;
+
+          @StartBundle
+          public void startBundle() {
+            counter = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+          }
+
+          @ProcessElement
+          public void processElement(ProcessContext c) {
+            KV<K, V1> e = c.element();
+            int spread = Math.max(1, hotKeyFanout.apply(e.getKey()));
+            int salt = spread <= 1 ? 0 : (counter++ & Integer.MAX_VALUE) % spread;
+            c.output(KV.of(KV.of(e.getKey(), salt), e.getValue()));
+          }
+        }))
+        .setCoder(KvCoder.of(
+            KvCoder.of(leftCoder.getKeyCoder(), VarIntCoder.of()), leftCoder.getValueCoder()));
+
+    PCollection<KV<KV<K, Integer>, V2>> replicatedRight = rightCollection.apply("ReplicateRight",
+        ParDo.of(new DoFn<KV<K, V2>, KV<KV<K, Integer>, V2>>() {
+          @ProcessElement
+          public void processElement(ProcessContext c) {
+            KV<K, V2> e = c.element();
+            int spread = Math.max(1, hotKeyFanout.apply(e.getKey()));
+            for (int salt = 0; salt < spread; salt++) {
+              c.output(KV.of(KV.of(e.getKey(), salt), e.getValue()));
+            }
+          }
+        }))
+        .setCoder(KvCoder.of(
+            KvCoder.of(rightCoder.getKeyCoder(), VarIntCoder.of()), rightCoder.getValueCoder()));
+
+    return KeyedPCollectionTuple.of(v1Tuple, saltedLeft)
+        .and(v2Tuple, replicatedRight)
+        .apply(CoGroupByKey.<KV<K, Integer>>create());
+  }
+
+  /**
+   * Inner join of two collections on a primary and a secondary key, implemented as a sort-merge
+   * join.
+   *
+   * <p>Both collections are grouped by the primary key only. The values of each primary key are
+   * then sorted by secondary key with {@link SortValues}, spilling to disk if they don't fit into
+   * memory, and the left and right values are merged while streaming through the sorted values.
+   * Only the left values of a single secondary key are held in memory at a time, so primary keys
+   * with very many values don't need to fit into memory.
+   *
+   * <p>Secondary keys are compared by their encoded form, so the secondary key coder must be
+   * deterministic. Use {@link BufferedExternalSorter.SorterType#NATIVE} in the sorter options to
+   * avoid a dependency on Hadoop.
+   *
+   * @param leftCollection Left side collection to join.
+   * @param rightCollection Right side collection to join.
+   * @param sorterOptions Options for sorting the values of each primary key.
+   * @param <K> Type of the primary key for both collections
+   * @param <SecondaryKeyT> Type of the secondary key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the primary key and value is a KV of the
+   *         secondary key and a KV where Key is of type V1 and Value is type V2.
+   */
+  public static <K, SecondaryKeyT, V1, V2>
+      PCollection<KV<K, KV<SecondaryKeyT, KV<V1, V2>>>> sortMergeInnerJoin(
+          final PCollection<KV<K, KV<SecondaryKeyT, V1>>> leftCollection,
+          final PCollection<KV<K, KV<SecondaryKeyT, V2>>> rightCollection,
+          final BufferedExternalSorter.Options sorterOptions) {
+    checkNotNull(leftCollection);
+    checkNotNull(rightCollection);
+    checkNotNull(sorterOptions);
+
+    return sortMergeJoin(leftCollection, rightCollection, sorterOptions, false, null);
+  }
+
+  /**
+   * Left Outer Join of two collections on a primary and a secondary key, implemented as a
+   * sort-merge join. See {@link #sortMergeInnerJoin}.
+   *
+   * @param leftCollection Left side collection to join.
+   * @param rightCollection Right side collection to join.
+   * @param nullValue Value to use as null value when right side do not match left side.
+   * @param sorterOptions Options for sorting the values of each primary key.
+   * @param <K> Type of the primary key for both collections
+   * @param <SecondaryKeyT> Type of the secondary key for both collections
+   * @param <V1> Type of the values for the left collection.
+   * @param <V2> Type of the values for the right collection.
+   * @return A joined collection of KV where Key is the primary key and value is a KV of the
+   *         secondary key and a KV where Key is of type V1 and Value is type V2. Values that
+   *         should be null or empty is replaced with nullValue.
+   */
+  public static <K, SecondaryKeyT, V1, V2>
+      PCollection<KV<K, KV<SecondaryKeyT, KV<V1, V2>>>> sortMergeLeftOuterJoin(
+          final PCollection<KV<K, KV<SecondaryKeyT, V1>>> leftCollection,
+          final PCollection<KV<K, KV<SecondaryKeyT, V2>>> rightCollection,
+          final V2 nullValue,
+          final BufferedExternalSorter.Options sorterOptions) {
+    checkNotNull(leftCollection);
+    checkNotNull(rightCollection);
+    checkNotNull(nullValue);
+    checkNotNull(sorterOptions);
+
+    return sortMergeJoin(leftCollection, rightCollection, sorterOptions, true, nullValue);
+  }
+
+  private static <K, SecondaryKeyT, V1, V2>
+      PCollection<KV<K, KV<SecondaryKeyT, KV<V1, V2>>>> sortMergeJoin(
+          PCollection<KV<K, KV<SecondaryKeyT, V1>>> leftCollection,
+          PCollection<KV<K, KV<SecondaryKeyT, V2>>> rightCollection,
+          BufferedExternalSorter.Options sorterOptions,
+          boolean outer,
+          V2 nullValue) {
+    KvCoder<K, KV<SecondaryKeyT, V1>> leftCoder =
+        (KvCoder<K, KV<SecondaryKeyT, V1>>) leftCollection.getCoder();
+    KvCoder<SecondaryKeyT, V1> leftValueCoder =
+        (KvCoder<SecondaryKeyT, V1>) leftCoder.getValueCoder();
+    KvCoder<SecondaryKeyT, V2> rightValueCoder =
+        (KvCoder<SecondaryKeyT, V2>)
+            ((KvCoder<K, KV<SecondaryKeyT, V2>>) rightCollection.getCoder()).getValueCoder();
+    Coder<SecondaryKeyT> secondaryKeyCoder = leftValueCoder.getKeyCoder();
+    try {
+      secondaryKeyCoder.verifyDeterministic();
+    } catch (Coder.NonDeterministicException e) {
+      throw new IllegalStateException(
+          "the secondary key Coder must be deterministic for a sort-merge join", e);
+    }
+
+    // The side tag is part of the sort key, so the left values of each secondary key are sorted
+    // before its right values. Secondary keys are encoded in the nested context, which makes the
+    // side tag never affect the order of different secondary keys.
+    KvCoder<K, KV<KV<SecondaryKeyT, Integer>, RawUnionValue>> taggedCoder =
+        KvCoder.of(
+            leftCoder.getKeyCoder(),
+            KvCoder.of(
+                KvCoder.of(secondaryKeyCoder, VarIntCoder.of()),
+                UnionCoder.of(
+                    Arrays.<Coder<?>>asList(
+                        leftValueCoder.getValueCoder(), rightValueCoder.getValueCoder()))));
+
+    PCollection<KV<K, KV<KV<SecondaryKeyT, Integer>, RawUnionValue>>> taggedLeft =
+        leftCollection
+            .apply("TagLeft", ParDo.of(new TagSideFn<K, SecondaryKeyT, V1>(LEFT_TAG)))
+            .setCoder(taggedCoder);
+    PCollection<KV<K, KV<KV<SecondaryKeyT, Integer>, RawUnionValue>>> taggedRight =
+        rightCollection
+            .apply("TagRight", ParDo.of(new TagSideFn<K, SecondaryKeyT, V2>(RIGHT_TAG)))
+            .setCoder(taggedCoder);
+
+    return PCollectionList.of(taggedLeft).and(taggedRight)
+        .apply(Flatten.<KV<K, KV<KV<SecondaryKeyT, Integer>, RawUnionValue>>>pCollections())
+        .apply(GroupByKey.<K, KV<KV<SecondaryKeyT, Integer>, RawUnionValue>>create())
+        .apply(SortValues.<K, KV<SecondaryKeyT, Integer>, RawUnionValue>create(sorterOptions))
+        .apply(ParDo.of(
+            new SortMergeFn<K, SecondaryKeyT, V1, V2>(secondaryKeyCoder, outer, nullValue)))
+        .setCoder(KvCoder.of(leftCoder.getKeyCoder(),
+            KvCoder.of(secondaryKeyCoder,
+                KvCoder.of(leftValueCoder.getValueCoder(), rightValueCoder.getValueCoder()))));
+  }
+
+  private static final int LEFT_TAG = 0;
+  private static final int RIGHT_TAG = 1;
+
+  /** Adds the side tag to the secondary key and the value of each element. */
+  private static class TagSideFn<K, SecondaryKeyT, V>
+      extends DoFn<
+          KV<K, KV<SecondaryKeyT, V>>, KV<K, KV<KV<SecondaryKeyT, Integer>, RawUnionValue>>> {
+    private final int tag;
+
+    TagSideFn(int tag) {
+      this.tag = tag;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      KV<K, KV<SecondaryKeyT, V>> e = c.element();
+      c.output(KV.of(e.getKey(), KV.of(
+          KV.of(e.getValue().getKey(), tag), new RawUnionValue(tag, e.getValue().getValue()))));
+    }
+  }
+
+  /**
+   * Merges the left and right values of a primary key, which are sorted by secondary key and have
+   * the left values of each secondary key first.
+   */
+  private static class SortMergeFn<K, SecondaryKeyT, V1, V2>
+      extends DoFn<KV<K, Iterable<KV<KV<SecondaryKeyT, Integer>, RawUnionValue>>>,
+          KV<K, KV<SecondaryKeyT, KV<V1, V2>>>> {
+    private final Coder<SecondaryKeyT> secondaryKeyCoder;
+    private final boolean outer;
+    private final V2 nullValue;
+
+    SortMergeFn(Coder<SecondaryKeyT> secondaryKeyCoder, boolean outer, V2 nullValue) {
+      this.secondaryKeyCoder = secondaryKeyCoder;
+      this.outer = outer;
+      this.nullValue = nullValue;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      K key = c.element().getKey();
+
+      boolean first = true;
+      SecondaryKeyT secondaryKey = null;
+      Object structuralSecondaryKey = null;
+      List<V1> leftValues = new ArrayList<>();
+      boolean matched = false;
+
+      for (KV<KV<SecondaryKeyT, Integer>, RawUnionValue> record : c.element().getValue()) {
+        SecondaryKeyT recordSecondaryKey = record.getKey().getKey();
+        Object structuralRecordSecondaryKey =
+            secondaryKeyCoder.structuralValue(recordSecondaryKey);
+        if (first || !Objects.equals(structuralSecondaryKey, structuralRecordSecondaryKey)) {
+          if (!first) {
+            finishSecondaryKey(c, key, secondaryKey, leftValues, matched);
+          }
+          first = false;
+          secondaryKey = recordSecondaryKey;
+          structuralSecondaryKey = structuralRecordSecondaryKey;
+          leftValues.clear();
+          matched = false;
+        }
+
+        if (record.getValue().getUnionTag() == LEFT_TAG) {
+          leftValues.add((V1) record.getValue().getValue());
+        } else {
+          matched = true;
+          V2 rightValue = (V2) record.getValue().getValue();
+          for (V1 leftValue : leftValues) {
+            c.output(KV.of(key, KV.of(secondaryKey, KV.of(leftValue, rightValue))));
+          }
+        }
+      }
+      if (!first) {
+        finishSecondaryKey(c, key, secondaryKey, leftValues, matched);
+      }
+    }
+
+    /** Outputs the unmatched left values of a secondary key for outer joins. */
+    private void finishSecondaryKey(
+        ProcessContext c,
+        K key,
+        SecondaryKeyT secondaryKey,
+        List<V1> leftValues,
+        boolean matched) {
+      if (outer && !matched) {
+        for (V1 leftValue : leftValues) {
+          c.output(KV.of(key, KV.of(secondaryKey, KV.of(leftValue, nullValue))));
+        }
+      }
+    }
+  }
+
+  /** A hot key fanout returning the same value for every key. */
+  private static class ConstantFanout<K> implements SerializableFunction<K, Integer> {
+    private final int fanout;
+
+    ConstantFanout(int fanout) {
+      this.fanout = fanout;
+    }
+
+    @Override
+    public Integer apply(K key) {
+      return fanout;
+    }
+  }
 }
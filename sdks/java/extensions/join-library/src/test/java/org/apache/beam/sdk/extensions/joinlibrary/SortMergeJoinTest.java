@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.joinlibrary;
+
+import com.google.common.base.Strings;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.sdk.extensions.sorter.BufferedExternalSorter;
+import org.apache.beam.sdk.extensions.sorter.BufferedExternalSorter.SorterType;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * This test sort-merge join functionality.
+ */
+public class SortMergeJoinTest {
+
+  List<KV<String, KV<Long, String>>> leftListOfKv;
+  List<KV<String, KV<Long, Long>>> listRightOfKv;
+  List<KV<String, KV<Long, KV<String, Long>>>> expectedResult;
+  BufferedExternalSorter.Options sorterOptions;
+
+  @Rule
+  public final transient TestPipeline p = TestPipeline.create();
+
+  @Rule
+  public final transient TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Before
+  public void setup() {
+
+    leftListOfKv = new ArrayList<>();
+    listRightOfKv = new ArrayList<>();
+
+    expectedResult = new ArrayList<>();
+
+    sorterOptions = BufferedExternalSorter.options()
+        .withExternalSorterType(SorterType.NATIVE)
+        .withTempLocation(tmpFolder.getRoot().getPath());
+  }
+
+  @Test
+  public void testInnerJoinManyToManyMapping() {
+    leftListOfKv.add(KV.of("Key1", KV.of(1L, "a")));
+    leftListOfKv.add(KV.of("Key1", KV.of(1L, "b")));
+    leftListOfKv.add(KV.of("Key1", KV.of(2L, "c")));
+    leftListOfKv.add(KV.of("Key1", KV.of(3L, "d")));
+    leftListOfKv.add(KV.of("Key2", KV.of(1L, "e")));
+    PCollection<KV<String, KV<Long, String>>> leftCollection = p
+        .apply("CreateLeft", Create.of(leftListOfKv));
+
+    listRightOfKv.add(KV.of("Key1", KV.of(1L, 10L)));
+    listRightOfKv.add(KV.of("Key1", KV.of(1L, 11L)));
+    listRightOfKv.add(KV.of("Key1", KV.of(3L, 12L)));
+    listRightOfKv.add(KV.of("Key1", KV.of(4L, 13L)));
+    listRightOfKv.add(KV.of("Key3", KV.of(1L, 14L)));
+    PCollection<KV<String, KV<Long, Long>>> rightCollection = p
+        .apply("CreateRight", Create.of(listRightOfKv));
+
+    PCollection<KV<String, KV<Long, KV<String, Long>>>> output = Join.sortMergeInnerJoin(
+      leftCollection, rightCollection, sorterOptions);
+
+    expectedResult.add(KV.of("Key1", KV.of(1L, KV.of("a", 10L))));
+    expectedResult.add(KV.of("Key1", KV.of(1L, KV.of("a", 11L))));
+    expectedResult.add(KV.of("Key1", KV.of(1L, KV.of("b", 10L))));
+    expectedResult.add(KV.of("Key1", KV.of(1L, KV.of("b", 11L))));
+    expectedResult.add(KV.of("Key1", KV.of(3L, KV.of("d", 12L))));
+    PAssert.that(output).containsInAnyOrder(expectedResult);
+
+    p.run();
+  }
+
+  @Test
+  public void testLeftOuterJoin() {
+    leftListOfKv.add(KV.of("Key1", KV.of(1L, "a")));
+    leftListOfKv.add(KV.of("Key1", KV.of(2L, "b")));
+    leftListOfKv.add(KV.of("Key2", KV.of(1L, "c")));
+    PCollection<KV<String, KV<Long, String>>> leftCollection = p
+        .apply("CreateLeft", Create.of(leftListOfKv));
+
+    listRightOfKv.add(KV.of("Key1", KV.of(1L, 10L)));
+    listRightOfKv.add(KV.of("Key1", KV.of(3L, 11L)));
+    PCollection<KV<String, KV<Long, Long>>> rightCollection = p
+        .apply("CreateRight", Create.of(listRightOfKv));
+
+    PCollection<KV<String, KV<Long, KV<String, Long>>>> output = Join.sortMergeLeftOuterJoin(
+      leftCollection, rightCollection, -1L, sorterOptions);
+
+    expectedResult.add(KV.of("Key1", KV.of(1L, KV.of("a", 10L))));
+    expectedResult.add(KV.of("Key1", KV.of(2L, KV.of("b", -1L))));
+    expectedResult.add(KV.of("Key2", KV.of(1L, KV.of("c", -1L))));
+    PAssert.that(output).containsInAnyOrder(expectedResult);
+
+    p.run();
+  }
+
+  @Test
+  public void testInnerJoinManyValuesPerKey() {
+    // About 4 MB of values for a single key, so sorting them spills past the 1 MB buffer.
+    String padding = Strings.repeat("x", 4096);
+    for (long i = 0; i < 1000; i++) {
+      leftListOfKv.add(KV.of("Key1", KV.of(i % 100, "v" + i + padding)));
+      listRightOfKv.add(KV.of("Key1", KV.of(i, i)));
+      if (i < 100) {
+        for (long j = i; j < 1000; j += 100) {
+          expectedResult.add(KV.of("Key1", KV.of(i, KV.of("v" + j + padding, i))));
+        }
+      }
+    }
+    PCollection<KV<String, KV<Long, String>>> leftCollection = p
+        .apply("CreateLeft", Create.of(leftListOfKv));
+    PCollection<KV<String, KV<Long, Long>>> rightCollection = p
+        .apply("CreateRight", Create.of(listRightOfKv));
+
+    PCollection<KV<String, KV<Long, KV<String, Long>>>> output = Join.sortMergeInnerJoin(
+      leftCollection, rightCollection, sorterOptions.withMemoryMB(1));
+
+    PAssert.that(output).containsInAnyOrder(expectedResult);
+
+    p.run();
+  }
+}
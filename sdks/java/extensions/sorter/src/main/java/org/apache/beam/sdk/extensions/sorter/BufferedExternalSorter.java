@@ -30,17 +30,33 @@ import org.apache.beam.sdk.values.KV;
  */
 public class BufferedExternalSorter implements Sorter {
   public static Options options() {
-    return new Options("/tmp", 100);
+    return new Options("/tmp", 100, SorterType.HADOOP, false);
+  }
+
+  /** The implementation used for external sorting once the records no longer fit in memory. */
+  public enum SorterType {
+    /** Uses Hadoop's {@code SequenceFile.Sorter}. Requires Hadoop on the classpath. */
+    HADOOP,
+
+    /**
+     * Uses a pure Java merge sort of spilled runs. Does not require Hadoop and supports memory
+     * buffers of 2048 MB and more.
+     */
+    NATIVE
   }
 
   /** Contains configuration for the sorter. */
   public static class Options implements Serializable {
     private final String tempLocation;
     private final int memoryMB;
+    private final SorterType sorterType;
+    private final boolean packed;
 
-    private Options(String tempLocation, int memoryMB) {
+    private Options(String tempLocation, int memoryMB, SorterType sorterType, boolean packed) {
       this.tempLocation = tempLocation;
       this.memoryMB = memoryMB;
+      this.sorterType = sorterType;
+      this.packed = packed;
     }
 
     /** Sets the path to a temporary location where the sorter writes intermediate files. */
@@ -49,7 +65,7 @@ public class BufferedExternalSorter implements Sorter {
           !tempLocation.startsWith("gs://"),
           "BufferedExternalSorter does not support GCS temporary location");
 
-      return new Options(tempLocation, memoryMB);
+      return new Options(tempLocation, memoryMB, sorterType, packed);
     }
 
     /** Returns the configured temporary location. */
@@ -59,43 +75,94 @@ public class BufferedExternalSorter implements Sorter {
 
     /**
      * Sets the size of the memory buffer in megabytes. This controls both the buffer for initial in
-     * memory sorting and the buffer used when external sorting. Must be greater than zero and less
-     * than 2048.
+     * memory sorting and the buffer used when external sorting. Must be greater than zero, and less
+     * than 2048 when using {@link SorterType#HADOOP}, which is checked whenever the memory size or
+     * sorter type is set and when the sorter is created. Since the default sorter type is {@link
+     * SorterType#HADOOP}, set {@link SorterType#NATIVE} first to use 2048 MB or more.
      */
     public Options withMemoryMB(int memoryMB) {
       checkArgument(memoryMB > 0, "memoryMB must be greater than zero");
-      // Hadoop's external sort stores the number of available memory bytes in an int, this prevents
-      // overflow
-      checkArgument(memoryMB < 2048, "memoryMB must be less than 2048");
-      return new Options(tempLocation, memoryMB);
+      if (sorterType == SorterType.HADOOP) {
+        // Hadoop's external sort stores the number of available memory bytes in an int, this
+        // prevents overflow
+        checkArgument(memoryMB < 2048, "memoryMB must be less than 2048");
+      }
+      return new Options(tempLocation, memoryMB, sorterType, packed);
     }
 
     /** Returns the configured size of the memory buffer. */
     public int getMemoryMB() {
       return memoryMB;
     }
+
+    /** Sets the implementation used for external sorting. Defaults to {@link SorterType#HADOOP}. */
+    public Options withExternalSorterType(SorterType sorterType) {
+      checkArgument(sorterType != null, "sorterType must not be null");
+      checkArgument(
+          sorterType != SorterType.HADOOP || memoryMB < 2048,
+          "memoryMB must be less than 2048 when using the Hadoop sorter");
+      return new Options(tempLocation, memoryMB, sorterType, packed);
+    }
+
+    /** Returns the configured implementation used for external sorting. */
+    public SorterType getExternalSorterType() {
+      return sorterType;
+    }
+
+    /**
+     * Sets whether records are packed into large memory pages while sorting in memory, instead of
+     * being kept as individual objects. This lowers the memory overhead per record, so more
+     * records are sorted in memory before spilling to disk. Defaults to {@code false}.
+     */
+    public Options withPackedInMemorySort(boolean packed) {
+      return new Options(tempLocation, memoryMB, sorterType, packed);
+    }
+
+    /** Returns whether records are packed into large memory pages while sorting in memory. */
+    public boolean getPackedInMemorySort() {
+      return packed;
+    }
   }
 
-  private ExternalSorter externalSorter;
+  private Sorter externalSorter;
   private InMemorySorter inMemorySorter;
 
   boolean inMemorySorterFull;
 
-  BufferedExternalSorter(ExternalSorter externalSorter, InMemorySorter inMemorySorter) {
+  BufferedExternalSorter(Sorter externalSorter, InMemorySorter inMemorySorter) {
     this.externalSorter = externalSorter;
     this.inMemorySorter = inMemorySorter;
   }
 
   public static BufferedExternalSorter create(Options options) {
-    ExternalSorter.Options externalSorterOptions = new ExternalSorter.Options();
-    externalSorterOptions.setMemoryMB(options.getMemoryMB());
-    externalSorterOptions.setTempLocation(options.getTempLocation());
-
     InMemorySorter.Options inMemorySorterOptions = new InMemorySorter.Options();
     inMemorySorterOptions.setMemoryMB(options.getMemoryMB());
+    inMemorySorterOptions.setPacked(options.getPackedInMemorySort());
 
     return new BufferedExternalSorter(
-        ExternalSorter.create(externalSorterOptions), InMemorySorter.create(inMemorySorterOptions));
+        createExternalSorter(options), InMemorySorter.create(inMemorySorterOptions));
+  }
+
+  private static Sorter createExternalSorter(Options options) {
+    switch (options.getExternalSorterType()) {
+      case NATIVE:
+        NativeExternalSorter.Options nativeSorterOptions = new NativeExternalSorter.Options();
+        nativeSorterOptions.setMemoryMB(options.getMemoryMB());
+        nativeSorterOptions.setTempLocation(options.getTempLocation());
+        nativeSorterOptions.setPacked(options.getPackedInMemorySort());
+        return NativeExternalSorter.create(nativeSorterOptions);
+      case HADOOP:
+        checkArgument(
+            options.getMemoryMB() < 2048,
+            "memoryMB must be less than 2048 when using the Hadoop sorter");
+        ExternalSorter.Options externalSorterOptions = new ExternalSorter.Options();
+        externalSorterOptions.setMemoryMB(options.getMemoryMB());
+        externalSorterOptions.setTempLocation(options.getTempLocation());
+        return ExternalSorter.create(externalSorterOptions);
+      default:
+        throw new IllegalArgumentException(
+            "Unknown external sorter type: " + options.getExternalSorterType());
+    }
   }
 
   @Override
@@ -120,8 +187,14 @@ public class BufferedExternalSorter implements Sorter {
    * sorter.
    */
   private void transferToExternalSorter() throws IOException {
-    for (KV<byte[], byte[]> record : inMemorySorter.sort()) {
-      externalSorter.add(record);
+    if (externalSorter instanceof NativeExternalSorter) {
+      // The records are sorted already, so they are streamed to disk as the first run rather than
+      // copied into the buffer of the external sorter while this one is still alive.
+      ((NativeExternalSorter) externalSorter).addSortedRun(inMemorySorter.sort());
+    } else {
+      for (KV<byte[], byte[]> record : inMemorySorter.sort()) {
+        externalSorter.add(record);
+      }
     }
     // Allow in memory sorter and its contents to be garbage collected
     inMemorySorter = null;
@@ -36,6 +36,7 @@ class InMemorySorter implements Sorter {
   /** {@code Options} contains configuration of the sorter. */
   public static class Options implements Serializable {
     private long memoryMB = 100;
+    private boolean packed = false;
 
     /** Sets the size of the memory buffer in megabytes. */
     public void setMemoryMB(long memoryMB) {
@@ -47,6 +48,20 @@ class InMemorySorter implements Sorter {
     public long getMemoryMB() {
       return memoryMB;
     }
+
+    /**
+     * Sets whether records are packed into large pages and sorted with a radix sort on key
+     * prefixes, see {@link PackedRecordBuffer}. This avoids the per-record object overhead, so more
+     * records fit into the memory buffer and there is less pressure on the garbage collector.
+     */
+    public void setPacked(boolean packed) {
+      this.packed = packed;
+    }
+
+    /** Returns whether records are packed into large pages. */
+    public boolean getPacked() {
+      return packed;
+    }
   }
 
   /** The comparator to use to sort the records by key. */
@@ -80,9 +95,15 @@ class InMemorySorter implements Sorter {
   /** The stored records to be sorted. */
   private ArrayList<KV<byte[], byte[]>> records = new ArrayList<KV<byte[], byte[]>>();
 
+  /** The stored records to be sorted if packing is enabled, otherwise {@code null}. */
+  private PackedRecordBuffer packedRecords;
+
   /** Private constructor. */
   private InMemorySorter(Options options) {
     maxBufferSize = options.getMemoryMB() * 1024L * 1024L;
+    if (options.getPacked()) {
+      packedRecords = new PackedRecordBuffer(maxBufferSize);
+    }
   }
 
   /** Create a new sorter from provided options. */
@@ -99,6 +120,10 @@ class InMemorySorter implements Sorter {
   public boolean addIfRoom(KV<byte[], byte[]> record) {
     checkState(!sortCalled, "Records can only be added before sort()");
 
+    if (packedRecords != null) {
+      return packedRecords.addIfRoom(record);
+    }
+
     long recordBytes = estimateRecordBytes(record);
     if (roomInBuffer(numBytes + recordBytes, records.size() + 1)) {
       records.add(record);
@@ -115,6 +140,10 @@ class InMemorySorter implements Sorter {
 
     sortCalled = true;
 
+    if (packedRecords != null) {
+      return packedRecords.sort();
+    }
+
     Comparator<KV<byte[], byte[]>> kvComparator =
         new Comparator<KV<byte[], byte[]>>() {
 
@@ -127,6 +156,19 @@ class InMemorySorter implements Sorter {
     return Collections.unmodifiableList(records);
   }
 
+  /**
+   * Discards all records so that the sorter can be filled and sorted again, reusing the pages of a
+   * packed sorter. The result of the previous {@link #sort()} must not be used any more.
+   */
+  void reset() {
+    sortCalled = false;
+    numBytes = 0;
+    records = new ArrayList<KV<byte[], byte[]>>();
+    if (packedRecords != null) {
+      packedRecords.clear();
+    }
+  }
+
   /**
    * Estimate the number of additional bytes required to store this record. Including the key, the
    * value and any overhead for objects and references.
@@ -0,0 +1,608 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.extensions.sorter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.primitives.UnsignedBytes;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.apache.beam.sdk.util.ResourceReleaser;
+import org.apache.beam.sdk.values.KV;
+
+/**
+ * Does an external sort of the provided values without depending on Hadoop.
+ *
+ * <p>Records are buffered in an {@link InMemorySorter}. Whenever the buffer is full its contents
+ * are sorted and written to a temporary file as a sorted run. When {@link #sort()} is called the
+ * runs are merged with a loser tree, first in intermediate passes if there are more than {@link
+ * #MAX_MERGE_FAN_IN} runs, and then lazily while iterating over the result.
+ *
+ * <p>All file access goes through {@link FileChannel}s, and the I/O buffers used while writing runs
+ * and during intermediate merge passes are allocated once and reused. Unlike {@link
+ * ExternalSorter}, the memory buffer is not limited to 2 GB.
+ *
+ * <p>Runs are deleted as soon as an intermediate merge pass has merged them. The final runs are
+ * read again by every iteration over the result of {@link #sort()}, so they and the temporary
+ * directory are only deleted when that result is closed. A result that spilled is {@link
+ * Closeable}, and is closed through {@link ResourceReleaser} once it and all its iterators are
+ * unreachable, or at shutdown, if it is never closed explicitly.
+ */
+class NativeExternalSorter implements Sorter {
+  /** {@link Options} contains configuration of the sorter. */
+  public static class Options implements Serializable {
+    private String tempLocation = "/tmp";
+    private long memoryMB = 100;
+    private boolean packed = false;
+
+    /** Sets the path to a temporary location where the sorter writes intermediate files. */
+    public Options setTempLocation(String tempLocation) {
+      if (tempLocation.startsWith("gs://")) {
+        throw new IllegalArgumentException("Sorter doesn't support GCS temporary location.");
+      }
+
+      this.tempLocation = tempLocation;
+      return this;
+    }
+
+    /** Returns the configured temporary location. */
+    public String getTempLocation() {
+      return tempLocation;
+    }
+
+    /** Sets the size of the memory buffer in megabytes. Must be greater than zero. */
+    public Options setMemoryMB(long memoryMB) {
+      checkArgument(memoryMB > 0, "memoryMB must be greater than zero");
+      this.memoryMB = memoryMB;
+      return this;
+    }
+
+    /** Returns the configured size of the memory buffer. */
+    public long getMemoryMB() {
+      return memoryMB;
+    }
+
+    /** Sets whether runs are buffered in a packed {@link InMemorySorter}. */
+    public Options setPacked(boolean packed) {
+      this.packed = packed;
+      return this;
+    }
+
+    /** Returns whether runs are buffered in a packed {@link InMemorySorter}. */
+    public boolean getPacked() {
+      return packed;
+    }
+  }
+
+  /** The comparator to use to sort the records by key. */
+  private static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
+
+  /** Maximum number of runs which are merged at once. */
+  static final int MAX_MERGE_FAN_IN = 64;
+
+  /** Bounds for the size of each buffer used to read or write a run. */
+  private static final int MIN_IO_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_IO_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  /** Size of the length prefix written in front of each record: key length and value length. */
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  private final Options options;
+
+  /** Size of each buffer used to read or write a run. */
+  private final int ioBufferSize;
+
+  /** Whether {@link #sort()} was already called. */
+  private boolean sortCalled = false;
+
+  /** Buffers records until they are written out as a sorted run. */
+  private InMemorySorter inMemorySorter;
+
+  /** Sorted runs written so far. */
+  private List<Path> runs = new ArrayList<>();
+
+  /** Temporary directory for the run files, created on the first spill. */
+  private Path tempDir;
+
+  /** Buffer used for writing all runs, allocated on the first spill. */
+  private ByteBuffer writeBuffer;
+
+  /** Buffers used for reading runs during intermediate merge passes. */
+  private final ByteBuffer[] mergeReadBuffers = new ByteBuffer[MAX_MERGE_FAN_IN];
+
+  /** Returns a {@link Sorter} configured with the given {@link Options}. */
+  public static NativeExternalSorter create(Options options) {
+    return new NativeExternalSorter(options);
+  }
+
+  private NativeExternalSorter(Options options) {
+    this.options = options;
+    long memoryBytes = options.getMemoryMB() * 1024L * 1024L;
+    // During a merge one buffer per input run plus one for the output run is needed.
+    this.ioBufferSize =
+        (int)
+            Math.max(
+                MIN_IO_BUFFER_SIZE,
+                Math.min(MAX_IO_BUFFER_SIZE, memoryBytes / (MAX_MERGE_FAN_IN + 1)));
+    this.inMemorySorter = newInMemorySorter();
+  }
+
+  @Override
+  public void add(KV<byte[], byte[]> record) throws IOException {
+    checkState(!sortCalled, "Records can only be added before sort()");
+
+    if (inMemorySorter.addIfRoom(record)) {
+      return;
+    }
+
+    writeRun(inMemorySorter.sort());
+    // Reuses the pages of a packed buffer for the next run.
+    inMemorySorter.reset();
+    if (!inMemorySorter.addIfRoom(record)) {
+      // The record doesn't fit even into an empty buffer, so it becomes a run of its own.
+      writeRun(Collections.singletonList(record));
+    }
+  }
+
+  /**
+   * Writes the given records, which must already be sorted by key, straight to a run of their
+   * own instead of buffering them again.
+   */
+  void addSortedRun(Iterable<KV<byte[], byte[]>> sortedRecords) throws IOException {
+    checkState(!sortCalled, "Records can only be added before sort()");
+    writeRun(sortedRecords);
+  }
+
+  @Override
+  public Iterable<KV<byte[], byte[]>> sort() throws IOException {
+    checkState(!sortCalled, "sort() can only be called once.");
+    sortCalled = true;
+
+    if (runs.isEmpty()) {
+      // Everything fit in memory, no need to touch the disk.
+      return inMemorySorter.sort();
+    }
+
+    writeRun(inMemorySorter.sort());
+    // Allow in memory sorter and its contents to be garbage collected
+    inMemorySorter = null;
+
+    while (runs.size() > MAX_MERGE_FAN_IN) {
+      mergePass();
+    }
+
+    return new SortedRecordsIterable(new ArrayList<>(runs));
+  }
+
+  private InMemorySorter newInMemorySorter() {
+    InMemorySorter.Options inMemorySorterOptions = new InMemorySorter.Options();
+    inMemorySorterOptions.setMemoryMB(options.getMemoryMB());
+    inMemorySorterOptions.setPacked(options.getPacked());
+    return InMemorySorter.create(inMemorySorterOptions);
+  }
+
+  /** Writes the given already sorted records to a new run file. */
+  private void writeRun(Iterable<KV<byte[], byte[]>> sortedRecords) throws IOException {
+    Iterator<KV<byte[], byte[]>> iterator = sortedRecords.iterator();
+    if (!iterator.hasNext()) {
+      return;
+    }
+
+    Path run = newRunFile();
+    try (RunWriter writer = new RunWriter(run, writeBuffer)) {
+      while (iterator.hasNext()) {
+        writer.write(iterator.next());
+      }
+    }
+    runs.add(run);
+  }
+
+  /**
+   * Merges groups of up to {@link #MAX_MERGE_FAN_IN} runs into single runs, reducing the number of
+   * runs by that factor. Input runs are deleted once merged.
+   */
+  private void mergePass() throws IOException {
+    List<Path> mergedRuns = new ArrayList<>();
+    for (int start = 0; start < runs.size(); start += MAX_MERGE_FAN_IN) {
+      List<Path> group = runs.subList(start, Math.min(runs.size(), start + MAX_MERGE_FAN_IN));
+      if (group.size() == 1) {
+        mergedRuns.add(group.get(0));
+        continue;
+      }
+
+      Path merged = newRunFile();
+      List<RunReader> readers = new ArrayList<>(group.size());
+      try {
+        for (int i = 0; i < group.size(); ++i) {
+          if (mergeReadBuffers[i] == null) {
+            mergeReadBuffers[i] = ByteBuffer.allocate(ioBufferSize);
+          }
+          readers.add(new RunReader(group.get(i), mergeReadBuffers[i]));
+        }
+
+        try (RunWriter writer = new RunWriter(merged, writeBuffer)) {
+          LoserTree tree = new LoserTree(readers);
+          while (tree.hasNext()) {
+            writer.write(tree.next());
+          }
+        }
+      } finally {
+        for (RunReader reader : readers) {
+          reader.close();
+        }
+      }
+
+      for (Path run : group) {
+        Files.delete(run);
+      }
+      mergedRuns.add(merged);
+    }
+    runs = mergedRuns;
+  }
+
+  /**
+   * Creates a new empty run file. Sets up the temporary directory and write buffer on first use,
+   * so that sorters which never spill don't pay for it.
+   */
+  private Path newRunFile() throws IOException {
+    if (tempDir == null) {
+      Path base = Paths.get(options.getTempLocation());
+      Files.createDirectories(base);
+      tempDir = Files.createTempDirectory(base, "tmp");
+      writeBuffer = ByteBuffer.allocate(ioBufferSize);
+    }
+    return Files.createTempFile(tempDir, "run", ".bin");
+  }
+
+  /** The final runs and temporary directory of a result, deleted when it is closed. */
+  private static class ResultFiles implements Closeable {
+    private final List<Path> runs;
+    private final Path tempDir;
+
+    ResultFiles(List<Path> runs, Path tempDir) {
+      this.runs = runs;
+      this.tempDir = tempDir;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (Path run : runs) {
+        Files.deleteIfExists(run);
+      }
+      Files.deleteIfExists(tempDir);
+    }
+
+    @Override
+    public String toString() {
+      return "sorted runs in " + tempDir;
+    }
+  }
+
+  /** Writes length-prefixed records to a run file through a reused {@link ByteBuffer}. */
+  private static class RunWriter implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    RunWriter(Path path, ByteBuffer buffer) throws IOException {
+      this.channel =
+          FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      this.buffer = buffer;
+      buffer.clear();
+    }
+
+    void write(KV<byte[], byte[]> record) throws IOException {
+      if (buffer.remaining() < RECORD_HEADER_SIZE) {
+        flush();
+      }
+      buffer.putInt(record.getKey().length);
+      buffer.putInt(record.getValue().length);
+      write(record.getKey());
+      write(record.getValue());
+    }
+
+    private void write(byte[] bytes) throws IOException {
+      if (bytes.length > buffer.capacity()) {
+        // Too large to be worth copying through the buffer.
+        flush();
+        writeFully(ByteBuffer.wrap(bytes));
+        return;
+      }
+
+      int offset = 0;
+      while (offset < bytes.length) {
+        if (!buffer.hasRemaining()) {
+          flush();
+        }
+        int length = Math.min(buffer.remaining(), bytes.length - offset);
+        buffer.put(bytes, offset, length);
+        offset += length;
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      writeFully(buffer);
+      buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+      while (src.hasRemaining()) {
+        channel.write(src);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
+  /** Reads the records written by a {@link RunWriter} back through a {@link ByteBuffer}. */
+  private static class RunReader implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    RunReader(Path path, ByteBuffer buffer) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+      this.buffer = buffer;
+      // Start out with an empty buffer in read mode.
+      buffer.clear();
+      buffer.flip();
+    }
+
+    /** Returns the next record of the run, or {@code null} if the run is exhausted. */
+    KV<byte[], byte[]> read() throws IOException {
+      while (buffer.remaining() < RECORD_HEADER_SIZE) {
+        buffer.compact();
+        int read = channel.read(buffer);
+        buffer.flip();
+        if (read < 0) {
+          if (buffer.hasRemaining()) {
+            throw new EOFException("Unexpected end of run file while reading record header");
+          }
+          return null;
+        }
+      }
+
+      byte[] key = new byte[buffer.getInt()];
+      byte[] value = new byte[buffer.getInt()];
+      readFully(key);
+      readFully(value);
+      return KV.of(key, value);
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+      int offset = 0;
+      while (offset < bytes.length) {
+        if (buffer.hasRemaining()) {
+          int length = Math.min(buffer.remaining(), bytes.length - offset);
+          buffer.get(bytes, offset, length);
+          offset += length;
+        } else if (bytes.length - offset >= buffer.capacity()) {
+          // Read large remainders directly, bypassing the buffer.
+          ByteBuffer target = ByteBuffer.wrap(bytes, offset, bytes.length - offset);
+          while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+              throw new EOFException("Unexpected end of run file while reading record");
+            }
+          }
+          offset = bytes.length;
+        } else {
+          buffer.clear();
+          int read = channel.read(buffer);
+          buffer.flip();
+          if (read < 0) {
+            throw new EOFException("Unexpected end of run file while reading record");
+          }
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * A tournament tree of losers over a set of runs. Producing each merged record takes {@code
+   * log2(k)} key comparisons for {@code k} runs.
+   */
+  private static class LoserTree {
+    /** Index used for the virtual run that sorts before everything while building the tree. */
+    private static final int MIN_SENTINEL = -1;
+
+    private final List<RunReader> readers;
+
+    /** The current head record of each run, {@code null} once the run is exhausted. */
+    private final List<KV<byte[], byte[]>> heads;
+
+    /** {@code tree[0]} is the index of the winning run, the other nodes hold the losers. */
+    private final int[] tree;
+
+    LoserTree(List<RunReader> readers) throws IOException {
+      this.readers = readers;
+      this.heads = new ArrayList<>(readers.size());
+      for (RunReader reader : readers) {
+        heads.add(reader.read());
+      }
+
+      this.tree = new int[readers.size()];
+      for (int i = 0; i < tree.length; ++i) {
+        tree[i] = MIN_SENTINEL;
+      }
+      for (int i = readers.size() - 1; i >= 0; --i) {
+        adjust(i);
+      }
+    }
+
+    boolean hasNext() {
+      return heads.get(tree[0]) != null;
+    }
+
+    KV<byte[], byte[]> next() throws IOException {
+      int winner = tree[0];
+      KV<byte[], byte[]> record = heads.get(winner);
+      if (record == null) {
+        throw new NoSuchElementException();
+      }
+      heads.set(winner, readers.get(winner).read());
+      adjust(winner);
+      return record;
+    }
+
+    /** Replays the matches on the path from the leaf of the given run up to the root. */
+    private void adjust(int run) {
+      int winner = run;
+      for (int node = (run + tree.length) / 2; node > 0; node /= 2) {
+        if (sortsAfter(winner, tree[node])) {
+          int loser = winner;
+          winner = tree[node];
+          tree[node] = loser;
+        }
+      }
+      tree[0] = winner;
+    }
+
+    /**
+     * Returns whether the head of run {@code a} sorts after the head of run {@code b}. Exhausted
+     * runs sort after everything, and ties are broken by run index to keep the merge stable.
+     */
+    private boolean sortsAfter(int a, int b) {
+      if (a == MIN_SENTINEL || b == MIN_SENTINEL) {
+        return b == MIN_SENTINEL && a != MIN_SENTINEL;
+      }
+      KV<byte[], byte[]> headA = heads.get(a);
+      KV<byte[], byte[]> headB = heads.get(b);
+      if (headA == null || headB == null) {
+        return headA == null && (headB != null || a > b);
+      }
+      int compare = COMPARATOR.compare(headA.getKey(), headB.getKey());
+      return compare != 0 ? compare > 0 : a > b;
+    }
+  }
+
+  /**
+   * An {@link Iterable} producing the iterators over sorted data. Closing it deletes the final
+   * runs, after which it must not be iterated any more.
+   */
+  private class SortedRecordsIterable implements Iterable<KV<byte[], byte[]>>, Closeable {
+    private final List<Path> sortedRuns;
+    private final ResourceReleaser.Registration files;
+
+    SortedRecordsIterable(List<Path> sortedRuns) {
+      this.sortedRuns = sortedRuns;
+      this.files = ResourceReleaser.register(this, new ResultFiles(sortedRuns, tempDir));
+    }
+
+    @Override
+    public Iterator<KV<byte[], byte[]>> iterator() {
+      return new SortedRecordsIterator();
+    }
+
+    @Override
+    public void close() throws IOException {
+      files.release();
+    }
+
+    /**
+     * An {@link Iterator} producing the sorted data by merging the final runs. Each iterator owns
+     * its read buffers so that several iterations may be in progress at once, and keeps the result,
+     * and so its run files, alive while in use.
+     */
+    private class SortedRecordsIterator implements Iterator<KV<byte[], byte[]>> {
+      private final List<RunReader> readers = new ArrayList<>();
+      private final LoserTree tree;
+      private boolean closed = false;
+
+      SortedRecordsIterator() {
+        try {
+          for (Path run : sortedRuns) {
+            readers.add(new RunReader(run, ByteBuffer.allocate(ioBufferSize)));
+          }
+          tree = new LoserTree(readers);
+        } catch (IOException e) {
+          closeReaders();
+          throw new RuntimeException(e);
+        }
+        if (!tree.hasNext()) {
+          closeReaders();
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return !closed && tree.hasNext();
+      }
+
+      @Override
+      public KV<byte[], byte[]> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        try {
+          KV<byte[], byte[]> record = tree.next();
+          if (!tree.hasNext()) {
+            closeReaders();
+          }
+          return record;
+        } catch (IOException e) {
+          closeReaders();
+          throw new RuntimeException(e);
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Iterator does not support remove");
+      }
+
+      private void closeReaders() {
+        closed = true;
+        for (RunReader reader : readers) {
+          try {
+            reader.close();
+          } catch (IOException e) {
+            // Nothing more is read from this run, so a failure to close it is harmless.
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,435 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.extensions.sorter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.apache.beam.sdk.values.KV;
+
+/**
+ * Stores {@code <key, value>} records packed into a few large {@link ByteBuffer} pages instead of
+ * one {@link KV} and two byte arrays per record, and sorts them by key.
+ *
+ * <p>The pages are direct buffers, so the records are not on the Java heap and add nothing to the
+ * work of the garbage collector. {@link #clear()} keeps the pages to be filled again, so a sorter
+ * writing many runs allocates them only once. The pages are freed along with the buffer, as there
+ * is no public API to free direct memory explicitly.
+ *
+ * <p>Each record is laid out in a page as its key length, value length, key bytes and value bytes.
+ * Records are indexed by two parallel {@code long} arrays holding the first 8 bytes of each key and
+ * the location of the record. Sorting is a least significant digit radix sort of the index by key
+ * prefix. Records whose prefixes are equal are then sorted the same way by the next 8 bytes of
+ * their keys, and so on, so keys are only ever compared 8 bytes at a time as primitive longs.
+ */
+class PackedRecordBuffer {
+  /** Upper bound on the size of a page. Records larger than this get a page of their own. */
+  private static final int MAX_PAGE_SIZE = 8 * 1024 * 1024;
+
+  /** Size of the length prefix stored in front of each record: key length and value length. */
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  /**
+   * Bytes used per index entry: a prefix and an address, each in the index and in the scratch
+   * arrays needed by the radix sort.
+   */
+  private static final long INDEX_BYTES_PER_RECORD = 4 * 8;
+
+  /** Ranges of tied records smaller than this are insertion sorted instead of radix sorted. */
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+
+  /**
+   * The largest tail digit. A record's tail digit is the number of key bytes left from the current
+   * depth, capped at this value, which stands for more than 8 bytes left.
+   */
+  private static final int MORE_BYTES_LEFT = 9;
+
+  /** Maximum number of bytes used by pages and index together. */
+  private final long maxBufferSize;
+
+  /** Size of regular pages. */
+  private final int pageSize;
+
+  /** Pages holding the records, all but the last one are full. */
+  private final List<ByteBuffer> pages = new ArrayList<>();
+
+  /** Empty regular pages kept by {@link #clear()}, which are used before allocating new ones. */
+  private final Deque<ByteBuffer> freePages = new ArrayDeque<>();
+
+  /** Current number of bytes allocated for pages, including free pages. */
+  private long pageBytes;
+
+  /** The first 8 bytes of each key, big endian and zero padded. */
+  private long[] prefixes = new long[0];
+
+  /** The page number in the upper and offset in the lower 32 bits for each record. */
+  private long[] addresses = new long[0];
+
+  /** Number of records stored. */
+  private int numRecords;
+
+  PackedRecordBuffer(long maxBufferSize) {
+    this.maxBufferSize = maxBufferSize;
+    this.pageSize = (int) Math.max(RECORD_HEADER_SIZE, Math.min(MAX_PAGE_SIZE, maxBufferSize / 16));
+  }
+
+  /** Adds the record if there is room and returns true. Otherwise returns false. */
+  boolean addIfRoom(KV<byte[], byte[]> record) {
+    byte[] key = record.getKey();
+    byte[] value = record.getValue();
+    long recordSize = (long) RECORD_HEADER_SIZE + key.length + value.length;
+    if (recordSize > Integer.MAX_VALUE) {
+      return false;
+    }
+
+    if (numRecords == prefixes.length && !growIndex()) {
+      return false;
+    }
+
+    ByteBuffer page = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+    if (page == null || page.remaining() < recordSize) {
+      if (recordSize <= pageSize && !freePages.isEmpty()) {
+        page = freePages.pop();
+      } else {
+        int newPageSize = (int) Math.max(pageSize, recordSize);
+        if (pageBytes + newPageSize + indexBytes(prefixes.length) > maxBufferSize) {
+          return false;
+        }
+        page = ByteBuffer.allocateDirect(newPageSize);
+        pageBytes += newPageSize;
+      }
+      pages.add(page);
+    }
+
+    prefixes[numRecords] = prefix(key);
+    addresses[numRecords] = ((long) (pages.size() - 1) << 32) | page.position();
+    numRecords++;
+
+    page.putInt(key.length);
+    page.putInt(value.length);
+    page.put(key);
+    page.put(value);
+    return true;
+  }
+
+  /** Sorts the records by key and returns an {@link Iterable} over them. */
+  Iterable<KV<byte[], byte[]>> sort() {
+    radixSortByPrefix();
+    sortEqualPrefixesByKey();
+    return new Iterable<KV<byte[], byte[]>>() {
+      @Override
+      public Iterator<KV<byte[], byte[]>> iterator() {
+        return new SortedRecordsIterator();
+      }
+    };
+  }
+
+  /**
+   * Discards all records, keeping the regular pages and the index to be filled again. The result of
+   * the previous {@link #sort()} must not be used any more.
+   */
+  void clear() {
+    for (ByteBuffer page : pages) {
+      if (page.capacity() == pageSize) {
+        page.clear();
+        freePages.push(page);
+      } else {
+        // Pages of oversized records are unlikely to fit the next one, so they are dropped.
+        pageBytes -= page.capacity();
+      }
+    }
+    pages.clear();
+    numRecords = 0;
+  }
+
+  /** Grows the index by a factor of 1.5 and returns true if the memory budget allows it. */
+  private boolean growIndex() {
+    int newCapacity = Math.max(16, prefixes.length + (prefixes.length >> 1));
+    if (pageBytes + indexBytes(newCapacity) > maxBufferSize) {
+      return false;
+    }
+    prefixes = Arrays.copyOf(prefixes, newCapacity);
+    addresses = Arrays.copyOf(addresses, newCapacity);
+    return true;
+  }
+
+  /**
+   * Returns the bytes used by an index of the given capacity. The capacity is taken from the index
+   * itself, which the radix sort may swap for scratch arrays of the exact number of records.
+   */
+  private static long indexBytes(int capacity) {
+    return capacity * INDEX_BYTES_PER_RECORD;
+  }
+
+  /** Returns the first 8 bytes of the key as an unsigned big endian number, zero padded. */
+  private static long prefix(byte[] key) {
+    long prefix = 0;
+    for (int i = 0; i < 8; ++i) {
+      prefix <<= 8;
+      if (i < key.length) {
+        prefix |= key[i] & 0xFF;
+      }
+    }
+    return prefix;
+  }
+
+  /** Sorts the index by key prefix, one byte at a time starting from the least significant. */
+  private void radixSortByPrefix() {
+    if (numRecords < 2) {
+      return;
+    }
+
+    long[] prefixScratch = new long[numRecords];
+    long[] addressScratch = new long[numRecords];
+    int[] counts = new int[256];
+
+    for (int shift = 0; shift < 64; shift += 8) {
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < numRecords; ++i) {
+        counts[(int) (prefixes[i] >>> shift) & 0xFF]++;
+      }
+      if (counts[(int) (prefixes[0] >>> shift) & 0xFF] == numRecords) {
+        // All records have the same byte here, so this pass would not change the order.
+        continue;
+      }
+
+      int offset = 0;
+      for (int digit = 0; digit < 256; ++digit) {
+        int count = counts[digit];
+        counts[digit] = offset;
+        offset += count;
+      }
+      for (int i = 0; i < numRecords; ++i) {
+        int target = counts[(int) (prefixes[i] >>> shift) & 0xFF]++;
+        prefixScratch[target] = prefixes[i];
+        addressScratch[target] = addresses[i];
+      }
+
+      long[] swap = prefixes;
+      prefixes = prefixScratch;
+      prefixScratch = swap;
+      swap = addresses;
+      addresses = addressScratch;
+      addressScratch = swap;
+    }
+  }
+
+  /**
+   * Sorts each range of records sharing the same prefix by the following 8 bytes of their keys,
+   * and repeats for the ranges still tied after that, until every tie is between equal keys.
+   *
+   * <p>Within a range, records are ordered by their 8 key bytes from the current depth, zero
+   * padded, and then by their tail digit: a key ending within those 8 bytes is a prefix of any
+   * other key in the range with the same bytes, so it sorts first, and shorter before longer.
+   */
+  private void sortEqualPrefixesByKey() {
+    int[] tails = new int[numRecords];
+    long[] prefixScratch = null;
+    long[] addressScratch = null;
+    int[] tailScratch = null;
+
+    // Ranges still to sort as {from, to, depth}, depth being the offset in the keys.
+    Deque<int[]> pending = new ArrayDeque<>();
+    int start = 0;
+    while (start < numRecords) {
+      int end = start + 1;
+      while (end < numRecords && prefixes[end] == prefixes[start]) {
+        end++;
+      }
+      if (end - start > 1) {
+        pending.push(new int[] {start, end, 0});
+      }
+      start = end;
+    }
+
+    while (!pending.isEmpty()) {
+      int[] range = pending.pop();
+      int from = range[0];
+      int to = range[1];
+      int depth = range[2];
+      for (int i = from; i < to; ++i) {
+        ByteBuffer page = pages.get((int) (addresses[i] >>> 32));
+        int offset = (int) addresses[i];
+        int remaining = page.getInt(offset) - depth;
+        prefixes[i] = keyBytes(page, offset + RECORD_HEADER_SIZE + depth, remaining);
+        tails[i] = Math.min(remaining, MORE_BYTES_LEFT);
+      }
+
+      if (to - from < INSERTION_SORT_THRESHOLD) {
+        insertionSort(from, to, tails);
+      } else {
+        if (prefixScratch == null) {
+          prefixScratch = new long[numRecords];
+          addressScratch = new long[numRecords];
+          tailScratch = new int[numRecords];
+        }
+        radixSortRange(from, to, tails, prefixScratch, addressScratch, tailScratch);
+      }
+
+      for (int tieStart = from; tieStart < to; ) {
+        int tieEnd = tieStart + 1;
+        while (tieEnd < to
+            && prefixes[tieEnd] == prefixes[tieStart]
+            && tails[tieEnd] == tails[tieStart]) {
+          tieEnd++;
+        }
+        if (tieEnd - tieStart > 1 && tails[tieStart] == MORE_BYTES_LEFT) {
+          pending.push(new int[] {tieStart, tieEnd, depth + 8});
+        }
+        tieStart = tieEnd;
+      }
+    }
+  }
+
+  /**
+   * Returns the first 8 of the {@code length} key bytes at {@code offset} in the page as an
+   * unsigned big endian number, zero padded.
+   */
+  private static long keyBytes(ByteBuffer page, int offset, int length) {
+    if (length >= 8) {
+      return page.getLong(offset);
+    }
+    long prefix = 0;
+    for (int i = 0; i < 8; ++i) {
+      prefix <<= 8;
+      if (i < length) {
+        prefix |= page.get(offset + i) & 0xFF;
+      }
+    }
+    return prefix;
+  }
+
+  /** Whether record {@code i} sorts before record {@code j} by prefix and then tail digit. */
+  private boolean lessThan(int i, int j, int[] tails) {
+    if (prefixes[i] != prefixes[j]) {
+      // Unsigned comparison.
+      return (prefixes[i] ^ Long.MIN_VALUE) < (prefixes[j] ^ Long.MIN_VALUE);
+    }
+    return tails[i] < tails[j];
+  }
+
+  /** Sorts records {@code [from, to)} by prefix and then tail digit. */
+  private void insertionSort(int from, int to, int[] tails) {
+    for (int i = from + 1; i < to; ++i) {
+      for (int j = i; j > from && lessThan(j, j - 1, tails); --j) {
+        swap(j, j - 1, tails);
+      }
+    }
+  }
+
+  private void swap(int i, int j, int[] tails) {
+    long prefix = prefixes[i];
+    prefixes[i] = prefixes[j];
+    prefixes[j] = prefix;
+    long address = addresses[i];
+    addresses[i] = addresses[j];
+    addresses[j] = address;
+    int tail = tails[i];
+    tails[i] = tails[j];
+    tails[j] = tail;
+  }
+
+  /**
+   * Sorts records {@code [from, to)} by prefix and then tail digit with a least significant digit
+   * radix sort, the tail digit being the least significant.
+   */
+  private void radixSortRange(
+      int from,
+      int to,
+      int[] tails,
+      long[] prefixScratch,
+      long[] addressScratch,
+      int[] tailScratch) {
+    int[] counts = new int[256];
+    // A shift of -8 stands for the tail digit.
+    for (int shift = -8; shift < 64; shift += 8) {
+      Arrays.fill(counts, 0);
+      for (int i = from; i < to; ++i) {
+        counts[digit(i, shift, tails)]++;
+      }
+      if (counts[digit(from, shift, tails)] == to - from) {
+        // All records have the same digit here, so this pass would not change the order.
+        continue;
+      }
+
+      int offset = from;
+      for (int digit = 0; digit < 256; ++digit) {
+        int count = counts[digit];
+        counts[digit] = offset;
+        offset += count;
+      }
+      for (int i = from; i < to; ++i) {
+        int target = counts[digit(i, shift, tails)]++;
+        prefixScratch[target] = prefixes[i];
+        addressScratch[target] = addresses[i];
+        tailScratch[target] = tails[i];
+      }
+      System.arraycopy(prefixScratch, from, prefixes, from, to - from);
+      System.arraycopy(addressScratch, from, addresses, from, to - from);
+      System.arraycopy(tailScratch, from, tails, from, to - from);
+    }
+  }
+
+  private int digit(int i, int shift, int[] tails) {
+    return shift < 0 ? tails[i] : (int) (prefixes[i] >>> shift) & 0xFF;
+  }
+
+  /** An {@link Iterator} decoding the records in index order. */
+  private class SortedRecordsIterator implements Iterator<KV<byte[], byte[]>> {
+    /** Views of the pages so that iterators don't share buffer positions. */
+    private final ByteBuffer[] views = new ByteBuffer[pages.size()];
+
+    private int next = 0;
+
+    @Override
+    public boolean hasNext() {
+      return next < numRecords;
+    }
+
+    @Override
+    public KV<byte[], byte[]> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      long address = addresses[next++];
+      int pageIndex = (int) (address >>> 32);
+      if (views[pageIndex] == null) {
+        views[pageIndex] = pages.get(pageIndex).duplicate();
+      }
+      ByteBuffer view = views[pageIndex];
+      view.position((int) address);
+      byte[] key = new byte[view.getInt()];
+      byte[] value = new byte[view.getInt()];
+      view.get(key);
+      view.get(value);
+      return KV.of(key, value);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Iterator does not support remove");
+    }
+  }
+}
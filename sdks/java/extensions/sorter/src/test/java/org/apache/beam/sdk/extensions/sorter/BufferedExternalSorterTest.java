@@ -34,6 +34,8 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.List;
+import org.apache.beam.sdk.extensions.sorter.BufferedExternalSorter.SorterType;
 import org.apache.beam.sdk.extensions.sorter.SorterTestUtils.SorterGenerator;
 import org.apache.beam.sdk.values.KV;
 import org.junit.AfterClass;
@@ -135,6 +137,38 @@ public class BufferedExternalSorterTest {
     verify(mockExternalSorter, times(1)).add(kvs[2]);
   }
 
+  @Test
+  public void testNativeFallbackHandsOverSortedRun() throws Exception {
+    NativeExternalSorter mockExternalSorter = mock(NativeExternalSorter.class);
+    InMemorySorter mockInMemorySorter = mock(InMemorySorter.class);
+    BufferedExternalSorter testSorter =
+        new BufferedExternalSorter(mockExternalSorter, mockInMemorySorter);
+
+    @SuppressWarnings("unchecked")
+    KV<byte[], byte[]>[] kvs =
+        new KV[] {
+          KV.of(new byte[] {0}, new byte[] {}),
+          KV.of(new byte[] {0, 1}, new byte[] {}),
+          KV.of(new byte[] {1}, new byte[] {})
+        };
+
+    when(mockInMemorySorter.addIfRoom(kvs[0])).thenReturn(true);
+    when(mockInMemorySorter.addIfRoom(kvs[1])).thenReturn(true);
+    when(mockInMemorySorter.addIfRoom(kvs[2])).thenReturn(false);
+    List<KV<byte[], byte[]>> sortedInMemory = Arrays.asList(kvs[0], kvs[1]);
+    when(mockInMemorySorter.sort()).thenReturn(sortedInMemory);
+
+    testSorter.add(kvs[0]);
+    testSorter.add(kvs[1]);
+    testSorter.add(kvs[2]);
+
+    // The buffered records become a run as they are, only later records are added one by one.
+    verify(mockExternalSorter, times(1)).addSortedRun(sortedInMemory);
+    verify(mockExternalSorter, never()).add(kvs[0]);
+    verify(mockExternalSorter, never()).add(kvs[1]);
+    verify(mockExternalSorter, times(1)).add(kvs[2]);
+  }
+
   @Test
   public void testEmpty() throws Exception {
     SorterTestUtils.testEmpty(BufferedExternalSorter.create(BufferedExternalSorter.options()
@@ -190,6 +224,39 @@ public class BufferedExternalSorterTest {
         1000000);
   }
 
+  @Test
+  public void testNativeOneSorterManyRecords() throws Exception {
+    SorterTestUtils.testRandom(
+        new SorterGenerator() {
+          @Override
+          public Sorter generateSorter() throws Exception {
+            return BufferedExternalSorter.create(BufferedExternalSorter.options()
+                .withExternalSorterType(SorterType.NATIVE)
+                .withTempLocation(tmpLocation.toString())
+                .withMemoryMB(1));
+          }
+        },
+        1,
+        1000000);
+  }
+
+  @Test
+  public void testPackedNativeOneSorterManyRecords() throws Exception {
+    SorterTestUtils.testRandom(
+        new SorterGenerator() {
+          @Override
+          public Sorter generateSorter() throws Exception {
+            return BufferedExternalSorter.create(BufferedExternalSorter.options()
+                .withExternalSorterType(SorterType.NATIVE)
+                .withPackedInMemorySort(true)
+                .withTempLocation(tmpLocation.toString())
+                .withMemoryMB(1));
+          }
+        },
+        1,
+        1000000);
+  }
+
   @Test
   public void testAddAfterSort() throws Exception {
     SorterTestUtils.testAddAfterSort(
@@ -230,4 +297,22 @@ public class BufferedExternalSorterTest {
     BufferedExternalSorter.Options options = BufferedExternalSorter.options();
     options.withMemoryMB(2048);
   }
+
+  @Test
+  public void testNativeMemoryLargerThan2048() throws Exception {
+    BufferedExternalSorter.Options options = BufferedExternalSorter.options()
+        .withExternalSorterType(SorterType.NATIVE)
+        .withMemoryMB(4096);
+    assertEquals(4096, options.getMemoryMB());
+  }
+
+  @Test
+  public void testHadoopSorterTypeWithMemoryTooLarge() throws Exception {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("memoryMB must be less than 2048 when using the Hadoop sorter");
+    BufferedExternalSorter.options()
+        .withExternalSorterType(SorterType.NATIVE)
+        .withMemoryMB(4096)
+        .withExternalSorterType(SorterType.HADOOP);
+  }
 }
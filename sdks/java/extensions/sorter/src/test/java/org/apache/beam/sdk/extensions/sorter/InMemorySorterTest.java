@@ -18,9 +18,18 @@
 
 package org.apache.beam.sdk.extensions.sorter;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.fail;
 
+import com.google.common.primitives.UnsignedBytes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import org.apache.beam.sdk.extensions.sorter.SorterTestUtils.SorterGenerator;
 import org.apache.beam.sdk.values.KV;
 import org.junit.Assert;
@@ -149,4 +158,160 @@ public class InMemorySorterTest {
     InMemorySorter.Options options = new InMemorySorter.Options();
     options.setMemoryMB(0);
   }
+
+  private static InMemorySorter.Options packedOptions() {
+    InMemorySorter.Options options = new InMemorySorter.Options();
+    options.setPacked(true);
+    return options;
+  }
+
+  @Test
+  public void testPackedEmpty() throws Exception {
+    SorterTestUtils.testEmpty(InMemorySorter.create(packedOptions()));
+  }
+
+  @Test
+  public void testPackedEmptyKeyValueElement() throws Exception {
+    SorterTestUtils.testEmptyKeyValueElement(InMemorySorter.create(packedOptions()));
+  }
+
+  @Test
+  public void testPackedMultipleIterations() throws Exception {
+    SorterTestUtils.testMultipleIterations(InMemorySorter.create(packedOptions()));
+  }
+
+  @Test
+  public void testPackedOneSorterManyRecords() throws Exception {
+    SorterTestUtils.testRandom(
+        new SorterGenerator() {
+          @Override
+          public Sorter generateSorter() throws Exception {
+            return InMemorySorter.create(packedOptions());
+          }
+        },
+        1,
+        1000000);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPackedEqualPrefixes() throws Exception {
+    // All keys share the 8 byte prefix used for radix sorting, or differ only by zero padding.
+    KV<byte[], byte[]>[] kvs =
+        new KV[] {
+          KV.of(new byte[] {1}, new byte[] {0}),
+          KV.of(new byte[] {1, 0}, new byte[] {1}),
+          KV.of(new byte[] {1, 0, 0, 0, 0, 0, 0, 0}, new byte[] {2}),
+          KV.of(new byte[] {1, 0, 0, 0, 0, 0, 0, 0, 0}, new byte[] {3}),
+          KV.of(new byte[] {1, 0, 0, 0, 0, 0, 0, 0, 1}, new byte[] {4}),
+          KV.of(new byte[] {1, 0, 0, 0, 0, 0, 0, 0, (byte) 0xFF}, new byte[] {5})
+        };
+    InMemorySorter sorter = InMemorySorter.create(packedOptions());
+    sorter.add(kvs[4]);
+    sorter.add(kvs[1]);
+    sorter.add(kvs[5]);
+    sorter.add(kvs[0]);
+    sorter.add(kvs[3]);
+    sorter.add(kvs[2]);
+
+    Integer[] values = new Integer[kvs.length];
+    int i = 0;
+    for (KV<byte[], byte[]> record : sorter.sort()) {
+      values[i++] = (int) record.getValue()[0];
+    }
+    assertThat(Arrays.asList(values), contains(0, 1, 2, 3, 4, 5));
+  }
+
+  @Test
+  public void testPackedLongCommonPrefixes() throws Exception {
+    // Keys share 20 bytes, so ties are broken over several further 8 byte steps.
+    Random random = new Random(7);
+    List<byte[]> keys = new ArrayList<>();
+    InMemorySorter sorter = InMemorySorter.create(packedOptions());
+    for (int i = 0; i < 1000; i++) {
+      byte[] key = new byte[20 + random.nextInt(20)];
+      Arrays.fill(key, 0, 20, (byte) 7);
+      for (int j = 20; j < key.length; j++) {
+        key[j] = (byte) random.nextInt(3);
+      }
+      keys.add(key);
+      sorter.add(KV.of(key, new byte[0]));
+    }
+    Collections.sort(keys, UnsignedBytes.lexicographicalComparator());
+
+    int i = 0;
+    for (KV<byte[], byte[]> record : sorter.sort()) {
+      Assert.assertArrayEquals(keys.get(i++), record.getKey());
+    }
+    Assert.assertEquals(keys.size(), i);
+  }
+
+  @Test
+  public void testPackedAddIfRoom() throws Exception {
+    InMemorySorter.Options options = packedOptions();
+    options.setMemoryMB(1);
+    InMemorySorter sorter = InMemorySorter.create(options);
+
+    KV<byte[], byte[]> bigRecord = KV.of(new byte[1024 * 500], new byte[1024 * 500]);
+
+    // First add should succeed, second add should fail due to insufficient room
+    Assert.assertTrue(sorter.addIfRoom(bigRecord));
+    Assert.assertFalse(sorter.addIfRoom(bigRecord));
+  }
+
+  @Test
+  public void testPackedFitsMoreRecords() throws Exception {
+    InMemorySorter.Options options = new InMemorySorter.Options();
+    options.setMemoryMB(1);
+    InMemorySorter.Options packedOptions = packedOptions();
+    packedOptions.setMemoryMB(1);
+
+    assertThat(
+        countRecordsUntilFull(InMemorySorter.create(packedOptions)),
+        greaterThan(countRecordsUntilFull(InMemorySorter.create(options))));
+  }
+
+  @Test
+  public void testPackedReset() throws Exception {
+    InMemorySorter.Options options = packedOptions();
+    options.setMemoryMB(1);
+    InMemorySorter sorter = InMemorySorter.create(options);
+    Random random = new Random(11);
+
+    int firstCount = 0;
+    for (int run = 0; run < 3; run++) {
+      List<byte[]> keys = new ArrayList<>();
+      while (true) {
+        byte[] key = new byte[1 + random.nextInt(16)];
+        random.nextBytes(key);
+        if (!sorter.addIfRoom(KV.of(key, new byte[8]))) {
+          break;
+        }
+        keys.add(key);
+      }
+      Collections.sort(keys, UnsignedBytes.lexicographicalComparator());
+
+      int i = 0;
+      for (KV<byte[], byte[]> record : sorter.sort()) {
+        Assert.assertArrayEquals(keys.get(i++), record.getKey());
+      }
+      Assert.assertEquals(keys.size(), i);
+      if (run == 0) {
+        firstCount = keys.size();
+      } else {
+        // Reused pages and index leave as much room as the first run had.
+        assertThat(keys.size(), greaterThan(firstCount * 9 / 10));
+      }
+      sorter.reset();
+    }
+  }
+
+  private static int countRecordsUntilFull(InMemorySorter sorter) {
+    KV<byte[], byte[]> record = KV.of(new byte[8], new byte[8]);
+    int count = 0;
+    while (sorter.addIfRoom(record)) {
+      count++;
+    }
+    return count;
+  }
 }
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.extensions.sorter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.Iterables;
+import com.google.common.primitives.UnsignedBytes;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import org.apache.beam.sdk.extensions.sorter.SorterTestUtils.SorterGenerator;
+import org.apache.beam.sdk.values.KV;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link NativeExternalSorter}. */
+@RunWith(JUnit4.class)
+public class NativeExternalSorterTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+  static Path tmpLocation;
+
+  @BeforeClass
+  public static void setupTempDir() throws IOException {
+    tmpLocation = Files.createTempDirectory("tmp");
+  }
+
+  @AfterClass
+  public static void cleanupTempDir() throws IOException {
+    Files.walkFileTree(tmpLocation, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    SorterTestUtils.testEmpty(NativeExternalSorter.create(new NativeExternalSorter.Options()
+        .setTempLocation(tmpLocation.toString())));
+  }
+
+  @Test
+  public void testSingleElement() throws Exception {
+    SorterTestUtils.testSingleElement(NativeExternalSorter.create(new NativeExternalSorter.Options()
+        .setTempLocation(tmpLocation.toString())));
+  }
+
+  @Test
+  public void testEmptyKeyValueElement() throws Exception {
+    SorterTestUtils.testEmptyKeyValueElement(
+        NativeExternalSorter.create(
+            new NativeExternalSorter.Options().setTempLocation(tmpLocation.toString())));
+  }
+
+  @Test
+  public void testMultipleIterations() throws Exception {
+    SorterTestUtils.testMultipleIterations(
+        NativeExternalSorter.create(
+            new NativeExternalSorter.Options().setTempLocation(tmpLocation.toString())));
+  }
+
+  @Test
+  public void testRandom() throws Exception {
+    SorterTestUtils.testRandom(
+        new SorterGenerator() {
+          @Override
+          public Sorter generateSorter() throws Exception {
+            return NativeExternalSorter.create(new NativeExternalSorter.Options()
+                .setTempLocation(tmpLocation.toString()));
+          }
+        },
+        1,
+        1000000);
+  }
+
+  @Test
+  public void testRandomManyRuns() throws Exception {
+    // With a 1 MB buffer this spills more than MAX_MERGE_FAN_IN runs and needs a merge pass.
+    SorterTestUtils.testRandom(
+        new SorterGenerator() {
+          @Override
+          public Sorter generateSorter() throws Exception {
+            return NativeExternalSorter.create(new NativeExternalSorter.Options()
+                .setTempLocation(tmpLocation.toString())
+                .setMemoryMB(1));
+          }
+        },
+        1,
+        1000000);
+  }
+
+  @Test
+  public void testAddAfterSort() throws Exception {
+    SorterTestUtils.testAddAfterSort(NativeExternalSorter.create(new NativeExternalSorter.Options()
+        .setTempLocation(tmpLocation.toString())), thrown);
+    fail();
+  }
+
+  @Test
+  public void testSortTwice() throws Exception {
+    SorterTestUtils.testSortTwice(NativeExternalSorter.create(new NativeExternalSorter.Options()
+        .setTempLocation(tmpLocation.toString())), thrown);
+    fail();
+  }
+
+  @Test
+  public void testLargeElements() throws Exception {
+    Sorter sorter = NativeExternalSorter.create(new NativeExternalSorter.Options()
+        .setTempLocation(tmpLocation.toString())
+        .setMemoryMB(1));
+    Random rnd = new Random(0L);
+    for (int i = 0; i < 10; ++i) {
+      byte[] key = new byte[8];
+      // Each value is larger than the whole memory buffer.
+      byte[] value = new byte[2 * 1024 * 1024];
+      rnd.nextBytes(key);
+      rnd.nextBytes(value);
+      sorter.add(KV.of(key, value));
+    }
+
+    byte[] prevKey = null;
+    int count = 0;
+    for (KV<byte[], byte[]> record : sorter.sort()) {
+      assertTrue(
+          prevKey == null
+              || UnsignedBytes.lexicographicalComparator().compare(prevKey, record.getKey()) < 0);
+      assertEquals(2 * 1024 * 1024, record.getValue().length);
+      prevKey = record.getKey();
+      ++count;
+    }
+    assertEquals(10, count);
+  }
+
+  @Test
+  public void testRunFilesDeletedWhenResultClosed() throws Exception {
+    Path location = Files.createTempDirectory(tmpLocation, "cleanup");
+    Sorter sorter = NativeExternalSorter.create(new NativeExternalSorter.Options()
+        .setTempLocation(location.toString())
+        .setMemoryMB(1));
+    Random rnd = new Random(0L);
+    for (int i = 0; i < 3000; ++i) {
+      byte[] key = new byte[8];
+      rnd.nextBytes(key);
+      sorter.add(KV.of(key, new byte[1024]));
+    }
+    Iterable<KV<byte[], byte[]>> result = sorter.sort();
+    assertEquals(3000, Iterables.size(result));
+    // The result can be iterated again until it is closed.
+    assertEquals(3000, Iterables.size(result));
+    assertTrue(hasFiles(location));
+
+    ((Closeable) result).close();
+    assertFalse(hasFiles(location));
+    // Closing again is a no-op.
+    ((Closeable) result).close();
+  }
+
+  private static boolean hasFiles(Path directory) throws IOException {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      return entries.iterator().hasNext();
+    }
+  }
+
+  @Test
+  public void testMemoryLargerThan2048() throws Exception {
+    NativeExternalSorter.Options options = new NativeExternalSorter.Options();
+    options.setMemoryMB(4096);
+    assertEquals(4096, options.getMemoryMB());
+  }
+
+  @Test
+  public void testNegativeMemory() throws Exception {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("memoryMB must be greater than zero");
+    NativeExternalSorter.Options options = new NativeExternalSorter.Options();
+    options.setMemoryMB(-1);
+  }
+
+  @Test
+  public void testZeroMemory() throws Exception {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("memoryMB must be greater than zero");
+    NativeExternalSorter.Options options = new NativeExternalSorter.Options();
+    options.setMemoryMB(0);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.microbenchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.IterableCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for encoding and decoding single elements with commonly used {@link Coder Coders},
+ * both directly on a stream and through {@link CoderUtils}.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CoderBenchmark {
+  private static final VarIntCoder VAR_INT_CODER = VarIntCoder.of();
+  private static final StringUtf8Coder STRING_CODER = StringUtf8Coder.of();
+  private static final KvCoder<String, Long> KV_CODER =
+      KvCoder.of(StringUtf8Coder.of(), VarLongCoder.of());
+  private static final IterableCoder<Long> ITERABLE_CODER = IterableCoder.of(VarLongCoder.of());
+  private static final WindowedValue.FullWindowedValueCoder<String> WINDOWED_VALUE_CODER =
+      WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+
+  private final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+
+  private int intValue;
+  private String stringValue;
+  private KV<String, Long> kvValue;
+  private List<Long> iterableValue;
+  private WindowedValue<String> windowedValue;
+
+  private byte[] encodedInt;
+  private byte[] encodedString;
+  private byte[] encodedKv;
+  private byte[] encodedIterable;
+  private byte[] encodedWindowedValue;
+
+  @Setup
+  public void setUp() throws IOException {
+    intValue = 1234567;
+    stringValue = "a moderately long string value of a benchmark element";
+    kvValue = KV.of("some key", 1234567890L);
+    iterableValue = new ArrayList<>();
+    for (long i = 0; i < 100; i++) {
+      iterableValue.add(i * 1000);
+    }
+    Instant timestamp = new Instant(1500000000000L);
+    windowedValue =
+        WindowedValue.of(
+            stringValue,
+            timestamp,
+            new IntervalWindow(timestamp, Duration.standardMinutes(1)),
+            PaneInfo.NO_FIRING);
+
+    encodedInt = CoderUtils.encodeToByteArray(VAR_INT_CODER, intValue);
+    encodedString = CoderUtils.encodeToByteArray(STRING_CODER, stringValue);
+    encodedKv = CoderUtils.encodeToByteArray(KV_CODER, kvValue);
+    encodedIterable = CoderUtils.encodeToByteArray(ITERABLE_CODER, iterableValue);
+    encodedWindowedValue = CoderUtils.encodeToByteArray(WINDOWED_VALUE_CODER, windowedValue);
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream encodeVarInt() throws IOException {
+    outStream.reset();
+    VAR_INT_CODER.encode(intValue, outStream);
+    return outStream;
+  }
+
+  @Benchmark
+  public Integer decodeVarInt() throws IOException {
+    return VAR_INT_CODER.decode(new ByteArrayInputStream(encodedInt));
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream encodeString() throws IOException {
+    outStream.reset();
+    STRING_CODER.encode(stringValue, outStream);
+    return outStream;
+  }
+
+  @Benchmark
+  public String decodeString() throws IOException {
+    return CoderUtils.decodeFromByteArray(STRING_CODER, encodedString);
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream encodeKv() throws IOException {
+    outStream.reset();
+    KV_CODER.encode(kvValue, outStream);
+    return outStream;
+  }
+
+  @Benchmark
+  public KV<String, Long> decodeKv() throws IOException {
+    return CoderUtils.decodeFromByteArray(KV_CODER, encodedKv);
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream encodeIterable() throws IOException {
+    outStream.reset();
+    ITERABLE_CODER.encode(iterableValue, outStream);
+    return outStream;
+  }
+
+  @Benchmark
+  public Iterable<Long> decodeIterable() throws IOException {
+    return CoderUtils.decodeFromByteArray(ITERABLE_CODER, encodedIterable);
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream encodeWindowedValue() throws IOException {
+    outStream.reset();
+    WINDOWED_VALUE_CODER.encode(windowedValue, outStream);
+    return outStream;
+  }
+
+  @Benchmark
+  public WindowedValue<String> decodeWindowedValue() throws IOException {
+    return CoderUtils.decodeFromByteArray(WINDOWED_VALUE_CODER, encodedWindowedValue);
+  }
+
+  @Benchmark
+  public byte[] encodeToByteArrayVarInt() throws IOException {
+    return CoderUtils.encodeToByteArray(VAR_INT_CODER, intValue);
+  }
+
+  @Benchmark
+  public byte[] encodeToByteArrayKv() throws IOException {
+    return CoderUtils.encodeToByteArray(KV_CODER, kvValue);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.microbenchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.Sum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for adding inputs to and merging accumulators of a {@link CombineFn}, as done for
+ * every element of a {@link Combine} and for every bundle respectively.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CombineFnBenchmark {
+  private static final int NUM_INPUTS = 1000;
+  private static final int NUM_ACCUMULATORS = 100;
+
+  private CombineFn<Long, long[], Long> sumFn;
+  private Long[] inputs;
+  private List<long[]> accumulators;
+
+  @Setup
+  public void setUp() {
+    sumFn = Sum.ofLongs();
+    inputs = new Long[NUM_INPUTS];
+    for (int i = 0; i < NUM_INPUTS; i++) {
+      inputs[i] = (long) i;
+    }
+    accumulators = new ArrayList<>();
+    for (int i = 0; i < NUM_ACCUMULATORS; i++) {
+      accumulators.add(sumFn.addInput(sumFn.createAccumulator(), (long) i));
+    }
+  }
+
+  @Benchmark
+  public Long addInputs() {
+    long[] accumulator = sumFn.createAccumulator();
+    for (Long input : inputs) {
+      accumulator = sumFn.addInput(accumulator, input);
+    }
+    return sumFn.extractOutput(accumulator);
+  }
+
+  @Benchmark
+  public Long mergeAccumulators() {
+    return sumFn.extractOutput(sumFn.mergeAccumulators(accumulators));
+  }
+}
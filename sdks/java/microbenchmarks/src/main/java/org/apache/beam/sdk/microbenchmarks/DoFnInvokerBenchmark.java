@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.microbenchmarks;
+
+import java.lang.reflect.Method;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.reflect.DoFnInvoker;
+import org.apache.beam.sdk.transforms.reflect.DoFnInvokers;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.sdk.values.TupleTag;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for calling a {@link DoFn.ProcessElement} method through a generated {@link
+ * DoFnInvoker}, compared with a direct call and with a reflective call.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class DoFnInvokerBenchmark {
+  private UpperCaseFn fn;
+  private DoFnInvoker<String, String> invoker;
+  private DoFnInvoker.ArgumentProvider<String, String> argumentProvider;
+  private BenchmarkProcessContext processContext;
+  private Method processElementMethod;
+
+  @Setup
+  public void setUp() throws Exception {
+    fn = new UpperCaseFn();
+    invoker = DoFnInvokers.invokerFor(fn);
+    processContext = new BenchmarkProcessContext(fn, "some element");
+    argumentProvider =
+        new DoFnInvoker.FakeArgumentProvider<String, String>() {
+          @Override
+          public DoFn<String, String>.ProcessContext processContext(DoFn<String, String> doFn) {
+            return processContext;
+          }
+        };
+    processElementMethod = UpperCaseFn.class.getMethod("processElement", DoFn.ProcessContext.class);
+  }
+
+  @Benchmark
+  public String directCall() {
+    fn.processElement(processContext);
+    return processContext.lastOutput;
+  }
+
+  @Benchmark
+  public String invokerCall() {
+    invoker.invokeProcessElement(argumentProvider);
+    return processContext.lastOutput;
+  }
+
+  @Benchmark
+  public String reflectiveCall() throws Exception {
+    processElementMethod.invoke(fn, processContext);
+    return processContext.lastOutput;
+  }
+
+  /** A trivial {@link DoFn} so that the cost of the call itself dominates. */
+  public static class UpperCaseFn extends DoFn<String, String> {
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      c.output(c.element().toUpperCase());
+    }
+  }
+
+  /** A {@link DoFn.ProcessContext} that provides a fixed element and remembers the last output. */
+  private static class BenchmarkProcessContext extends DoFn<String, String>.ProcessContext {
+    private static final PipelineOptions OPTIONS = PipelineOptionsFactory.create();
+
+    private final String element;
+    private String lastOutput;
+
+    BenchmarkProcessContext(DoFn<String, String> fn, String element) {
+      fn.super();
+      this.element = element;
+    }
+
+    @Override
+    public PipelineOptions getPipelineOptions() {
+      return OPTIONS;
+    }
+
+    @Override
+    public void output(String output) {
+      lastOutput = output;
+    }
+
+    @Override
+    public void outputWithTimestamp(String output, Instant timestamp) {
+      lastOutput = output;
+    }
+
+    @Override
+    public <T> void output(TupleTag<T> tag, T output) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> void outputWithTimestamp(TupleTag<T> tag, T output, Instant timestamp) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String element() {
+      return element;
+    }
+
+    @Override
+    public <T> T sideInput(PCollectionView<T> view) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant timestamp() {
+      return new Instant(0);
+    }
+
+    @Override
+    public PaneInfo pane() {
+      return PaneInfo.NO_FIRING;
+    }
+
+    @Override
+    public void updateWatermark(Instant watermark) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
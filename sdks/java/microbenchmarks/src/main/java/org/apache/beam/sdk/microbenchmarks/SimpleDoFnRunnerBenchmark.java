@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.sdk.microbenchmarks;
+
+import java.util.Collections;
+import org.apache.beam.runners.core.DoFnRunner;
+import org.apache.beam.runners.core.DoFnRunners;
+import org.apache.beam.runners.core.NullSideInputReader;
+import org.apache.beam.runners.core.StateInternals;
+import org.apache.beam.runners.core.StepContext;
+import org.apache.beam.runners.core.TimerInternals;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.WindowingStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for processing elements in the global window through the {@link DoFnRunner} returned
+ * by {@link DoFnRunners#simpleRunner}, which is what most runners use per element.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SimpleDoFnRunnerBenchmark {
+  private DoFnRunner<String, String> runner;
+  private CountingOutputManager outputManager;
+  private WindowedValue<String> element;
+
+  @Setup
+  public void setUp() {
+    outputManager = new CountingOutputManager();
+    runner =
+        DoFnRunners.simpleRunner(
+            PipelineOptionsFactory.create(),
+            new DoFnInvokerBenchmark.UpperCaseFn(),
+            NullSideInputReader.empty(),
+            outputManager,
+            new TupleTag<String>(),
+            Collections.<TupleTag<?>>emptyList(),
+            new NoStateStepContext(),
+            WindowingStrategy.globalDefault());
+    element = WindowedValue.valueInGlobalWindow("some element");
+    runner.startBundle();
+  }
+
+  @TearDown
+  public void tearDown() {
+    runner.finishBundle();
+  }
+
+  @Benchmark
+  public long processElement() {
+    runner.processElement(element);
+    return outputManager.count;
+  }
+
+  /** An {@link DoFnRunners.OutputManager} that only counts outputs. */
+  private static class CountingOutputManager implements DoFnRunners.OutputManager {
+    private long count;
+
+    @Override
+    public <T> void output(TupleTag<T> tag, WindowedValue<T> output) {
+      count++;
+    }
+  }
+
+  /** A {@link StepContext} for a {@link DoFn} that uses neither state nor timers. */
+  private static class NoStateStepContext implements StepContext {
+    @Override
+    public StateInternals stateInternals() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TimerInternals timerInternals() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}